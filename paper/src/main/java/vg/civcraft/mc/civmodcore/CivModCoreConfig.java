@@ -25,6 +25,18 @@ public final class CivModCoreConfig extends ConfigParser {
 	private int chunkLoadingThreads;
 	private static final int DEFAULT_CHUNK_LOADING_THREADS = 1;
 
+	private boolean chunkMetaSnapshot;
+	private static final boolean DEFAULT_CHUNK_META_SNAPSHOT = false;
+
+	private long databaseSlowThreshold;
+	private static final long DEFAULT_DATABASE_SLOW_THRESHOLD = 1000L;
+
+	private long databaseMetricsInterval;
+	private static final long DEFAULT_DATABASE_METRICS_INTERVAL = 300L;
+
+	private boolean databaseCheckQueryPlans;
+	private static final boolean DEFAULT_DATABASE_CHECK_QUERY_PLANS = false;
+
 	CivModCoreConfig(@Nonnull final CivModCorePlugin plugin) {
 		super(plugin);
 		Objects.requireNonNull(plugin);
@@ -40,6 +52,10 @@ public final class CivModCoreConfig extends ConfigParser {
 		this.skinCacheThreads = config.getInt("skin-download-threads", DEFAULT_SKIN_CACHE_THREADS);
 		this.chunkLoadingStatistics = config.getBoolean("chunk-loading-statistics", DEFAULT_CHUNK_LOADING_STATISTICS);
 		this.chunkLoadingThreads = config.getInt("chunk-loading-threads", DEFAULT_CHUNK_LOADING_THREADS);
+		this.chunkMetaSnapshot = config.getBoolean("chunk-meta-snapshot", DEFAULT_CHUNK_META_SNAPSHOT);
+		this.databaseSlowThreshold = config.getLong("database-slow-threshold", DEFAULT_DATABASE_SLOW_THRESHOLD);
+		this.databaseMetricsInterval = config.getLong("database-metrics-interval", DEFAULT_DATABASE_METRICS_INTERVAL);
+		this.databaseCheckQueryPlans = config.getBoolean("database-check-query-plans", DEFAULT_DATABASE_CHECK_QUERY_PLANS);
 		return true;
 	}
 
@@ -51,6 +67,10 @@ public final class CivModCoreConfig extends ConfigParser {
 		this.skinCacheThreads = DEFAULT_SKIN_CACHE_THREADS;
 		this.chunkLoadingStatistics = DEFAULT_CHUNK_LOADING_STATISTICS;
 		this.chunkLoadingThreads = DEFAULT_CHUNK_LOADING_THREADS;
+		this.chunkMetaSnapshot = DEFAULT_CHUNK_META_SNAPSHOT;
+		this.databaseSlowThreshold = DEFAULT_DATABASE_SLOW_THRESHOLD;
+		this.databaseMetricsInterval = DEFAULT_DATABASE_METRICS_INTERVAL;
+		this.databaseCheckQueryPlans = DEFAULT_DATABASE_CHECK_QUERY_PLANS;
 	}
 
 	public DatabaseCredentials getDatabaseCredentials() {
@@ -72,4 +92,20 @@ public final class CivModCoreConfig extends ConfigParser {
 	public int getChunkLoadingThreads() {
 		return this.chunkLoadingThreads;
 	}
+
+	public boolean getChunkMetaSnapshot() {
+		return this.chunkMetaSnapshot;
+	}
+
+	public long getDatabaseSlowThreshold() {
+		return this.databaseSlowThreshold;
+	}
+
+	public long getDatabaseMetricsInterval() {
+		return this.databaseMetricsInterval;
+	}
+
+	public boolean getDatabaseCheckQueryPlans() {
+		return this.databaseCheckQueryPlans;
+	}
 }
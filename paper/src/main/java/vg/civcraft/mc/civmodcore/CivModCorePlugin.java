@@ -2,6 +2,7 @@ package vg.civcraft.mc.civmodcore;
 
 import java.io.File;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.serialization.ConfigurationSerialization;
 import org.bukkit.entity.HumanEntity;
@@ -10,9 +11,13 @@ import org.bukkit.plugin.java.JavaPluginLoader;
 import org.ipvp.canvas.MenuFunctionListener;
 import vg.civcraft.mc.civmodcore.chat.dialog.DialogManager;
 import vg.civcraft.mc.civmodcore.commands.CommandManager;
+import vg.civcraft.mc.civmodcore.commands.DatabaseCommand;
 import vg.civcraft.mc.civmodcore.commands.StatCommand;
 import vg.civcraft.mc.civmodcore.dao.DatabaseCredentials;
 import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
+import vg.civcraft.mc.civmodcore.dao.PoolMetrics;
+import vg.civcraft.mc.civmodcore.dao.PoolMetricsReporter;
+import vg.civcraft.mc.civmodcore.dao.QueryPlanAdvisor;
 import vg.civcraft.mc.civmodcore.inventory.gui.ClickableInventoryListener;
 import vg.civcraft.mc.civmodcore.inventory.items.EnchantUtils;
 import vg.civcraft.mc.civmodcore.inventory.items.MoreTags;
@@ -24,12 +29,16 @@ import vg.civcraft.mc.civmodcore.players.scoreboard.side.ScoreBoardListener;
 import vg.civcraft.mc.civmodcore.players.settings.PlayerSettingAPI;
 import vg.civcraft.mc.civmodcore.players.settings.commands.ConfigCommand;
 import vg.civcraft.mc.civmodcore.utilities.SkinCache;
+import vg.civcraft.mc.civmodcore.world.LoadedChunkTracker;
+import vg.civcraft.mc.civmodcore.world.WorldSnapshotCache;
 import vg.civcraft.mc.civmodcore.world.WorldTracker;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.GlobalChunkMetaManager;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.api.ChunkMetaAPI;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto.AutoStorageEngine;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.stat.LoadStatisticManager;
 import vg.civcraft.mc.civmodcore.world.locations.global.CMCWorldDAO;
 import vg.civcraft.mc.civmodcore.world.locations.global.WorldIDManager;
+import vg.civcraft.mc.civmodcore.world.model.AreaTracker;
 
 public class CivModCorePlugin extends ACivMod {
 
@@ -51,6 +60,7 @@ public class CivModCorePlugin extends ACivMod {
 	private WorldIDManager worldIdManager;
 	private CommandManager commands;
 	private SkinCache skinCache;
+	private AreaTracker areaTracker;
 
 	@Override
 	public void onEnable() {
@@ -63,13 +73,20 @@ public class CivModCorePlugin extends ACivMod {
 		this.config = new CivModCoreConfig(this);
 		this.config.parse();
 		// Load Database
+		PoolMetrics.setSlowThreshold(this.config.getDatabaseSlowThreshold());
 		try {
 			this.database = ManagedDatasource.construct(this, this.config.getDatabaseCredentials());
 			if (this.database != null) {
 				final var dao = new CMCWorldDAO(this.database, this);
 				if (dao.updateDatabase()) {
+					if (this.config.getDatabaseCheckQueryPlans()) {
+						final var queries = new ArrayList<>(dao.getQueries());
+						queries.addAll(AutoStorageEngine.getQueries());
+						QueryPlanAdvisor.check(this.database, queries, getLogger());
+					}
 					this.worldIdManager = new WorldIDManager(dao);
-					this.chunkMetaManager = new GlobalChunkMetaManager(dao, this.worldIdManager, this.config.getChunkLoadingThreads());
+					this.chunkMetaManager = new GlobalChunkMetaManager(dao, this.worldIdManager, this.config.getChunkLoadingThreads(),
+							this.config.getChunkMetaSnapshot() ? new File(getDataFolder(), "chunkmeta.snapshot") : null);
 					info("Setup database successfully");
 				}
 				else {
@@ -88,11 +105,18 @@ public class CivModCorePlugin extends ACivMod {
 		registerListener(DialogManager.INSTANCE);
 		registerListener(new ScoreBoardListener());
 		registerListener(new WorldTracker());
+		LoadedChunkTracker.init();
+		registerListener(new LoadedChunkTracker());
+		registerListener(new WorldSnapshotCache());
+		this.areaTracker = new AreaTracker();
+		this.areaTracker.init();
+		registerListener(this.areaTracker);
 		// Register commands
 		this.commands = new CommandManager(this);
 		this.commands.init();
 		this.commands.registerCommand(new ConfigCommand());
 		this.commands.registerCommand(new StatCommand());
+		this.commands.registerCommand(new DatabaseCommand());
 		// Load APIs
 		EnchantUtils.loadEnchantAbbreviations(this);
 		MoreTags.init();
@@ -103,6 +127,12 @@ public class CivModCorePlugin extends ACivMod {
 
 		if (this.config.getChunkLoadingStatistics())
 			LoadStatisticManager.enable();
+
+		long metricsInterval = this.config.getDatabaseMetricsInterval();
+		if (metricsInterval > 0) {
+			Bukkit.getScheduler().runTaskTimerAsynchronously(this, new PoolMetricsReporter(getLogger()),
+					metricsInterval * 20L, metricsInterval * 20L);
+		}
 	}
 
 	@Override
@@ -123,6 +153,9 @@ public class CivModCorePlugin extends ACivMod {
 		}
 		DialogManager.resetDialogs();
 		WorldTracker.reset();
+		LoadedChunkTracker.reset();
+		WorldSnapshotCache.reset();
+		this.areaTracker = null;
 		PlayerSettingAPI.saveAll();
 		ConfigurationSerialization.unregisterClass(DatabaseCredentials.class);
 		if (this.commands != null) {
@@ -163,4 +196,8 @@ public class CivModCorePlugin extends ACivMod {
 		return this.skinCache;
 	}
 
+	public AreaTracker getAreaTracker() {
+		return this.areaTracker;
+	}
+
 }
@@ -0,0 +1,54 @@
+package vg.civcraft.mc.civmodcore.commands;
+
+import co.aikar.commands.BaseCommand;
+import co.aikar.commands.annotation.CommandAlias;
+import co.aikar.commands.annotation.CommandPermission;
+import co.aikar.commands.annotation.Description;
+import co.aikar.commands.annotation.Subcommand;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import vg.civcraft.mc.civmodcore.dao.CircuitBreaker;
+import vg.civcraft.mc.civmodcore.dao.DatabaseExecutor;
+import vg.civcraft.mc.civmodcore.dao.DatasourceMetrics;
+import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
+import vg.civcraft.mc.civmodcore.dao.PoolMetrics;
+
+@CommandAlias("cmc")
+public class DatabaseCommand extends BaseCommand {
+	@Subcommand("db")
+	@Description("Shows database connection pool statistics.")
+	@CommandPermission("cmc.debug")
+	public void showPools(CommandSender sender) {
+		if (ManagedDatasource.getInstances().isEmpty()) {
+			sender.sendMessage(ChatColor.RED + "No database connections are open");
+			return;
+		}
+		sender.sendMessage(ChatColor.WHITE + "Database pool statistics:");
+		for (ManagedDatasource datasource : ManagedDatasource.getInstances()) {
+			PoolMetrics.Snapshot metrics = datasource.getMetrics().snapshot(false);
+			sender.sendMessage(ChatColor.WHITE + "[" + datasource.getPluginName() + "]");
+			sender.sendMessage("Connections: " + metrics.active() + " active, " + metrics.idle() + " idle, "
+					+ metrics.pending() + " waiting, " + metrics.max() + " max");
+			sender.sendMessage(String.format("Borrows: %d, avg wait %.2f ms, max wait %.2f ms", metrics.borrows(),
+					metrics.averageBorrowWaitMillis(), metrics.maxBorrowWaitNanos() / 1_000_000.0));
+			// the pool may be shared, hold times and statements are those of this plugin alone
+			DatasourceMetrics.Snapshot usage = datasource.getDatasourceMetrics().snapshot(false);
+			sender.sendMessage(String.format("Hold time: avg %.2f ms, max %d ms", usage.averageHoldMillis(),
+					usage.maxHoldMillis()));
+			sender.sendMessage(String.format("Statements: %d, avg %.2f ms, %d slow", usage.statements(),
+					usage.averageStatementMillis(), usage.slowStatements()));
+			sender.sendMessage("Timeouts: " + metrics.timeouts());
+			CircuitBreaker breaker = datasource.getCircuitBreaker();
+			if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+				sender.sendMessage(ChatColor.RED + "Circuit breaker " + breaker.getState() + " after "
+						+ breaker.getConsecutiveFailures() + " failures, " + datasource.getSpilledWriteCount()
+						+ " writes held back");
+			}
+			DatabaseExecutor executor = datasource.getAsyncExecutorIfPresent();
+			if (executor != null) {
+				sender.sendMessage("Async queue: " + executor.getQueueSize() + "/" + executor.getQueueCapacity()
+						+ ", running: " + executor.getActiveCount());
+			}
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nonnull;
+
+/**
+ * Stops a {@link ManagedDatasource} from handing out connections while its database is unreachable. Without it, every
+ * caller waits the full connection timeout for a connection that never comes, which piles up threads across the server
+ * while the database stalls.
+ *
+ * The breaker opens after a number of consecutive connectivity failures, after which connections are refused right
+ * away with a {@link CircuitOpenException}. Once the open duration has passed, it lets a single request through to
+ * probe the database, while every other request keeps being refused until the probe resolved: a success closes it, a
+ * connectivity failure opens it again.
+ */
+public final class CircuitBreaker {
+
+	/**
+	 * The states a breaker can be in.
+	 */
+	public enum State {
+
+		/**
+		 * The database is considered healthy and connections are handed out.
+		 */
+		CLOSED,
+
+		/**
+		 * The database is considered unreachable and connections are refused.
+		 */
+		OPEN,
+
+		/**
+		 * The open duration has passed and a single request is let through to test whether the database recovered.
+		 */
+		HALF_OPEN
+
+	}
+
+	private final int failureThreshold;
+	private final long openDuration;
+	private final AtomicReference<State> state;
+	private final AtomicInteger consecutiveFailures;
+	private final AtomicBoolean probing;
+	private volatile long openedAt;
+	private volatile Runnable closeListener;
+
+	/**
+	 * @param failureThreshold The amount of consecutive failures after which to open.
+	 * @param openDuration How long to stay open before probing the database again, in milliseconds.
+	 */
+	public CircuitBreaker(final int failureThreshold, final long openDuration) {
+		if (failureThreshold <= 0) {
+			throw new IllegalArgumentException("Failure threshold must be positive, was " + failureThreshold);
+		}
+		if (openDuration < 0) {
+			throw new IllegalArgumentException("Open duration must not be negative, was " + openDuration);
+		}
+		this.failureThreshold = failureThreshold;
+		this.openDuration = openDuration;
+		this.state = new AtomicReference<>(State.CLOSED);
+		this.consecutiveFailures = new AtomicInteger();
+		this.probing = new AtomicBoolean();
+	}
+
+	/**
+	 * Checks whether a request may go to the database, moving from open to half open once the open duration passed.
+	 * While not closed, only one request at a time is let through as the probe, which must then report its outcome
+	 * through {@link #recordSuccess()} or {@link #recordFailure(SQLException)}.
+	 *
+	 * @return Returns true if the request may go ahead, false if it should fail right away.
+	 */
+	public boolean allowRequest() {
+		if (this.state.get() == State.CLOSED) {
+			return true;
+		}
+		if (!this.probing.compareAndSet(false, true)) {
+			return false;
+		}
+		// the previous probe may have resolved while we were claiming this one
+		final State current = this.state.get();
+		if (current == State.CLOSED
+				|| (current == State.OPEN && System.currentTimeMillis() - this.openedAt < this.openDuration)) {
+			this.probing.set(false);
+			return current == State.CLOSED;
+		}
+		this.state.set(State.HALF_OPEN);
+		return true;
+	}
+
+	/**
+	 * Checks whether requests are currently refused, without claiming the probe of a breaker whose open duration has
+	 * passed. For callers deciding whether to defer work rather than making a request right away.
+	 *
+	 * @return Returns true if a request made now would most likely be refused.
+	 */
+	public boolean isRejecting() {
+		final State current = this.state.get();
+		if (current == State.CLOSED) {
+			return false;
+		}
+		if (current == State.OPEN && System.currentTimeMillis() - this.openedAt < this.openDuration) {
+			return true;
+		}
+		return this.probing.get();
+	}
+
+	/**
+	 * Records a request that reached the database, closing the breaker if it was probing.
+	 */
+	public void recordSuccess() {
+		this.consecutiveFailures.set(0);
+		if (this.state.get() != State.CLOSED && this.state.getAndSet(State.CLOSED) != State.CLOSED) {
+			this.probing.set(false);
+			final Runnable listener = this.closeListener;
+			if (listener != null) {
+				listener.run();
+			}
+		}
+	}
+
+	/**
+	 * Records a failed request. Only connectivity failures count towards opening the breaker, an invalid statement says
+	 * nothing about the health of the database.
+	 *
+	 * @param exception The exception the request failed with.
+	 */
+	public void recordFailure(@Nonnull final SQLException exception) {
+		if (!isConnectivityFailure(exception)) {
+			// says nothing about whether the database recovered, so let another request probe
+			this.probing.set(false);
+			return;
+		}
+		final int failures = this.consecutiveFailures.incrementAndGet();
+		final State current = this.state.get();
+		if (current == State.HALF_OPEN || (current == State.CLOSED && failures >= this.failureThreshold)) {
+			this.openedAt = System.currentTimeMillis();
+			this.state.set(State.OPEN);
+			this.probing.set(false);
+		}
+	}
+
+	/**
+	 * Sets what to run whenever the breaker closes again, such as replaying work deferred while it was open.
+	 *
+	 * @param listener The listener to run on the thread whose request closed the breaker.
+	 */
+	public void setCloseListener(final Runnable listener) {
+		this.closeListener = listener;
+	}
+
+	/**
+	 * @return Returns the current state. An open breaker whose open duration has passed is reported as open until the
+	 *         next request probes the database.
+	 */
+	@Nonnull
+	public State getState() {
+		return this.state.get();
+	}
+
+	/**
+	 * @return Returns the amount of connectivity failures since the last success.
+	 */
+	public int getConsecutiveFailures() {
+		return this.consecutiveFailures.get();
+	}
+
+	/**
+	 * @return Returns how long ago the breaker last opened in milliseconds, or -1 if it is not open.
+	 */
+	public long getOpenMillis() {
+		return this.state.get() == State.OPEN ? System.currentTimeMillis() - this.openedAt : -1;
+	}
+
+	/**
+	 * Checks whether an exception means the database could not be reached, rather than the statement being at fault.
+	 *
+	 * @param exception The exception to check.
+	 * @return Returns true if the exception is a connectivity failure.
+	 */
+	public static boolean isConnectivityFailure(@Nonnull final SQLException exception) {
+		if (exception instanceof CircuitOpenException) {
+			return false;
+		}
+		if (exception instanceof SQLTransientException
+				|| exception instanceof SQLRecoverableException
+				|| exception instanceof SQLNonTransientConnectionException) {
+			return true;
+		}
+		final String sqlState = exception.getSQLState();
+		return sqlState != null && sqlState.startsWith("08"); // connection exception class
+	}
+
+	/**
+	 * Thrown instead of waiting for a connection while the breaker is open.
+	 */
+	public static final class CircuitOpenException extends SQLTransientConnectionException {
+
+		public CircuitOpenException(@Nonnull final String message) {
+			super(message);
+		}
+
+	}
+
+}
@@ -7,6 +7,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Objects;
+import java.util.Properties;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -22,6 +23,7 @@ public class ConnectionPool {
 	private static final Logger LOGGER = Bukkit.getLogger();
 
 	private final DatabaseCredentials credentials;
+	private final PoolMetrics metrics;
 	private HikariDataSource datasource;
 
 	/**
@@ -31,9 +33,27 @@ public class ConnectionPool {
 	 * @param credentials The credentials to connect with.
 	 */
 	public ConnectionPool(@Nonnull final DatabaseCredentials credentials) {
+		this(credentials, credentials.database());
+	}
+
+	/**
+	 * Creates a new ConnectionPool based on a given set of credentials. Note that the credentials are not scrutinised,
+	 * so you should make sure they're valid, or at least valid enough, otherwise expect exceptions or logger spam.
+	 *
+	 * @param credentials The credentials to connect with.
+	 * @param name The name to identify this pool by in logs and metrics, usually the owning plugin's name.
+	 */
+	public ConnectionPool(@Nonnull final DatabaseCredentials credentials,
+						  @Nonnull final String name) {
 		this.credentials = Objects.requireNonNull(credentials,
 				"Cannot create a ConnectionPool with a null set of credentials.");
+		this.metrics = new PoolMetrics(name, LOGGER);
 		HikariConfig config = new HikariConfig();
+		config.setPoolName(name);
+		config.setMetricsTrackerFactory((poolName, poolStats) -> {
+			this.metrics.bind(poolStats);
+			return this.metrics;
+		});
 		config.setJdbcUrl("jdbc:" + credentials.driver() + "://" + credentials.host() + ":" +
 				credentials.port() + "/" + credentials.database());
 		config.setConnectionTimeout(credentials.connectionTimeout());
@@ -41,6 +61,7 @@ public class ConnectionPool {
 		config.setMaxLifetime(credentials.maxLifetime());
 		config.setMaximumPoolSize(credentials.poolSize());
 		config.setUsername(credentials.username());
+		statementCacheProperties(credentials.serverPreparedStatements()).forEach(config::addDataSourceProperty);
 		if (!Strings.isNullOrEmpty(credentials.password())) {
 			config.setPassword(credentials.password());
 		}
@@ -57,6 +78,26 @@ public class ConnectionPool {
 		}
 	}
 
+	/**
+	 * Driver properties controlling how prepared statements are reused, understood by both the MySQL and MariaDB
+	 * drivers. Statements are always cached per connection on the client, so DAOs preparing the same SQL on every call
+	 * skip parsing it again, which only costs memory in this process. Preparing them on the server as well, so the
+	 * server does not parse them again either, is opt-in: every cached statement then takes up memory on the server and
+	 * counts towards its max_prepared_stmt_count, and not every server or proxy in between supports them.
+	 *
+	 * @param serverPreparedStatements Whether to prepare and cache statements on the server too.
+	 * @return Returns the driver properties to set.
+	 */
+	@Nonnull
+	static Properties statementCacheProperties(final boolean serverPreparedStatements) {
+		final var properties = new Properties();
+		properties.setProperty("cachePrepStmts", "true");
+		properties.setProperty("prepStmtCacheSize", "250");
+		properties.setProperty("prepStmtCacheSqlLimit", "2048");
+		properties.setProperty("useServerPrepStmts", Boolean.toString(serverPreparedStatements));
+		return properties;
+	}
+
 	/**
 	 * Creates a new ConnectionPool based on explicitly defined parameters. Note that these parameters are not
 	 * scrutinised, so you should make sure they're valid, or at least valid enough, otherwise expect exceptions or
@@ -97,6 +138,16 @@ public class ConnectionPool {
 		return this.credentials;
 	}
 
+	/**
+	 * Gets the metrics of this ConnectionPool, such as how long connections are waited for and held.
+	 *
+	 * @return Returns the metrics of this pool.
+	 */
+	@Nonnull
+	public PoolMetrics getMetrics() {
+		return this.metrics;
+	}
+
 	/**
 	 * Gets a single connection from the pool for use. Checks for null database first.
 	 *
@@ -1,6 +1,7 @@
 package vg.civcraft.mc.civmodcore.dao;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -23,13 +24,82 @@ public record DatabaseCredentials(String username,
 								  int poolSize,
 								  long connectionTimeout,
 								  long idleTimeout,
-								  long maxLifetime)
+								  long maxLifetime,
+								  boolean sharedPool,
+								  int quota,
+								  List<String> replicas,
+								  boolean serverPreparedStatements)
 		implements ConfigurationSerializable {
 
+	public DatabaseCredentials {
+		replicas = replicas == null ? List.of() : List.copyOf(replicas);
+	}
+
+	/**
+	 * Creates a set of credentials for a pool owned by a single plugin.
+	 */
+	public DatabaseCredentials(final String username,
+							   final String password,
+							   final String host,
+							   final int port,
+							   final String driver,
+							   final String database,
+							   final int poolSize,
+							   final long connectionTimeout,
+							   final long idleTimeout,
+							   final long maxLifetime) {
+		this(username, password, host, port, driver, database, poolSize, connectionTimeout, idleTimeout,
+				maxLifetime, false, 0, List.of(), false);
+	}
+
+	/**
+	 * Gets the maximum amount of connections the plugin using these credentials may hold at once. Only relevant for
+	 * shared pools, where the quota defaults to half the pool.
+	 *
+	 * @return Returns the effective connection quota.
+	 */
+	public int effectiveQuota() {
+		return effectiveQuota(this.poolSize);
+	}
+
+	/**
+	 * Same as {@link #effectiveQuota()}, but for a pool of the given size. Shared pools are created with the settings
+	 * of the first plugin using them, so their size may differ from the one in these credentials.
+	 *
+	 * @param actualPoolSize The size of the pool actually used.
+	 * @return Returns the effective connection quota.
+	 */
+	public int effectiveQuota(final int actualPoolSize) {
+		if (!this.sharedPool) {
+			return actualPoolSize;
+		}
+		if (this.quota <= 0) {
+			return Math.max(1, actualPoolSize / 2);
+		}
+		return Math.min(this.quota, actualPoolSize);
+	}
+
+	/**
+	 * Creates the credentials to connect to one of the read replicas with, which are the same as these except for
+	 * where to connect to. Replicas never share pools.
+	 *
+	 * @param replica The replica, as "host" or "host:port".
+	 * @return Returns the credentials for the replica.
+	 */
+	@Nonnull
+	public DatabaseCredentials forReplica(@Nonnull final String replica) {
+		final int separator = replica.lastIndexOf(':');
+		final String replicaHost = separator < 0 ? replica : replica.substring(0, separator);
+		final int replicaPort = separator < 0 ? this.port : Integer.parseInt(replica.substring(separator + 1));
+		return new DatabaseCredentials(this.username, this.password, replicaHost, replicaPort, this.driver,
+				this.database, this.poolSize, this.connectionTimeout, this.idleTimeout, this.maxLifetime, false, 0,
+				List.of(), this.serverPreparedStatements);
+	}
+
 	@Nonnull
 	@Override
 	public Map<String, Object> serialize() {
-		final var data = new HashMap<String, Object>(10);
+		final var data = new HashMap<String, Object>(14);
 		data.put("username", this.username);
 		data.put("password", this.password);
 		data.put("hostname", this.host);
@@ -40,6 +110,10 @@ public record DatabaseCredentials(String username,
 		data.put("connectionTimeout", this.connectionTimeout);
 		data.put("idleTimeout", this.idleTimeout);
 		data.put("maxLifetime", this.maxLifetime);
+		data.put("sharedPool", this.sharedPool);
+		data.put("quota", this.quota);
+		data.put("replicas", this.replicas);
+		data.put("serverPreparedStatements", this.serverPreparedStatements);
 		return data;
 	}
 
@@ -68,7 +142,15 @@ public record DatabaseCredentials(String username,
 				MoreMapUtils.attemptGet(data, NumberConversions::toLong, 600_000L,
 						"idleTimeout", "idle_timeout"), // keys
 				MoreMapUtils.attemptGet(data, NumberConversions::toLong, 7_200_000L,
-						"maxLifetime", "max_lifetime")); // keys
+						"maxLifetime", "max_lifetime"), // keys
+				MoreMapUtils.attemptGet(data, (value) -> Boolean.parseBoolean(String.valueOf(value)), false,
+						"sharedPool", "shared_pool"), // keys
+				MoreMapUtils.attemptGet(data, NumberConversions::toInt, 0,
+						"quota"), // keys
+				MoreMapUtils.attemptGet(data, (value) -> ((List<?>) value).stream().map(String::valueOf).toList(),
+						List.of(), "replicas"), // keys
+				MoreMapUtils.attemptGet(data, (value) -> Boolean.parseBoolean(String.valueOf(value)), false,
+						"serverPreparedStatements", "server_prepared_statements")); // keys
 	}
 
 }
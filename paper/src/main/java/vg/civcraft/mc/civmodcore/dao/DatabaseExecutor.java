@@ -0,0 +1,193 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+
+/**
+ * Runs asynchronous database work for a {@link ManagedDatasource}. Never runs more work at once than the pool has
+ * connections, so async work can not exhaust the pool, and queues at most a fixed amount of work. Once the queue is
+ * full, further submissions fail right away with a {@link RejectedExecutionException} instead of piling up, which
+ * callers can check for ahead of time through {@link #isSaturated()}.
+ *
+ * Queued work is ordered by {@link QueryPriority}, but ages while it waits: each priority class below
+ * {@link QueryPriority#HIGH} counts as submitted a fixed time later than it actually was, so lower priority work is
+ * started before higher priority work submitted more than that time after it. Lower priorities are therefore delayed
+ * by a bounded amount, rather than starving while higher priority work keeps coming in.
+ */
+public final class DatabaseExecutor {
+
+	/**
+	 * How much later each priority class counts as submitted than the one above it
+	 */
+	static final long DEFAULT_AGING_MILLIS = 1000L;
+
+	private final ThreadPoolExecutor executor;
+	private final int queueCapacity;
+	private final AtomicInteger queued;
+	private final AtomicLong sequence;
+	private final long agingNanos;
+
+	/**
+	 * @param threads The amount of work to run at once, should not exceed the size of the connection pool.
+	 * @param queueCapacity The maximum amount of work waiting to be run.
+	 * @param threadFactory The factory to create worker threads with.
+	 */
+	public DatabaseExecutor(final int threads,
+							final int queueCapacity,
+							@Nonnull final ThreadFactory threadFactory) {
+		this(threads, queueCapacity, threadFactory, DEFAULT_AGING_MILLIS);
+	}
+
+	/**
+	 * @param threads The amount of work to run at once, should not exceed the size of the connection pool.
+	 * @param queueCapacity The maximum amount of work waiting to be run.
+	 * @param threadFactory The factory to create worker threads with.
+	 * @param agingMillis How much later each priority class counts as submitted than the one above it.
+	 */
+	DatabaseExecutor(final int threads,
+					 final int queueCapacity,
+					 @Nonnull final ThreadFactory threadFactory,
+					 final long agingMillis) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Thread count must be positive, was " + threads);
+		}
+		if (queueCapacity <= 0) {
+			throw new IllegalArgumentException("Queue capacity must be positive, was " + queueCapacity);
+		}
+		this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<>(), threadFactory);
+		this.executor.allowCoreThreadTimeOut(true);
+		this.queueCapacity = queueCapacity;
+		this.queued = new AtomicInteger();
+		this.sequence = new AtomicLong();
+		this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+	}
+
+	/**
+	 * Submits work to be run asynchronously.
+	 *
+	 * @param priority The priority of the work.
+	 * @param work The work to run.
+	 * @return Returns a future completed with the result of the work. Completed exceptionally with a
+	 *         {@link RejectedExecutionException} if the queue is full or the executor has been shut down.
+	 */
+	@Nonnull
+	public <T> CompletableFuture<T> submit(@Nonnull final QueryPriority priority,
+										   @Nonnull final Callable<T> work) {
+		final var future = new CompletableFuture<T>();
+		if (this.queued.incrementAndGet() > this.queueCapacity) {
+			this.queued.decrementAndGet();
+			future.completeExceptionally(new RejectedExecutionException(
+					"Database queue is full (" + this.queueCapacity + " queued)"));
+			return future;
+		}
+		try {
+			final long rank = System.nanoTime() + priority.ordinal() * this.agingNanos;
+			this.executor.execute(new Task<>(rank, this.sequence.getAndIncrement(), work, future));
+		}
+		catch (final RejectedExecutionException exception) {
+			this.queued.decrementAndGet();
+			future.completeExceptionally(exception);
+		}
+		return future;
+	}
+
+	/**
+	 * @return Returns the amount of work currently waiting to be run.
+	 */
+	public int getQueueSize() {
+		return this.queued.get();
+	}
+
+	/**
+	 * @return Returns the maximum amount of work that may wait to be run.
+	 */
+	public int getQueueCapacity() {
+		return this.queueCapacity;
+	}
+
+	/**
+	 * @return Returns the amount of work currently running.
+	 */
+	public int getActiveCount() {
+		return this.executor.getActiveCount();
+	}
+
+	/**
+	 * Backpressure signal: callers producing large amounts of optional work should hold back while this is true.
+	 *
+	 * @return Returns true if the queue is at least three quarters full.
+	 */
+	public boolean isSaturated() {
+		return this.queued.get() * 4L >= this.queueCapacity * 3L;
+	}
+
+	/**
+	 * Stops accepting work and waits for queued work to finish.
+	 *
+	 * @param timeout The maximum time to wait in milliseconds.
+	 * @return Returns true if all queued work finished in time.
+	 */
+	public boolean shutdown(final long timeout) {
+		this.executor.shutdown();
+		try {
+			return this.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private final class Task<T> implements Runnable, Comparable<Task<?>> {
+
+		private final long rank;
+		private final long sequence;
+		private final Callable<T> work;
+		private final CompletableFuture<T> future;
+
+		private Task(final long rank,
+					 final long sequence,
+					 final Callable<T> work,
+					 final CompletableFuture<T> future) {
+			this.rank = rank;
+			this.sequence = sequence;
+			this.work = work;
+			this.future = future;
+		}
+
+		@Override
+		public void run() {
+			queued.decrementAndGet();
+			if (this.future.isDone()) {
+				return; // cancelled while queued
+			}
+			try {
+				this.future.complete(this.work.call());
+			}
+			catch (final Throwable exception) {
+				this.future.completeExceptionally(exception);
+			}
+		}
+
+		@Override
+		public int compareTo(@Nonnull final Task<?> other) {
+			// nanoTime may overflow, so only compare the difference
+			final long byRank = this.rank - other.rank;
+			if (byRank != 0) {
+				return byRank < 0 ? -1 : 1;
+			}
+			return Long.compare(this.sequence, other.sequence);
+		}
+
+	}
+
+}
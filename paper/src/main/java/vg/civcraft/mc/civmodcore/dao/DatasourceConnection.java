@@ -0,0 +1,393 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.ShardingKey;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Connection handed out by a {@link ManagedDatasource}, delegating every call to the pooled connection it wraps.
+ * Closing it records how long it was held in the {@link DatasourceMetrics} of the datasource and, for pools shared
+ * with other plugins, returns the datasource's quota permit. A plain delegating class rather than a dynamic proxy, so
+ * calls on it cost no more than a virtual call.
+ */
+final class DatasourceConnection implements Connection {
+
+	private final Connection connection;
+	private final DatasourceMetrics metrics;
+	private final PoolMetrics pool;
+	private final Semaphore quota;
+	private final long borrowed;
+	private boolean closed;
+
+	/**
+	 * @param connection The pooled connection to delegate to.
+	 * @param metrics The metrics of the datasource the connection was borrowed by.
+	 * @param pool The metrics of the pool the connection was borrowed from.
+	 * @param quota The quota to return a permit to once closed, or null if the pool is not shared.
+	 */
+	DatasourceConnection(@Nonnull final Connection connection,
+						 @Nonnull final DatasourceMetrics metrics,
+						 @Nonnull final PoolMetrics pool,
+						 @Nullable final Semaphore quota) {
+		this.connection = connection;
+		this.metrics = metrics;
+		this.pool = pool;
+		this.quota = quota;
+		this.borrowed = System.nanoTime();
+	}
+
+	/**
+	 * @return Returns the metrics of the pool the connection was borrowed from.
+	 */
+	@Nonnull
+	PoolMetrics getPool() {
+		return this.pool;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		this.metrics.recordHold(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.borrowed));
+		try {
+			this.connection.close();
+		}
+		finally {
+			if (this.quota != null) {
+				this.quota.release();
+			}
+		}
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return this.closed || this.connection.isClosed();
+	}
+
+	@Override
+	public <T> T unwrap(final Class<T> type) throws SQLException {
+		return type.isInstance(this) ? type.cast(this) : this.connection.unwrap(type);
+	}
+
+	@Override
+	public boolean isWrapperFor(final Class<?> type) throws SQLException {
+		return type.isInstance(this) || this.connection.isWrapperFor(type);
+	}
+
+	@Override
+	public Statement createStatement() throws SQLException {
+		return this.connection.createStatement();
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql) throws SQLException {
+		return this.connection.prepareStatement(sql);
+	}
+
+	@Override
+	public CallableStatement prepareCall(final String sql) throws SQLException {
+		return this.connection.prepareCall(sql);
+	}
+
+	@Override
+	public String nativeSQL(final String sql) throws SQLException {
+		return this.connection.nativeSQL(sql);
+	}
+
+	@Override
+	public void setAutoCommit(final boolean autoCommit) throws SQLException {
+		this.connection.setAutoCommit(autoCommit);
+	}
+
+	@Override
+	public boolean getAutoCommit() throws SQLException {
+		return this.connection.getAutoCommit();
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		this.connection.commit();
+	}
+
+	@Override
+	public void rollback() throws SQLException {
+		this.connection.rollback();
+	}
+
+	@Override
+	public DatabaseMetaData getMetaData() throws SQLException {
+		return this.connection.getMetaData();
+	}
+
+	@Override
+	public void setReadOnly(final boolean readOnly) throws SQLException {
+		this.connection.setReadOnly(readOnly);
+	}
+
+	@Override
+	public boolean isReadOnly() throws SQLException {
+		return this.connection.isReadOnly();
+	}
+
+	@Override
+	public void setCatalog(final String catalog) throws SQLException {
+		this.connection.setCatalog(catalog);
+	}
+
+	@Override
+	public String getCatalog() throws SQLException {
+		return this.connection.getCatalog();
+	}
+
+	@Override
+	public void setTransactionIsolation(final int level) throws SQLException {
+		this.connection.setTransactionIsolation(level);
+	}
+
+	@Override
+	public int getTransactionIsolation() throws SQLException {
+		return this.connection.getTransactionIsolation();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return this.connection.getWarnings();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		this.connection.clearWarnings();
+	}
+
+	@Override
+	public Statement createStatement(final int resultSetType, final int resultSetConcurrency) throws SQLException {
+		return this.connection.createStatement(resultSetType, resultSetConcurrency);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql,
+											  final int resultSetType,
+											  final int resultSetConcurrency) throws SQLException {
+		return this.connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+	}
+
+	@Override
+	public CallableStatement prepareCall(final String sql,
+										 final int resultSetType,
+										 final int resultSetConcurrency) throws SQLException {
+		return this.connection.prepareCall(sql, resultSetType, resultSetConcurrency);
+	}
+
+	@Override
+	public Map<String, Class<?>> getTypeMap() throws SQLException {
+		return this.connection.getTypeMap();
+	}
+
+	@Override
+	public void setTypeMap(final Map<String, Class<?>> map) throws SQLException {
+		this.connection.setTypeMap(map);
+	}
+
+	@Override
+	public void setHoldability(final int holdability) throws SQLException {
+		this.connection.setHoldability(holdability);
+	}
+
+	@Override
+	public int getHoldability() throws SQLException {
+		return this.connection.getHoldability();
+	}
+
+	@Override
+	public Savepoint setSavepoint() throws SQLException {
+		return this.connection.setSavepoint();
+	}
+
+	@Override
+	public Savepoint setSavepoint(final String name) throws SQLException {
+		return this.connection.setSavepoint(name);
+	}
+
+	@Override
+	public void rollback(final Savepoint savepoint) throws SQLException {
+		this.connection.rollback(savepoint);
+	}
+
+	@Override
+	public void releaseSavepoint(final Savepoint savepoint) throws SQLException {
+		this.connection.releaseSavepoint(savepoint);
+	}
+
+	@Override
+	public Statement createStatement(final int resultSetType,
+									 final int resultSetConcurrency,
+									 final int resultSetHoldability) throws SQLException {
+		return this.connection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql,
+											  final int resultSetType,
+											  final int resultSetConcurrency,
+											  final int resultSetHoldability) throws SQLException {
+		return this.connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override
+	public CallableStatement prepareCall(final String sql,
+										 final int resultSetType,
+										 final int resultSetConcurrency,
+										 final int resultSetHoldability) throws SQLException {
+		return this.connection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql, final int autoGeneratedKeys) throws SQLException {
+		return this.connection.prepareStatement(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql, final int[] columnIndexes) throws SQLException {
+		return this.connection.prepareStatement(sql, columnIndexes);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql, final String[] columnNames) throws SQLException {
+		return this.connection.prepareStatement(sql, columnNames);
+	}
+
+	@Override
+	public Clob createClob() throws SQLException {
+		return this.connection.createClob();
+	}
+
+	@Override
+	public Blob createBlob() throws SQLException {
+		return this.connection.createBlob();
+	}
+
+	@Override
+	public NClob createNClob() throws SQLException {
+		return this.connection.createNClob();
+	}
+
+	@Override
+	public SQLXML createSQLXML() throws SQLException {
+		return this.connection.createSQLXML();
+	}
+
+	@Override
+	public boolean isValid(final int timeout) throws SQLException {
+		return this.connection.isValid(timeout);
+	}
+
+	@Override
+	public void setClientInfo(final String name, final String value) throws SQLClientInfoException {
+		this.connection.setClientInfo(name, value);
+	}
+
+	@Override
+	public void setClientInfo(final Properties properties) throws SQLClientInfoException {
+		this.connection.setClientInfo(properties);
+	}
+
+	@Override
+	public String getClientInfo(final String name) throws SQLException {
+		return this.connection.getClientInfo(name);
+	}
+
+	@Override
+	public Properties getClientInfo() throws SQLException {
+		return this.connection.getClientInfo();
+	}
+
+	@Override
+	public Array createArrayOf(final String typeName, final Object[] elements) throws SQLException {
+		return this.connection.createArrayOf(typeName, elements);
+	}
+
+	@Override
+	public Struct createStruct(final String typeName, final Object[] attributes) throws SQLException {
+		return this.connection.createStruct(typeName, attributes);
+	}
+
+	@Override
+	public void setSchema(final String schema) throws SQLException {
+		this.connection.setSchema(schema);
+	}
+
+	@Override
+	public String getSchema() throws SQLException {
+		return this.connection.getSchema();
+	}
+
+	@Override
+	public void abort(final Executor executor) throws SQLException {
+		this.connection.abort(executor);
+	}
+
+	@Override
+	public void setNetworkTimeout(final Executor executor, final int milliseconds) throws SQLException {
+		this.connection.setNetworkTimeout(executor, milliseconds);
+	}
+
+	@Override
+	public int getNetworkTimeout() throws SQLException {
+		return this.connection.getNetworkTimeout();
+	}
+
+	@Override
+	public void beginRequest() throws SQLException {
+		this.connection.beginRequest();
+	}
+
+	@Override
+	public void endRequest() throws SQLException {
+		this.connection.endRequest();
+	}
+
+	@Override
+	public boolean setShardingKeyIfValid(final ShardingKey shardingKey,
+										 final ShardingKey superShardingKey,
+										 final int timeout) throws SQLException {
+		return this.connection.setShardingKeyIfValid(shardingKey, superShardingKey, timeout);
+	}
+
+	@Override
+	public boolean setShardingKeyIfValid(final ShardingKey shardingKey, final int timeout) throws SQLException {
+		return this.connection.setShardingKeyIfValid(shardingKey, timeout);
+	}
+
+	@Override
+	public void setShardingKey(final ShardingKey shardingKey, final ShardingKey superShardingKey) throws SQLException {
+		this.connection.setShardingKey(shardingKey, superShardingKey);
+	}
+
+	@Override
+	public void setShardingKey(final ShardingKey shardingKey) throws SQLException {
+		this.connection.setShardingKey(shardingKey);
+	}
+
+}
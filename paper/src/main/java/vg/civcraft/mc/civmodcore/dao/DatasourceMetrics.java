@@ -0,0 +1,140 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+
+/**
+ * Collects metrics of the connections one {@link ManagedDatasource} hands out, so that the usage of a pool shared by
+ * several plugins can be told apart. Hold times are recorded when a connection of the datasource is closed. Statements
+ * are timed when run through the helpers of the datasource, {@link PreparedQuery} and {@link PreparedUpdate}, while
+ * statements a DAO prepares directly on a connection are not, so that they can run on the driver's statements
+ * unwrapped. Borrow wait times and the state of the pool as a whole are reported by Hikari to {@link PoolMetrics}.
+ *
+ * All counters are cumulative since the datasource was created, only the maximum is reset by each summary.
+ */
+public final class DatasourceMetrics {
+
+	private final String name;
+	private final Logger logger;
+
+	private final LongAdder statementCount = new LongAdder();
+	private final LongAdder statementNanos = new LongAdder();
+	private final LongAdder slowStatements = new LongAdder();
+	private final LongAdder holdCount = new LongAdder();
+	private final LongAdder holdMillis = new LongAdder();
+	private final AtomicLong maxHoldMillis = new AtomicLong();
+
+	DatasourceMetrics(@Nonnull final String name, @Nonnull final Logger logger) {
+		this.name = name;
+		this.logger = logger;
+	}
+
+	/**
+	 * @return Returns the name of the datasource these metrics belong to, usually the owning plugin's name.
+	 */
+	@Nonnull
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Records that a connection borrowed by the datasource has been returned.
+	 *
+	 * @param elapsedMillis How long the connection was held.
+	 */
+	void recordHold(final long elapsedMillis) {
+		this.holdCount.increment();
+		this.holdMillis.add(elapsedMillis);
+		this.maxHoldMillis.accumulateAndGet(elapsedMillis, Math::max);
+	}
+
+	/**
+	 * Records the execution of a statement, logging it if it was slow.
+	 *
+	 * @param sql The statement text.
+	 * @param elapsedNanos How long the statement took to execute.
+	 * @param pool The metrics of the pool the statement ran on.
+	 */
+	void recordStatement(@Nonnull final String sql, final long elapsedNanos, @Nonnull final PoolMetrics pool) {
+		this.statementCount.increment();
+		this.statementNanos.add(elapsedNanos);
+		final long threshold = PoolMetrics.getSlowThreshold();
+		if (threshold > 0 && elapsedNanos >= TimeUnit.MILLISECONDS.toNanos(threshold)) {
+			this.slowStatements.increment();
+			pool.recordSlowStatement();
+			this.logger.warning(String.format("[%s] Slow statement took %d ms: %s", this.name,
+					TimeUnit.NANOSECONDS.toMillis(elapsedNanos), sql.strip()));
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the current metrics.
+	 *
+	 * @param resetMaximums Whether to reset the maximum hold time afterwards.
+	 * @return Returns the snapshot.
+	 */
+	@Nonnull
+	public Snapshot snapshot(final boolean resetMaximums) {
+		return new Snapshot(
+				this.statementCount.sum(),
+				this.statementNanos.sum(),
+				this.slowStatements.sum(),
+				this.holdCount.sum(),
+				this.holdMillis.sum(),
+				resetMaximums ? this.maxHoldMillis.getAndSet(0) : this.maxHoldMillis.get());
+	}
+
+	/**
+	 * Point in time view of a datasource's metrics.
+	 */
+	public record Snapshot(long statements,
+						   long statementNanos,
+						   long slowStatements,
+						   long holds,
+						   long holdMillis,
+						   long maxHoldMillis) {
+
+		/**
+		 * @return Returns the average time a statement took in milliseconds.
+		 */
+		public double averageStatementMillis() {
+			return this.statements == 0 ? 0 : this.statementNanos / 1_000_000.0 / this.statements;
+		}
+
+		/**
+		 * @return Returns the average time a connection was held in milliseconds.
+		 */
+		public double averageHoldMillis() {
+			return this.holds == 0 ? 0 : (double) this.holdMillis / this.holds;
+		}
+
+		/**
+		 * Creates a snapshot of the activity between an earlier snapshot and this one. The maximum is kept as it is.
+		 *
+		 * @param earlier The earlier snapshot.
+		 * @return Returns the difference.
+		 */
+		@Nonnull
+		public Snapshot since(@Nonnull final Snapshot earlier) {
+			return new Snapshot(
+					this.statements - earlier.statements,
+					this.statementNanos - earlier.statementNanos,
+					this.slowStatements - earlier.slowStatements,
+					this.holds - earlier.holds,
+					this.holdMillis - earlier.holdMillis,
+					this.maxHoldMillis);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d statements, avg %.2f ms, %d slow | %d holds, avg %.2f ms max %d ms",
+					this.statements, averageStatementMillis(), this.slowStatements, this.holds,
+					averageHoldMillis(), this.maxHoldMillis);
+		}
+
+	}
+
+}
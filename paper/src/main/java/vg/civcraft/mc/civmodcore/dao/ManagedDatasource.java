@@ -4,18 +4,41 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.bukkit.plugin.Plugin;
@@ -102,6 +125,18 @@ public class ManagedDatasource {
 		last_migration = VALUES(last_migration);
 	""";
 
+	private static final String CHECK_ALL_MIGRATIONS = """
+	SELECT plugin_name, current_migration_number FROM managed_plugin_data;
+	""";
+
+	private static final String ACQUIRE_NAMED_LOCK = """
+	SELECT GET_LOCK(?, ?);
+	""";
+
+	private static final String RELEASE_NAMED_LOCK = """
+	SELECT RELEASE_LOCK(?);
+	""";
+
 	private static final String CLEANUP_LOCK_TABLE = """
 	DELETE FROM managed_plugin_locks WHERE lock_time <= TIMESTAMPADD(HOUR, -8, NOW());
 	""";
@@ -116,21 +151,75 @@ public class ManagedDatasource {
 
 	private static final long MAX_WAIT_FOR_LOCK = 600000L;
 	private static final long WAIT_PERIOD = 500L;
+	private static final int ASYNC_QUEUE_CAPACITY = 4096;
+	/**
+	 * Connections asynchronous work leaves to synchronous users of the datasource.
+	 */
+	private static final int RESERVED_SYNC_CONNECTIONS = 2;
+	private static final long ASYNC_SHUTDOWN_TIMEOUT = 30000L;
+	private static final long REPLICA_RETRY_DELAY = 30000L;
+	private static final int BREAKER_FAILURE_THRESHOLD = 3;
+	private static final long BREAKER_OPEN_DURATION = 10000L;
+	private static final int SPILL_CAPACITY = 8192;
+	private static final RetryPolicy DEFAULT_RETRY_POLICY = new RetryPolicy(3, 100L, 2000L);
+	private static final int STREAM_FETCH_SIZE = 1000;
+	private static final int DECODE_BATCH_SIZE = 256;
+	private static final int MAX_PENDING_DECODE_BATCHES = 16;
+	private static final Set<ManagedDatasource> INSTANCES = ConcurrentHashMap.newKeySet();
+	private static final Map<String, Map<String, Integer>> KNOWN_MIGRATION_LEVELS = new ConcurrentHashMap<>();
+	private static final ExecutorService MIGRATION_EXECUTOR = Executors.newCachedThreadPool((runnable) -> {
+		final var thread = new Thread(runnable, "managed-datasource-migrations");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	private final CivLogger logger;
 	private final Plugin plugin;
 	private final ConnectionPool connections;
+	private final DatasourceMetrics metrics;
+	private final List<ConnectionPool> replicas;
+	private final AtomicLongArray replicaDownUntil;
+	private final AtomicInteger nextReplica;
+	private final DatabaseCredentials credentials;
+	private final int quotaLimit;
+	private final Semaphore quota;
+	private final CircuitBreaker breaker;
+	private final Deque<SpilledWrite<?>> spill;
+	private volatile RetryPolicy retryPolicy;
 	private final ExecutorService postExecutor;
 	private final TreeMap<Integer, Migration> migrations;
 	private int firstMigration;
 	private int lastMigration;
+	private ThreadFactory asyncThreadFactory;
+	private volatile DatabaseExecutor asyncExecutor;
+	private CompletableFuture<Boolean> migrationFuture;
 
 	private ManagedDatasource(final CivLogger logger,
 							  final ACivMod plugin,
-							  final ConnectionPool connections) {
+							  final ConnectionPool connections,
+							  final List<ConnectionPool> replicas,
+							  final DatabaseCredentials credentials) {
 		this.logger = logger;
 		this.plugin = plugin;
 		this.connections = connections;
+		this.metrics = new DatasourceMetrics(plugin.getName(), logger);
+		this.replicas = replicas;
+		this.replicaDownUntil = new AtomicLongArray(replicas.size());
+		this.nextReplica = new AtomicInteger();
+		this.credentials = credentials;
+		// shared pools are sized by whichever plugin created them, so the quota is based on the actual size
+		this.quotaLimit = credentials.effectiveQuota(connections.getCredentials().poolSize());
+		if (credentials.sharedPool() && this.quotaLimit != credentials.effectiveQuota()) {
+			logger.warning(String.format("Shared pool has %d connections instead of the configured %d, limiting %s "
+							+ "to %d connections instead of %d", connections.getCredentials().poolSize(),
+					credentials.poolSize(), plugin.getName(), this.quotaLimit, credentials.effectiveQuota()));
+		}
+		// fair, so a plugin at its quota hands out connections in the order they were asked for
+		this.quota = credentials.sharedPool() ? new Semaphore(this.quotaLimit, true) : null;
+		this.breaker = new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_DURATION);
+		this.breaker.setCloseListener(this::replaySpilledWrites);
+		this.spill = new ArrayDeque<>();
+		this.retryPolicy = DEFAULT_RETRY_POLICY;
 		this.postExecutor = Executors.newSingleThreadExecutor();
 		this.migrations = new TreeMap<>();
 		this.firstMigration = Integer.MAX_VALUE;
@@ -188,7 +277,13 @@ public class ManagedDatasource {
 			logger.warning("You must pass in a set of credentials");
 			return null;
 		}
-		final var connections = new ConnectionPool(credentials);
+		final ConnectionPool connections;
+		if (credentials.sharedPool()) {
+			connections = SharedConnectionPools.acquire(credentials, logger);
+		}
+		else {
+			connections = new ConnectionPool(credentials, plugin.getName());
+		}
 		logger.info(String.format("Connecting to %s@%s:%s using %s",credentials.database(),
 				credentials.host(), credentials.port(), credentials.username()));
 		try (final Connection connection = connections.getConnection()) {
@@ -204,9 +299,25 @@ public class ManagedDatasource {
 			logger.log(Level.SEVERE, "Assuming you provided proper database credentials this is most likely " +
 					"happening, because your mysql install is outdated. We recommend using MariaDB or at least the " +
 					"latest mysql version.", exception);
+			if (credentials.sharedPool()) {
+				try {
+					SharedConnectionPools.release(connections);
+				}
+				catch (final SQLException ignored) {
+					// the pool is broken already
+				}
+			}
 			return null;
 		}
-		return new ManagedDatasource(logger, plugin, connections);
+		final var replicas = new ArrayList<ConnectionPool>(credentials.replicas().size());
+		for (final String replica : credentials.replicas()) {
+			logger.info("Adding read replica " + replica);
+			replicas.add(new ConnectionPool(credentials.forReplica(replica),
+					plugin.getName() + "-replica-" + replicas.size()));
+		}
+		final var datasource = new ManagedDatasource(logger, plugin, connections, replicas, credentials);
+		INSTANCES.add(datasource);
+		return datasource;
 	}
 
 	/**
@@ -251,7 +362,10 @@ public class ManagedDatasource {
 	 * This method should be called by your plugin after all migrations have been registered. It applies the migrations
 	 * if necessary in a "multi-tenant" safe way via a soft-lock. Locks have a maximum duration currently set to 8
 	 * hours, but realistically they will be very short. For multi-tenant updates all servers should gracefully wait in
-	 * line.
+	 * line. Plugins already known to be up to date from a single read of all plugins' migration levels skip the lock
+	 * entirely. Where supported, a named database lock (GET_LOCK) queues servers up without polling. The lock table
+	 * entry is taken in any case, once the named lock is held, so that servers which have not been upgraded yet and
+	 * only know the lock table are still kept out during rolling upgrades.
 	 *
 	 * 1. Attempts to get a lock for migrations for this plugin. 2. If unsuccessful, periodically check the lock for
 	 * release. a. Once released, restart at 1. b. If Timeout occurs, return "false". 3. If successful, check for
@@ -266,35 +380,48 @@ public class ManagedDatasource {
 	 *         start migration in a timely fashion or errors occurred.
 	 */
 	public boolean updateDatabase() {
+		// Migration levels only ever increase, so if the bulk read says we're up to date, we still are
+		final Integer knownLevel = getKnownMigrationLevel();
+		if (knownLevel != null && knownLevel >= this.lastMigration) {
+			this.logger.info(this.plugin.getName() + " database is up to date.");
+			return true;
+		}
+		Connection lockConnection = null;
 		try {
+			lockConnection = acquireNamedLock();
 			checkWaitLock();
 		}
 		catch (final SQLException exception) {
 			this.logger.log(Level.SEVERE, "An uncorrectable SQL error was encountered!", exception);
+			if (lockConnection != null) {
+				releaseNamedLock(lockConnection);
+			}
 			return false;
 		}
 		catch (final TimeoutException exception) {
 			this.logger.log(Level.SEVERE, "Unable to acquire a lock!", exception);
-			return false;
-		}
-		// Now check update level, etc.
-		int currentLevel = this.migrations.firstKey() - 1;
-		try (final Connection connection = getConnection();
-			 final PreparedStatement statement = connection.prepareStatement(CHECK_LAST_MIGRATION)) {
-			statement.setString(1, plugin.getName());
-			try (final ResultSet set = statement.executeQuery()) {
-				if (set.next()) {
-					currentLevel = set.getInt(1);
-				} // else we aren't tracked yet!
+			if (lockConnection != null) {
+				releaseNamedLock(lockConnection);
 			}
-		}
-		catch (final SQLException exception) {
-			this.logger.log(Level.SEVERE, "Unable to check last migration!", exception);
-			releaseLock();
 			return false;
 		}
-		final NavigableMap<Integer, Migration> newApply = this.migrations.tailMap(currentLevel, false);
 		try {
+			// Now check update level, etc. Read again, another server may have migrated while we waited for the lock
+			int currentLevel = this.migrations.firstKey() - 1;
+			try (final Connection connection = getConnection();
+				 final PreparedStatement statement = connection.prepareStatement(CHECK_LAST_MIGRATION)) {
+				statement.setString(1, plugin.getName());
+				try (final ResultSet set = statement.executeQuery()) {
+					if (set.next()) {
+						currentLevel = set.getInt(1);
+					} // else we aren't tracked yet!
+				}
+			}
+			catch (final SQLException exception) {
+				this.logger.log(Level.SEVERE, "Unable to check last migration!", exception);
+				return false;
+			}
+			final NavigableMap<Integer, Migration> newApply = this.migrations.tailMap(currentLevel, false);
 			if (newApply.size() > 0) {
 				this.logger.info(String.format("%s database is behind, %s migrations found",
 						this.plugin.getName(), newApply.size()));
@@ -318,9 +445,149 @@ public class ManagedDatasource {
 		}
 		finally {
 			releaseLock();
+			if (lockConnection != null) {
+				releaseNamedLock(lockConnection);
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #updateDatabase()}, but runs in the background so that several plugins can migrate at once. A
+	 * plugin whose tables reference another plugin's tables should pass that plugin's datasource as a dependency, its
+	 * migrations then only start once the dependency finished migrating.
+	 *
+	 * Calling this multiple times returns the same future.
+	 *
+	 * @param dependencies Datasources that must be migrated first. Those not migrating asynchronously are ignored.
+	 * @return Returns a future completed with the result of {@link #updateDatabase()}, or false if a dependency failed.
+	 */
+	@Nonnull
+	public synchronized CompletableFuture<Boolean> updateDatabaseAsync(@Nonnull final ManagedDatasource... dependencies) {
+		if (this.migrationFuture != null) {
+			return this.migrationFuture;
+		}
+		final List<CompletableFuture<Boolean>> waitFor = new ArrayList<>();
+		for (final ManagedDatasource dependency : dependencies) {
+			final CompletableFuture<Boolean> future = dependency.getMigrationFuture();
+			if (future != null) {
+				waitFor.add(future);
+			}
+		}
+		this.migrationFuture = CompletableFuture.allOf(waitFor.toArray(CompletableFuture[]::new))
+				.thenApplyAsync((ignored) -> {
+					for (final CompletableFuture<Boolean> dependency : waitFor) {
+						if (!dependency.join()) {
+							this.logger.warning("Not migrating " + this.plugin.getName()
+									+ " as a dependency failed to migrate.");
+							return false;
+						}
+					}
+					return updateDatabase();
+				}, MIGRATION_EXECUTOR);
+		return this.migrationFuture;
+	}
+
+	/**
+	 * @return Returns the future of this datasource's asynchronous migration if one was started, otherwise null.
+	 */
+	@Nullable
+	public synchronized CompletableFuture<Boolean> getMigrationFuture() {
+		return this.migrationFuture;
+	}
+
+	/**
+	 * Looks up this plugin's migration level from a single read of all plugins' levels, shared by all datasources
+	 * connecting to the same database.
+	 *
+	 * @return Returns the last known migration level, or null if unknown.
+	 */
+	@Nullable
+	private Integer getKnownMigrationLevel() {
+		final String key = this.credentials.host() + ":" + this.credentials.port() + "/" + this.credentials.database();
+		Map<String, Integer> levels = KNOWN_MIGRATION_LEVELS.get(key);
+		if (levels == null) {
+			levels = new ConcurrentHashMap<>();
+			try (final Connection connection = getConnection();
+				 final Statement statement = connection.createStatement();
+				 final ResultSet set = statement.executeQuery(CHECK_ALL_MIGRATIONS)) {
+				while (set.next()) {
+					levels.put(set.getString(1), set.getInt(2));
+				}
+			}
+			catch (final SQLException exception) {
+				this.logger.log(Level.WARNING, "Unable to read migration levels, checking individually.", exception);
+				return null;
+			}
+			final Map<String, Integer> existing = KNOWN_MIGRATION_LEVELS.putIfAbsent(key, levels);
+			if (existing != null) {
+				levels = existing;
+			}
+		}
+		return levels.get(this.plugin.getName());
+	}
+
+	/**
+	 * Acquires this plugin's migration lock as a named database lock, which is released by the database should this
+	 * server die, and which wakes waiting servers as soon as it is released instead of having them poll.
+	 *
+	 * The connection holding the lock is not counted against this plugin's quota, as the migration needs connections
+	 * of its own while the lock is held. For the same reason, pools of a single connection use the lock table.
+	 *
+	 * @return Returns the connection holding the lock, or null if named locks are not supported by the database or
+	 *         the pool is too small to hold one.
+	 * @throws SQLException If the lock could not be acquired due to an error.
+	 * @throws TimeoutException If the lock was not acquired in time.
+	 */
+	@Nullable
+	private Connection acquireNamedLock() throws SQLException, TimeoutException {
+		if (this.connections.getCredentials().poolSize() < 2) {
+			return null;
+		}
+		// Named locks belong to the connection, so it has to be kept until the lock is released
+		final Connection connection = borrowConnection();
+		final Integer acquired;
+		try (final PreparedStatement statement = connection.prepareStatement(ACQUIRE_NAMED_LOCK)) {
+			statement.setString(1, getLockName());
+			statement.setLong(2, MAX_WAIT_FOR_LOCK / 1000L);
+			try (final ResultSet set = statement.executeQuery()) {
+				acquired = set.next() ? set.getObject(1, Integer.class) : null;
+			}
+		}
+		catch (final SQLException exception) {
+			connection.close();
+			this.logger.info("Named locks are unsupported, falling back to lock table.");
+			return null;
+		}
+		if (acquired != null && acquired == 1) {
+			this.logger.info("Named lock acquired.");
+			return connection;
+		}
+		connection.close();
+		if (acquired == null) {
+			throw new SQLException("Error while acquiring named lock " + getLockName());
+		}
+		throw new TimeoutException("We were unable to acquire a lock in the time allowed");
+	}
+
+	private void releaseNamedLock(final Connection connection) {
+		try (connection;
+			 final PreparedStatement release = connection.prepareStatement(RELEASE_NAMED_LOCK)) {
+			release.setString(1, getLockName());
+			release.executeQuery().close();
+			this.logger.info("Named lock released.");
+		}
+		catch (final SQLException exception) {
+			this.logger.log(Level.WARNING, "Attempted to release lock; failed. This may interrupt startup for other " +
+					"servers working against this database.", exception);
 		}
 	}
 
+	private String getLockName() {
+		final String name = "migrate:" + this.credentials.database() + ":" + this.plugin.getName();
+		// named locks are limited to 64 characters
+		return name.length() > 64 ? name.substring(0, 64) : name;
+	}
+
 	private boolean doMigrations(final NavigableMap<Integer, Migration> migrations) {
 		try {
 			for (final Integer id : migrations.keySet()) {
@@ -521,21 +788,666 @@ public class ManagedDatasource {
 	 * Passthrough; gets a connection from the underlying ConnectionPool. Simply close() it when done.
 	 * 
 	 * This method _could_ briefly block while waiting for a connection. Keep this in mind.
+	 *
+	 * If a {@link TransactionScope} is open on the calling thread, the scope's connection is returned instead.
 	 * 
 	 * @return Returns a connection from the pool.
 	 * @throws SQLException If the pool has gone away, database is not connected, or other error has occurred.
 	 */
 	public Connection getConnection() throws SQLException {
-		return this.connections.getConnection();
+		final Connection scoped = TransactionScope.getConnection(this);
+		if (scoped != null) {
+			return scoped;
+		}
+		return getPooledConnection();
+	}
+
+	/**
+	 * Gets a connection for reads that tolerate slightly stale data from one of the configured read replicas, to take
+	 * load off the primary. Replicas are used in turn, one that fails to hand out a connection is skipped for a while.
+	 * Falls back to {@link #getConnection()} if there are no replicas, none is reachable, a {@link TransactionScope} is
+	 * open on this thread, or the primary is requested. Connections from replicas must not be written to.
+	 *
+	 * @param preference Whether the read may be served by a replica.
+	 * @return Returns a connection to read from.
+	 * @throws SQLException If no connection could be retrieved at all.
+	 */
+	public Connection getReadConnection(@Nonnull final ReadPreference preference) throws SQLException {
+		if (preference == ReadPreference.PRIMARY || TransactionScope.isOpen()) {
+			return getConnection();
+		}
+		final Connection replica = getReplicaConnection();
+		return replica != null ? replica : getConnection();
+	}
+
+	/**
+	 * @return Returns a connection to one of the read replicas in turn, or null if there are none or none is reachable.
+	 */
+	@Nullable
+	private Connection getReplicaConnection() {
+		final int start = this.nextReplica.getAndIncrement();
+		for (int i = 0; i < this.replicas.size(); i++) {
+			final int index = Math.floorMod(start + i, this.replicas.size());
+			final long now = System.currentTimeMillis();
+			if (this.replicaDownUntil.get(index) > now) {
+				continue;
+			}
+			try {
+				final ConnectionPool replica = this.replicas.get(index);
+				return new DatasourceConnection(replica.getConnection(), this.metrics, replica.getMetrics(), null);
+			}
+			catch (final SQLException exception) {
+				this.replicaDownUntil.set(index, now + REPLICA_RETRY_DELAY);
+				this.logger.warning("Read replica " + this.credentials.replicas().get(index)
+						+ " is unavailable, reading from primary: " + exception.getMessage());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets a connection from the pool, ignoring any open {@link TransactionScope}. If the pool is shared with other
+	 * plugins, this first waits for this plugin to be below its connection quota. Fails right away while the
+	 * {@link CircuitBreaker} is open.
+	 *
+	 * @return Returns a connection from the pool.
+	 * @throws SQLException If the pool has gone away, database is not connected, or other error has occurred.
+	 */
+	Connection getPooledConnection() throws SQLException {
+		if (this.quota == null) {
+			return new DatasourceConnection(borrowConnection(), this.metrics, this.connections.getMetrics(), null);
+		}
+		// fail fast before queueing for the quota, but only claim a probe once actually about to borrow
+		if (this.breaker.isRejecting()) {
+			throw circuitOpen();
+		}
+		try {
+			if (!this.quota.tryAcquire(this.credentials.connectionTimeout(), TimeUnit.MILLISECONDS)) {
+				throw new SQLTransientConnectionException(String.format("%s is at its quota of %d connections and "
+						+ "none was returned in time", this.plugin.getName(), this.quotaLimit));
+			}
+		}
+		catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", exception);
+		}
+		final Connection connection;
+		try {
+			connection = borrowConnection();
+		}
+		catch (final SQLException | RuntimeException exception) {
+			this.quota.release();
+			throw exception;
+		}
+		return new DatasourceConnection(connection, this.metrics, this.connections.getMetrics(), this.quota);
+	}
+
+	/**
+	 * Borrows a connection from the pool, if the {@link CircuitBreaker} allows it, and reports the outcome to it.
+	 */
+	private Connection borrowConnection() throws SQLException {
+		if (!this.breaker.allowRequest()) {
+			throw circuitOpen();
+		}
+		final Connection connection;
+		try {
+			connection = this.connections.getConnection();
+		}
+		catch (final SQLException exception) {
+			this.breaker.recordFailure(exception);
+			throw exception;
+		}
+		this.breaker.recordSuccess();
+		return connection;
+	}
+
+	private CircuitBreaker.CircuitOpenException circuitOpen() {
+		return new CircuitBreaker.CircuitOpenException("Database of " + this.plugin.getName()
+				+ " is unreachable, not waiting for a connection");
+	}
+
+	/**
+	 * Runs a statement of one of the helpers of this datasource, recording how long it took in the datasource's
+	 * metrics.
+	 *
+	 * @param sql The statement text, used to log it if it was slow.
+	 * @param connection The connection to run the statement on, borrowed from this datasource.
+	 * @param statement Runs the statement.
+	 * @return Returns the result of the statement.
+	 * @throws SQLException If the statement failed.
+	 */
+	<T> T timed(@Nonnull final String sql,
+				@Nonnull final Connection connection,
+				@Nonnull final SqlFunction<Connection, T> statement) throws SQLException {
+		final long start = System.nanoTime();
+		try {
+			return statement.apply(connection);
+		}
+		finally {
+			// connections of a transaction scope are always borrowed from the primary
+			final PoolMetrics pool = connection instanceof DatasourceConnection borrowed
+					? borrowed.getPool() : this.connections.getMetrics();
+			this.metrics.recordStatement(sql, System.nanoTime() - start, pool);
+		}
+	}
+
+	/**
+	 * @return Returns the circuit breaker guarding the primary database.
+	 */
+	@Nonnull
+	public CircuitBreaker getCircuitBreaker() {
+		return this.breaker;
+	}
+
+	/**
+	 * Sets how work run through {@link #execute(SqlFunction)} and the asynchronous methods is retried when the
+	 * database can not be reached.
+	 *
+	 * @param retryPolicy The policy to retry with, {@link RetryPolicy#NONE} to never retry.
+	 */
+	public void setRetryPolicy(@Nonnull final RetryPolicy retryPolicy) {
+		this.retryPolicy = Objects.requireNonNull(retryPolicy);
+	}
+
+	/**
+	 * @return Returns the amount of asynchronous writes waiting for the database to become reachable again. They are
+	 *         only held in memory, and fail when the datasource is closed before the database recovers.
+	 */
+	public int getSpilledWriteCount() {
+		synchronized (this.spill) {
+			return this.spill.size();
+		}
+	}
+
+	/**
+	 * Runs the given work on a connection of this datasource, retrying it according to the retry policy if the
+	 * database could not be reached. Blocks while waiting between attempts, so never use this on the main thread.
+	 * Since the connection may be lost after the database already ran a statement, the work must be safe to run more
+	 * than once, use {@link #executeWrite(SqlFunction)} for work which is not.
+	 *
+	 * @param work The work to run, which may be run more than once.
+	 * @return Returns the result of the work.
+	 * @throws SQLException If the work failed for good.
+	 */
+	public <T> T execute(@Nonnull final SqlFunction<Connection, T> work) throws SQLException {
+		return this.retryPolicy.execute(this, work, true);
+	}
+
+	/**
+	 * Runs the given work on a connection of this datasource, only retrying it according to the retry policy if no
+	 * connection could be obtained, so that writes which are not safe to repeat never run twice. Blocks while waiting
+	 * between attempts, so never use this on the main thread.
+	 *
+	 * @param work The work to run.
+	 * @return Returns the result of the work.
+	 * @throws SQLException If the work failed for good.
+	 */
+	public <T> T executeWrite(@Nonnull final SqlFunction<Connection, T> work) throws SQLException {
+		return this.retryPolicy.execute(this, work, false);
+	}
+
+	/**
+	 * @return Returns the name of the plugin whose database is being managed.
+	 */
+	@Nonnull
+	public String getPluginName() {
+		return this.plugin.getName();
+	}
+
+	/**
+	 * @return Returns the metrics of the underlying connection pool, which may be shared with other datasources.
+	 */
+	@Nonnull
+	public PoolMetrics getMetrics() {
+		return this.connections.getMetrics();
+	}
+
+	/**
+	 * @return Returns the metrics of the connections handed out by this datasource alone, including every statement
+	 *         executed on them.
+	 */
+	@Nonnull
+	public DatasourceMetrics getDatasourceMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * @return Returns the executor running asynchronous work if any has been submitted yet, otherwise null.
+	 */
+	@Nullable
+	public DatabaseExecutor getAsyncExecutorIfPresent() {
+		return this.asyncExecutor;
+	}
+
+	/**
+	 * @return Returns all datasources which have not been closed yet.
+	 */
+	@Nonnull
+	public static Collection<ManagedDatasource> getInstances() {
+		return Collections.unmodifiableSet(INSTANCES);
+	}
+
+	/**
+	 * Replaces the factory used to create the threads running asynchronous work, for example to run it on virtual
+	 * threads where the runtime supports them. Must be called before any asynchronous work is submitted.
+	 *
+	 * @param threadFactory The factory to create threads with.
+	 */
+	public synchronized void setAsyncThreadFactory(@Nonnull final ThreadFactory threadFactory) {
+		if (this.asyncExecutor != null) {
+			throw new IllegalStateException("Asynchronous work has already been submitted");
+		}
+		this.asyncThreadFactory = Objects.requireNonNull(threadFactory);
+	}
+
+	/**
+	 * Gets the executor running asynchronous work for this datasource, creating it if necessary. It runs at most as
+	 * many tasks at once as the datasource may hold connections, minus a few reserved for synchronous users, so that
+	 * busy asynchronous work does not block them until connections time out. Datasources allowed too few connections
+	 * for a reserve still get a single thread, which may then hold their only connection.
+	 *
+	 * @return Returns the executor for asynchronous work.
+	 */
+	@Nonnull
+	public DatabaseExecutor getAsyncExecutor() {
+		DatabaseExecutor executor = this.asyncExecutor;
+		if (executor == null) {
+			synchronized (this) {
+				executor = this.asyncExecutor;
+				if (executor == null) {
+					ThreadFactory threadFactory = this.asyncThreadFactory;
+					if (threadFactory == null) {
+						final var counter = new AtomicInteger();
+						threadFactory = (runnable) -> {
+							final var thread = new Thread(runnable,
+									this.plugin.getName() + "-db-" + counter.getAndIncrement());
+							thread.setDaemon(true);
+							return thread;
+						};
+					}
+					final int threads = Math.max(1, this.quotaLimit - RESERVED_SYNC_CONNECTIONS);
+					executor = new DatabaseExecutor(threads, ASYNC_QUEUE_CAPACITY, threadFactory);
+					this.asyncExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Runs the given work asynchronously on its own connection.
+	 *
+	 * @param priority The priority of the work.
+	 * @param work The work to run.
+	 * @return Returns a future completed with the result of the work, or exceptionally if it threw or was rejected
+	 *         because too much work is already queued.
+	 */
+	@Nonnull
+	public <T> CompletableFuture<T> submit(@Nonnull final QueryPriority priority,
+										   @Nonnull final SqlFunction<Connection, T> work) {
+		return getAsyncExecutor().submit(priority, () -> execute(work));
+	}
+
+	/**
+	 * Runs the given write asynchronously, only retrying it if it failed before it started, see
+	 * {@link #executeWrite(SqlFunction)}. While the database is unreachable, the write is held back instead of failing,
+	 * and run once the database is reachable again, in the order it was submitted. Held back writes are only kept in
+	 * memory, up to {@link #SPILL_CAPACITY} of them, so they are lost if the server stops, and fail if the datasource
+	 * is closed before the database recovers.
+	 */
+	private <T> CompletableFuture<T> submitWrite(final QueryPriority priority,
+												 final SqlFunction<Connection, T> work) {
+		final var future = new CompletableFuture<T>();
+		if (this.breaker.isRejecting()) {
+			spillWrite(new SpilledWrite<>(work, future));
+			return future;
+		}
+		getAsyncExecutor().submit(priority, () -> executeWrite(work)).whenComplete((result, exception) -> {
+			final Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+			if (cause instanceof CircuitBreaker.CircuitOpenException) {
+				spillWrite(new SpilledWrite<>(work, future));
+			}
+			else if (cause != null) {
+				future.completeExceptionally(cause);
+			}
+			else {
+				future.complete(result);
+			}
+		});
+		return future;
+	}
+
+	private void spillWrite(final SpilledWrite<?> write) {
+		synchronized (this.spill) {
+			if (this.spill.size() >= SPILL_CAPACITY) {
+				write.future().completeExceptionally(new RejectedExecutionException("Database of "
+						+ this.plugin.getName() + " is unreachable and " + SPILL_CAPACITY + " writes are held back"));
+				return;
+			}
+			if (this.spill.isEmpty()) {
+				this.logger.warning("Database is unreachable, holding back writes until it recovers.");
+			}
+			this.spill.addLast(write);
+		}
+		if (this.breaker.getState() == CircuitBreaker.State.CLOSED) {
+			replaySpilledWrites(); // closed again in the meantime
+		}
+	}
+
+	/**
+	 * Runs all held back writes in order on a single worker, putting them back if the database becomes unreachable
+	 * again halfway through. Every other failure completes the future of the failed write, so it is not run again.
+	 */
+	private void replaySpilledWrites() {
+		final List<SpilledWrite<?>> writes;
+		synchronized (this.spill) {
+			if (this.spill.isEmpty()) {
+				return;
+			}
+			writes = new ArrayList<>(this.spill);
+			this.spill.clear();
+		}
+		this.logger.info("Database is reachable again, running " + writes.size() + " held back writes.");
+		getAsyncExecutor().submit(QueryPriority.HIGH, () -> {
+			for (int i = 0; i < writes.size(); i++) {
+				try (final Connection connection = getConnection()) {
+					writes.get(i).run(connection);
+				}
+				catch (final CircuitBreaker.CircuitOpenException exception) {
+					respill(writes.subList(i, writes.size()));
+					break;
+				}
+				catch (final Throwable exception) {
+					writes.get(i).future().completeExceptionally(exception);
+				}
+			}
+			return null;
+		}).whenComplete((ignored, exception) -> {
+			if (exception != null) {
+				respill(writes); // the replay itself was rejected
+			}
+		});
+	}
+
+	private void respill(final List<SpilledWrite<?>> writes) {
+		synchronized (this.spill) {
+			for (int i = writes.size() - 1; i >= 0; i--) {
+				if (!writes.get(i).future().isDone()) {
+					this.spill.addFirst(writes.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs a query asynchronously.
+	 *
+	 * @param priority The priority of the query.
+	 * @param sql The query to run.
+	 * @param binder Sets the parameters of the query.
+	 * @param mapper Converts the results of the query, must not hold on to the result set.
+	 * @return Returns a future completed with the mapped results.
+	 */
+	@Nonnull
+	public <T> CompletableFuture<T> query(@Nonnull final QueryPriority priority,
+										  @Nonnull final String sql,
+										  @Nonnull final SqlConsumer<PreparedStatement> binder,
+										  @Nonnull final SqlFunction<ResultSet, T> mapper) {
+		return submit(priority, (connection) -> timed(sql, connection, (measured) -> {
+			try (final PreparedStatement statement = measured.prepareStatement(sql)) {
+				binder.accept(statement);
+				try (final ResultSet set = statement.executeQuery()) {
+					return mapper.apply(set);
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Runs an update asynchronously.
+	 *
+	 * @param priority The priority of the update.
+	 * @param sql The update to run.
+	 * @param binder Sets the parameters of the update.
+	 * @return Returns a future completed with the amount of rows affected. While the database is unreachable, the
+	 *         update is held back in memory, see {@link #getSpilledWriteCount()}.
+	 */
+	@Nonnull
+	public CompletableFuture<Integer> update(@Nonnull final QueryPriority priority,
+											 @Nonnull final String sql,
+											 @Nonnull final SqlConsumer<PreparedStatement> binder) {
+		return submitWrite(priority, (connection) -> timed(sql, connection, (measured) -> {
+			try (final PreparedStatement statement = measured.prepareStatement(sql)) {
+				binder.accept(statement);
+				return statement.executeUpdate();
+			}
+		}));
+	}
+
+	/**
+	 * Runs the same statement for every given element asynchronously, as a single batch.
+	 *
+	 * @param priority The priority of the batch.
+	 * @param sql The statement to run.
+	 * @param elements The elements to run the statement for.
+	 * @param binder Sets the parameters of the statement for one element.
+	 * @return Returns a future completed with the update counts of the batch. While the database is unreachable, the
+	 *         batch is held back in memory, see {@link #getSpilledWriteCount()}.
+	 */
+	@Nonnull
+	public <E> CompletableFuture<int[]> batch(@Nonnull final QueryPriority priority,
+											  @Nonnull final String sql,
+											  @Nonnull final Collection<E> elements,
+											  @Nonnull final SqlBiConsumer<PreparedStatement, E> binder) {
+		return submitWrite(priority, (connection) -> timed(sql, connection, (measured) -> {
+			try (final PreparedStatement statement = measured.prepareStatement(sql)) {
+				for (final E element : elements) {
+					binder.accept(statement, element);
+					statement.addBatch();
+				}
+				return statement.executeBatch();
+			}
+		}));
+	}
+
+	/**
+	 * Runs a query whose results are streamed from the database as they are consumed, rather than the driver reading
+	 * all of them into memory first. Use this for loads which may return a very large amount of rows. The returned
+	 * stream holds its own connection until it is closed, so always close it, preferably with try-with-resources.
+	 *
+	 * Closing the stream before all rows have been read may still make the driver read the remaining rows.
+	 *
+	 * {@code
+	 *   try (Stream<Foo> foos = datasource.stream("SELECT * FROM foo;", (statement) -> {}, Foo::fromRow)) {
+	 *   	foos.forEach(...);
+	 *   }
+	 * }
+	 *
+	 * @param sql The query to run.
+	 * @param binder Sets the parameters of the query.
+	 * @param mapper Converts the current row of the result set, must not move the result set.
+	 * @return Returns a sequential stream of the mapped rows. Failures while reading are thrown by the stream as an
+	 *         {@link IllegalStateException} with the {@link SQLException} as cause.
+	 * @throws SQLException If the query could not be run.
+	 */
+	@Nonnull
+	public <T> Stream<T> stream(@Nonnull final String sql,
+								@Nonnull final SqlConsumer<PreparedStatement> binder,
+								@Nonnull final SqlFunction<ResultSet, T> mapper) throws SQLException {
+		return stream(ReadPreference.PRIMARY, sql, binder, mapper);
 	}
 
 	/**
-	 * Passthrough; closes the underlying pool. Cannot be undone.
+	 * Streams a query like {@link #stream(String, SqlConsumer, SqlFunction)}, from one of the read replicas if the
+	 * preference allows it, see {@link #getReadConnection(ReadPreference)}.
+	 *
+	 * @param preference Whether the query may be served by a replica.
+	 * @param sql The query to run.
+	 * @param binder Sets the parameters of the query.
+	 * @param mapper Converts the current row of the result set, must not move the result set.
+	 * @return Returns a sequential stream of the mapped rows. Failures while reading are thrown by the stream as an
+	 *         {@link IllegalStateException} with the {@link SQLException} as cause.
+	 * @throws SQLException If the query could not be run.
+	 */
+	@Nonnull
+	public <T> Stream<T> stream(@Nonnull final ReadPreference preference,
+								@Nonnull final String sql,
+								@Nonnull final SqlConsumer<PreparedStatement> binder,
+								@Nonnull final SqlFunction<ResultSet, T> mapper) throws SQLException {
+		// never the connection of a TransactionScope, nothing else can run on a connection while it streams
+		final Connection replica = preference == ReadPreference.PRIMARY ? null : getReplicaConnection();
+		final Connection connection = replica != null ? replica : getPooledConnection();
+		try {
+			final PreparedStatement statement = connection.prepareStatement(sql,
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			// MySQL's driver only streams given this magic value, MariaDB's streams in batches of the fetch size
+			statement.setFetchSize("mysql".equalsIgnoreCase(this.credentials.driver())
+					? Integer.MIN_VALUE : STREAM_FETCH_SIZE);
+			binder.accept(statement);
+			final ResultSet set = timed(sql, connection, (measured) -> statement.executeQuery());
+			return StreamSupport.stream(new ResultSetSpliterator<>(set, mapper), false).onClose(() -> {
+				try {
+					connection.close();
+				}
+				catch (final SQLException exception) {
+					this.logger.log(Level.WARNING, "Failed to close streamed query", exception);
+				}
+			});
+		}
+		catch (final SQLException | RuntimeException exception) {
+			connection.close();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Streams a query like {@link #stream(String, SqlConsumer, SqlFunction)}, but decodes the rows on the given
+	 * executor in batches, which pays off when decoding is much more expensive than reading, such as parsing JSON.
+	 * Reading is paused while too many batches are waiting to be decoded, so memory use stays bounded no matter how
+	 * many rows are returned. Decoded rows are handed to the consumer on the calling thread, in the order of the result.
+	 *
+	 * @param sql The query to run.
+	 * @param binder Sets the parameters of the query.
+	 * @param reader Reads the raw values needed from the current row, should be cheap.
+	 * @param decoder Decodes the raw values, called on the executor. Rows decoded to null are skipped.
+	 * @param executor The executor to decode on.
+	 * @param consumer Receives every decoded row.
+	 * @throws SQLException If the query could not be run or reading failed.
+	 */
+	public <R, T> void streamDecoded(@Nonnull final String sql,
+									 @Nonnull final SqlConsumer<PreparedStatement> binder,
+									 @Nonnull final SqlFunction<ResultSet, R> reader,
+									 @Nonnull final Function<R, T> decoder,
+									 @Nonnull final Executor executor,
+									 @Nonnull final Consumer<T> consumer) throws SQLException {
+		streamDecoded(ReadPreference.PRIMARY, sql, binder, reader, decoder, executor, consumer);
+	}
+
+	/**
+	 * Streams and decodes a query like {@link #streamDecoded(String, SqlConsumer, SqlFunction, Function, Executor,
+	 * Consumer)}, from one of the read replicas if the preference allows it, see
+	 * {@link #getReadConnection(ReadPreference)}.
+	 *
+	 * @param preference Whether the query may be served by a replica.
+	 * @param sql The query to run.
+	 * @param binder Sets the parameters of the query.
+	 * @param reader Reads the raw values needed from the current row, should be cheap.
+	 * @param decoder Decodes the raw values, called on the executor. Rows decoded to null are skipped.
+	 * @param executor The executor to decode on.
+	 * @param consumer Receives every decoded row.
+	 * @throws SQLException If the query could not be run or reading failed.
+	 */
+	public <R, T> void streamDecoded(@Nonnull final ReadPreference preference,
+									 @Nonnull final String sql,
+									 @Nonnull final SqlConsumer<PreparedStatement> binder,
+									 @Nonnull final SqlFunction<ResultSet, R> reader,
+									 @Nonnull final Function<R, T> decoder,
+									 @Nonnull final Executor executor,
+									 @Nonnull final Consumer<T> consumer) throws SQLException {
+		final var pending = new ArrayDeque<CompletableFuture<List<T>>>(MAX_PENDING_DECODE_BATCHES);
+		try (final Stream<R> rows = stream(preference, sql, binder, reader)) {
+			final Iterator<R> iterator = rows.iterator();
+			List<R> batch = new ArrayList<>(DECODE_BATCH_SIZE);
+			while (iterator.hasNext()) {
+				batch.add(iterator.next());
+				if (batch.size() < DECODE_BATCH_SIZE) {
+					continue;
+				}
+				pending.addLast(decodeBatch(batch, decoder, executor));
+				batch = new ArrayList<>(DECODE_BATCH_SIZE);
+				if (pending.size() >= MAX_PENDING_DECODE_BATCHES) {
+					pending.removeFirst().join().forEach(consumer);
+				}
+			}
+			if (!batch.isEmpty()) {
+				pending.addLast(decodeBatch(batch, decoder, executor));
+			}
+			while (!pending.isEmpty()) {
+				pending.removeFirst().join().forEach(consumer);
+			}
+		}
+		catch (final IllegalStateException exception) {
+			if (exception.getCause() instanceof SQLException cause) {
+				throw cause;
+			}
+			throw exception;
+		}
+	}
+
+	private static <R, T> CompletableFuture<List<T>> decodeBatch(final List<R> batch,
+																  final Function<R, T> decoder,
+																  final Executor executor) {
+		return CompletableFuture.supplyAsync(() -> {
+			final var decoded = new ArrayList<T>(batch.size());
+			for (final R row : batch) {
+				final T value = decoder.apply(row);
+				if (value != null) {
+					decoded.add(value);
+				}
+			}
+			return decoded;
+		}, executor);
+	}
+
+	/**
+	 * Passthrough; closes the underlying pool. Cannot be undone. Waits for queued asynchronous work to finish first.
 	 * 
 	 * @throws SQLException Something went horribly wrong.
 	 */
 	public void close() throws SQLException {
-		this.connections.close();
+		INSTANCES.remove(this);
+		if (!this.breaker.isRejecting()) {
+			replaySpilledWrites();
+		}
+		final DatabaseExecutor executor = this.asyncExecutor;
+		if (executor != null && !executor.shutdown(ASYNC_SHUTDOWN_TIMEOUT)) {
+			this.logger.warning("Timed out waiting for queued database work to finish.");
+		}
+		synchronized (this.spill) {
+			if (!this.spill.isEmpty()) {
+				this.logger.severe("Database is unreachable, dropping " + this.spill.size() + " held back writes.");
+				final var exception = new SQLException("Datasource was closed before the database recovered");
+				this.spill.forEach((write) -> write.future().completeExceptionally(exception));
+				this.spill.clear();
+			}
+		}
+		for (final ConnectionPool replica : this.replicas) {
+			if (replica.getHikariDataSource() != null) {
+				replica.close();
+			}
+		}
+		if (this.credentials.sharedPool()) {
+			SharedConnectionPools.release(this.connections);
+		}
+		else {
+			this.connections.close();
+		}
+	}
+
+	private record SpilledWrite<T>(SqlFunction<Connection, T> work, CompletableFuture<T> future) {
+		void run(final Connection connection) throws SQLException {
+			this.future.complete(this.work.apply(connection));
+		}
 	}
 
 	private static record Migration(boolean ignoreErrors, Callable<Boolean> postMigration, List<String> migrations) {
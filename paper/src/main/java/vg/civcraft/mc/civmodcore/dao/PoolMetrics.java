@@ -0,0 +1,184 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+
+/**
+ * Collects metrics of one {@link ConnectionPool}. Borrow wait and hold times are reported by Hikari itself when a
+ * connection is handed out or returned, so tracking them costs a few atomic additions per borrow and nothing per
+ * query. Statements are timed by the {@link DatasourceMetrics} of each datasource using the pool, which report slow
+ * ones here too, so that the pool's summary counts them all.
+ *
+ * All counters are cumulative since the pool was created, only the maximums are reset by each summary.
+ */
+public final class PoolMetrics implements IMetricsTracker {
+
+	private static volatile long slowThreshold = 1000L;
+
+	private final String name;
+	private final Logger logger;
+	private volatile PoolStats poolStats;
+
+	private final LongAdder borrowCount = new LongAdder();
+	private final LongAdder borrowWaitNanos = new LongAdder();
+	private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+	private final LongAdder holdCount = new LongAdder();
+	private final LongAdder holdMillis = new LongAdder();
+	private final AtomicLong maxHoldMillis = new AtomicLong();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder slowStatements = new LongAdder();
+
+	PoolMetrics(@Nonnull final String name, @Nonnull final Logger logger) {
+		this.name = name;
+		this.logger = logger;
+	}
+
+	/**
+	 * Sets the time after which statements and connection usages are considered slow and logged. Applies to all pools.
+	 *
+	 * @param milliseconds The threshold in milliseconds, zero or less to disable slow logging.
+	 */
+	public static void setSlowThreshold(final long milliseconds) {
+		slowThreshold = milliseconds;
+	}
+
+	/**
+	 * @return Returns the time in milliseconds after which statements are considered slow, zero or less if disabled.
+	 */
+	public static long getSlowThreshold() {
+		return slowThreshold;
+	}
+
+	/**
+	 * @return Returns the name of the pool these metrics belong to.
+	 */
+	@Nonnull
+	public String getName() {
+		return this.name;
+	}
+
+	void bind(@Nonnull final PoolStats poolStats) {
+		this.poolStats = poolStats;
+	}
+
+	@Override
+	public void recordConnectionAcquiredNanos(final long elapsedAcquiredNanos) {
+		this.borrowCount.increment();
+		this.borrowWaitNanos.add(elapsedAcquiredNanos);
+		this.maxBorrowWaitNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+	}
+
+	@Override
+	public void recordConnectionUsageMillis(final long elapsedBorrowedMillis) {
+		this.holdCount.increment();
+		this.holdMillis.add(elapsedBorrowedMillis);
+		this.maxHoldMillis.accumulateAndGet(elapsedBorrowedMillis, Math::max);
+		final long threshold = slowThreshold;
+		if (threshold > 0 && elapsedBorrowedMillis >= threshold) {
+			this.logger.warning(String.format("[%s] Connection was held for %d ms on %s", this.name,
+					elapsedBorrowedMillis, Thread.currentThread().getName()));
+		}
+	}
+
+	@Override
+	public void recordConnectionTimeout() {
+		this.timeouts.increment();
+	}
+
+	/**
+	 * Counts a slow statement, which the datasource running it has already logged.
+	 */
+	void recordSlowStatement() {
+		this.slowStatements.increment();
+	}
+
+	/**
+	 * Takes a snapshot of the current metrics.
+	 *
+	 * @param resetMaximums Whether to reset the maximum wait and hold times afterwards.
+	 * @return Returns the snapshot.
+	 */
+	@Nonnull
+	public Snapshot snapshot(final boolean resetMaximums) {
+		final PoolStats stats = this.poolStats;
+		return new Snapshot(
+				stats == null ? 0 : stats.getActiveConnections(),
+				stats == null ? 0 : stats.getIdleConnections(),
+				stats == null ? 0 : stats.getPendingThreads(),
+				stats == null ? 0 : stats.getMaxConnections(),
+				this.borrowCount.sum(),
+				this.borrowWaitNanos.sum(),
+				resetMaximums ? this.maxBorrowWaitNanos.getAndSet(0) : this.maxBorrowWaitNanos.get(),
+				this.holdCount.sum(),
+				this.holdMillis.sum(),
+				resetMaximums ? this.maxHoldMillis.getAndSet(0) : this.maxHoldMillis.get(),
+				this.timeouts.sum(),
+				this.slowStatements.sum());
+	}
+
+	/**
+	 * Point in time view of a pool's metrics.
+	 */
+	public record Snapshot(int active,
+						   int idle,
+						   int pending,
+						   int max,
+						   long borrows,
+						   long borrowWaitNanos,
+						   long maxBorrowWaitNanos,
+						   long holds,
+						   long holdMillis,
+						   long maxHoldMillis,
+						   long timeouts,
+						   long slowStatements) {
+
+		/**
+		 * @return Returns the average time spent waiting for a connection in milliseconds.
+		 */
+		public double averageBorrowWaitMillis() {
+			return this.borrows == 0 ? 0 : this.borrowWaitNanos / 1_000_000.0 / this.borrows;
+		}
+
+		/**
+		 * @return Returns the average time a connection was held in milliseconds.
+		 */
+		public double averageHoldMillis() {
+			return this.holds == 0 ? 0 : (double) this.holdMillis / this.holds;
+		}
+
+		/**
+		 * Creates a snapshot of the activity between an earlier snapshot and this one. Pool sizes and maximums are
+		 * kept as they are.
+		 *
+		 * @param earlier The earlier snapshot.
+		 * @return Returns the difference.
+		 */
+		@Nonnull
+		public Snapshot since(@Nonnull final Snapshot earlier) {
+			return new Snapshot(this.active, this.idle, this.pending, this.max,
+					this.borrows - earlier.borrows,
+					this.borrowWaitNanos - earlier.borrowWaitNanos,
+					this.maxBorrowWaitNanos,
+					this.holds - earlier.holds,
+					this.holdMillis - earlier.holdMillis,
+					this.maxHoldMillis,
+					this.timeouts - earlier.timeouts,
+					this.slowStatements - earlier.slowStatements);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("active %d, idle %d, pending %d, max %d | %d borrows, wait avg %.2f ms max %.2f ms"
+							+ " | hold avg %.2f ms max %d ms | %d timeouts, %d slow statements",
+					this.active, this.idle, this.pending, this.max, this.borrows, averageBorrowWaitMillis(),
+					this.maxBorrowWaitNanos / 1_000_000.0, averageHoldMillis(), this.maxHoldMillis, this.timeouts,
+					this.slowStatements);
+		}
+
+	}
+
+}
@@ -0,0 +1,59 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+
+/**
+ * Periodically logs a summary of what every open {@link ManagedDatasource}'s pool did since the last summary.
+ */
+public final class PoolMetricsReporter implements Runnable {
+
+	private final Logger logger;
+	private final Map<PoolMetrics, PoolMetrics.Snapshot> previous;
+	private final Map<DatasourceMetrics, DatasourceMetrics.Snapshot> previousDatasources;
+
+	public PoolMetricsReporter(@Nonnull final Logger logger) {
+		this.logger = logger;
+		this.previous = new WeakHashMap<>();
+		this.previousDatasources = new WeakHashMap<>();
+	}
+
+	@Override
+	public synchronized void run() {
+		// shared pools are used by several datasources, but must only be summarised once
+		final Map<PoolMetrics, List<ManagedDatasource>> pools = new LinkedHashMap<>();
+		for (final ManagedDatasource datasource : ManagedDatasource.getInstances()) {
+			pools.computeIfAbsent(datasource.getMetrics(), (metrics) -> new ArrayList<>()).add(datasource);
+		}
+		for (final Map.Entry<PoolMetrics, List<ManagedDatasource>> pool : pools.entrySet()) {
+			final PoolMetrics.Snapshot current = pool.getKey().snapshot(true);
+			final PoolMetrics.Snapshot last = this.previous.put(pool.getKey(), current);
+			final PoolMetrics.Snapshot interval = last == null ? current : current.since(last);
+			if (interval.borrows() == 0 && interval.pending() == 0) {
+				continue; // idle, nothing worth logging
+			}
+			final var line = new StringBuilder();
+			line.append('[').append(pool.getKey().getName()).append("] ").append(interval);
+			for (final ManagedDatasource datasource : pool.getValue()) {
+				// hold times of the pool mix all of its datasources, so each one's usage is listed separately
+				final DatasourceMetrics metrics = datasource.getDatasourceMetrics();
+				final DatasourceMetrics.Snapshot usage = metrics.snapshot(true);
+				final DatasourceMetrics.Snapshot lastUsage = this.previousDatasources.put(metrics, usage);
+				line.append(" | ").append(datasource.getPluginName()).append(": ")
+						.append(lastUsage == null ? usage : usage.since(lastUsage));
+				final DatabaseExecutor executor = datasource.getAsyncExecutorIfPresent();
+				if (executor != null) {
+					line.append(String.format(" | %s async queue %d/%d", datasource.getPluginName(),
+							executor.getQueueSize(), executor.getQueueCapacity()));
+				}
+			}
+			this.logger.info(line.toString());
+		}
+	}
+
+}
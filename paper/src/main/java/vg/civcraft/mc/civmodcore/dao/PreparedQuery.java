@@ -0,0 +1,148 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A query declared once, typically as a constant of a DAO, together with how to turn each row of its result into an
+ * object. Statements are prepared against the given connection every call, which is cheap: {@link ConnectionPool}
+ * configures the driver to cache prepared statements per pooled connection, so repeated calls with the same SQL reuse
+ * the statement the driver parsed the first time. The server still parses the SQL on every execution, unless the
+ * credentials opt into server_prepared_statements, which is off by default as cached server-side statements take up
+ * memory on the server and are not supported by every server or proxy.
+ *
+ * {@code
+ *   private static final PreparedQuery<Short> GET_PLUGIN_ID = PreparedQuery.of(
+ *   		"SELECT id FROM cmc_plugins WHERE name = ?;", (row) -> row.getShort(1));
+ *
+ *   Short id = GET_PLUGIN_ID.first(datasource, (statement) -> statement.setString(1, name));
+ * }
+ *
+ * @param <T> The type each row is mapped to.
+ */
+public final class PreparedQuery<T> {
+
+	private static final SqlConsumer<PreparedStatement> NO_PARAMETERS = (statement) -> {};
+
+	private final String sql;
+	private final SqlFunction<ResultSet, T> rowMapper;
+
+	private PreparedQuery(final String sql, final SqlFunction<ResultSet, T> rowMapper) {
+		this.sql = sql;
+		this.rowMapper = rowMapper;
+	}
+
+	/**
+	 * @param sql The query.
+	 * @param rowMapper Maps the current row of a result set, must not move the cursor.
+	 * @return Returns a new query.
+	 */
+	@Nonnull
+	public static <T> PreparedQuery<T> of(@Nonnull final String sql,
+										  @Nonnull final SqlFunction<ResultSet, T> rowMapper) {
+		return new PreparedQuery<>(Objects.requireNonNull(sql), Objects.requireNonNull(rowMapper));
+	}
+
+	/**
+	 * @return Returns the SQL of this query.
+	 */
+	@Nonnull
+	public String getSql() {
+		return this.sql;
+	}
+
+	/**
+	 * Runs the query and maps its first row.
+	 *
+	 * @param connection The connection to run the query on.
+	 * @param binder Sets the parameters of the query.
+	 * @return Returns the first row mapped, or null if there are no results.
+	 * @throws SQLException If the query failed.
+	 */
+	@Nullable
+	public T first(@Nonnull final Connection connection,
+				   @Nonnull final SqlConsumer<PreparedStatement> binder) throws SQLException {
+		try (final PreparedStatement statement = connection.prepareStatement(this.sql)) {
+			binder.accept(statement);
+			statement.setMaxRows(1);
+			try (final ResultSet set = statement.executeQuery()) {
+				return set.next() ? this.rowMapper.apply(set) : null;
+			}
+		}
+	}
+
+	/**
+	 * Runs the query on a connection of the given datasource and maps its first row.
+	 *
+	 * @param datasource The datasource to run the query on.
+	 * @param binder Sets the parameters of the query.
+	 * @return Returns the first row mapped, or null if there are no results.
+	 * @throws SQLException If the query failed.
+	 */
+	@Nullable
+	public T first(@Nonnull final ManagedDatasource datasource,
+				   @Nonnull final SqlConsumer<PreparedStatement> binder) throws SQLException {
+		try (final Connection connection = datasource.getConnection()) {
+			return datasource.timed(this.sql, connection, (measured) -> first(measured, binder));
+		}
+	}
+
+	/**
+	 * Runs the query and maps all rows.
+	 *
+	 * @param connection The connection to run the query on.
+	 * @param binder Sets the parameters of the query.
+	 * @return Returns all rows mapped.
+	 * @throws SQLException If the query failed.
+	 */
+	@Nonnull
+	public List<T> list(@Nonnull final Connection connection,
+						@Nonnull final SqlConsumer<PreparedStatement> binder) throws SQLException {
+		final var results = new ArrayList<T>();
+		try (final PreparedStatement statement = connection.prepareStatement(this.sql)) {
+			binder.accept(statement);
+			try (final ResultSet set = statement.executeQuery()) {
+				while (set.next()) {
+					results.add(this.rowMapper.apply(set));
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Runs the query on a connection of the given datasource and maps all rows.
+	 *
+	 * @param datasource The datasource to run the query on.
+	 * @param binder Sets the parameters of the query.
+	 * @return Returns all rows mapped.
+	 * @throws SQLException If the query failed.
+	 */
+	@Nonnull
+	public List<T> list(@Nonnull final ManagedDatasource datasource,
+						@Nonnull final SqlConsumer<PreparedStatement> binder) throws SQLException {
+		try (final Connection connection = datasource.getConnection()) {
+			return datasource.timed(this.sql, connection, (measured) -> list(measured, binder));
+		}
+	}
+
+	/**
+	 * Runs the query without parameters on a connection of the given datasource and maps all rows.
+	 *
+	 * @param datasource The datasource to run the query on.
+	 * @return Returns all rows mapped.
+	 * @throws SQLException If the query failed.
+	 */
+	@Nonnull
+	public List<T> list(@Nonnull final ManagedDatasource datasource) throws SQLException {
+		return list(datasource, NO_PARAMETERS);
+	}
+
+}
@@ -0,0 +1,136 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+
+/**
+ * An insert, update or delete declared once, typically as a constant of a DAO. See {@link PreparedQuery} for why
+ * preparing it on every call is cheap.
+ */
+public final class PreparedUpdate {
+
+	private final String sql;
+
+	private PreparedUpdate(final String sql) {
+		this.sql = sql;
+	}
+
+	/**
+	 * @param sql The statement.
+	 * @return Returns a new update.
+	 */
+	@Nonnull
+	public static PreparedUpdate of(@Nonnull final String sql) {
+		return new PreparedUpdate(Objects.requireNonNull(sql));
+	}
+
+	/**
+	 * @return Returns the SQL of this update.
+	 */
+	@Nonnull
+	public String getSql() {
+		return this.sql;
+	}
+
+	/**
+	 * Runs the update.
+	 *
+	 * @param connection The connection to run the update on.
+	 * @param binder Sets the parameters of the update.
+	 * @return Returns the amount of rows affected.
+	 * @throws SQLException If the update failed.
+	 */
+	public int execute(@Nonnull final Connection connection,
+					   @Nonnull final SqlConsumer<PreparedStatement> binder) throws SQLException {
+		try (final PreparedStatement statement = connection.prepareStatement(this.sql)) {
+			binder.accept(statement);
+			return statement.executeUpdate();
+		}
+	}
+
+	/**
+	 * Runs the update on a connection of the given datasource.
+	 *
+	 * @param datasource The datasource to run the update on.
+	 * @param binder Sets the parameters of the update.
+	 * @return Returns the amount of rows affected.
+	 * @throws SQLException If the update failed.
+	 */
+	public int execute(@Nonnull final ManagedDatasource datasource,
+					   @Nonnull final SqlConsumer<PreparedStatement> binder) throws SQLException {
+		try (final Connection connection = datasource.getConnection()) {
+			return datasource.timed(this.sql, connection, (measured) -> execute(measured, binder));
+		}
+	}
+
+	/**
+	 * Runs an insert and returns the key it generated.
+	 *
+	 * @param datasource The datasource to run the insert on.
+	 * @param binder Sets the parameters of the insert.
+	 * @return Returns the first generated key, or -1 if none was generated.
+	 * @throws SQLException If the insert failed.
+	 */
+	public long insertReturningKey(@Nonnull final ManagedDatasource datasource,
+								   @Nonnull final SqlConsumer<PreparedStatement> binder) throws SQLException {
+		try (final Connection connection = datasource.getConnection()) {
+			return datasource.timed(this.sql, connection, (measured) -> {
+				try (final PreparedStatement statement = measured.prepareStatement(this.sql,
+						Statement.RETURN_GENERATED_KEYS)) {
+					binder.accept(statement);
+					statement.executeUpdate();
+					try (final ResultSet keys = statement.getGeneratedKeys()) {
+						return keys.next() ? keys.getLong(1) : -1L;
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Runs the update once for every element, as a single batch.
+	 *
+	 * @param connection The connection to run the batch on.
+	 * @param elements The elements to run the update for.
+	 * @param binder Sets the parameters of the update for one element.
+	 * @return Returns the update counts of the batch.
+	 * @throws SQLException If the batch failed.
+	 */
+	@Nonnull
+	public <E> int[] batch(@Nonnull final Connection connection,
+						   @Nonnull final Collection<E> elements,
+						   @Nonnull final SqlBiConsumer<PreparedStatement, E> binder) throws SQLException {
+		try (final PreparedStatement statement = connection.prepareStatement(this.sql)) {
+			for (final E element : elements) {
+				binder.accept(statement, element);
+				statement.addBatch();
+			}
+			return statement.executeBatch();
+		}
+	}
+
+	/**
+	 * Runs the update once for every element on a connection of the given datasource, as a single batch.
+	 *
+	 * @param datasource The datasource to run the batch on.
+	 * @param elements The elements to run the update for.
+	 * @param binder Sets the parameters of the update for one element.
+	 * @return Returns the update counts of the batch.
+	 * @throws SQLException If the batch failed.
+	 */
+	@Nonnull
+	public <E> int[] batch(@Nonnull final ManagedDatasource datasource,
+						   @Nonnull final Collection<E> elements,
+						   @Nonnull final SqlBiConsumer<PreparedStatement, E> binder) throws SQLException {
+		try (final Connection connection = datasource.getConnection()) {
+			return datasource.timed(this.sql, connection, (measured) -> batch(measured, elements, binder));
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Diagnostics which run {@code EXPLAIN} on a set of queries against the live schema and warn about those which can
+ * not use an index, so missing indexes or queries not matching the schema show up at startup rather than as lag. Only
+ * meant to be run on demand, as explaining every query takes a moment.
+ *
+ * Queries are explained as plain statements, with every parameter placeholder replaced by the literal {@code '0'} on
+ * the client, since not every database and driver configuration supports preparing {@code EXPLAIN} on the server. The
+ * literal compares against both numeric and text columns without defeating their indexes, but the database plans for
+ * that one value rather than the values used at runtime, so row estimates are rough and a plan may differ from the
+ * one actually used, for example when a range only turns out selective for real values. Inserts are skipped, as there
+ * is nothing to look up for them.
+ */
+public final class QueryPlanAdvisor {
+
+	private QueryPlanAdvisor() {
+	}
+
+	/**
+	 * Explains the given queries and logs the findings: a warning for every table accessed without an index or by a
+	 * full table scan, and a summary of how many queries are served from an index alone.
+	 *
+	 * @param datasource The datasource whose schema to check against.
+	 * @param queries The queries to check.
+	 * @param logger The logger to report to.
+	 * @return Returns one finding per table access of every checked query.
+	 */
+	@Nonnull
+	public static List<Finding> check(@Nonnull final ManagedDatasource datasource,
+									  @Nonnull final Collection<String> queries,
+									  @Nonnull final Logger logger) {
+		final var findings = new ArrayList<Finding>();
+		int checked = 0;
+		int problematic = 0;
+		int indexOnly = 0;
+		try (final Connection connection = datasource.getConnection()) {
+			for (final String sql : queries) {
+				if (!isExplainable(sql)) {
+					continue;
+				}
+				final List<Finding> plan;
+				try {
+					plan = explain(connection, sql);
+				}
+				catch (final SQLException exception) {
+					logger.warning("Query could not be explained, it most likely does not match the schema: "
+							+ sql.strip() + " (" + exception.getMessage() + ")");
+					continue;
+				}
+				checked++;
+				boolean hasProblem = false;
+				boolean coveredByIndex = true;
+				for (final Finding finding : plan) {
+					findings.add(finding);
+					if (finding.problem() != null) {
+						logger.warning("Query plan of " + sql.strip() + " " + finding);
+						hasProblem = true;
+					}
+					coveredByIndex &= finding.isIndexOnly();
+				}
+				if (hasProblem) {
+					problematic++;
+				}
+				else if (coveredByIndex && !plan.isEmpty()) {
+					indexOnly++;
+				}
+			}
+		}
+		catch (final SQLException exception) {
+			logger.warning("Could not check query plans: " + exception.getMessage());
+			return findings;
+		}
+		logger.info(String.format("Checked the query plans of %d queries: %d need attention, %d are served from indexes "
+				+ "alone", checked, problematic, indexOnly));
+		return findings;
+	}
+
+	private static boolean isExplainable(final String sql) {
+		final String verb = sql.stripLeading().split("\\s", 2)[0].toLowerCase(Locale.ROOT);
+		return verb.equals("select") || verb.equals("update") || verb.equals("delete");
+	}
+
+	private static List<Finding> explain(final Connection connection, final String sql) throws SQLException {
+		final var plan = new ArrayList<Finding>();
+		try (final Statement statement = connection.createStatement()) {
+			try (final ResultSet set = statement.executeQuery("EXPLAIN " + inlineParameters(sql.strip()))) {
+				while (set.next()) {
+					final String table = set.getString("table");
+					if (table == null) {
+						continue; // no table used, like "select last_insert_id()"
+					}
+					plan.add(Finding.of(sql, table, set.getString("type"), set.getString("key"),
+							set.getLong("rows"), set.getString("Extra")));
+				}
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Replaces every parameter placeholder outside of quoted strings and identifiers with the literal {@code '0'}.
+	 *
+	 * @param sql The statement to inline parameters into.
+	 * @return Returns the statement without placeholders.
+	 */
+	static String inlineParameters(final String sql) {
+		final var builder = new StringBuilder(sql.length() + 16);
+		char quote = 0;
+		for (int i = 0; i < sql.length(); i++) {
+			final char current = sql.charAt(i);
+			if (quote != 0) {
+				builder.append(current);
+				if (current == '\\' && quote != '`' && i + 1 < sql.length()) {
+					builder.append(sql.charAt(++i));
+				}
+				else if (current == quote) {
+					quote = 0;
+				}
+			}
+			else if (current == '\'' || current == '"' || current == '`') {
+				builder.append(current);
+				quote = current;
+			}
+			else if (current == '?') {
+				builder.append("'0'");
+			}
+			else {
+				builder.append(current);
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * How a query accesses one table.
+	 *
+	 * @param sql The query.
+	 * @param table The table accessed.
+	 * @param accessType The join type reported by the database, like "ref", "range" or "ALL".
+	 * @param key The index used, or null if none.
+	 * @param rows The estimated amount of rows examined.
+	 * @param extra Additional information reported by the database.
+	 * @param problem What is wrong with this access, or null if nothing.
+	 */
+	public record Finding(@Nonnull String sql,
+						  @Nonnull String table,
+						  @Nullable String accessType,
+						  @Nullable String key,
+						  long rows,
+						  @Nullable String extra,
+						  @Nullable String problem) {
+
+		private static final Pattern INDEX_ONLY = Pattern.compile("Using index(?! condition)");
+
+		static Finding of(final String sql, final String table, final String accessType, final String key,
+						  final long rows, final String extra) {
+			String problem = null;
+			if ("ALL".equals(accessType)) {
+				problem = "full table scan";
+			}
+			else if (key == null && !"system".equals(accessType)) {
+				problem = "no index used";
+			}
+			else if (extra != null && extra.contains("Using temporary")) {
+				problem = "temporary table needed";
+			}
+			return new Finding(sql, table, accessType, key, rows, extra, problem);
+		}
+
+		/**
+		 * @return Returns true if the table is accessed through an index without reading any rows.
+		 */
+		public boolean isIndexOnly() {
+			// "Using index condition" means rows are still read after filtering on the index
+			return this.problem == null && this.extra != null && INDEX_ONLY.matcher(this.extra).find();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("on %s: %s (type %s, key %s, ~%d rows, %s)", this.table,
+					this.problem == null ? "ok" : this.problem, this.accessType, this.key, this.rows, this.extra);
+		}
+
+	}
+
+}
@@ -0,0 +1,26 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+/**
+ * Priority classes of asynchronous database work submitted to a {@link ManagedDatasource}. Queued work of a higher
+ * priority is started before queued work of a lower priority submitted around the same time, work of the same priority
+ * is started in the order it was submitted. Lower priority work which has been waiting for long is started first
+ * though, so it can not starve, see {@link DatabaseExecutor}.
+ */
+public enum QueryPriority {
+
+	/**
+	 * Work something is actively waiting on, like loading data a player needs right now.
+	 */
+	HIGH,
+
+	/**
+	 * Regular work.
+	 */
+	NORMAL,
+
+	/**
+	 * Background work nobody is waiting on, like bulk saves or cleanup.
+	 */
+	LOW
+
+}
@@ -0,0 +1,19 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+/**
+ * Where {@link ManagedDatasource#getReadConnection(ReadPreference)} may read from.
+ */
+public enum ReadPreference {
+
+	/**
+	 * Always read from the primary. Required whenever the read must see writes that were just made.
+	 */
+	PRIMARY,
+
+	/**
+	 * Read from a replica if one is configured and reachable, otherwise from the primary. Replicas lag behind the
+	 * primary, so only use this for reads that tolerate slightly stale data.
+	 */
+	REPLICA_PREFERRED
+
+}
@@ -0,0 +1,44 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import javax.annotation.Nonnull;
+
+/**
+ * Walks a result set one row at a time, so rows are only read from the driver as the stream consuming them asks for
+ * them. Failures while reading are rethrown as an {@link IllegalStateException} with the {@link SQLException} as cause.
+ *
+ * @param <T> The type rows are mapped to.
+ */
+final class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+	private final ResultSet resultSet;
+	private final SqlFunction<ResultSet, T> mapper;
+
+	ResultSetSpliterator(@Nonnull final ResultSet resultSet,
+						 @Nonnull final SqlFunction<ResultSet, T> mapper) {
+		super(Long.MAX_VALUE, Spliterator.ORDERED);
+		this.resultSet = resultSet;
+		this.mapper = mapper;
+	}
+
+	@Override
+	public boolean tryAdvance(@Nonnull final Consumer<? super T> action) {
+		final T row;
+		try {
+			if (!this.resultSet.next()) {
+				return false;
+			}
+			row = this.mapper.apply(this.resultSet);
+		}
+		catch (final SQLException exception) {
+			throw new IllegalStateException("Failed to read streamed row", exception);
+		}
+		action.accept(row);
+		return true;
+	}
+
+}
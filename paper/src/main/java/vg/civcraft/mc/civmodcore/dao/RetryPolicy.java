@@ -0,0 +1,104 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries database work failing because the database could not be reached, waiting a randomised, exponentially growing
+ * delay between attempts ("full jitter"), so callers failing at the same time do not all retry at the same time.
+ * Failures caused by the statement itself and refusals of an open {@link CircuitBreaker} are never retried. Work which
+ * is not safe to run twice, such as most writes, is only retried if it failed before it started, as a connection lost
+ * while it ran leaves no way to tell whether the database applied it.
+ *
+ * @param maxAttempts The maximum amount of attempts, including the first one.
+ * @param baseDelay The upper bound of the delay before the first retry in milliseconds, doubled for each further retry.
+ * @param maxDelay The upper bound of any delay in milliseconds.
+ */
+public record RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+
+	/**
+	 * Does not retry at all.
+	 */
+	public static final RetryPolicy NONE = new RetryPolicy(1, 0L, 0L);
+
+	public RetryPolicy {
+		if (maxAttempts <= 0) {
+			throw new IllegalArgumentException("Attempts must be positive, was " + maxAttempts);
+		}
+		if (baseDelay < 0 || maxDelay < baseDelay) {
+			throw new IllegalArgumentException("Invalid delays " + baseDelay + " to " + maxDelay);
+		}
+	}
+
+	/**
+	 * Runs the given work on connections of the given datasource until it succeeds, fails with an error that should
+	 * not be retried, or runs out of attempts. Blocks while waiting between attempts, so never use this on the main
+	 * thread.
+	 *
+	 * @param datasource The datasource to get connections from.
+	 * @param work The work to run, which may be run more than once.
+	 * @return Returns the result of the work.
+	 * @throws SQLException The failure of the last attempt.
+	 */
+	public <T> T execute(final ManagedDatasource datasource,
+						 final SqlFunction<Connection, T> work) throws SQLException {
+		return execute(datasource, work, true);
+	}
+
+	/**
+	 * Runs the given work on connections of the given datasource until it succeeds, fails with an error that should
+	 * not be retried, or runs out of attempts. Blocks while waiting between attempts, so never use this on the main
+	 * thread.
+	 *
+	 * @param datasource The datasource to get connections from.
+	 * @param work The work to run.
+	 * @param idempotent Whether the work may be run again after failing halfway through. If not, only failures to get
+	 *                   a connection are retried.
+	 * @return Returns the result of the work.
+	 * @throws SQLException The failure of the last attempt.
+	 */
+	public <T> T execute(final ManagedDatasource datasource,
+						 final SqlFunction<Connection, T> work,
+						 final boolean idempotent) throws SQLException {
+		for (int attempt = 1; ; attempt++) {
+			boolean started = false;
+			try (final Connection connection = datasource.getConnection()) {
+				started = true;
+				return work.apply(connection);
+			}
+			catch (final SQLException exception) {
+				if (attempt >= this.maxAttempts
+						|| (started && !idempotent)
+						|| !CircuitBreaker.isConnectivityFailure(exception)
+						|| TransactionScope.isOpen()) {
+					throw exception;
+				}
+				try {
+					Thread.sleep(delay(attempt));
+				}
+				catch (final InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					exception.addSuppressed(interrupted);
+					throw exception;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Picks the delay before the given retry.
+	 *
+	 * @param attempt The attempt which just failed, starting at 1.
+	 * @return Returns the delay in milliseconds.
+	 */
+	public long delay(final int attempt) {
+		long bound = this.baseDelay;
+		for (int i = 1; i < attempt && bound < this.maxDelay; i++) {
+			bound <<= 1;
+		}
+		bound = Math.min(bound, this.maxDelay);
+		return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+	}
+
+}
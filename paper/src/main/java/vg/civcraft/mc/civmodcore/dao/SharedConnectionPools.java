@@ -0,0 +1,86 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+
+/**
+ * Keeps track of the connection pools shared between plugins connecting to the same database with
+ * {@link DatabaseCredentials#sharedPool()} enabled. Each pool is closed once the last plugin using it closes its
+ * {@link ManagedDatasource}.
+ */
+final class SharedConnectionPools {
+
+	private static final Map<Key, Entry> POOLS = new HashMap<>();
+
+	private SharedConnectionPools() {
+	}
+
+	/**
+	 * Gets the pool shared by all plugins using the same database and login as the given credentials, creating it if
+	 * it does not exist yet. Pool settings are taken from whichever plugin created the pool.
+	 *
+	 * @param credentials The credentials of the plugin joining the pool.
+	 * @param logger The logger to report mismatching settings to.
+	 * @return Returns the shared pool.
+	 */
+	@Nonnull
+	static synchronized ConnectionPool acquire(@Nonnull final DatabaseCredentials credentials,
+											   @Nonnull final Logger logger) {
+		final var key = Key.of(credentials);
+		Entry entry = POOLS.get(key);
+		if (entry == null) {
+			entry = new Entry(new ConnectionPool(credentials, "shared-" + credentials.database()));
+			POOLS.put(key, entry);
+		}
+		else if (entry.pool.getCredentials().poolSize() != credentials.poolSize()) {
+			logger.warning(String.format("Shared pool for %s already exists with %d connections, ignoring pool "
+					+ "size of %d", credentials.database(), entry.pool.getCredentials().poolSize(),
+					credentials.poolSize()));
+		}
+		if (entry.pool.getCredentials().serverPreparedStatements() != credentials.serverPreparedStatements()) {
+			logger.warning(String.format("Shared pool for %s already exists with server-side prepared statements %s, "
+					+ "ignoring the setting of this plugin", credentials.database(),
+					entry.pool.getCredentials().serverPreparedStatements() ? "enabled" : "disabled"));
+		}
+		entry.users++;
+		return entry.pool;
+	}
+
+	/**
+	 * Releases one plugin's use of a shared pool, closing the pool if no other plugin is using it.
+	 *
+	 * @param pool The pool to release.
+	 * @throws SQLException If closing the pool failed.
+	 */
+	static synchronized void release(@Nonnull final ConnectionPool pool) throws SQLException {
+		final var key = Key.of(pool.getCredentials());
+		final Entry entry = POOLS.get(key);
+		if (entry == null || entry.pool != pool) {
+			throw new IllegalStateException("Pool is not a shared pool");
+		}
+		if (--entry.users <= 0) {
+			POOLS.remove(key);
+			pool.close();
+		}
+	}
+
+	private record Key(String driver, String host, int port, String database, String username, String password) {
+		static Key of(final DatabaseCredentials credentials) {
+			return new Key(credentials.driver(), credentials.host(), credentials.port(), credentials.database(),
+					credentials.username(), credentials.password());
+		}
+	}
+
+	private static final class Entry {
+		private final ConnectionPool pool;
+		private int users;
+
+		private Entry(final ConnectionPool pool) {
+			this.pool = pool;
+		}
+	}
+
+}
@@ -0,0 +1,17 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.SQLException;
+
+/**
+ * Two argument consumer which may throw an {@link SQLException}, usually used to bind one element of a batch to a
+ * {@link java.sql.PreparedStatement}.
+ *
+ * @param <T> The first input type.
+ * @param <U> The second input type.
+ */
+@FunctionalInterface
+public interface SqlBiConsumer<T, U> {
+
+	void accept(T first, U second) throws SQLException;
+
+}
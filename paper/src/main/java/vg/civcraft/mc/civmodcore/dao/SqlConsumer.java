@@ -0,0 +1,16 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.SQLException;
+
+/**
+ * Consumer which may throw an {@link SQLException}, usually used to bind parameters to a
+ * {@link java.sql.PreparedStatement}.
+ *
+ * @param <T> The input type.
+ */
+@FunctionalInterface
+public interface SqlConsumer<T> {
+
+	void accept(T value) throws SQLException;
+
+}
@@ -0,0 +1,16 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.SQLException;
+
+/**
+ * Function which may throw an {@link SQLException}, used to hand database work to {@link ManagedDatasource}.
+ *
+ * @param <T> The input type, usually a {@link java.sql.Connection} or {@link java.sql.ResultSet}.
+ * @param <R> The result type.
+ */
+@FunctionalInterface
+public interface SqlFunction<T, R> {
+
+	R apply(T value) throws SQLException;
+
+}
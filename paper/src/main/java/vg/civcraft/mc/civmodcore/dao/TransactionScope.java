@@ -0,0 +1,241 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Groups all writes made on the current thread into one transaction per {@link ManagedDatasource}, without the code
+ * issuing the writes having to know about it. While a scope is open, {@link ManagedDatasource#getConnection()} called
+ * from the same thread hands out one shared connection per datasource with auto-commit disabled, closing which does
+ * nothing. All of them are committed and returned to their pool when the scope is closed.
+ *
+ * Intended for bulk saves made of many small independent writes, like flushing the chunk meta cache:
+ *
+ * {@code
+ *   try (TransactionScope scope = TransactionScope.open(logger)) {
+ *   	// code that writes through any number of ManagedDatasources
+ *   }
+ * }
+ *
+ * If any statement within the scope fails, even if the caller handles the exception, or a commit fails, the whole
+ * scope is rolled back when it is closed. Callers which update in-memory state assuming their writes succeed, like
+ * marking data as saved, register how to undo that through {@link #onRollback(Runnable)}. Writes already committed
+ * on another datasource of the same scope are not undone, while rollback actions still run for them, so scopes whose
+ * rollback actions mark data as unsaved again should only write through a single datasource. Scopes can not be nested.
+ */
+public final class TransactionScope implements AutoCloseable {
+
+	private static final ThreadLocal<TransactionScope> CURRENT = new ThreadLocal<>();
+
+	private final Logger logger;
+	private final Map<ManagedDatasource, Connection> connections;
+	private final List<Runnable> commitActions;
+	private final List<Runnable> rollbackActions;
+	private final Executor rollbackExecutor;
+	private boolean failed;
+
+	private TransactionScope(Logger logger, Executor rollbackExecutor) {
+		this.logger = logger;
+		this.rollbackExecutor = rollbackExecutor;
+		this.connections = new IdentityHashMap<>();
+		this.commitActions = new ArrayList<>();
+		this.rollbackActions = new ArrayList<>();
+	}
+
+	/**
+	 * Opens a new scope for the current thread
+	 *
+	 * @param logger Logger to report failed commits to
+	 * @return Opened scope, must be closed on the same thread
+	 */
+	public static TransactionScope open(Logger logger) {
+		return open(logger, Runnable::run);
+	}
+
+	/**
+	 * Opens a new scope for the current thread, whose rollback actions are run by the given executor instead of the
+	 * thread closing the scope. Used when the in-memory state they restore is owned by another thread
+	 *
+	 * @param logger           Logger to report failed commits to
+	 * @param rollbackExecutor Executor to run rollback actions on
+	 * @return Opened scope, must be closed on the same thread
+	 */
+	public static TransactionScope open(Logger logger, Executor rollbackExecutor) {
+		if (CURRENT.get() != null) {
+			throw new IllegalStateException("A transaction scope is already open on this thread");
+		}
+		TransactionScope scope = new TransactionScope(logger, rollbackExecutor);
+		CURRENT.set(scope);
+		return scope;
+	}
+
+	/**
+	 * @return Whether a scope is open on the current thread
+	 */
+	public static boolean isOpen() {
+		return CURRENT.get() != null;
+	}
+
+	/**
+	 * Registers an action to run once the writes of the scope open on the current thread have been committed. Runs
+	 * the action right away if no scope is open, as writes are applied right away then
+	 *
+	 * @param action Action to run after a successful commit
+	 */
+	public static void afterCommit(Runnable action) {
+		TransactionScope scope = CURRENT.get();
+		if (scope == null) {
+			action.run();
+			return;
+		}
+		scope.commitActions.add(action);
+	}
+
+	/**
+	 * Registers an action to run if the scope open on the current thread is rolled back, undoing in-memory changes
+	 * made under the assumption that its writes succeed. Does nothing if no scope is open
+	 *
+	 * @param action Action to run after a rollback
+	 */
+	public static void onRollback(Runnable action) {
+		TransactionScope scope = CURRENT.get();
+		if (scope != null) {
+			scope.rollbackActions.add(action);
+		}
+	}
+
+	/**
+	 * @return Whether the writes of this scope were rolled back. Only final once the scope has been closed
+	 */
+	public boolean isRolledBack() {
+		return failed;
+	}
+
+	/**
+	 * @param datasource Datasource to get a connection for
+	 * @return Shared connection of the scope open on the current thread or null if none is open
+	 * @throws SQLException If a new connection could not be set up
+	 */
+	static Connection getConnection(ManagedDatasource datasource) throws SQLException {
+		TransactionScope scope = CURRENT.get();
+		if (scope == null) {
+			return null;
+		}
+		Connection existing = scope.connections.get(datasource);
+		if (existing != null) {
+			return scope.unclosable(existing);
+		}
+		Connection connection = datasource.getPooledConnection();
+		try {
+			connection.setAutoCommit(false);
+		} catch (SQLException e) {
+			connection.close();
+			throw e;
+		}
+		scope.connections.put(datasource, connection);
+		return scope.unclosable(connection);
+	}
+
+	private Connection unclosable(Connection connection) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+					switch (method.getName()) {
+						case "close":
+							return null;
+						case "isClosed":
+							return connection.isClosed();
+						default:
+							Object result = invoke(connection, method, args);
+							if (result instanceof Statement && method.getReturnType().isInterface()) {
+								return failureTracking(result, method.getReturnType());
+							}
+							return result;
+					}
+				});
+	}
+
+	/**
+	 * Wraps a statement, so that the scope notices it failing even if the caller swallows the exception
+	 */
+	private Object failureTracking(Object statement, Class<?> type) {
+		return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+				(proxy, method, args) -> invoke(statement, method, args));
+	}
+
+	private Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof SQLException) {
+				failed = true;
+			}
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Commits all writes made within this scope, or rolls them back if any of them failed, and returns the
+	 * connections used to their pools
+	 */
+	@Override
+	public void close() {
+		if (CURRENT.get() != this) {
+			throw new IllegalStateException("Transaction scope was not opened on this thread or is already closed");
+		}
+		CURRENT.remove();
+		if (failed) {
+			logger.severe("A statement of the transaction scope failed, rolling back all of its writes");
+		}
+		for (Connection connection : connections.values()) {
+			if (!failed) {
+				try {
+					connection.commit();
+				} catch (SQLException e) {
+					logger.log(Level.SEVERE, "Failed to commit transaction scope, rolling back remaining writes", e);
+					failed = true;
+				}
+			}
+			if (failed) {
+				try {
+					connection.rollback();
+				} catch (SQLException ignored) {
+					// connection is most likely gone, nothing left to undo
+				}
+			}
+			try {
+				connection.setAutoCommit(true);
+				connection.close();
+			} catch (SQLException e) {
+				logger.log(Level.WARNING, "Failed to release transaction scope connection", e);
+			}
+		}
+		connections.clear();
+		if (failed) {
+			rollbackExecutor.execute(() -> runActions(rollbackActions, "rollback"));
+		} else {
+			runActions(commitActions, "commit");
+		}
+	}
+
+	private void runActions(List<Runnable> actions, String kind) {
+		for (Runnable action : actions) {
+			try {
+				action.run();
+			} catch (RuntimeException e) {
+				logger.log(Level.SEVERE, "Failed to run transaction scope " + kind + " action", e);
+			}
+		}
+	}
+
+}
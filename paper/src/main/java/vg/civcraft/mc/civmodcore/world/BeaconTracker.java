@@ -1,10 +1,22 @@
 package vg.civcraft.mc.civmodcore.world;
 
+import com.destroystokyo.paper.event.block.BeaconEffectEvent;
 import com.google.common.base.Preconditions;
-import java.util.HashSet;
-import java.util.Set;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Beacon;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockState;
@@ -13,48 +25,118 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import vg.civcraft.mc.civmodcore.utilities.CivLogger;
+import vg.civcraft.mc.civmodcore.world.locations.QTBox;
+import vg.civcraft.mc.civmodcore.world.locations.SparseQuadTree;
 
+/**
+ * Keeps track of the beacons in loaded chunks, indexed per world by the area their effect covers, so finding the
+ * beacons encompassing a location only looks at the beacons whose field overlaps it. Lookups may happen from any
+ * thread, changes are expected to happen on the main thread.
+ *
+ * The tracked beacons are block state snapshots, so a beacon's tier, and thereby its range, is only refreshed when it
+ * is placed, when its chunk is loaded, when it applies its effect to a player or when {@link #updateBeacon(Beacon)} is
+ * called.
+ */
 public final class BeaconTracker implements Listener {
 
 	private static final CivLogger LOGGER = CivLogger.getLogger(BeaconTracker.class);
-	private static final Set<Beacon> STORAGE = new HashSet<>();
+	private static final Map<UUID, WorldBeacons> STORAGE = new ConcurrentHashMap<>();
 
 	@EventHandler(priority = EventPriority.MONITOR)
 	public void onChunkLoad(final ChunkLoadEvent event) {
-		for (final BlockState tile : event.getChunk().getTileEntities()) {
-			if (tile instanceof Beacon) {
-				STORAGE.add((Beacon) tile);
+		final Chunk chunk = event.getChunk();
+		final List<BlockState> beacons = new ArrayList<>(chunk.getTileEntities(
+				block -> block.getType() == Material.BEACON, true));
+		if (beacons.isEmpty()) {
+			return;
+		}
+		final WorldBeacons world = getWorldBeacons(chunk.getWorld());
+		for (final BlockState tile : beacons) {
+			if (tile instanceof Beacon beacon) {
+				world.put(beacon);
 			}
 		}
 	}
 
 	@EventHandler(priority = EventPriority.MONITOR)
 	public void onChunkUnload(final ChunkUnloadEvent event) {
-		for (final BlockState tile : event.getChunk().getTileEntities()) {
-			if (tile instanceof Beacon) {
-				STORAGE.remove(tile);
-			}
+		final Chunk chunk = event.getChunk();
+		final WorldBeacons world = STORAGE.get(chunk.getWorld().getUID());
+		if (world != null) {
+			world.removeChunk(Chunk.getChunkKey(chunk.getX(), chunk.getZ()));
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onWorldUnload(final WorldUnloadEvent event) {
+		STORAGE.remove(event.getWorld().getUID());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPlace(final BlockPlaceEvent event) {
+		final Block block = event.getBlockPlaced();
+		if (block.getType() == Material.BEACON && block.getState() instanceof Beacon beacon) {
+			updateBeacon(beacon);
 		}
 	}
 
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
 	public void onBlockBreak(final BlockBreakEvent event) {
-		final BlockState state = event.getBlock().getState();
-		if (state instanceof Beacon) {
-			STORAGE.remove(state);
-		}
+		removeBeacon(event.getBlock());
 	}
 
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
 	public void onExplosion(final BlockExplodeEvent event) {
 		for (final Block block : event.blockList()) {
-			final BlockState state = block.getState();
-			if (state instanceof Beacon) {
-				STORAGE.remove(state);
-			}
+			removeBeacon(block);
+		}
+	}
+
+	/**
+	 * Beacons recompute their tier right before applying their effects, so this is where a changed range shows up. The
+	 * effect is applied to every player in range within the same tick, so each beacon is only checked once per tick.
+	 */
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBeaconEffect(final BeaconEffectEvent event) {
+		final Block block = event.getBlock();
+		final WorldBeacons world = STORAGE.get(block.getWorld().getUID());
+		if (world == null || !world.markChecked(block.getBlockKey(), Bukkit.getCurrentTick())) {
+			return;
+		}
+		final BeaconField field = world.get(block);
+		if (field != null
+				&& block.getState() instanceof Beacon beacon
+				&& beacon.getEffectRange() != field.range) {
+			world.put(beacon);
+		}
+	}
+
+	/**
+	 * Starts tracking the given beacon, or updates the tracked field of the beacon at its location, such as after its
+	 * tier or effect range has changed. Must be called on the main thread.
+	 *
+	 * @param beacon The beacon to track.
+	 */
+	public static void updateBeacon(final Beacon beacon) {
+		Preconditions.checkArgument(beacon != null);
+		getWorldBeacons(beacon.getWorld()).put(beacon);
+	}
+
+	/**
+	 * Stops tracking the beacon at the given block, if any. Must be called on the main thread.
+	 *
+	 * @param block The block of the beacon.
+	 */
+	public static void removeBeacon(final Block block) {
+		Preconditions.checkArgument(block != null);
+		final WorldBeacons world = STORAGE.get(block.getWorld().getUID());
+		if (world != null) {
+			world.remove(block);
 		}
 	}
 
@@ -66,8 +148,17 @@ public final class BeaconTracker implements Listener {
 	 */
 	public static Stream<Beacon> getEncompassingBeacons(final Location location) {
 		Preconditions.checkArgument(WorldUtils.isValidLocation(location));
-		return STORAGE.stream()
-				.filter(beacon -> isInBeaconRange(beacon, location));
+		final WorldBeacons world = STORAGE.get(location.getWorld().getUID());
+		if (world == null) {
+			return Stream.empty();
+		}
+		final List<Beacon> beacons = new ArrayList<>();
+		world.fields.forEach(location.getBlockX(), location.getBlockZ(), field -> {
+			if (isInBeaconRange(field.beacon, location)) {
+				beacons.add(field.beacon);
+			}
+		});
+		return beacons.stream();
 	}
 
 	/**
@@ -87,4 +178,141 @@ public final class BeaconTracker implements Listener {
 				&& location.getY() <= (beacon.getY() + range + 256);
 	}
 
+	private static WorldBeacons getWorldBeacons(final World world) {
+		return STORAGE.computeIfAbsent(world.getUID(), uuid -> new WorldBeacons());
+	}
+
+	/**
+	 * The beacons of one world: a quad tree of their fields for lookups, which can be read without locking, and the
+	 * fields by chunk so they can be found again when a beacon changes or its chunk unloads.
+	 */
+	private static final class WorldBeacons {
+
+		private final SparseQuadTree<BeaconField> fields = new SparseQuadTree<>();
+		private final Long2ObjectMap<List<BeaconField>> byChunk = new Long2ObjectOpenHashMap<>();
+		// only used on the main thread, so without locking
+		private final LongSet checked = new LongOpenHashSet();
+		private int checkedTick;
+
+		/**
+		 * @return Returns true if the beacon at the given block key has not been checked yet within the given tick.
+		 */
+		boolean markChecked(final long blockKey, final int tick) {
+			if (tick != this.checkedTick) {
+				this.checked.clear();
+				this.checkedTick = tick;
+			}
+			return this.checked.add(blockKey);
+		}
+
+		synchronized BeaconField get(final Block block) {
+			final List<BeaconField> chunk = this.byChunk.get(Chunk.getChunkKey(block.getX() >> 4, block.getZ() >> 4));
+			if (chunk == null) {
+				return null;
+			}
+			for (final BeaconField field : chunk) {
+				if (field.isAt(block.getX(), block.getY(), block.getZ())) {
+					return field;
+				}
+			}
+			return null;
+		}
+
+		synchronized void put(final Beacon beacon) {
+			remove(beacon.getBlock());
+			final var field = new BeaconField(beacon);
+			this.byChunk.computeIfAbsent(Chunk.getChunkKey(beacon.getX() >> 4, beacon.getZ() >> 4),
+					key -> new ArrayList<>(1)).add(field);
+			this.fields.add(field);
+		}
+
+		synchronized void remove(final Block block) {
+			final long key = Chunk.getChunkKey(block.getX() >> 4, block.getZ() >> 4);
+			final List<BeaconField> chunk = this.byChunk.get(key);
+			if (chunk == null) {
+				return;
+			}
+			chunk.removeIf(field -> {
+				if (field.isAt(block.getX(), block.getY(), block.getZ())) {
+					this.fields.remove(field);
+					return true;
+				}
+				return false;
+			});
+			if (chunk.isEmpty()) {
+				this.byChunk.remove(key);
+			}
+		}
+
+		synchronized void removeChunk(final long chunkKey) {
+			final List<BeaconField> chunk = this.byChunk.remove(chunkKey);
+			if (chunk == null) {
+				return;
+			}
+			for (final BeaconField field : chunk) {
+				this.fields.remove(field);
+			}
+			LOGGER.fine("Stopped tracking " + chunk.size() + " beacon(s) of an unloaded chunk.");
+		}
+
+	}
+
+	/**
+	 * The horizontal area covered by a beacon at the time it was tracked. Compared by identity, so an outdated field
+	 * can always be removed from the tree again.
+	 */
+	private static final class BeaconField implements QTBox {
+
+		private final Beacon beacon;
+		private final double range;
+		private final int x;
+		private final int y;
+		private final int z;
+		private final int reach;
+
+		BeaconField(final Beacon beacon) {
+			this.beacon = beacon;
+			this.range = beacon.getEffectRange();
+			this.x = beacon.getX();
+			this.y = beacon.getY();
+			this.z = beacon.getZ();
+			this.reach = (int) Math.max(0, Math.floor(this.range));
+		}
+
+		boolean isAt(final int x, final int y, final int z) {
+			return this.x == x && this.y == y && this.z == z;
+		}
+
+		@Override
+		public int qtXMin() {
+			return this.x - this.reach;
+		}
+
+		@Override
+		public int qtXMid() {
+			return this.x;
+		}
+
+		@Override
+		public int qtXMax() {
+			return this.x + this.reach;
+		}
+
+		@Override
+		public int qtZMin() {
+			return this.z - this.reach;
+		}
+
+		@Override
+		public int qtZMid() {
+			return this.z;
+		}
+
+		@Override
+		public int qtZMax() {
+			return this.z + this.reach;
+		}
+
+	}
+
 }
@@ -0,0 +1,163 @@
+package vg.civcraft.mc.civmodcore.world;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Chest;
+
+/**
+ * Read only view of the blocks within a rectangle of chunks, backed by {@link ChunkSnapshot}s. Unlike blocks, it can be
+ * read from any thread, so checks like the validity of a multiblock structure can run off the main thread. Views are
+ * created through {@link WorldSnapshotCache#capture(org.bukkit.World, int, int, int, int)}, and reflect the state of
+ * each chunk at the time it was captured.
+ *
+ * Blocks outside the captured chunks, outside the world's height limits, or in chunks which were not loaded when
+ * capturing, read as null.
+ */
+public final class BlockSnapshotView {
+
+	private final UUID world;
+	private final int minChunkX;
+	private final int minChunkZ;
+	private final int chunksX;
+	private final int chunksZ;
+	private final int minY;
+	private final int maxY;
+	private final ChunkSnapshot[] chunks;
+
+	BlockSnapshotView(final UUID world,
+					  final int minChunkX,
+					  final int minChunkZ,
+					  final int chunksX,
+					  final int chunksZ,
+					  final int minY,
+					  final int maxY,
+					  final ChunkSnapshot[] chunks) {
+		this.world = world;
+		this.minChunkX = minChunkX;
+		this.minChunkZ = minChunkZ;
+		this.chunksX = chunksX;
+		this.chunksZ = chunksZ;
+		this.minY = minY;
+		this.maxY = maxY;
+		this.chunks = chunks;
+	}
+
+	/**
+	 * @return Returns the UUID of the world the snapshots are of.
+	 */
+	public UUID getWorldUUID() {
+		return this.world;
+	}
+
+	/**
+	 * @param x The block's x coordinate.
+	 * @param y The block's y coordinate.
+	 * @param z The block's z coordinate.
+	 * @return Returns true if the block is within the captured chunks and was loaded when they were captured.
+	 */
+	public boolean isCaptured(final int x, final int y, final int z) {
+		return getSnapshot(x, y, z) != null;
+	}
+
+	/**
+	 * @param x The block's x coordinate.
+	 * @param y The block's y coordinate.
+	 * @param z The block's z coordinate.
+	 * @return Returns the block's data, or null if it was not captured.
+	 */
+	public BlockData getBlockData(final int x, final int y, final int z) {
+		final ChunkSnapshot snapshot = getSnapshot(x, y, z);
+		return snapshot == null ? null : snapshot.getBlockData(x & 15, y, z & 15);
+	}
+
+	/**
+	 * @param x The block's x coordinate.
+	 * @param y The block's y coordinate.
+	 * @param z The block's z coordinate.
+	 * @return Returns the block's type, or null if it was not captured.
+	 */
+	public Material getType(final int x, final int y, final int z) {
+		final ChunkSnapshot snapshot = getSnapshot(x, y, z);
+		return snapshot == null ? null : snapshot.getBlockType(x & 15, y, z & 15);
+	}
+
+	/**
+	 * Snapshot counterpart of {@link WorldUtils#getBlockSidesMapped(org.bukkit.block.Block, Collection, boolean)}.
+	 *
+	 * @param x The block's x coordinate.
+	 * @param y The block's y coordinate.
+	 * @param z The block's z coordinate.
+	 * @param faces The faces to get the relatives at.
+	 * @return Returns an immutable map of the data of the block's captured relatives.
+	 */
+	public Map<BlockFace, BlockData> getBlockSidesMapped(final int x,
+														 final int y,
+														 final int z,
+														 final Collection<BlockFace> faces) {
+		final EnumMap<BlockFace, BlockData> results = new EnumMap<>(BlockFace.class);
+		if (faces != null) {
+			for (final BlockFace face : faces) {
+				if (face == null || face == BlockFace.SELF) {
+					continue;
+				}
+				final BlockData relative = getBlockData(x + face.getModX(), y + face.getModY(), z + face.getModZ());
+				if (relative != null) {
+					results.put(face, relative);
+				}
+			}
+		}
+		return Collections.unmodifiableMap(results);
+	}
+
+	/**
+	 * Snapshot counterpart of {@link WorldUtils#getAllBlockSidesMapped(org.bukkit.block.Block, boolean)}.
+	 *
+	 * @param x The block's x coordinate.
+	 * @param y The block's y coordinate.
+	 * @param z The block's z coordinate.
+	 * @return Returns an immutable map of the data of the block's captured relatives.
+	 */
+	public Map<BlockFace, BlockData> getAllBlockSidesMapped(final int x, final int y, final int z) {
+		return getBlockSidesMapped(x, y, z, WorldUtils.ALL_SIDES);
+	}
+
+	/**
+	 * Snapshot counterpart of {@link WorldUtils#getOtherDoubleChestBlock(org.bukkit.block.Block, boolean)}.
+	 *
+	 * @param x The chest's x coordinate.
+	 * @param y The chest's y coordinate.
+	 * @param z The chest's z coordinate.
+	 * @return Returns the face towards the other half of the double chest, or null if the block was not captured or
+	 *         isn't that of a double chest.
+	 */
+	public BlockFace getOtherDoubleChestFace(final int x, final int y, final int z) {
+		if (!(getBlockData(x, y, z) instanceof Chest chestData)) {
+			return null;
+		}
+		return switch (chestData.getType()) {
+			case LEFT -> WorldUtils.turnClockwise(chestData.getFacing());
+			case RIGHT -> WorldUtils.turnAntiClockwise(chestData.getFacing());
+			default -> null;
+		};
+	}
+
+	private ChunkSnapshot getSnapshot(final int x, final int y, final int z) {
+		if (y < this.minY || y >= this.maxY) {
+			return null;
+		}
+		final int offsetX = (x >> 4) - this.minChunkX;
+		final int offsetZ = (z >> 4) - this.minChunkZ;
+		if (offsetX < 0 || offsetX >= this.chunksX || offsetZ < 0 || offsetZ >= this.chunksZ) {
+			return null;
+		}
+		return this.chunks[offsetZ * this.chunksX + offsetX];
+	}
+
+}
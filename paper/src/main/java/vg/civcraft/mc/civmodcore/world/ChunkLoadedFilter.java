@@ -1,15 +1,15 @@
 package vg.civcraft.mc.civmodcore.world;
 
 import com.google.common.base.Preconditions;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.UUID;
 import java.util.function.Predicate;
 import net.minecraft.core.BlockPos;
 import org.bukkit.Location;
 import org.bukkit.World;
 
 /**
- * Utility to use with {@link java.util.stream.Stream} to efficiently remove elements from unloaded chunks.
+ * Utility to use with {@link java.util.stream.Stream} to efficiently remove elements from unloaded chunks. The filters
+ * are backed by {@link LoadedChunkTracker}, so they may also be used off the main thread.
  */
 public final class ChunkLoadedFilter {
 
@@ -21,23 +21,9 @@ public final class ChunkLoadedFilter {
 	 */
 	public static Predicate<BlockPos> blockPosition(final World world) {
 		Preconditions.checkArgument(WorldUtils.isWorldLoaded(world));
-		final List<Long> loadedChunks = new ArrayList<>();
-		return (position) -> {
-			if (position == null) {
-				return false;
-			}
-			final int chunkX = position.getX() >> 4;
-			final int chunkZ = position.getZ() >> 4;
-			final long combined = ((long) chunkX << 32) | (long) chunkZ;
-			if (loadedChunks.contains(combined)) {
-				return true;
-			}
-			if (world.isChunkLoaded(chunkX, chunkZ)) {
-				loadedChunks.add(combined);
-				return true;
-			}
-			return false;
-		};
+		final UUID worldID = world.getUID();
+		return (position) -> position != null
+				&& LoadedChunkTracker.isChunkLoaded(worldID, position.getX() >> 4, position.getZ() >> 4);
 	}
 
 	/**
@@ -48,23 +34,9 @@ public final class ChunkLoadedFilter {
 	 */
 	public static Predicate<Location> location(final World world) {
 		Preconditions.checkArgument(WorldUtils.isWorldLoaded(world));
-		final List<Long> loadedChunks = new ArrayList<>();
-		return (position) -> {
-			if (position == null) {
-				return false;
-			}
-			final int chunkX = position.getBlockX() >> 4;
-			final int chunkZ = position.getBlockZ() >> 4;
-			final long combined = ((long) chunkX << 32) | (long) chunkZ;
-			if (loadedChunks.contains(combined)) {
-				return true;
-			}
-			if (world.isChunkLoaded(chunkX, chunkZ)) {
-				loadedChunks.add(combined);
-				return true;
-			}
-			return false;
-		};
+		final UUID worldID = world.getUID();
+		return (position) -> position != null
+				&& LoadedChunkTracker.isChunkLoaded(worldID, position.getBlockX() >> 4, position.getBlockZ() >> 4);
 	}
 
 }
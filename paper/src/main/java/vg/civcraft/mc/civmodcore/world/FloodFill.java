@@ -0,0 +1,334 @@
+package vg.civcraft.mc.civmodcore.world;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import vg.civcraft.mc.civmodcore.world.locations.PackedPosition;
+import vg.civcraft.mc.civmodcore.world.locations.PositionSet;
+
+/**
+ * Bounded flood fill over blocks connected through their six faces, working on packed positions instead of block
+ * objects so it can run off the main thread, typically against a {@link BlockSnapshotView}.
+ *
+ * The fill is split along chunk sections of 16x16x16 blocks: each section reached is filled by its own fork join task,
+ * which hands the positions it reaches in neighbouring sections on to new tasks. Positions are claimed in a bitmap per
+ * section, so every position is tested and collected exactly once however tasks interleave.
+ *
+ * Filling from the main thread still blocks it until the fill is done, but spreads the work over the pool.
+ */
+public final class FloodFill {
+
+	private static final BlockFace[] FACES = {
+			BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST, BlockFace.UP, BlockFace.DOWN};
+
+	private FloodFill() {
+	}
+
+	/**
+	 * Tests whether a block is part of the area to fill. Called from several threads at once.
+	 */
+	@FunctionalInterface
+	public interface BlockFilter {
+
+		boolean test(int x, int y, int z);
+
+	}
+
+	/**
+	 * Fills the blocks of matching material connected to the given block, within the captured chunks of the view.
+	 *
+	 * @param view The captured blocks to fill.
+	 * @param x The starting block's x coordinate.
+	 * @param y The starting block's y coordinate.
+	 * @param z The starting block's z coordinate.
+	 * @param predicate Which materials to fill.
+	 * @param maxVolume The maximum amount of blocks to fill.
+	 * @return Returns the filled blocks, which are empty if the starting block does not match.
+	 */
+	public static Result fill(final BlockSnapshotView view,
+							  final int x,
+							  final int y,
+							  final int z,
+							  final Predicate<Material> predicate,
+							  final int maxVolume) {
+		Preconditions.checkArgument(view != null);
+		Preconditions.checkArgument(predicate != null);
+		return fill(ForkJoinPool.commonPool(), new long[] { PackedPosition.block(x, y, z) },
+				materialFilter(view, predicate), maxVolume);
+	}
+
+	/**
+	 * Fills the blocks accepted by the filter connected to any of the given seeds.
+	 *
+	 * @param pool The pool to fill with, the calling thread waits for it to finish.
+	 * @param seeds Packed positions to start from, those not accepted by the filter are skipped.
+	 * @param filter Which blocks to fill, must be safe to call from the pool's threads.
+	 * @param maxVolume The maximum amount of blocks to fill. Once reached, the fill stops and which of the connected
+	 *                  blocks were filled depends on how the tasks interleaved.
+	 * @return Returns the filled blocks.
+	 */
+	public static Result fill(final ForkJoinPool pool,
+							  final long[] seeds,
+							  final BlockFilter filter,
+							  final int maxVolume) {
+		Preconditions.checkArgument(pool != null);
+		Preconditions.checkArgument(seeds != null);
+		Preconditions.checkArgument(filter != null);
+		Preconditions.checkArgument(maxVolume > 0);
+		final var fill = new Fill(filter, maxVolume);
+		final var seedsBySection = new Long2ObjectOpenHashMap<LongArrayList>();
+		for (final long seed : seeds) {
+			seedsBySection.computeIfAbsent(sectionOf(seed), key -> new LongArrayList()).add(seed);
+		}
+		pool.invoke(new CountedCompleter<Void>() {
+			@Override
+			public void compute() {
+				seedsBySection.forEach((section, sectionSeeds) -> {
+					addToPendingCount(1);
+					new SectionTask(this, fill, section, sectionSeeds).fork();
+				});
+				tryComplete();
+			}
+		});
+		return fill.toResult();
+	}
+
+	/**
+	 * Splits the blocks of matching material reachable from the given seeds into connected components.
+	 *
+	 * @param view The captured blocks to search.
+	 * @param seeds Packed positions to search from. Seeds within a component found earlier are not searched again.
+	 * @param predicate Which materials belong to components.
+	 * @param maxVolume The maximum amount of blocks of a single component.
+	 * @return Returns one result per component, in the order of the first seed within it.
+	 */
+	public static List<Result> components(final BlockSnapshotView view,
+										  final long[] seeds,
+										  final Predicate<Material> predicate,
+										  final int maxVolume) {
+		Preconditions.checkArgument(view != null);
+		Preconditions.checkArgument(predicate != null);
+		return components(ForkJoinPool.commonPool(), seeds, materialFilter(view, predicate), maxVolume);
+	}
+
+	/**
+	 * Splits the blocks accepted by the filter reachable from the given seeds into connected components.
+	 *
+	 * @param pool The pool to search with, the calling thread waits for it to finish.
+	 * @param seeds Packed positions to search from. Seeds within a component found earlier are not searched again.
+	 * @param filter Which blocks belong to components, must be safe to call from the pool's threads.
+	 * @param maxVolume The maximum amount of blocks of a single component.
+	 * @return Returns one result per component, in the order of the first seed within it.
+	 */
+	public static List<Result> components(final ForkJoinPool pool,
+										  final long[] seeds,
+										  final BlockFilter filter,
+										  final int maxVolume) {
+		Preconditions.checkArgument(seeds != null);
+		final var components = new ArrayList<Result>();
+		final var covered = new PositionSet();
+		for (final long seed : seeds) {
+			if (covered.contains(seed)) {
+				continue;
+			}
+			final Result component = fill(pool, new long[] { seed }, filter, maxVolume);
+			if (component.size() == 0) {
+				continue;
+			}
+			component.getPositions().forEach(covered::add);
+			components.add(component);
+		}
+		return components;
+	}
+
+	private static BlockFilter materialFilter(final BlockSnapshotView view, final Predicate<Material> predicate) {
+		return (x, y, z) -> {
+			final Material type = view.getType(x, y, z);
+			return type != null && predicate.test(type);
+		};
+	}
+
+	private static long sectionOf(final long position) {
+		return PackedPosition.block(PackedPosition.blockX(position) >> 4, PackedPosition.blockY(position) >> 4,
+				PackedPosition.blockZ(position) >> 4);
+	}
+
+	/**
+	 * Blocks found by a flood fill.
+	 */
+	public static final class Result {
+
+		private final PositionSet positions;
+		private final boolean truncated;
+
+		private Result(final PositionSet positions, final boolean truncated) {
+			this.positions = positions;
+			this.truncated = truncated;
+		}
+
+		/**
+		 * @return Returns the filled blocks as packed positions.
+		 */
+		public PositionSet getPositions() {
+			return this.positions;
+		}
+
+		/**
+		 * @return Returns the amount of filled blocks.
+		 */
+		public int size() {
+			return this.positions.size();
+		}
+
+		/**
+		 * @return Returns true if the fill stopped at its maximum volume, so more connected blocks may exist.
+		 */
+		public boolean isTruncated() {
+			return this.truncated;
+		}
+
+	}
+
+	/**
+	 * State shared by all tasks of one fill.
+	 */
+	private static final class Fill {
+
+		private final BlockFilter filter;
+		private final int maxVolume;
+		private final AtomicInteger volume = new AtomicInteger();
+		private final Map<Long, AtomicLongArray> claimed = new ConcurrentHashMap<>();
+		private final Queue<LongArrayList> found = new ConcurrentLinkedQueue<>();
+		private volatile boolean truncated;
+
+		private Fill(final BlockFilter filter, final int maxVolume) {
+			this.filter = filter;
+			this.maxVolume = maxVolume;
+		}
+
+		private AtomicLongArray claimsOf(final long section) {
+			return this.claimed.computeIfAbsent(section, key -> new AtomicLongArray(4096 / Long.SIZE));
+		}
+
+		/**
+		 * @return Returns true if the position was not claimed before, and the volume allows claiming it.
+		 */
+		private boolean claim(final AtomicLongArray claims, final long position) {
+			final int bit = ((PackedPosition.blockY(position) & 15) << 8)
+					| ((PackedPosition.blockZ(position) & 15) << 4)
+					| (PackedPosition.blockX(position) & 15);
+			final int word = bit >>> 6;
+			final long mask = 1L << bit;
+			long current;
+			do {
+				current = claims.get(word);
+				if ((current & mask) != 0) {
+					return false;
+				}
+			}
+			while (!claims.compareAndSet(word, current, current | mask));
+			return true;
+		}
+
+		private boolean reserveVolume() {
+			if (this.volume.incrementAndGet() > this.maxVolume) {
+				this.truncated = true;
+				return false;
+			}
+			return true;
+		}
+
+		private Result toResult() {
+			final var positions = new PositionSet(Math.min(this.volume.get(), this.maxVolume));
+			for (final LongArrayList batch : this.found) {
+				for (int i = 0; i < batch.size(); i++) {
+					positions.add(batch.getLong(i));
+				}
+			}
+			return new Result(positions, this.truncated);
+		}
+
+	}
+
+	/**
+	 * Fills one section from the given positions, then forks a task per neighbouring section reached. Tasks do not wait
+	 * for the tasks they fork, they complete once all of those have, so a fill spanning many sections does not nest
+	 * deeply on the stack.
+	 */
+	private static final class SectionTask extends CountedCompleter<Void> {
+
+		private final Fill fill;
+		private final long section;
+		private final LongArrayList pending;
+
+		private SectionTask(final CountedCompleter<?> completer,
+							final Fill fill,
+							final long section,
+							final LongArrayList pending) {
+			super(completer);
+			this.fill = fill;
+			this.section = section;
+			this.pending = pending;
+		}
+
+		@Override
+		public void compute() {
+			final AtomicLongArray claims = this.fill.claimsOf(this.section);
+			final var found = new LongArrayList();
+			final var outgoing = new Long2ObjectOpenHashMap<LongArrayList>();
+			while (!this.pending.isEmpty() && !this.fill.truncated) {
+				final long position = this.pending.popLong();
+				if (!this.fill.claim(claims, position)) {
+					continue;
+				}
+				final int x = PackedPosition.blockX(position);
+				final int y = PackedPosition.blockY(position);
+				final int z = PackedPosition.blockZ(position);
+				if (!this.fill.filter.test(x, y, z)) {
+					continue;
+				}
+				if (!this.fill.reserveVolume()) {
+					break;
+				}
+				found.add(position);
+				for (final BlockFace face : FACES) {
+					final int relativeX = x + face.getModX();
+					final int relativeY = y + face.getModY();
+					final int relativeZ = z + face.getModZ();
+					final long relative = PackedPosition.block(relativeX, relativeY, relativeZ);
+					if ((relativeX >> 4) == (x >> 4) && (relativeY >> 4) == (y >> 4) && (relativeZ >> 4) == (z >> 4)) {
+						this.pending.add(relative);
+					}
+					else {
+						outgoing.computeIfAbsent(sectionOf(relative), key -> new LongArrayList()).add(relative);
+					}
+				}
+			}
+			if (!found.isEmpty()) {
+				this.fill.found.add(found);
+			}
+			if (!this.fill.truncated) {
+				outgoing.forEach((next, positions) -> {
+					addToPendingCount(1);
+					new SectionTask(this, this.fill, next, positions).fork();
+				});
+			}
+			tryComplete();
+		}
+
+	}
+
+}
@@ -0,0 +1,183 @@
+package vg.civcraft.mc.civmodcore.world;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+/**
+ * Keeps track of which chunks are loaded, so that can be checked from any thread without touching the Bukkit API, and
+ * without the cost of asking the server. Chunks are tracked per world in bitmaps of 32 by 32 chunks, the size of a
+ * region file.
+ *
+ * A chunk counts as unloaded as soon as its unload begins.
+ */
+public class LoadedChunkTracker implements Listener {
+
+	private static final Map<UUID, LoadedChunks> STORAGE = new ConcurrentHashMap<>();
+
+	/**
+	 * Starts tracking the chunks of all currently loaded worlds, should be called before registering the tracker.
+	 */
+	public static void init() {
+		for (final World world : Bukkit.getWorlds()) {
+			track(world);
+		}
+	}
+
+	@EventHandler(priority = EventPriority.LOWEST)
+	public void onWorldLoad(final WorldLoadEvent event) {
+		track(event.getWorld());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onWorldUnload(final WorldUnloadEvent event) {
+		STORAGE.remove(event.getWorld().getUID());
+	}
+
+	@EventHandler(priority = EventPriority.LOWEST)
+	public void onChunkLoad(final ChunkLoadEvent event) {
+		final Chunk chunk = event.getChunk();
+		final LoadedChunks chunks = STORAGE.get(chunk.getWorld().getUID());
+		if (chunks != null) {
+			chunks.set(chunk.getX(), chunk.getZ(), true);
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onChunkUnload(final ChunkUnloadEvent event) {
+		final Chunk chunk = event.getChunk();
+		final LoadedChunks chunks = STORAGE.get(chunk.getWorld().getUID());
+		if (chunks != null) {
+			chunks.set(chunk.getX(), chunk.getZ(), false);
+		}
+	}
+
+	/**
+	 * Checks whether a chunk is loaded. Safe to call from any thread.
+	 *
+	 * @param world The world's {@link UUID}.
+	 * @param chunkX The chunk's x coordinate.
+	 * @param chunkZ The chunk's z coordinate.
+	 * @return Returns true if the chunk is loaded, false if it or its world is not.
+	 */
+	public static boolean isChunkLoaded(final UUID world, final int chunkX, final int chunkZ) {
+		final LoadedChunks chunks = STORAGE.get(world);
+		return chunks != null && chunks.get(chunkX, chunkZ);
+	}
+
+	/**
+	 * Checks whether a chunk is loaded. Safe to call from any thread.
+	 *
+	 * @param world The world.
+	 * @param chunkX The chunk's x coordinate.
+	 * @param chunkZ The chunk's z coordinate.
+	 * @return Returns true if the chunk is loaded, false if it or its world is not.
+	 */
+	public static boolean isChunkLoaded(final World world, final int chunkX, final int chunkZ) {
+		return isChunkLoaded(world.getUID(), chunkX, chunkZ);
+	}
+
+	/**
+	 * Checks whether the chunk containing a block is loaded. Safe to call from any thread.
+	 *
+	 * @param world The world.
+	 * @param blockX The block's x coordinate.
+	 * @param blockZ The block's z coordinate.
+	 * @return Returns true if the block's chunk is loaded, false if it or its world is not.
+	 */
+	public static boolean isBlockLoaded(final World world, final int blockX, final int blockZ) {
+		return isChunkLoaded(world.getUID(), blockX >> 4, blockZ >> 4);
+	}
+
+	/**
+	 * Resets the tracker. Should only be used when disabling CivModCore.
+	 */
+	public static void reset() {
+		STORAGE.clear();
+	}
+
+	private static void track(final World world) {
+		final var chunks = new LoadedChunks();
+		for (final Chunk chunk : world.getLoadedChunks()) {
+			chunks.set(chunk.getX(), chunk.getZ(), true);
+		}
+		STORAGE.put(world.getUID(), chunks);
+	}
+
+	/**
+	 * The loaded chunks of one world. Every region with loaded chunks has a bitmap of 1024 bits, one per chunk. The map
+	 * of regions is copied whenever a region is added or removed, which only happens when its first chunk loads or
+	 * its last chunk unloads, so reads need no lock.
+	 */
+	private static final class LoadedChunks {
+
+		private static final int REGION_SHIFT = 5;
+		private static final int REGION_MASK = (1 << REGION_SHIFT) - 1;
+		private static final int WORDS_PER_REGION = (1 << (REGION_SHIFT * 2)) / Long.SIZE;
+
+		private volatile Long2ObjectOpenHashMap<Region> regions = new Long2ObjectOpenHashMap<>();
+
+		boolean get(final int chunkX, final int chunkZ) {
+			final Region region = this.regions.get(Chunk.getChunkKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT));
+			if (region == null) {
+				return false;
+			}
+			final int bit = bitOf(chunkX, chunkZ);
+			return (region.bits.get(bit >>> 6) & (1L << bit)) != 0;
+		}
+
+		synchronized void set(final int chunkX, final int chunkZ, final boolean loaded) {
+			final long key = Chunk.getChunkKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT);
+			Region region = this.regions.get(key);
+			if (region == null) {
+				if (!loaded) {
+					return;
+				}
+				region = new Region();
+				final var copy = new Long2ObjectOpenHashMap<>(this.regions);
+				copy.put(key, region);
+				this.regions = copy;
+			}
+			final int bit = bitOf(chunkX, chunkZ);
+			final int word = bit >>> 6;
+			final long mask = 1L << bit;
+			final long previous = region.bits.get(word);
+			if (((previous & mask) != 0) == loaded) {
+				return;
+			}
+			region.bits.set(word, loaded ? previous | mask : previous & ~mask);
+			region.loaded += loaded ? 1 : -1;
+			if (region.loaded == 0) {
+				final var copy = new Long2ObjectOpenHashMap<>(this.regions);
+				copy.remove(key);
+				this.regions = copy;
+			}
+		}
+
+		private static int bitOf(final int chunkX, final int chunkZ) {
+			return ((chunkZ & REGION_MASK) << REGION_SHIFT) | (chunkX & REGION_MASK);
+		}
+
+	}
+
+	private static final class Region {
+
+		private final AtomicLongArray bits = new AtomicLongArray(LoadedChunks.WORDS_PER_REGION);
+		// only accessed while the owning LoadedChunks is locked
+		private int loaded;
+
+	}
+
+}
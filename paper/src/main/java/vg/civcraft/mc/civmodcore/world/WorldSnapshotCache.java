@@ -0,0 +1,456 @@
+package vg.civcraft.mc.civmodcore.world;
+
+import com.google.common.base.Preconditions;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.AnaloguePowerable;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Directional;
+import org.bukkit.block.data.Openable;
+import org.bukkit.block.data.Powerable;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockDispenseEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFertilizeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockGrowEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.BlockRedstoneEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.block.SpongeAbsorbEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerBucketEmptyEvent;
+import org.bukkit.event.player.PlayerBucketFillEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.StructureGrowEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import vg.civcraft.mc.civmodcore.CivModCorePlugin;
+import vg.civcraft.mc.civmodcore.world.locations.PackedPosition;
+
+/**
+ * Caches {@link ChunkSnapshot}s of loaded chunks so blocks can be read off the main thread through
+ * {@link BlockSnapshotView}s. Snapshots are taken on demand on the main thread, and dropped whenever an event changes
+ * a block in their chunk, when their chunk unloads or once they are older than {@link #MAX_SNAPSHOT_AGE}.
+ *
+ * Events fire before the block actually changes, so a snapshot of a chunk invalidated during the current tick may
+ * still show the old block. Such snapshots are handed out, but not cached, so the next capture after the tick takes a
+ * new one. Changing a block may also change the shape of its neighbours, like fences connecting or chests forming a
+ * double chest, so the chunk next to a changed block on a chunk edge is dropped as well.
+ *
+ * Block changes made by plugins directly through the API fire no event, so plugins doing so should call
+ * {@link #invalidate(World, int, int)} for the affected chunks if they also read them through snapshots.
+ */
+public final class WorldSnapshotCache implements Listener {
+
+	/**
+	 * Age in milliseconds after which a cached snapshot is taken again, bounding how stale reads can be when a block
+	 * was changed without an event.
+	 */
+	public static final long MAX_SNAPSHOT_AGE = 5_000;
+
+	/**
+	 * Snapshots hold a copy of every section of their chunk, so only this many are cached per world.
+	 */
+	private static final int MAX_CACHED_CHUNKS = 256;
+
+	private static final Map<UUID, Map<Long, CachedChunk>> STORAGE = new ConcurrentHashMap<>();
+
+	/**
+	 * Chunks invalidated during {@link #invalidatedTick}, per world. Only used on the main thread, where both block
+	 * changes and snapshots happen.
+	 */
+	private static final Map<UUID, Set<Long>> INVALIDATED = new HashMap<>();
+	private static int invalidatedTick = -1;
+
+	/**
+	 * Captures the blocks of all chunks overlapping the given block rectangle. Cached snapshots are reused, missing
+	 * ones are taken on the main thread, immediately if called on it or on the next tick otherwise. Chunks which are
+	 * not loaded at that point are not loaded, reads within them return null.
+	 *
+	 * @param world The world to capture.
+	 * @param minX The lowest block x coordinate to capture (inclusive).
+	 * @param minZ The lowest block z coordinate to capture (inclusive).
+	 * @param maxX The highest block x coordinate to capture (inclusive).
+	 * @param maxZ The highest block z coordinate to capture (inclusive).
+	 * @return Returns a future completed with the captured view, which may be read from any thread.
+	 */
+	public static CompletableFuture<BlockSnapshotView> capture(final World world,
+															   final int minX,
+															   final int minZ,
+															   final int maxX,
+															   final int maxZ) {
+		Preconditions.checkArgument(world != null);
+		Preconditions.checkArgument(minX <= maxX && minZ <= maxZ);
+		final int minChunkX = minX >> 4;
+		final int minChunkZ = minZ >> 4;
+		final int chunksX = (maxX >> 4) - minChunkX + 1;
+		final int chunksZ = (maxZ >> 4) - minChunkZ + 1;
+		final var chunks = new ChunkSnapshot[chunksX * chunksZ];
+		boolean complete = true;
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = getCachedSnapshot(world, minChunkX + (i % chunksX), minChunkZ + (i / chunksX));
+			complete &= chunks[i] != null;
+		}
+		final Runnable captureMissing = () -> {
+			for (int i = 0; i < chunks.length; i++) {
+				if (chunks[i] == null) {
+					chunks[i] = takeSnapshot(world, minChunkX + (i % chunksX), minChunkZ + (i / chunksX));
+				}
+			}
+		};
+		final var view = new BlockSnapshotView(world.getUID(), minChunkX, minChunkZ, chunksX, chunksZ,
+				world.getMinHeight(), world.getMaxHeight(), chunks);
+		if (complete) {
+			return CompletableFuture.completedFuture(view);
+		}
+		if (Bukkit.isPrimaryThread()) {
+			captureMissing.run();
+			return CompletableFuture.completedFuture(view);
+		}
+		final var future = new CompletableFuture<BlockSnapshotView>();
+		Bukkit.getScheduler().runTask(CivModCorePlugin.getInstance(), () -> {
+			try {
+				captureMissing.run();
+				future.complete(view);
+			}
+			catch (final Throwable throwable) {
+				future.completeExceptionally(throwable);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Captures the blocks within the given radius around a block, see {@link #capture(World, int, int, int, int)}.
+	 *
+	 * @param block The block to capture around.
+	 * @param radius The horizontal radius to capture around the block.
+	 * @return Returns a future completed with the captured view, which may be read from any thread.
+	 */
+	public static CompletableFuture<BlockSnapshotView> capture(final Block block, final int radius) {
+		Preconditions.checkArgument(block != null);
+		Preconditions.checkArgument(radius >= 0);
+		return capture(block.getWorld(), block.getX() - radius, block.getZ() - radius,
+				block.getX() + radius, block.getZ() + radius);
+	}
+
+	/**
+	 * Returns the cached snapshot of a chunk if there is a current one. Safe to call from any thread.
+	 *
+	 * @param world The world the chunk is in.
+	 * @param chunkX The chunk's x coordinate.
+	 * @param chunkZ The chunk's z coordinate.
+	 * @return Returns the cached snapshot, or null if there is none.
+	 */
+	public static ChunkSnapshot getCachedSnapshot(final World world, final int chunkX, final int chunkZ) {
+		final Map<Long, CachedChunk> chunks = STORAGE.get(world.getUID());
+		if (chunks == null) {
+			return null;
+		}
+		final CachedChunk cached = chunks.get(PackedPosition.chunk(chunkX, chunkZ));
+		if (cached == null || cached.isExpired(System.nanoTime())) {
+			return null;
+		}
+		return cached.snapshot;
+	}
+
+	/**
+	 * Drops the cached snapshot of a chunk, so the next capture takes a new one. Safe to call from any thread, but only
+	 * calls on the main thread keep snapshots taken later in the same tick from being cached.
+	 *
+	 * @param world The world the chunk is in.
+	 * @param chunkX The chunk's x coordinate.
+	 * @param chunkZ The chunk's z coordinate.
+	 */
+	public static void invalidate(final World world, final int chunkX, final int chunkZ) {
+		final long key = PackedPosition.chunk(chunkX, chunkZ);
+		if (Bukkit.isPrimaryThread()) {
+			getInvalidatedThisTick(world).add(key);
+		}
+		final Map<Long, CachedChunk> chunks = STORAGE.get(world.getUID());
+		if (chunks != null) {
+			chunks.remove(key);
+		}
+	}
+
+	/**
+	 * @param world The world to get the invalidated chunks of.
+	 * @return Returns the chunks of the given world invalidated during the current tick. Must be called on the main
+	 *         thread.
+	 */
+	private static Set<Long> getInvalidatedThisTick(final World world) {
+		final int tick = Bukkit.getCurrentTick();
+		if (tick != invalidatedTick) {
+			INVALIDATED.clear();
+			invalidatedTick = tick;
+		}
+		return INVALIDATED.computeIfAbsent(world.getUID(), uuid -> new HashSet<>());
+	}
+
+	/**
+	 * Resets the cache. Should only be used when disabling CivModCore.
+	 */
+	public static void reset() {
+		STORAGE.clear();
+		INVALIDATED.clear();
+	}
+
+	private static ChunkSnapshot takeSnapshot(final World world, final int chunkX, final int chunkZ) {
+		if (!world.isChunkLoaded(chunkX, chunkZ)) {
+			return null;
+		}
+		final ChunkSnapshot snapshot = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+		final long key = PackedPosition.chunk(chunkX, chunkZ);
+		if (getInvalidatedThisTick(world).contains(key)) {
+			// the change which invalidated the chunk may not have been applied yet
+			return snapshot;
+		}
+		final long now = System.nanoTime();
+		final Map<Long, CachedChunk> chunks = STORAGE.computeIfAbsent(world.getUID(),
+				uuid -> new ConcurrentHashMap<>());
+		if (chunks.size() >= MAX_CACHED_CHUNKS) {
+			chunks.values().removeIf(cached -> cached.isExpired(now));
+			final Iterator<Long> iterator = chunks.keySet().iterator();
+			while (chunks.size() >= MAX_CACHED_CHUNKS && iterator.hasNext()) {
+				iterator.next();
+				iterator.remove();
+			}
+		}
+		chunks.put(key, new CachedChunk(snapshot, now));
+		return snapshot;
+	}
+
+	private static void invalidate(final Block block) {
+		final World world = block.getWorld();
+		final int chunkX = block.getX() >> 4;
+		final int chunkZ = block.getZ() >> 4;
+		invalidate(world, chunkX, chunkZ);
+		// neighbours in the adjacent chunk may change their shape along with the block
+		final int x = block.getX() & 15;
+		final int z = block.getZ() & 15;
+		if (x == 0) {
+			invalidate(world, chunkX - 1, chunkZ);
+		}
+		else if (x == 15) {
+			invalidate(world, chunkX + 1, chunkZ);
+		}
+		if (z == 0) {
+			invalidate(world, chunkX, chunkZ - 1);
+		}
+		else if (z == 15) {
+			invalidate(world, chunkX, chunkZ + 1);
+		}
+	}
+
+	private static void invalidate(final List<Block> blocks) {
+		for (final Block block : blocks) {
+			invalidate(block);
+		}
+	}
+
+	private static void invalidateStates(final List<BlockState> states) {
+		for (final BlockState state : states) {
+			invalidate(state.getBlock());
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPlace(final BlockPlaceEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockBreak(final BlockBreakEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockExplode(final BlockExplodeEvent event) {
+		invalidate(event.getBlock());
+		invalidate(event.blockList());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityExplode(final EntityExplodeEvent event) {
+		invalidate(event.blockList());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onPistonExtend(final BlockPistonExtendEvent event) {
+		invalidate(event.getBlock());
+		for (final Block block : event.getBlocks()) {
+			invalidate(block);
+			invalidate(block.getRelative(event.getDirection()));
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onPistonRetract(final BlockPistonRetractEvent event) {
+		invalidate(event.getBlock());
+		invalidate(event.getBlock().getRelative(event.getDirection().getOppositeFace()));
+		for (final Block block : event.getBlocks()) {
+			invalidate(block);
+			invalidate(block.getRelative(event.getDirection()));
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBucketEmpty(final PlayerBucketEmptyEvent event) {
+		invalidate(event.getBlock());
+		invalidate(event.getBlockClicked());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBucketFill(final PlayerBucketFillEvent event) {
+		invalidate(event.getBlock());
+		invalidate(event.getBlockClicked());
+	}
+
+	/**
+	 * Dispensers place and pick up liquids and blocks, shear and till in front of them.
+	 */
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onDispense(final BlockDispenseEvent event) {
+		final Block block = event.getBlock();
+		invalidate(block);
+		if (block.getBlockData() instanceof Directional directional) {
+			invalidate(block.getRelative(directional.getFacing()));
+		}
+	}
+
+	/**
+	 * Covers doors, trapdoors, gates, levers, buttons, repeaters and the like being used, and pressure plates and
+	 * farmland being stepped on.
+	 */
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onInteract(final PlayerInteractEvent event) {
+		final Block block = event.getClickedBlock();
+		if (block == null) {
+			return;
+		}
+		if (event.getAction() == Action.PHYSICAL) {
+			invalidate(block);
+			return;
+		}
+		if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
+			final BlockData data = block.getBlockData();
+			if (data instanceof Openable || data instanceof Powerable || data instanceof AnaloguePowerable) {
+				invalidate(block);
+			}
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onLiquidFlow(final BlockFromToEvent event) {
+		invalidate(event.getToBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockBurn(final BlockBurnEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockFade(final BlockFadeEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	/**
+	 * Also covers spreading blocks, like grass and fire.
+	 */
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockForm(final BlockFormEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockGrow(final BlockGrowEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onFertilize(final BlockFertilizeEvent event) {
+		invalidate(event.getBlock());
+		invalidateStates(event.getBlocks());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onSpongeAbsorb(final SpongeAbsorbEvent event) {
+		invalidate(event.getBlock());
+		invalidateStates(event.getBlocks());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onRedstone(final BlockRedstoneEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onLeavesDecay(final LeavesDecayEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onEntityChangeBlock(final EntityChangeBlockEvent event) {
+		invalidate(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onStructureGrow(final StructureGrowEvent event) {
+		invalidateStates(event.getBlocks());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onChunkUnload(final ChunkUnloadEvent event) {
+		final Chunk chunk = event.getChunk();
+		invalidate(chunk.getWorld(), chunk.getX(), chunk.getZ());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onWorldUnload(final WorldUnloadEvent event) {
+		STORAGE.remove(event.getWorld().getUID());
+		INVALIDATED.remove(event.getWorld().getUID());
+	}
+
+	private static final class CachedChunk {
+
+		private final ChunkSnapshot snapshot;
+		private final long capturedAt;
+
+		private CachedChunk(final ChunkSnapshot snapshot, final long capturedAt) {
+			this.snapshot = snapshot;
+			this.capturedAt = capturedAt;
+		}
+
+		private boolean isExpired(final long now) {
+			return now - this.capturedAt > TimeUnit.MILLISECONDS.toNanos(MAX_SNAPSHOT_AGE);
+		}
+
+	}
+
+}
@@ -276,6 +276,8 @@ public final class WorldUtils {
 	 * @param block The block to get the relatives of.
 	 * @param faces A collection of the faces, which will be the keys of the returned map.
 	 * @return Returns an immutable map of the block's relatives.
+	 *
+	 * @see BlockSnapshotView#getBlockSidesMapped(int, int, int, Collection) for use off the main thread.
 	 */
 	public static Map<BlockFace, Block> getBlockSidesMapped(final Block block,
 															final Collection<BlockFace> faces,
@@ -461,6 +463,8 @@ public final class WorldUtils {
 	 *
 	 * @param block The block that represents the double chest block you already have.
 	 * @return Returns the other block or null if none can be found, or if the given block isn't that of a double chest.
+	 *
+	 * @see BlockSnapshotView#getOtherDoubleChestFace(int, int, int) for use off the main thread.
 	 */
 	public static Block getOtherDoubleChestBlock(final Block block, final boolean forceLoad) {
 		if (!isValidBlock(block)) {
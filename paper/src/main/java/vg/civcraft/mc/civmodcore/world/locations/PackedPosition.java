@@ -0,0 +1,142 @@
+package vg.civcraft.mc.civmodcore.world.locations;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * Block and chunk positions packed into a single long, so they can be passed around and used as keys of primitive
+ * collections like {@link PositionSet} and {@link PositionMap} without allocating an object per position. Packed
+ * positions do not know their world, which has to be tracked alongside them.
+ *
+ * Blocks use the same layout as Minecraft's BlockPos.asLong(): 26 bits x, 26 bits z and 12 bits y, which covers
+ * x and z within [-2^25, 2^25) and y within [-2048, 2048). Chunks use the layout of
+ * {@link Chunk#getChunkKey(int, int)}: x in the lower and z in the upper 32 bits.
+ */
+public final class PackedPosition {
+
+	private PackedPosition() {
+	}
+
+	/**
+	 * @param x X-coordinate of the block
+	 * @param y Y-coordinate of the block
+	 * @param z Z-coordinate of the block
+	 * @return Packed position of the block
+	 */
+	public static long block(int x, int y, int z) {
+		return ((x & 0x3FFFFFFL) << 38) | ((z & 0x3FFFFFFL) << 12) | (y & 0xFFFL);
+	}
+
+	/**
+	 * @param location Location to pack, may not be null
+	 * @return Packed position of the block the location is in
+	 */
+	public static long block(Location location) {
+		return block(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+	}
+
+	/**
+	 * @param block Block to pack, may not be null
+	 * @return Packed position of the block
+	 */
+	public static long block(Block block) {
+		return block(block.getX(), block.getY(), block.getZ());
+	}
+
+	/**
+	 * @param packed Packed block position
+	 * @return X-coordinate of the block
+	 */
+	public static int blockX(long packed) {
+		return (int) (packed >> 38);
+	}
+
+	/**
+	 * @param packed Packed block position
+	 * @return Y-coordinate of the block
+	 */
+	public static int blockY(long packed) {
+		return (int) (packed << 52 >> 52);
+	}
+
+	/**
+	 * @param packed Packed block position
+	 * @return Z-coordinate of the block
+	 */
+	public static int blockZ(long packed) {
+		return (int) (packed << 26 >> 38);
+	}
+
+	/**
+	 * @param packed Packed block position
+	 * @param dx     Offset along the x-axis
+	 * @param dy     Offset along the y-axis
+	 * @param dz     Offset along the z-axis
+	 * @return Packed position of the block at the given offset
+	 */
+	public static long offset(long packed, int dx, int dy, int dz) {
+		return block(blockX(packed) + dx, blockY(packed) + dy, blockZ(packed) + dz);
+	}
+
+	/**
+	 * @param chunkX X-coordinate of the chunk
+	 * @param chunkZ Z-coordinate of the chunk
+	 * @return Packed position of the chunk
+	 */
+	public static long chunk(int chunkX, int chunkZ) {
+		return ((long) chunkX & 0xFFFFFFFFL) | (((long) chunkZ & 0xFFFFFFFFL) << 32);
+	}
+
+	/**
+	 * @param packed Packed chunk position
+	 * @return X-coordinate of the chunk
+	 */
+	public static int chunkX(long packed) {
+		return (int) packed;
+	}
+
+	/**
+	 * @param packed Packed chunk position
+	 * @return Z-coordinate of the chunk
+	 */
+	public static int chunkZ(long packed) {
+		return (int) (packed >>> 32);
+	}
+
+	/**
+	 * @param packed Packed block position
+	 * @return Packed position of the chunk the block is in
+	 */
+	public static long chunkOf(long packed) {
+		return chunk(blockX(packed) >> 4, blockZ(packed) >> 4);
+	}
+
+	/**
+	 * @param world  World the block is in
+	 * @param packed Packed block position
+	 * @return New location at the lower corner of the block
+	 */
+	public static Location toLocation(World world, long packed) {
+		return new Location(world, blockX(packed), blockY(packed), blockZ(packed));
+	}
+
+	/**
+	 * @param world  World the block is in
+	 * @param packed Packed block position
+	 * @return The block at the packed position
+	 */
+	public static Block toBlock(World world, long packed) {
+		return world.getBlockAt(blockX(packed), blockY(packed), blockZ(packed));
+	}
+
+	/**
+	 * @param packed Packed block position
+	 * @return Readable representation of the block position
+	 */
+	public static String toString(long packed) {
+		return "(" + blockX(packed) + ", " + blockY(packed) + ", " + blockZ(packed) + ")";
+	}
+
+}
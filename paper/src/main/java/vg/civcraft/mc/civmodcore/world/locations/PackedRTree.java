@@ -0,0 +1,306 @@
+package vg.civcraft.mc.civmodcore.world.locations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Immutable R-tree of boxes, built in one go from a known set of boxes. Meant for large sets loaded at startup, such as
+ * all fields of a plugin, where adding boxes one at a time to a {@link SparseQuadTree} would split nodes over and over.
+ *
+ * Boxes are sorted along a Hilbert curve by their centers and then packed into full nodes bottom up, which takes a
+ * single sort and keeps nearby boxes in the same nodes. Node bounds are kept in flat int arrays, so point and range
+ * queries do not allocate. Being immutable, the tree may be queried from any thread. To change its contents, build a
+ * new tree.
+ */
+public final class PackedRTree<T extends QTBox> {
+
+	public static final int DEFAULT_NODE_CAPACITY = 16;
+
+	private static final int HILBERT_BITS = 16;
+	private static final int HILBERT_MAX = (1 << HILBERT_BITS) - 1;
+
+	private final Object[] boxes;
+	private final int nodeCapacity;
+	// index of the first node of each level in the bound arrays, leaves first, one extra entry marking the end
+	private final int[] levelOffsets;
+	private final int[] minX;
+	private final int[] maxX;
+	private final int[] minZ;
+	private final int[] maxZ;
+
+	private PackedRTree(Object[] boxes, int nodeCapacity, int[] levelOffsets, int[] minX, int[] maxX, int[] minZ,
+			int[] maxZ) {
+		this.boxes = boxes;
+		this.nodeCapacity = nodeCapacity;
+		this.levelOffsets = levelOffsets;
+		this.minX = minX;
+		this.maxX = maxX;
+		this.minZ = minZ;
+		this.maxZ = maxZ;
+	}
+
+	/**
+	 * Builds a tree containing the given boxes
+	 *
+	 * @param boxes Boxes to put into the tree
+	 * @return Tree containing all given boxes
+	 */
+	public static <T extends QTBox> PackedRTree<T> bulkLoad(Collection<? extends T> boxes) {
+		return bulkLoad(boxes, DEFAULT_NODE_CAPACITY);
+	}
+
+	/**
+	 * Builds a tree containing the given boxes
+	 *
+	 * @param boxes        Boxes to put into the tree
+	 * @param nodeCapacity Maximum amount of children per node
+	 * @return Tree containing all given boxes
+	 */
+	public static <T extends QTBox> PackedRTree<T> bulkLoad(Collection<? extends T> boxes, int nodeCapacity) {
+		if (nodeCapacity < 2) {
+			throw new IllegalArgumentException("Node capacity must be at least 2, was " + nodeCapacity);
+		}
+		Object[] input = boxes.toArray();
+		int count = input.length;
+		if (count == 0) {
+			return new PackedRTree<>(input, nodeCapacity, new int[] {0}, new int[0], new int[0], new int[0],
+					new int[0]);
+		}
+		Object[] sorted = sortByHilbertCurve(input);
+		// sizes of all levels, leaves first
+		List<Integer> levelSizes = new ArrayList<>();
+		int levelSize = count;
+		do {
+			levelSize = (levelSize + nodeCapacity - 1) / nodeCapacity;
+			levelSizes.add(levelSize);
+		} while (levelSize > 1);
+		int[] levelOffsets = new int[levelSizes.size() + 1];
+		for (int level = 0; level < levelSizes.size(); level++) {
+			levelOffsets[level + 1] = levelOffsets[level] + levelSizes.get(level);
+		}
+		int nodes = levelOffsets[levelSizes.size()];
+		int[] minX = new int[nodes];
+		int[] maxX = new int[nodes];
+		int[] minZ = new int[nodes];
+		int[] maxZ = new int[nodes];
+		Arrays.fill(minX, Integer.MAX_VALUE);
+		Arrays.fill(minZ, Integer.MAX_VALUE);
+		Arrays.fill(maxX, Integer.MIN_VALUE);
+		Arrays.fill(maxZ, Integer.MIN_VALUE);
+		for (int i = 0; i < count; i++) {
+			QTBox box = (QTBox) sorted[i];
+			int node = i / nodeCapacity;
+			minX[node] = Math.min(minX[node], box.qtXMin());
+			maxX[node] = Math.max(maxX[node], box.qtXMax());
+			minZ[node] = Math.min(minZ[node], box.qtZMin());
+			maxZ[node] = Math.max(maxZ[node], box.qtZMax());
+		}
+		for (int level = 1; level < levelSizes.size(); level++) {
+			for (int child = levelOffsets[level - 1]; child < levelOffsets[level]; child++) {
+				int node = levelOffsets[level] + (child - levelOffsets[level - 1]) / nodeCapacity;
+				minX[node] = Math.min(minX[node], minX[child]);
+				maxX[node] = Math.max(maxX[node], maxX[child]);
+				minZ[node] = Math.min(minZ[node], minZ[child]);
+				maxZ[node] = Math.max(maxZ[node], maxZ[child]);
+			}
+		}
+		return new PackedRTree<>(sorted, nodeCapacity, levelOffsets, minX, maxX, minZ, maxZ);
+	}
+
+	private static Object[] sortByHilbertCurve(Object[] input) {
+		long centerMinX = Long.MAX_VALUE;
+		long centerMaxX = Long.MIN_VALUE;
+		long centerMinZ = Long.MAX_VALUE;
+		long centerMaxZ = Long.MIN_VALUE;
+		long[] centers = new long[input.length * 2];
+		for (int i = 0; i < input.length; i++) {
+			QTBox box = (QTBox) input[i];
+			long x = ((long) box.qtXMin() + box.qtXMax()) / 2;
+			long z = ((long) box.qtZMin() + box.qtZMax()) / 2;
+			centers[i * 2] = x;
+			centers[i * 2 + 1] = z;
+			centerMinX = Math.min(centerMinX, x);
+			centerMaxX = Math.max(centerMaxX, x);
+			centerMinZ = Math.min(centerMinZ, z);
+			centerMaxZ = Math.max(centerMaxZ, z);
+		}
+		long width = Math.max(1, centerMaxX - centerMinX);
+		long height = Math.max(1, centerMaxZ - centerMinZ);
+		// curve position in the upper bits, index in the lower 31, so a single primitive sort orders the boxes
+		long[] keys = new long[input.length];
+		for (int i = 0; i < input.length; i++) {
+			int x = (int) ((centers[i * 2] - centerMinX) * HILBERT_MAX / width);
+			int z = (int) ((centers[i * 2 + 1] - centerMinZ) * HILBERT_MAX / height);
+			keys[i] = (hilbert(x, z) << 31) | i;
+		}
+		Arrays.sort(keys);
+		Object[] sorted = new Object[input.length];
+		for (int i = 0; i < keys.length; i++) {
+			sorted[i] = input[(int) (keys[i] & Integer.MAX_VALUE)];
+		}
+		return sorted;
+	}
+
+	/**
+	 * @return Distance along a Hilbert curve filling a 2^16 by 2^16 grid to the given cell
+	 */
+	static long hilbert(int x, int z) {
+		long distance = 0;
+		for (int s = 1 << (HILBERT_BITS - 1); s > 0; s >>= 1) {
+			int rx = (x & s) != 0 ? 1 : 0;
+			int rz = (z & s) != 0 ? 1 : 0;
+			distance += (long) s * s * ((3 * rx) ^ rz);
+			if (rz == 0) {
+				if (rx == 1) {
+					x = HILBERT_MAX - x;
+					z = HILBERT_MAX - z;
+				}
+				int swap = x;
+				x = z;
+				z = swap;
+			}
+		}
+		return distance;
+	}
+
+	/**
+	 * @return Amount of boxes in the tree
+	 */
+	public int size() {
+		return boxes.length;
+	}
+
+	/**
+	 * Passes every box containing the given point to the visitor, without allocating
+	 *
+	 * @param x       X coordinate of the point
+	 * @param z       Z coordinate of the point
+	 * @param visitor Receives every box containing the point
+	 */
+	public void forEach(int x, int z, Consumer<? super T> visitor) {
+		forEachIntersecting(x, z, x, z, visitor);
+	}
+
+	/**
+	 * Passes every box intersecting the given area to the visitor, without allocating
+	 *
+	 * @param minX    Lower x bound of the area, inclusive
+	 * @param minZ    Lower z bound of the area, inclusive
+	 * @param maxX    Upper x bound of the area, inclusive
+	 * @param maxZ    Upper z bound of the area, inclusive
+	 * @param visitor Receives every box intersecting the area
+	 */
+	public void forEachIntersecting(int minX, int minZ, int maxX, int maxZ, Consumer<? super T> visitor) {
+		if (boxes.length == 0) {
+			return;
+		}
+		int rootLevel = levelOffsets.length - 2;
+		visit(rootLevel, 0, minX, minZ, maxX, maxZ, visitor);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void visit(int level, int index, int minX, int minZ, int maxX, int maxZ, Consumer<? super T> visitor) {
+		int node = levelOffsets[level] + index;
+		if (this.minX[node] > maxX || this.maxX[node] < minX || this.minZ[node] > maxZ || this.maxZ[node] < minZ) {
+			return;
+		}
+		int first = index * nodeCapacity;
+		if (level == 0) {
+			int end = Math.min(first + nodeCapacity, boxes.length);
+			for (int i = first; i < end; i++) {
+				T box = (T) boxes[i];
+				if (box.qtXMin() <= maxX && box.qtXMax() >= minX && box.qtZMin() <= maxZ && box.qtZMax() >= minZ) {
+					visitor.accept(box);
+				}
+			}
+			return;
+		}
+		int end = Math.min(first + nodeCapacity, levelOffsets[level] - levelOffsets[level - 1]);
+		for (int child = first; child < end; child++) {
+			visit(level - 1, child, minX, minZ, maxX, maxZ, visitor);
+		}
+	}
+
+	/**
+	 * Collects all boxes containing the given point into a new set
+	 *
+	 * @param x X coordinate of the point
+	 * @param z Z coordinate of the point
+	 * @return Mutable set of all boxes containing the point
+	 */
+	public Set<T> find(int x, int z) {
+		Set<T> result = new HashSet<>();
+		forEach(x, z, result::add);
+		return result;
+	}
+
+	/**
+	 * Finds the boxes closest to the given point, measured from the point to the closest point of each box. Boxes
+	 * containing the point have a distance of zero
+	 *
+	 * @param x     X coordinate of the point
+	 * @param z     Z coordinate of the point
+	 * @param count Maximum amount of boxes to return
+	 * @return Up to count boxes, closest first
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> nearest(int x, int z, int count) {
+		List<T> result = new ArrayList<>(Math.min(count, boxes.length));
+		if (boxes.length == 0 || count <= 0) {
+			return result;
+		}
+		// best first search over nodes and boxes alike, ordered by their distance to the point
+		PriorityQueue<Candidate> queue = new PriorityQueue<>();
+		int rootLevel = levelOffsets.length - 2;
+		queue.add(new Candidate(rootLevel, 0, distanceSquared(x, z, minX[levelOffsets[rootLevel]],
+				maxX[levelOffsets[rootLevel]], minZ[levelOffsets[rootLevel]], maxZ[levelOffsets[rootLevel]])));
+		while (!queue.isEmpty() && result.size() < count) {
+			Candidate candidate = queue.poll();
+			if (candidate.level < 0) {
+				result.add((T) boxes[candidate.index]);
+				continue;
+			}
+			int first = candidate.index * nodeCapacity;
+			if (candidate.level == 0) {
+				int end = Math.min(first + nodeCapacity, boxes.length);
+				for (int i = first; i < end; i++) {
+					QTBox box = (QTBox) boxes[i];
+					queue.add(new Candidate(-1, i,
+							distanceSquared(x, z, box.qtXMin(), box.qtXMax(), box.qtZMin(), box.qtZMax())));
+				}
+				continue;
+			}
+			int level = candidate.level - 1;
+			int end = Math.min(first + nodeCapacity, levelOffsets[level + 1] - levelOffsets[level]);
+			for (int child = first; child < end; child++) {
+				int node = levelOffsets[level] + child;
+				queue.add(new Candidate(level, child,
+						distanceSquared(x, z, minX[node], maxX[node], minZ[node], maxZ[node])));
+			}
+		}
+		return result;
+	}
+
+	private static long distanceSquared(int x, int z, int minX, int maxX, int minZ, int maxZ) {
+		long dx = x < minX ? (long) minX - x : x > maxX ? (long) x - maxX : 0;
+		long dz = z < minZ ? (long) minZ - z : z > maxZ ? (long) z - maxZ : 0;
+		return dx * dx + dz * dz;
+	}
+
+	/**
+	 * Node or box queued during a nearest neighbour search, boxes have a level of -1
+	 */
+	private record Candidate(int level, int index, long distance) implements Comparable<Candidate> {
+		@Override
+		public int compareTo(Candidate other) {
+			return Long.compare(distance, other.distance);
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+package vg.civcraft.mc.civmodcore.world.locations;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import java.util.Collection;
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+
+/**
+ * Map from block positions to values, with the positions stored packed as described in {@link PackedPosition} in a
+ * primitive hash map, so no key objects are allocated. Positions of different worlds can not be told apart, so a map
+ * should only hold the positions of one world.
+ *
+ * Not thread-safe
+ *
+ * @param <V> Type of the values
+ */
+public class PositionMap<V> {
+
+	private final Long2ObjectOpenHashMap<V> values;
+
+	public PositionMap() {
+		this.values = new Long2ObjectOpenHashMap<>();
+	}
+
+	/**
+	 * @param expected Amount of entries expected to be added, to size the map up front
+	 */
+	public PositionMap(int expected) {
+		this.values = new Long2ObjectOpenHashMap<>(expected);
+	}
+
+	/**
+	 * @return Value previously at the position or null if there was none
+	 */
+	public V put(int x, int y, int z, V value) {
+		return values.put(PackedPosition.block(x, y, z), value);
+	}
+
+	/**
+	 * @param packed Packed block position
+	 * @return Value previously at the position or null if there was none
+	 */
+	public V put(long packed, V value) {
+		return values.put(packed, value);
+	}
+
+	/**
+	 * @return Value previously at the block of the location or null if there was none
+	 */
+	public V put(Location location, V value) {
+		return values.put(PackedPosition.block(location), value);
+	}
+
+	public V get(int x, int y, int z) {
+		return values.get(PackedPosition.block(x, y, z));
+	}
+
+	/**
+	 * @param packed Packed block position
+	 */
+	public V get(long packed) {
+		return values.get(packed);
+	}
+
+	public V get(Block block) {
+		return values.get(PackedPosition.block(block));
+	}
+
+	public V get(Location location) {
+		return values.get(PackedPosition.block(location));
+	}
+
+	public boolean containsKey(int x, int y, int z) {
+		return values.containsKey(PackedPosition.block(x, y, z));
+	}
+
+	/**
+	 * @return Value removed or null if there was none
+	 */
+	public V remove(int x, int y, int z) {
+		return values.remove(PackedPosition.block(x, y, z));
+	}
+
+	/**
+	 * @param packed Packed block position
+	 * @return Value removed or null if there was none
+	 */
+	public V remove(long packed) {
+		return values.remove(packed);
+	}
+
+	/**
+	 * @return Value removed or null if there was none
+	 */
+	public V remove(Location location) {
+		return values.remove(PackedPosition.block(location));
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	public boolean isEmpty() {
+		return values.isEmpty();
+	}
+
+	public void clear() {
+		values.clear();
+	}
+
+	/**
+	 * @return Live view of the values of this map
+	 */
+	public Collection<V> values() {
+		return values.values();
+	}
+
+	/**
+	 * Visits every entry in the map, in no particular order
+	 *
+	 * @param visitor Visitor to apply to each entry
+	 */
+	public void forEach(EntryVisitor<? super V> visitor) {
+		ObjectIterator<Long2ObjectMap.Entry<V>> iter = values.long2ObjectEntrySet().fastIterator();
+		while (iter.hasNext()) {
+			Long2ObjectMap.Entry<V> entry = iter.next();
+			long packed = entry.getLongKey();
+			visitor.visit(PackedPosition.blockX(packed), PackedPosition.blockY(packed), PackedPosition.blockZ(packed),
+					entry.getValue());
+		}
+	}
+
+	/**
+	 * Allocation free visitor over the entries of a position map
+	 *
+	 * @param <V> Type of the values
+	 */
+	@FunctionalInterface
+	public interface EntryVisitor<V> {
+
+		void visit(int x, int y, int z, V value);
+
+	}
+
+}
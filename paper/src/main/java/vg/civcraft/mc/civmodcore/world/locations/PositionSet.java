@@ -0,0 +1,135 @@
+package vg.civcraft.mc.civmodcore.world.locations;
+
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+
+/**
+ * Set of block positions, stored packed as described in {@link PackedPosition} in a primitive hash set, so neither
+ * adding nor looking up a position allocates. Positions of different worlds can not be told apart, so a set should
+ * only hold the positions of one world.
+ *
+ * Not thread-safe
+ */
+public class PositionSet {
+
+	private final LongOpenHashSet positions;
+
+	public PositionSet() {
+		this.positions = new LongOpenHashSet();
+	}
+
+	/**
+	 * @param expected Amount of positions expected to be added, to size the set up front
+	 */
+	public PositionSet(int expected) {
+		this.positions = new LongOpenHashSet(expected);
+	}
+
+	/**
+	 * @return True if the position was not in the set yet
+	 */
+	public boolean add(int x, int y, int z) {
+		return positions.add(PackedPosition.block(x, y, z));
+	}
+
+	/**
+	 * @param packed Packed block position
+	 * @return True if the position was not in the set yet
+	 */
+	public boolean add(long packed) {
+		return positions.add(packed);
+	}
+
+	/**
+	 * @return True if the block was not in the set yet
+	 */
+	public boolean add(Block block) {
+		return positions.add(PackedPosition.block(block));
+	}
+
+	/**
+	 * @return True if the block of the location was not in the set yet
+	 */
+	public boolean add(Location location) {
+		return positions.add(PackedPosition.block(location));
+	}
+
+	public boolean contains(int x, int y, int z) {
+		return positions.contains(PackedPosition.block(x, y, z));
+	}
+
+	/**
+	 * @param packed Packed block position
+	 */
+	public boolean contains(long packed) {
+		return positions.contains(packed);
+	}
+
+	public boolean contains(Block block) {
+		return positions.contains(PackedPosition.block(block));
+	}
+
+	public boolean contains(Location location) {
+		return positions.contains(PackedPosition.block(location));
+	}
+
+	/**
+	 * @return True if the position was in the set
+	 */
+	public boolean remove(int x, int y, int z) {
+		return positions.remove(PackedPosition.block(x, y, z));
+	}
+
+	/**
+	 * @param packed Packed block position
+	 * @return True if the position was in the set
+	 */
+	public boolean remove(long packed) {
+		return positions.remove(packed);
+	}
+
+	public int size() {
+		return positions.size();
+	}
+
+	public boolean isEmpty() {
+		return positions.isEmpty();
+	}
+
+	public void clear() {
+		positions.clear();
+	}
+
+	/**
+	 * Visits every position in the set, in no particular order
+	 *
+	 * @param visitor Visitor to apply to each position
+	 */
+	public void forEach(PositionVisitor visitor) {
+		LongIterator iter = positions.iterator();
+		while (iter.hasNext()) {
+			long packed = iter.nextLong();
+			visitor.visit(PackedPosition.blockX(packed), PackedPosition.blockY(packed), PackedPosition.blockZ(packed));
+		}
+	}
+
+	/**
+	 * @return Iterator over the packed positions in the set, which supports removal
+	 */
+	public LongIterator iterator() {
+		return positions.iterator();
+	}
+
+	/**
+	 * Allocation free visitor over block positions
+	 */
+	@FunctionalInterface
+	public interface PositionVisitor {
+
+		void visit(int x, int y, int z);
+
+	}
+
+}
@@ -28,7 +28,7 @@ public class QTBoxImpl implements QTBox {
 
 	@Override
 	public int qtXMid() {
-		return (lowerXBound + upperXBound / 2);
+		return (lowerXBound + upperXBound) / 2;
 	}
 
 	@Override
@@ -43,7 +43,7 @@ public class QTBoxImpl implements QTBox {
 
 	@Override
 	public int qtZMid() {
-		return (lowerZBound + upperZBound / 2);
+		return (lowerZBound + upperZBound) / 2;
 	}
 
 	@Override
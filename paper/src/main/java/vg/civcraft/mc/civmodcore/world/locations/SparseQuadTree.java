@@ -1,9 +1,9 @@
 package vg.civcraft.mc.civmodcore.world.locations;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.function.Consumer;
 
 // This isn't designed to contain absolutely HUGE boxes. When the box sizes
 //  encompass the entirety of -MAX_INT to MAX_INT on both the x and y,
@@ -12,6 +12,14 @@ import java.util.TreeSet;
 //  level, bringing the process to its knees. Boxes with x,y spanning a
 //  million coordinates work just fine and should be sufficient.
 
+/**
+ * Spatial index of boxes, optimized for point queries which happen far more often than boxes are added or removed.
+ *
+ * Nodes are immutable. Adding or removing a box copies the nodes on the path to the changed leaves and then swaps in
+ * the new root, so queries may run from any thread at any time without locking and always see a consistent tree,
+ * while writes are serialized. Leaves keep their boxes in plain arrays and {@link #forEach(int, int, Consumer)} and
+ * {@link #findAny(int, int)} walk them without allocating anything.
+ */
 public class SparseQuadTree<T extends QTBox> {
 
 	public enum Quadrant {
@@ -20,71 +28,45 @@ public class SparseQuadTree<T extends QTBox> {
 
 	public static final int MAX_NODE_SIZE = 32;
 
-	protected Integer borderSize = 0;
+	private static final Object[] NO_BOXES = new Object[0];
 
-	protected Quadrant quadrant;
+	protected final int borderSize;
 
-	protected Integer middleX;
-	protected Integer middleZ;
-
-	protected int size;
-
-	protected int maxNodeSize = MAX_NODE_SIZE;
-
-	protected Set<T> boxes;
-
-	protected SparseQuadTree<T> northWest;
-	protected SparseQuadTree<T> northEast;
-	protected SparseQuadTree<T> southWest;
-	protected SparseQuadTree<T> southEast;
+	private volatile Node root;
+	private volatile int size;
 
 	public SparseQuadTree() {
 		this(0);
 	}
 
-	public SparseQuadTree(Integer borderSize) {
-		boxes = new HashSet<>();
-		if (borderSize == null || borderSize < 0) {
-			throw new IllegalArgumentException("borderSize == null || borderSize < 0");
+	public SparseQuadTree(int borderSize) {
+		if (borderSize < 0) {
+			throw new IllegalArgumentException("borderSize < 0");
 		}
 		this.borderSize = borderSize;
-		this.quadrant = Quadrant.ROOT;
+		this.root = Node.leaf(Quadrant.ROOT, MAX_NODE_SIZE, NO_BOXES);
 	}
 
-	protected SparseQuadTree(Integer borderSize, Quadrant quadrant) {
-		this.boxes = new HashSet<>();
-		this.borderSize = borderSize;
-		this.quadrant = quadrant;
+	/**
+	 * @deprecated Use {@link #SparseQuadTree(int)}, the border size may not be null
+	 */
+	@Deprecated
+	public SparseQuadTree(Integer borderSize) {
+		this(requireBorderSize(borderSize));
 	}
 
-	public void add(T box) {
-		add(box, false);
+	private static int requireBorderSize(Integer borderSize) {
+		if (borderSize == null) {
+			throw new IllegalArgumentException("borderSize == null");
+		}
+		return borderSize;
 	}
 
-	protected void add(T box, boolean inSplit) {
-		++size;
-		if (boxes != null) {
-			boxes.add(box);
-			if (!inSplit) {
-				split();
-			}
-			return;
-		}
-		if (box.qtXMin() - borderSize <= middleX) {
-			if (box.qtZMin() - borderSize <= middleZ) {
-				northWest.add(box);
-			}
-			if (box.qtZMax() + borderSize > middleZ) {
-				southWest.add(box);
-			}
-		}
-		if (box.qtXMax() + borderSize > middleX) {
-			if (box.qtZMin() - borderSize <= middleZ) {
-				northEast.add(box);
-			}
-			if (box.qtZMax() + borderSize > middleZ) {
-				southEast.add(box);
-			}
+	public synchronized void add(T box) {
+		Node updated = add(root, box);
+		if (updated != root) {
+			root = updated;
+			++size;
 		}
 	}
 
@@ -92,225 +74,392 @@ public class SparseQuadTree<T extends QTBox> {
 		return String.format("(%d,%d %d,%d)", box.qtXMin(), box.qtZMin(), box.qtXMax(), box.qtZMax());
 	}
 
+	/**
+	 * Collects all boxes containing the given point into a new set. Prefer {@link #forEach(int, int, Consumer)} on hot
+	 * paths, which does not allocate
+	 *
+	 * @param x X coordinate of the point
+	 * @param z Z coordinate of the point
+	 * @return Mutable set of all boxes containing the point
+	 */
 	public Set<T> find(int x, int z) {
 		return this.find(x, z, false);
 	}
 
+	/**
+	 * Collects all boxes containing the given point into a new set. Prefer
+	 * {@link #forEach(int, int, boolean, Consumer)} on hot paths, which does not allocate
+	 *
+	 * @param x             X coordinate of the point
+	 * @param z             Z coordinate of the point
+	 * @param includeBorder Whether to grow every box by the border size
+	 * @return Mutable set of all boxes containing the point
+	 */
 	public Set<T> find(int x, int z, boolean includeBorder) {
-		int border = 0;
-		if (includeBorder) {
-			border = borderSize;
-		}
-		if (boxes != null) {
-			Set<T> result = new HashSet<>();
-			// These two loops are the same except for the second doesn't include the
-			// border adjustment for a little added performance.
-			if (includeBorder) {
-				for (T box : boxes) {
-					if (box.qtXMin() - border <= x && box.qtXMax() + border >= x && box.qtZMin() - border <= z
-							&& box.qtZMax() + border >= z) {
-						result.add(box);
-					}
-				}
-			} else {
-				for (T box : boxes) {
-					if (box.qtXMin() <= x && box.qtXMax() >= x && box.qtZMin() <= z && box.qtZMax() >= z) {
-						result.add(box);
-					}
-				}
+		Set<T> result = new HashSet<>();
+		forEach(x, z, includeBorder, result::add);
+		return result;
+	}
+
+	/**
+	 * Passes every box containing the given point to the visitor, without allocating. Safe to call from any thread,
+	 * the visitor sees the tree as it was when the query started
+	 *
+	 * @param x       X coordinate of the point
+	 * @param z       Z coordinate of the point
+	 * @param visitor Receives every box containing the point
+	 */
+	public void forEach(int x, int z, Consumer<? super T> visitor) {
+		forEach(x, z, false, visitor);
+	}
+
+	/**
+	 * Passes every box containing the given point to the visitor, without allocating. Safe to call from any thread,
+	 * the visitor sees the tree as it was when the query started
+	 *
+	 * @param x             X coordinate of the point
+	 * @param z             Z coordinate of the point
+	 * @param includeBorder Whether to grow every box by the border size
+	 * @param visitor       Receives every box containing the point
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(int x, int z, boolean includeBorder, Consumer<? super T> visitor) {
+		int border = includeBorder ? borderSize : 0;
+		Object[] boxes = leafAt(x, z).boxes;
+		for (Object entry : boxes) {
+			T box = (T) entry;
+			if (contains(box, x, z, border)) {
+				visitor.accept(box);
 			}
-			return result;
 		}
-		if (x <= middleX) {
-			if (z <= middleZ) {
-				return northWest.find(x, z, includeBorder);
-			} else {
-				return southWest.find(x, z, includeBorder);
+	}
+
+	/**
+	 * Gets any one box containing the given point, without allocating
+	 *
+	 * @param x X coordinate of the point
+	 * @param z Z coordinate of the point
+	 * @return A box containing the point or null if there is none
+	 */
+	public T findAny(int x, int z) {
+		return findAny(x, z, false);
+	}
+
+	/**
+	 * Gets any one box containing the given point, without allocating
+	 *
+	 * @param x             X coordinate of the point
+	 * @param z             Z coordinate of the point
+	 * @param includeBorder Whether to grow every box by the border size
+	 * @return A box containing the point or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public T findAny(int x, int z, boolean includeBorder) {
+		int border = includeBorder ? borderSize : 0;
+		for (Object entry : leafAt(x, z).boxes) {
+			T box = (T) entry;
+			if (contains(box, x, z, border)) {
+				return box;
 			}
 		}
-		if (z <= middleZ) {
-			return northEast.find(x, z, includeBorder);
-		}
-		return southEast.find(x, z, includeBorder);
+		return null;
 	}
 
 	public int getBorderSize() {
 		return borderSize;
 	}
 
-	public void remove(T box) {
+	public synchronized void remove(T box) {
 		if (size <= 0) {
-			size = 0;
 			return;
 		}
-		--size;
-		if (size == 0) {
-			boxes = new HashSet<>();
-			northWest = null;
-			northEast = null;
-			southWest = null;
-			southEast = null;
+		Node updated = remove(root, box);
+		if (updated == root) {
 			return;
 		}
-		if (boxes != null) {
-			boxes.remove(box);
-			return;
+		if (--size == 0) {
+			updated = Node.leaf(Quadrant.ROOT, root.maxNodeSize, NO_BOXES);
 		}
-		if (box.qtXMin() - borderSize <= middleX) {
-			if (box.qtZMin() - borderSize <= middleZ) {
-				northWest.remove(box);
-			}
-			if (box.qtZMax() + borderSize > middleZ) {
-				southWest.remove(box);
+		root = updated;
+	}
+
+	protected synchronized void setMaxNodeSize(int size) {
+		Node current = root;
+		root = current.isLeaf() ? Node.leaf(current.quadrant, size, current.boxes)
+				: new Node(current.quadrant, size, current.middleX, current.middleZ, current.northWest,
+						current.southWest, current.northEast, current.southEast);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private Node leafAt(int x, int z) {
+		Node node = root;
+		while (!node.isLeaf()) {
+			if (x <= node.middleX) {
+				node = z <= node.middleZ ? node.northWest : node.southWest;
+			} else {
+				node = z <= node.middleZ ? node.northEast : node.southEast;
 			}
 		}
-		if (box.qtXMax() + borderSize > middleX) {
-			if (box.qtZMin() - borderSize <= middleZ) {
-				northEast.remove(box);
-			}
-			if (box.qtZMax() + borderSize > middleZ) {
-				southEast.remove(box);
+		return node;
+	}
+
+	private static boolean contains(QTBox box, int x, int z, int border) {
+		return box.qtXMin() - border <= x && box.qtXMax() + border >= x && box.qtZMin() - border <= z
+				&& box.qtZMax() + border >= z;
+	}
+
+	private boolean inWest(QTBox box, Node node) {
+		return box.qtXMin() - borderSize <= node.middleX;
+	}
+
+	private boolean inEast(QTBox box, Node node) {
+		return box.qtXMax() + borderSize > node.middleX;
+	}
+
+	private boolean inNorth(QTBox box, Node node) {
+		return box.qtZMin() - borderSize <= node.middleZ;
+	}
+
+	private boolean inSouth(QTBox box, Node node) {
+		return box.qtZMax() + borderSize > node.middleZ;
+	}
+
+	/**
+	 * @return Copy of the given node with the box added, or the node itself if it already contained the box
+	 */
+	private Node add(Node node, T box) {
+		if (node.isLeaf()) {
+			if (indexOf(node.boxes, box) >= 0) {
+				return node;
 			}
+			Object[] boxes = Arrays.copyOf(node.boxes, node.boxes.length + 1);
+			boxes[node.boxes.length] = box;
+			return split(node.quadrant, node.maxNodeSize, boxes);
 		}
+		boolean west = inWest(box, node);
+		boolean east = inEast(box, node);
+		boolean north = inNorth(box, node);
+		boolean south = inSouth(box, node);
+		Node northWest = west && north ? add(node.northWest, box) : node.northWest;
+		Node southWest = west && south ? add(node.southWest, box) : node.southWest;
+		Node northEast = east && north ? add(node.northEast, box) : node.northEast;
+		Node southEast = east && south ? add(node.southEast, box) : node.southEast;
+		return node.withChildren(northWest, southWest, northEast, southEast);
 	}
 
-	protected void setMaxNodeSize(int size) {
-		maxNodeSize = size;
+	/**
+	 * @return Copy of the given node with the box removed, or the node itself if it did not contain the box
+	 */
+	private Node remove(Node node, T box) {
+		if (node.isLeaf()) {
+			int index = indexOf(node.boxes, box);
+			if (index < 0) {
+				return node;
+			}
+			Object[] boxes = new Object[node.boxes.length - 1];
+			System.arraycopy(node.boxes, 0, boxes, 0, index);
+			System.arraycopy(node.boxes, index + 1, boxes, index, boxes.length - index);
+			return Node.leaf(node.quadrant, node.maxNodeSize, boxes);
+		}
+		boolean west = inWest(box, node);
+		boolean east = inEast(box, node);
+		boolean north = inNorth(box, node);
+		boolean south = inSouth(box, node);
+		Node northWest = west && north ? remove(node.northWest, box) : node.northWest;
+		Node southWest = west && south ? remove(node.southWest, box) : node.southWest;
+		Node northEast = east && north ? remove(node.northEast, box) : node.northEast;
+		Node southEast = east && south ? remove(node.southEast, box) : node.southEast;
+		return node.withChildren(northWest, southWest, northEast, southEast);
 	}
 
-	public int size() {
-		return size;
+	private static int indexOf(Object[] boxes, Object box) {
+		for (int i = 0; i < boxes.length; i++) {
+			if (boxes[i].equals(box)) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
-	protected void split() {
-		if (boxes == null || boxes.size() <= maxNodeSize) {
-			return;
+	/**
+	 * Creates a leaf holding the given boxes, or an inner node splitting them into quadrants if there are too many of
+	 * them and they can be split up sensibly
+	 */
+	@SuppressWarnings("unchecked")
+	private Node split(Quadrant quadrant, int maxNodeSize, Object[] boxes) {
+		if (boxes.length <= maxNodeSize) {
+			return Node.leaf(quadrant, maxNodeSize, boxes);
 		}
-		northWest = new SparseQuadTree<>(borderSize, Quadrant.NORTH_WEST);
-		northEast = new SparseQuadTree<>(borderSize, Quadrant.NORTH_EAST);
-		southWest = new SparseQuadTree<>(borderSize, Quadrant.SOUTH_WEST);
-		southEast = new SparseQuadTree<>(borderSize, Quadrant.SOUTH_EAST);
-		SortedSet<Integer> xAxis = new TreeSet<>();
-		SortedSet<Integer> zAxis = new TreeSet<>();
-		for (QTBox box : boxes) {
-			int x;
-			int z;
+		int[] xAxis = new int[boxes.length];
+		int[] zAxis = new int[boxes.length];
+		for (int i = 0; i < boxes.length; i++) {
+			QTBox box = (QTBox) boxes[i];
 			switch (quadrant) {
 			case NORTH_WEST:
-				x = box.qtXMin();
-				z = box.qtZMin();
+				xAxis[i] = box.qtXMin();
+				zAxis[i] = box.qtZMin();
 				break;
 			case NORTH_EAST:
-				x = box.qtXMax();
-				z = box.qtZMin();
+				xAxis[i] = box.qtXMax();
+				zAxis[i] = box.qtZMin();
 				break;
 			case SOUTH_WEST:
-				x = box.qtXMin();
-				z = box.qtZMax();
+				xAxis[i] = box.qtXMin();
+				zAxis[i] = box.qtZMax();
 				break;
 			case SOUTH_EAST:
-				x = box.qtXMax();
-				z = box.qtZMax();
+				xAxis[i] = box.qtXMax();
+				zAxis[i] = box.qtZMax();
 				break;
 			default:
-				x = box.qtXMid();
-				z = box.qtZMid();
+				xAxis[i] = box.qtXMid();
+				zAxis[i] = box.qtZMid();
 				break;
 			}
-			xAxis.add(x);
-			zAxis.add(z);
 		}
-		int counter = 0;
-		int ender = (xAxis.size() / 2) - 1;
-		for (Integer i : xAxis) {
-			if (counter >= ender) {
-				middleX = i;
-				break;
+		int middleX = lowerMedian(xAxis);
+		int middleZ = lowerMedian(zAxis);
+		Object[] northWest = new Object[boxes.length];
+		Object[] southWest = new Object[boxes.length];
+		Object[] northEast = new Object[boxes.length];
+		Object[] southEast = new Object[boxes.length];
+		int northWestSize = 0;
+		int southWestSize = 0;
+		int northEastSize = 0;
+		int southEastSize = 0;
+		for (Object entry : boxes) {
+			T box = (T) entry;
+			boolean west = box.qtXMin() - borderSize <= middleX;
+			boolean east = box.qtXMax() + borderSize > middleX;
+			boolean north = box.qtZMin() - borderSize <= middleZ;
+			boolean south = box.qtZMax() + borderSize > middleZ;
+			if (west && north) {
+				northWest[northWestSize++] = box;
 			}
-			++counter;
-		}
-		counter = 0;
-		ender = (zAxis.size() / 2) - 1;
-		for (Integer i : zAxis) {
-			if (counter >= ender) {
-				middleZ = i;
-				break;
+			if (west && south) {
+				southWest[southWestSize++] = box;
 			}
-			++counter;
-		}
-		for (T box : boxes) {
-			if (box.qtXMin() - borderSize <= middleX) {
-				if (box.qtZMin() - borderSize <= middleZ) {
-					northWest.add(box, true);
-				}
-				if (box.qtZMax() + borderSize > middleZ) {
-					southWest.add(box, true);
-				}
+			if (east && north) {
+				northEast[northEastSize++] = box;
 			}
-			if (box.qtXMax() + borderSize > middleX) {
-				if (box.qtZMin() - borderSize <= middleZ) {
-					northEast.add(box, true);
-				}
-				if (box.qtZMax() + borderSize > middleZ) {
-					southEast.add(box, true);
-				}
+			if (east && south) {
+				southEast[southEastSize++] = box;
 			}
 		}
-		if (northWest.size() == boxes.size() || southWest.size() == boxes.size() || northEast.size() == boxes.size()
-				|| southEast.size() == boxes.size()) {
-			// Splitting failed as we split into an identically sized quadrent. Update
+		int largest = Math.max(Math.max(northWestSize, southWestSize), Math.max(northEastSize, southEastSize));
+		if (largest == boxes.length) {
+			// Splitting failed as we split into an identically sized quadrant. Update
 			// this nodes max size for next time and throw away the work we did.
-			maxNodeSize = boxes.size() * 2;
-			return;
-		}
-		boolean sizeAdjusted = false;
-		if (northWest.size() >= maxNodeSize) {
-			maxNodeSize = northWest.size() * 2;
-			sizeAdjusted = true;
-		}
-		if (southWest.size() >= maxNodeSize) {
-			maxNodeSize = southWest.size() * 2;
-			sizeAdjusted = true;
-		}
-		if (northEast.size() >= maxNodeSize) {
-			maxNodeSize = northEast.size() * 2;
-			sizeAdjusted = true;
-		}
-		if (southEast.size() >= maxNodeSize) {
-			maxNodeSize = southEast.size() * 2;
-			sizeAdjusted = true;
+			return Node.leaf(quadrant, boxes.length * 2, boxes);
 		}
-		if (sizeAdjusted) {
-			northWest.setMaxNodeSize(maxNodeSize);
-			southWest.setMaxNodeSize(maxNodeSize);
-			northEast.setMaxNodeSize(maxNodeSize);
-			southEast.setMaxNodeSize(maxNodeSize);
+		int childMaxNodeSize = largest >= maxNodeSize ? largest * 2 : MAX_NODE_SIZE;
+		return new Node(quadrant, maxNodeSize, middleX, middleZ,
+				Node.leaf(Quadrant.NORTH_WEST, childMaxNodeSize, Arrays.copyOf(northWest, northWestSize)),
+				Node.leaf(Quadrant.SOUTH_WEST, childMaxNodeSize, Arrays.copyOf(southWest, southWestSize)),
+				Node.leaf(Quadrant.NORTH_EAST, childMaxNodeSize, Arrays.copyOf(northEast, northEastSize)),
+				Node.leaf(Quadrant.SOUTH_EAST, childMaxNodeSize, Arrays.copyOf(southEast, southEastSize)));
+	}
+
+	/**
+	 * @return The distinct value just below the middle of the given values, sorts the given array
+	 */
+	private static int lowerMedian(int[] values) {
+		Arrays.sort(values);
+		int distinct = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (i == 0 || values[i] != values[distinct - 1]) {
+				values[distinct++] = values[i];
+			}
 		}
-		boxes = null;
+		return values[Math.max(0, distinct / 2 - 1)];
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		sb.append(quadrant);
-		if (boxes != null) {
+		append(sb, root);
+		return sb.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void append(StringBuilder sb, Node node) {
+		sb.append(node.quadrant);
+		if (node.isLeaf()) {
 			sb.append('[');
-			for (T box : boxes) {
-				sb.append(boxCoord(box));
+			for (Object box : node.boxes) {
+				sb.append(boxCoord((T) box));
 			}
 			sb.append(']');
-			return sb.toString();
+			return;
 		}
-		sb.append(String.format("{{%d,%d}", middleX, middleZ));
-		sb.append(northWest.toString());
+		sb.append(String.format("{{%d,%d}", node.middleX, node.middleZ));
+		append(sb, node.northWest);
 		sb.append(',');
-		sb.append(southWest.toString());
+		append(sb, node.southWest);
 		sb.append(',');
-		sb.append(northEast.toString());
+		append(sb, node.northEast);
 		sb.append(',');
-		sb.append(southEast.toString());
+		append(sb, node.southEast);
 		sb.append('}');
-		return sb.toString();
+	}
+
+	private static final class Node {
+
+		private final Quadrant quadrant;
+		private final int maxNodeSize;
+		private final int middleX;
+		private final int middleZ;
+		private final Node northWest;
+		private final Node southWest;
+		private final Node northEast;
+		private final Node southEast;
+		// null for inner nodes
+		private final Object[] boxes;
+
+		private Node(Quadrant quadrant, int maxNodeSize, int middleX, int middleZ, Node northWest, Node southWest,
+				Node northEast, Node southEast) {
+			this.quadrant = quadrant;
+			this.maxNodeSize = maxNodeSize;
+			this.middleX = middleX;
+			this.middleZ = middleZ;
+			this.northWest = northWest;
+			this.southWest = southWest;
+			this.northEast = northEast;
+			this.southEast = southEast;
+			this.boxes = null;
+		}
+
+		private Node(Quadrant quadrant, int maxNodeSize, Object[] boxes) {
+			this.quadrant = quadrant;
+			this.maxNodeSize = maxNodeSize;
+			this.middleX = 0;
+			this.middleZ = 0;
+			this.northWest = null;
+			this.southWest = null;
+			this.northEast = null;
+			this.southEast = null;
+			this.boxes = boxes;
+		}
+
+		private static Node leaf(Quadrant quadrant, int maxNodeSize, Object[] boxes) {
+			return new Node(quadrant, maxNodeSize, boxes);
+		}
+
+		private boolean isLeaf() {
+			return boxes != null;
+		}
+
+		private Node withChildren(Node northWest, Node southWest, Node northEast, Node southEast) {
+			if (northWest == this.northWest && southWest == this.southWest && northEast == this.northEast
+					&& southEast == this.southEast) {
+				return this;
+			}
+			return new Node(quadrant, maxNodeSize, middleX, middleZ, northWest, southWest, northEast, southEast);
+		}
+
 	}
 
 }
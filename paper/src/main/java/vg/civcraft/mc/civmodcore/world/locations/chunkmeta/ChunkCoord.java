@@ -1,14 +1,16 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 import org.bukkit.World;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
+import vg.civcraft.mc.civmodcore.dao.TransactionScope;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.api.ChunkMetaViewTracker;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.stat.LoadStatisticManager;
 
@@ -24,7 +26,8 @@ public class ChunkCoord extends XZWCoord {
 	 */
 	private long lastUnloadedTime;
 	/**
-	 * Each ChunkMeta belongs to one plugin, they are identified by the plugin id
+	 * Each ChunkMeta belongs to one plugin, they are identified by the plugin id. Concurrent, because always loaded
+	 * metas are inserted by preloading threads while the main thread is reading
 	 */
 	private final Map<Short, ChunkMeta<?>> chunkMetas;
 	/**
@@ -37,7 +40,7 @@ public class ChunkCoord extends XZWCoord {
 	ChunkCoord(int x, int z, short worldID, World world) {
 		super(x, z, worldID);
 		this.world = world;
-		this.chunkMetas = new TreeMap<>();
+		this.chunkMetas = new ConcurrentSkipListMap<>();
 		this.lastLoadedTime = INVALID_TIME;
 		this.lastUnloadedTime = INVALID_TIME;
 	}
@@ -75,7 +78,8 @@ public class ChunkCoord extends XZWCoord {
 		}
 	}
 
-	private static void persistChunkMeta(ChunkMeta<?> chunkMeta) {
+	private void persistChunkMeta(ChunkMeta<?> chunkMeta) {
+		CacheState previous = chunkMeta.getCacheState();
 		switch (chunkMeta.getCacheState()) {
 			case NORMAL:
 				break;
@@ -92,6 +96,27 @@ public class ChunkCoord extends XZWCoord {
 				throw new IllegalArgumentException("Unsupported cache state '" + chunkMeta.getCacheState() + "'");
 		}
 		chunkMeta.setCacheState(CacheState.NORMAL);
+		if (previous != CacheState.NORMAL) {
+			// if this was written as part of a transaction which fails, it has to be written again
+			TransactionScope.onRollback(() -> {
+				synchronized (this) {
+					chunkMeta.setCacheState(previous);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Adds all chunk metas of this instance which support snapshots and have no unsaved changes to the given list
+	 *
+	 * @param result List to add to
+	 */
+	void collectSnapshotMetas(List<ChunkMeta<?>> result) {
+		for (ChunkMeta<?> chunkMeta : chunkMetas.values()) {
+			if (chunkMeta.supportsSnapshot() && chunkMeta.getCacheState() == CacheState.NORMAL) {
+				result.add(chunkMeta);
+			}
+		}
 	}
 
 	/**
@@ -164,22 +189,42 @@ public class ChunkCoord extends XZWCoord {
 	 *                    If the server has enough resources to perform requests then "main thread"
 	 *                    will come to loadAll() always at the time when either chunk is loaded (the best case)
 	 *                    or when it is loading now by the thread from WorldChunkMetaManager
+	 * @return True if the data of all plugins is loaded, false if loading the data of any plugin failed. Data which
+	 *         failed to load is not published, so it is not mistaken for an empty chunk, and the chunk stays not fully
+	 *         loaded until a later call loads it successfully
 	 */
-	void loadAll(int threadIndex) {
+	boolean loadAll(int threadIndex) {
 		// Skip the monitor check if this is set to true.
-		if (isFullyLoaded.get()) return;
+		if (isFullyLoaded.get()) return true;
 		// Lets to an expensive synchronization here if necessary.
 		synchronized (this) {
 			if (!isFullyLoaded.get()) {
-				for (ChunkMetaInitializer initializer : ChunkMetaFactory.getInstance().getInitializers())
-					loadPluginChunk(threadIndex, initializer);
+				boolean success = true;
+				for (ChunkMetaInitializer initializer : ChunkMetaFactory.getInstance().getInitializers()) {
+					// always loaded data may already have been preloaded, which must not be replaced
+					if (chunkMetas.containsKey(initializer.pluginId)) {
+						continue;
+					}
+					success &= loadPluginChunk(threadIndex, initializer);
+				}
 
+				if (!success) {
+					return false;
+				}
 				isFullyLoaded.set(true);
 			}
 		}
+		return true;
+	}
+
+	/**
+	 * @return True if the chunk has been loaded for all plugins
+	 */
+	boolean isFullyLoaded() {
+		return isFullyLoaded.get();
 	}
 
-	void loadPluginChunk(int threadIndex, ChunkMetaInitializer initializer) {
+	boolean loadPluginChunk(int threadIndex, ChunkMetaInitializer initializer) {
 		LoadStatisticManager.start(this.world, threadIndex, initializer.pluginId);
 
 		ChunkMeta<?> chunk = initializer.generator.get();
@@ -189,15 +234,19 @@ public class ChunkCoord extends XZWCoord {
 		chunk.setPluginID(pluginId);
 
 		try {
-			chunk.populate();
+			CivModCorePlugin.getInstance().getChunkMetaManager().populate(chunk);
 		} catch (Throwable e) {
-			CivModCorePlugin.getInstance().getLogger().log(Level.SEVERE, "Failed to load chunk data", e);
+			CivModCorePlugin.getInstance().getLogger().log(Level.SEVERE, "Failed to load chunk data of plugin "
+					+ pluginId + " for chunk " + getX() + ", " + getZ() + ", will retry", e);
+			LoadStatisticManager.stop(this.world, threadIndex, initializer.pluginId);
+			return false;
 		}
 
 		ChunkMetaViewTracker.getInstance().get(pluginId).postLoad(chunk);
 		addChunkMeta(chunk);
 
 		LoadStatisticManager.stop(this.world, threadIndex, initializer.pluginId);
+		return true;
 	}
 
 	/**
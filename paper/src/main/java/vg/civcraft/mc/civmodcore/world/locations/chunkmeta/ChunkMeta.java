@@ -1,5 +1,8 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import org.bukkit.World;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.StorageEngine;
 
@@ -136,6 +139,37 @@ public abstract class ChunkMeta<S extends StorageEngine> {
 	 */
 	public abstract void update();
 	
+	/**
+	 * Chunk metas supporting snapshots are written to a local file on shutdown and restored from it on the next
+	 * startup instead of being loaded from the database, see {@link #writeSnapshot(DataOutput)} and
+	 * {@link #readSnapshot(ByteBuffer)}
+	 *
+	 * @return Whether this instance can be written to and restored from a snapshot
+	 */
+	public boolean supportsSnapshot() {
+		return false;
+	}
+
+	/**
+	 * Writes all data of this instance in a format {@link #readSnapshot(ByteBuffer)} can restore. Only called for
+	 * instances whose data has been fully persisted
+	 *
+	 * @param out Output to write to
+	 * @throws IOException If writing fails
+	 */
+	public void writeSnapshot(DataOutput out) throws IOException {
+		throw new UnsupportedOperationException(getClass().getName() + " does not support snapshots");
+	}
+
+	/**
+	 * Restores data written by {@link #writeSnapshot(DataOutput)}. Called instead of {@link #populate()}
+	 *
+	 * @param in Buffer holding exactly the data written for this instance
+	 */
+	public void readSnapshot(ByteBuffer in) {
+		throw new UnsupportedOperationException(getClass().getName() + " does not support snapshots");
+	}
+
 	/**
 	 * Called when the minecraft chunk is loaded and existing cache data is reused.
 	 * This is not called when new data is loaded from the database, use the
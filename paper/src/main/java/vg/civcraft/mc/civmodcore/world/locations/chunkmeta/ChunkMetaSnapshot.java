@@ -0,0 +1,199 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import vg.civcraft.mc.civmodcore.world.locations.global.CMCWorldDAO;
+
+/**
+ * Local copy of the chunk meta cache, written on shutdown after all data has been flushed to the database and memory
+ * mapped on the next startup. Chunk metas supporting snapshots (see {@link ChunkMeta#supportsSnapshot()}) are then
+ * restored from it on their first load instead of being selected from the database.
+ *
+ * A snapshot is only trusted if its stamp matches the one stored in the database. The database stamp is cleared
+ * every time CivModCore starts, so any snapshot becomes stale as soon as a server started after it was written.
+ * Each snapshot entry is only used once, after that the database is the source of truth again.
+ */
+final class ChunkMetaSnapshot {
+
+	private static final int MAGIC = 0x434D4353; // "CMCS"
+	private static final int FORMAT_VERSION = 1;
+	private static final int ENTRY_HEADER_SIZE = 2 + 2 + 4 + 4 + 4;
+
+	private record Key(short pluginID, short worldID, int x, int z) {
+	}
+
+	private final Logger logger;
+	private final Map<Key, Integer> offsets;
+	private volatile ByteBuffer buffer;
+
+	private ChunkMetaSnapshot(Logger logger) {
+		this.logger = logger;
+		this.offsets = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Invalidates the database stamp and maps the given snapshot file if it is still valid
+	 *
+	 * @param file   Snapshot file, null if snapshots are disabled
+	 * @param dao    DAO used to validate the snapshot stamp
+	 * @param logger Logger to report problems to
+	 * @return Opened snapshot, null if snapshots are disabled
+	 */
+	static ChunkMetaSnapshot open(File file, CMCWorldDAO dao, Logger logger) {
+		// Always consume the stamp, even when disabled, so old snapshot files can never become valid again
+		long validStamp = dao.consumeSnapshotStamp();
+		if (file == null) {
+			return null;
+		}
+		ChunkMetaSnapshot snapshot = new ChunkMetaSnapshot(logger);
+		if (!file.exists()) {
+			return snapshot;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (mapped.remaining() < 16 || mapped.getInt() != MAGIC || mapped.getInt() != FORMAT_VERSION) {
+				logger.warning("Chunk meta snapshot has an unknown format, discarding it");
+				return snapshot;
+			}
+			long stamp = mapped.getLong();
+			if (validStamp == 0 || stamp != validStamp) {
+				logger.info("Chunk meta snapshot is stale, discarding it");
+				return snapshot;
+			}
+			while (mapped.remaining() >= ENTRY_HEADER_SIZE) {
+				Key key = new Key(mapped.getShort(), mapped.getShort(), mapped.getInt(), mapped.getInt());
+				int offset = mapped.position();
+				int length = mapped.getInt();
+				if (length < 0 || length > mapped.remaining()) {
+					logger.warning("Chunk meta snapshot is truncated, discarding it");
+					snapshot.offsets.clear();
+					return snapshot;
+				}
+				mapped.position(mapped.position() + length);
+				snapshot.offsets.put(key, offset);
+			}
+			snapshot.buffer = mapped;
+			logger.info("Loaded chunk meta snapshot with " + snapshot.offsets.size() + " entries");
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Failed to read chunk meta snapshot", e);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Attempts to fill the given freshly created meta from this snapshot. The chunk coord and plugin id of the meta
+	 * must already be set
+	 *
+	 * @param meta Meta to fill
+	 * @return True if the meta was restored, false if it still needs to be populated from the database
+	 */
+	boolean restore(ChunkMeta<?> meta) {
+		ByteBuffer mapped = this.buffer;
+		if (mapped == null || !meta.supportsSnapshot()) {
+			return false;
+		}
+		ChunkCoord coord = meta.getChunkCoord();
+		Integer offset = offsets.remove(new Key(meta.getPluginID(), coord.getWorldID(), coord.getX(), coord.getZ()));
+		if (offset == null) {
+			return false;
+		}
+		ByteBuffer view = mapped.duplicate();
+		view.position(offset);
+		int length = view.getInt();
+		view.limit(view.position() + length);
+		try {
+			meta.readSnapshot(view.slice());
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to restore " + meta + " from snapshot", e);
+			return false;
+		}
+		if (offsets.isEmpty()) {
+			release();
+		}
+		return true;
+	}
+
+	/**
+	 * Drops the mapping and all unused entries
+	 */
+	void release() {
+		this.buffer = null;
+		offsets.clear();
+	}
+
+	/**
+	 * Writes all persisted chunk metas held by the given managers to a new snapshot and records its stamp in the
+	 * database. Must only be called after all data has been flushed
+	 *
+	 * @param file     File to write to
+	 * @param managers Managers to collect metas from
+	 * @param dao      DAO used to store the snapshot stamp
+	 * @param logger   Logger to report problems to
+	 */
+	static void write(File file, Collection<WorldChunkMetaManager> managers, CMCWorldDAO dao, Logger logger) {
+		long stamp;
+		do {
+			stamp = ThreadLocalRandom.current().nextLong();
+		} while (stamp == 0);
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		int count = 0;
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(stamp);
+			ByteArrayOutputStream payload = new ByteArrayOutputStream();
+			DataOutputStream payloadOut = new DataOutputStream(payload);
+			for (WorldChunkMetaManager manager : managers) {
+				List<ChunkMeta<?>> metas = manager.collectSnapshotMetas();
+				for (ChunkMeta<?> meta : metas) {
+					payload.reset();
+					meta.writeSnapshot(payloadOut);
+					payloadOut.flush();
+					ChunkCoord coord = meta.getChunkCoord();
+					out.writeShort(meta.getPluginID());
+					out.writeShort(coord.getWorldID());
+					out.writeInt(coord.getX());
+					out.writeInt(coord.getZ());
+					out.writeInt(payload.size());
+					payload.writeTo(out);
+					count++;
+				}
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Failed to write chunk meta snapshot", e);
+			temp.delete();
+			return;
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Failed to replace chunk meta snapshot", e);
+			temp.delete();
+			return;
+		}
+		if (!dao.setSnapshotStamp(stamp)) {
+			file.delete();
+			return;
+		}
+		logger.info("Wrote chunk meta snapshot with " + count + " entries");
+	}
+
+}
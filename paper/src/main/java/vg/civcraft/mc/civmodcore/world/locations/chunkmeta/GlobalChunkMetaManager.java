@@ -1,5 +1,6 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
 
+import java.io.File;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
@@ -11,6 +12,7 @@ import org.bukkit.Chunk;
 import org.bukkit.World;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.api.ChunkMetaViewTracker;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap.OffHeapBlockArenas;
 import vg.civcraft.mc.civmodcore.world.locations.global.CMCWorldDAO;
 import vg.civcraft.mc.civmodcore.world.locations.global.WorldIDManager;
 
@@ -19,16 +21,31 @@ public class GlobalChunkMetaManager {
 	private final Map<UUID, WorldChunkMetaManager> worldToManager;
 	private final int chunkLoadingThreadCount;
 	private final Logger logger;
+	private final File snapshotFile;
+	private final ChunkMetaSnapshot snapshot;
 
 	public int getChunkLoadingThreadCount() {
 		return this.chunkLoadingThreadCount;
 	}
 
 	public GlobalChunkMetaManager(CMCWorldDAO chunkDao, WorldIDManager idManager, int chunkLoadingThreadCount) {
+		this(chunkDao, idManager, chunkLoadingThreadCount, null);
+	}
+
+	/**
+	 * @param chunkDao                DAO for world and plugin ids
+	 * @param idManager               World id manager
+	 * @param chunkLoadingThreadCount Amount of chunk loading threads per world
+	 * @param snapshotFile            File to keep a snapshot of the cache in across restarts, null to disable
+	 */
+	public GlobalChunkMetaManager(CMCWorldDAO chunkDao, WorldIDManager idManager, int chunkLoadingThreadCount,
+			File snapshotFile) {
 		this.chunkDao = chunkDao;
 		this.worldToManager = new TreeMap<>();
 		this.chunkLoadingThreadCount = chunkLoadingThreadCount;
 		this.logger = CivModCorePlugin.getInstance().getLogger();
+		this.snapshotFile = snapshotFile;
+		this.snapshot = ChunkMetaSnapshot.open(snapshotFile, chunkDao, logger);
 
 		for (World world : Bukkit.getWorlds()) {
 			registerWorld(idManager.getInternalWorldId(world), world);
@@ -55,12 +72,35 @@ public class GlobalChunkMetaManager {
 	 *                 yet. May not produce null results
 	 * @return ChunkMeta for the given parameter, guaranteed not null as long as the
 	 *         supplier lambda is valid
+	 * @throws IllegalStateException If the existing data of the chunk failed to load.
+	 *                               Loading it is retried in the background
 	 */
 	public ChunkMeta<?> computeIfAbsent(short pluginID, World world, int chunkX, int chunkZ,
 			Supplier<ChunkMeta<?>> computer, boolean alwaysLoaded) {
 		return getWorldManager(world).computeIfAbsent(pluginID, chunkX, chunkZ, computer, alwaysLoaded);
 	}
 	
+	/**
+	 * Loads the meta of the given plugin for the given chunk from the database, unless it is already in the cache.
+	 * Unlike {@link #computeIfAbsent(short, World, int, int, Supplier, boolean)} this may be called for chunks which
+	 * are not loaded and from any thread
+	 *
+	 * @param pluginID Internal id of the plugin the meta belongs to
+	 * @param world    World the chunk is in
+	 * @param chunkX   X-coord of the chunk
+	 * @param chunkZ   Z-coord of the chunk
+	 * @param computer Lambda supplying the new empty ChunkMeta to populate
+	 * @return Existing or newly loaded ChunkMeta, null if the world is not tracked
+	 */
+	public ChunkMeta<?> preload(short pluginID, World world, int chunkX, int chunkZ,
+			Supplier<ChunkMeta<?>> computer) {
+		WorldChunkMetaManager worldManager = getWorldManager(world);
+		if (worldManager == null) {
+			return null;
+		}
+		return worldManager.preload(pluginID, chunkX, chunkZ, computer);
+	}
+
 	/**
 	 * Saves all data for one specific plugin out to the database
 	 * @param pluginID Internal id of the plugin to save data for
@@ -122,6 +162,18 @@ public class GlobalChunkMetaManager {
 		getWorldManager(world).insertChunkMeta(chunkX, chunkZ, meta);
 	}
 
+	/**
+	 * Fills a freshly created meta, either from the snapshot taken on the last shutdown if it is still valid or from
+	 * the database
+	 *
+	 * @param meta Meta to populate, chunk coord and plugin id must already be set
+	 */
+	void populate(ChunkMeta<?> meta) {
+		if (snapshot == null || !snapshot.restore(meta)) {
+			meta.populate();
+		}
+	}
+
 	void loadChunkData(Chunk chunk) {
 		WorldChunkMetaManager worldManager = worldToManager.get(chunk.getWorld().getUID());
 		if (worldManager == null) {
@@ -147,5 +199,12 @@ public class GlobalChunkMetaManager {
 		for (WorldChunkMetaManager manager : worldToManager.values()) {
 			manager.disable();
 		}
+		if (snapshot != null) {
+			snapshot.release();
+		}
+		if (snapshotFile != null) {
+			ChunkMetaSnapshot.write(snapshotFile, worldToManager.values(), chunkDao, logger);
+		}
+		OffHeapBlockArenas.clear();
 	}
 }
@@ -1,16 +1,22 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.bukkit.Bukkit;
 import org.bukkit.World;
+import vg.civcraft.mc.civmodcore.CivModCorePlugin;
+import vg.civcraft.mc.civmodcore.dao.TransactionScope;
 
 /**
  * Stores Chunk metadata for all plugins for one specific world. Metadata is
@@ -30,6 +36,21 @@ public class WorldChunkMetaManager {
 	
 	private static final long REGULAR_SAVE_INTERVAL = 60L * 1000L;
 
+	/**
+	 * How long to wait before loading a chunk again after loading its data failed
+	 */
+	private static final long LOAD_RETRY_DELAY = 5L * 1000L;
+
+	/**
+	 * Chunks are saved in groups of one region, 32x32 chunks
+	 */
+	private static final int REGION_SHIFT = 5;
+	private static final Comparator<ChunkCoord> SAVE_ORDER = Comparator
+			.comparingInt((ChunkCoord coord) -> coord.getX() >> REGION_SHIFT)
+			.thenComparingInt(coord -> coord.getZ() >> REGION_SHIFT)
+			.thenComparingInt(ChunkCoord::getX)
+			.thenComparingInt(ChunkCoord::getZ);
+
 	private final short worldID;
 	private final Map<ChunkCoord, ChunkCoord> metas;
 	/**
@@ -45,6 +66,10 @@ public class WorldChunkMetaManager {
 	private final LinkedBlockingQueue<ChunkCoord> chunkLoadingQueue;
 	private final World world;
 	private final Logger logger;
+	/**
+	 * Regions and plugins whose last save in one transaction failed, which are saved chunk by chunk instead
+	 */
+	private final Set<SaveGroup> isolatedSaves;
 
 	public WorldChunkMetaManager(World world, short worldID, int chunkLoadingThreadCount, Logger logger) {
 		this.worldID = worldID;
@@ -56,6 +81,7 @@ public class WorldChunkMetaManager {
 		this.chunkLoadingDisablers = new ArrayList<>();
 		this.chunkLoadingThreads = new ArrayList<>();
 		this.logger = logger;
+		this.isolatedSaves = ConcurrentHashMap.newKeySet();
 
 		registerUnloadRunnable();
 		startChunkLoadingThreads(chunkLoadingThreadCount);
@@ -68,6 +94,11 @@ public class WorldChunkMetaManager {
 		if (existing != null) {
 			return existing;
 		}
+		if (!alwaysLoaded && !coord.isFullyLoaded()) {
+			// an empty meta would hide the data which failed to load and keep it from being loaded later on
+			throw new IllegalStateException("Data of chunk " + x + ", " + z + " in world " + world.getName()
+					+ " could not be loaded");
+		}
 		existing = computer.get();
 		existing.setChunkCoord(coord);
 		existing.setPluginID(pluginID);
@@ -75,6 +106,52 @@ public class WorldChunkMetaManager {
 		return existing;
 	}
 
+	/**
+	 * Creates and populates the chunk meta of one specific plugin for one chunk, unless it already exists. Used to
+	 * preload data of plugins keeping all their data loaded, which may happen for chunks Minecraft has not loaded.
+	 * Safe to call from any thread
+	 *
+	 * @param pluginID Internal id of the plugin
+	 * @param x        X-coordinate of the chunk
+	 * @param z        Z-coordinate of the chunk
+	 * @param computer Lambda supplying the new empty ChunkMeta to populate
+	 * @return Existing or newly populated ChunkMeta
+	 */
+	ChunkMeta<?> preload(short pluginID, int x, int z, Supplier<ChunkMeta<?>> computer) {
+		ChunkCoord coord = getChunkCoord(x, z, true, false);
+		synchronized (coord) {
+			ChunkMeta<?> existing = coord.getMeta(pluginID, true);
+			if (existing != null) {
+				return existing;
+			}
+			existing = computer.get();
+			existing.setChunkCoord(coord);
+			existing.setPluginID(pluginID);
+			CivModCorePlugin.getInstance().getChunkMetaManager().populate(existing);
+			coord.addChunkMeta(existing);
+			return existing;
+		}
+	}
+
+	/**
+	 * Collects all chunk metas which support snapshots and have no unsaved changes
+	 *
+	 * @return Chunk metas to include in a snapshot
+	 */
+	List<ChunkMeta<?>> collectSnapshotMetas() {
+		List<ChunkCoord> coords;
+		synchronized (metas) {
+			coords = new ArrayList<>(metas.values());
+		}
+		List<ChunkMeta<?>> result = new ArrayList<>();
+		for (ChunkCoord coord : coords) {
+			synchronized (coord) {
+				coord.collectSnapshotMetas(result);
+			}
+		}
+		return result;
+	}
+
 	void flushPluginData(short pluginID) {
 		synchronized (metas) {
 			for (ChunkCoord coord : metas.values()) {
@@ -201,16 +278,97 @@ public class WorldChunkMetaManager {
 		synchronized (metas) {
 			saveList = new ArrayList<>(metas.values());
 		}
+		// write region by region, so consecutive writes stay within a small range of the
+		// (world_id, chunk_x, chunk_z, ...) primary key instead of jumping around for every chunk. This is region-major
+		// order, not the primary key order itself. Each plugin writes through its own datasource, so every plugin gets
+		// its own transaction per region, which keeps a failure of one plugin from undoing what another one committed
+		saveList.sort(SAVE_ORDER);
+
+		List<ChunkCoord> region = new ArrayList<>();
+		int index = 0;
+		while (index < saveList.size()) {
+			ChunkCoord first = saveList.get(index);
+			int regionX = first.getX() >> REGION_SHIFT;
+			int regionZ = first.getZ() >> REGION_SHIFT;
+			region.clear();
+			for (; index < saveList.size(); index++) {
+				ChunkCoord coord = saveList.get(index);
+				if (coord.getX() >> REGION_SHIFT != regionX || coord.getZ() >> REGION_SHIFT != regionZ) {
+					break;
+				}
+				region.add(coord);
+			}
+			for (ChunkMetaInitializer initializer : ChunkMetaFactory.getInstance().getInitializers()) {
+				saveRegion(region, new SaveGroup(regionX, regionZ, initializer.pluginId));
+			}
+		}
+	}
 
-		for(ChunkCoord coord : saveList) {
-			synchronized (coord) {
-				if (!coord.isChunkLoaded()) {
-					// to avoid race conditions, we will not write out chunks currently unloaded
-					continue;
+	/**
+	 * Writes the data of one plugin for one region in a single transaction. If that fails, everything written in it is
+	 * marked as unsaved again and the region is written chunk by chunk from then on, until all of its chunks could be
+	 * saved, so a single chunk which can not be written only keeps itself from being saved
+	 *
+	 * @param region Chunks of the region
+	 * @param group  Region and plugin to save
+	 */
+	private void saveRegion(List<ChunkCoord> region, SaveGroup group) {
+		if (!isolatedSaves.remove(group)) {
+			if (persistInScope(region, group.pluginID())) {
+				return;
+			}
+			if (!Bukkit.isPrimaryThread()) {
+				// data is only marked as unsaved once the main thread has run the rollback, so wait for the next save
+				isolatedSaves.add(group);
+				return;
+			}
+		}
+		boolean failed = false;
+		for (ChunkCoord coord : region) {
+			failed |= !persistInScope(List.of(coord), group.pluginID());
+		}
+		if (failed) {
+			isolatedSaves.add(group);
+		}
+	}
+
+	/**
+	 * @param coords   Chunks to write in one transaction
+	 * @param pluginID Internal id of the plugin to write data for
+	 * @return True if the transaction was committed
+	 */
+	private boolean persistInScope(List<ChunkCoord> coords, short pluginID) {
+		TransactionScope scope = TransactionScope.open(logger, this::runOnMainThread);
+		try {
+			for (ChunkCoord coord : coords) {
+				synchronized (coord) {
+					if (!coord.isChunkLoaded()) {
+						// to avoid race conditions, we will not write out chunks currently unloaded
+						continue;
+					}
+					coord.persistPlugin(pluginID);
 				}
-				coord.fullyPersist();
 			}
+		} catch (RuntimeException e) {
+			logger.log(Level.SEVERE, "Failed to save chunk data of plugin " + pluginID + " in " + world.getName(), e);
+			return false;
+		} finally {
+			scope.close();
+		}
+		return !scope.isRolledBack();
+	}
+
+	/**
+	 * Rollbacks of failed saves mark chunk data as unsaved again, which has to happen on the main thread modifying
+	 * that data. Runs right away when shutting down, as no further ticks happen then
+	 */
+	private void runOnMainThread(Runnable task) {
+		CivModCorePlugin plugin = CivModCorePlugin.getInstance();
+		if (Bukkit.isPrimaryThread() || !plugin.isEnabled()) {
+			task.run();
+			return;
 		}
+		Bukkit.getScheduler().runTask(plugin, task);
 	}
 
 	private void registerUnloadRunnable() {
@@ -294,7 +452,9 @@ public class WorldChunkMetaManager {
 		while (!disabled.get()) {
 			try {
 				ChunkCoord coord = chunkLoadingQueue.take();
-				coord.loadAll(threadIndex);
+				if (!coord.loadAll(threadIndex)) {
+					requeueFailedLoad(coord);
+				}
 			} catch (InterruptedException e) {
 				if(!disabled.get()) e.printStackTrace();
 			}
@@ -303,6 +463,30 @@ public class WorldChunkMetaManager {
 		this.logger.info("[" + this.world.getName() + "] Thread " + threadName + " is stopped.");
 	}
 
+	/**
+	 * Queues a chunk whose data failed to load to be loaded again after a delay, unless it has been dropped from
+	 * memory in the mean time
+	 *
+	 * @param coord Chunk to load again
+	 */
+	private void requeueFailedLoad(ChunkCoord coord) {
+		try {
+			scheduler.schedule(() -> {
+				synchronized (metas) {
+					if (metas.get(coord) != coord || coord.isFullyLoaded()) {
+						return;
+					}
+				}
+				synchronized (chunkLoadingQueue) {
+					chunkLoadingQueue.add(coord);
+					chunkLoadingQueue.notifyAll();
+				}
+			}, LOAD_RETRY_DELAY, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// shutting down, the chunk will be loaded again on next startup
+		}
+	}
+
 	/**
 	 * Called when the underlying minecraft chunk is unloaded. Does not actually
 	 * unload our data, but instead stages it to be unloaded if the chunk stays
@@ -343,4 +527,8 @@ public class WorldChunkMetaManager {
 
 		this.logger.info("[" + this.world.getName() + "] All chunks have been saved.");
 	}
+
+	private record SaveGroup(int regionX, int regionZ, short pluginID) {
+	}
+
 }
@@ -1,10 +1,8 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
 
-import java.util.Objects;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
-import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
 
 public class XZWCoord implements Comparable<XZWCoord> {
 
@@ -64,7 +62,8 @@ public class XZWCoord implements Comparable<XZWCoord> {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(x, z, worldID);
+		// written out instead of Objects.hash(), which boxes every field on each call
+		return (31 * (31 * x + z)) + worldID;
 	}
 
 	@Override
@@ -80,8 +79,17 @@ public class XZWCoord implements Comparable<XZWCoord> {
 	}
 
 	public static XZWCoord fromLocation(Location location, short worldID) {
-		return new XZWCoord(BlockBasedChunkMeta.toChunkCoord(location.getBlockX()),
-				BlockBasedChunkMeta.toChunkCoord(location.getBlockZ()), worldID);
+		return fromBlock(location.getBlockX(), location.getBlockZ(), worldID);
+	}
+
+	/**
+	 * @param x       X-coordinate of a block
+	 * @param z       Z-coordinate of a block
+	 * @param worldID Internal ID of the world the block is in
+	 * @return Coordinate of the chunk the block is in
+	 */
+	public static XZWCoord fromBlock(int x, int z, short worldID) {
+		return new XZWCoord(x >> 4, z >> 4, worldID);
 	}
 
 	public static XZWCoord fromLocation(Location location) {
@@ -1,16 +1,18 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.api;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.plugin.java.JavaPlugin;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
+import vg.civcraft.mc.civmodcore.world.locations.PackedPosition;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkMeta;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkMetaLoadStatus;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.GlobalChunkMetaManager;
-import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMetaSnapshot;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedStorageEngine;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockDataObject;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockDataObjectLoadStatus;
@@ -27,29 +29,103 @@ import vg.civcraft.mc.civmodcore.world.locations.global.WorldIDManager;
 public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D extends BlockDataObject<D>, S extends BlockBasedStorageEngine<D>>
 		extends ChunkMetaView<T> {
 
+	/**
+	 * Progress of loading all data of a view keeping its data permanently loaded
+	 */
+	public enum PreloadState {
+		/**
+		 * Still loading, chunks not reached yet are loaded on access
+		 */
+		LOADING,
+		/**
+		 * All data is in memory
+		 */
+		READY,
+		/**
+		 * Preloading gave up after failing repeatedly or was cancelled, chunks not loaded by then are loaded on access
+		 */
+		FAILED
+	}
+
 	private Supplier<T> chunkProducer;
 	private S storageEngine;
 	private SingleBlockTracker<D> singleBlockTracker;
 	private boolean allowAccessUnloaded;
 	private WorldIDManager worldIdManager;
+	private ChunkMetaPreloader preloader;
 
+	@SuppressWarnings("unchecked")
 	BlockBasedChunkMetaView(JavaPlugin plugin, short pluginID, GlobalChunkMetaManager globalManager,
 			Supplier<T> chunkProducer, S storage, boolean loadAll, boolean allowAccessUnloaded) {
 		super(plugin, pluginID, globalManager, loadAll);
 		this.chunkProducer = chunkProducer;
 		this.allowAccessUnloaded = allowAccessUnloaded;
 		this.storageEngine = storage;
-		if (loadAll) {
-			loadAll();
-		}
 		worldIdManager = CivModCorePlugin.getInstance().getWorldIdManager();
 		singleBlockTracker = new SingleBlockTracker<>();
+		if (loadAll) {
+			preloader = new ChunkMetaPreloader(pluginID, plugin.getName(), globalManager, worldIdManager,
+					(Supplier<ChunkMeta<?>>) (Supplier<?>) chunkProducer, globalManager.getChunkLoadingThreadCount(),
+					plugin.getLogger());
+			preloader.start(storageEngine);
+		}
 	}
 
-	private void loadAll() {
-		for (XZWCoord coord : storageEngine.getAllDataChunks()) {
-			getOrCreateChunkMeta(worldIdManager.getWorldByInternalID(pluginID), coord.getX(), coord.getZ());
+	/**
+	 * Plugins keeping all their data loaded have it loaded in the background after registration. Until that is done,
+	 * accessing a chunk which has not been reached yet will load it on demand on the calling thread
+	 *
+	 * @return Whether all data of this view is in memory. Always true for views not keeping their data loaded
+	 */
+	public boolean isPreloaded() {
+		return preloader == null || preloader.isReady();
+	}
+
+	/**
+	 * @return Whether preloading is still running, has loaded all data or has given up after failing repeatedly, in
+	 *         which case chunks are loaded on first access instead. Always ready for views not keeping their data
+	 *         loaded
+	 */
+	public PreloadState getPreloadState() {
+		return preloader == null ? PreloadState.READY : preloader.getState();
+	}
+
+	/**
+	 * @return Fraction of chunks preloaded so far within [0,1]. Always 1 for views not keeping their data loaded
+	 */
+	public double getPreloadProgress() {
+		return preloader == null ? 1.0 : preloader.getProgress();
+	}
+
+	/**
+	 * @return Future completed once all data of this view has been preloaded, or completed exceptionally if
+	 *         preloading failed, see {@link #getPreloadState()}. Data is then loaded on first access instead
+	 */
+	public CompletableFuture<Void> getPreloadFuture() {
+		return preloader == null ? CompletableFuture.completedFuture(null) : preloader.getCompletion();
+	}
+
+	@SuppressWarnings("unchecked")
+	private T getPreloadingChunkMeta(World world, int chunkX, int chunkZ) {
+		if (preloader != null && !preloader.isReady()) {
+			return (T) preloader.loadNow(world, chunkX, chunkZ);
 		}
+		return super.getChunkMeta(world, chunkX, chunkZ);
+	}
+
+	/**
+	 * Takes an immutable snapshot of the data held for the given chunk, which can then be handed to an async task.
+	 * Must be called on the main thread
+	 *
+	 * @param world  World the chunk is in
+	 * @param chunkX X-coord of the chunk
+	 * @param chunkZ Z-coord of the chunk
+	 * @return Snapshot of the chunk's data or null if no data is loaded for the chunk
+	 */
+	public BlockBasedChunkMetaSnapshot<D> getSnapshot(World world, int chunkX, int chunkZ) {
+		T chunk = alwaysLoaded ? getPreloadingChunkMeta(world, chunkX, chunkZ)
+				: super.getChunkMeta(world, chunkX, chunkZ);
+		return chunk == null ? null : chunk.snapshot();
 	}
 
 	/**
@@ -93,14 +169,49 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 	}
 
 	public BlockDataObjectLoadStatus<D> get(Location location, boolean waitUntilLoaded) {
-		validateY(location.getWorld(), location.getBlockY());
-		short worldID = worldIdManager.getInternalWorldId(location.getWorld());
+		return get(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ(),
+				waitUntilLoaded);
+	}
+
+	/**
+	 * Gets the data at the given block coordinates, without needing a location for them
+	 *
+	 * @param world World the block is in
+	 * @param x     X-coord of the block
+	 * @param y     Y-coord of the block
+	 * @param z     Z-coord of the block
+	 * @return Data at the given block or null if no data exists there
+	 */
+	public D get(World world, int x, int y, int z) {
+		return get(world, x, y, z, true).data;
+	}
+
+	/**
+	 * Gets the data at the given block coordinates, without needing a location for them
+	 *
+	 * @param world World the block is in
+	 * @param x     X-coord of the block
+	 * @param y     Y-coord of the block
+	 * @param z     Z-coord of the block
+	 * @return Data at the given block or null if no data exists there
+	 */
+	public BlockDataObjectLoadStatus<D> getIfLoaded(World world, int x, int y, int z) {
+		return get(world, x, y, z, false);
+	}
+
+	public BlockDataObjectLoadStatus<D> get(World world, int x, int y, int z, boolean waitUntilLoaded) {
+		validateY(world, y);
+		short worldID = worldIdManager.getInternalWorldId(world);
+		int chunkX = x >> 4;
+		int chunkZ = z >> 4;
 		T chunk;
 
-		if (waitUntilLoaded) {
-			chunk = super.getChunkMeta(location);
+		if (alwaysLoaded) {
+			chunk = getPreloadingChunkMeta(world, chunkX, chunkZ);
+		} else if (waitUntilLoaded) {
+			chunk = super.getChunkMeta(world, chunkX, chunkZ);
 		} else {
-			ChunkMetaLoadStatus chunkMetaLoadStatus = super.getChunkMetaIfLoaded(location);
+			ChunkMetaLoadStatus chunkMetaLoadStatus = super.getChunkMetaIfLoaded(world, chunkX, chunkZ);
 			if (!chunkMetaLoadStatus.isLoaded)
 				return new BlockDataObjectLoadStatus(null, false);
 
@@ -115,16 +226,15 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 			if (!allowAccessUnloaded) {
 				throw new IllegalStateException("Can not load data for unloaded chunk");
 			}
-			data = singleBlockTracker.getBlock(location, worldID);
+			data = singleBlockTracker.getBlock(x, y, z, worldID);
 			if (data == null) {
-				data = storageEngine.getForLocation(location.getBlockX(), location.getBlockY(), location.getBlockZ(),
-					worldID, pluginID);
+				data = storageEngine.getForLocation(x, y, z, worldID, pluginID);
 			}
 			if (data != null) {
 				singleBlockTracker.putBlock(data, worldID);
 			}
 		} else {
-			data = chunk.get(location);
+			data = chunk.get(PackedPosition.block(x, y, z));
 		}
 		return new BlockDataObjectLoadStatus(data, true);
 	}
@@ -147,7 +257,13 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 		validateY(loc.getWorld(), loc.getBlockY());
 		T chunk;
 		if (alwaysLoaded) {
-			chunk = getOrCreateChunkMeta(loc.getWorld(), loc.getChunk().getX(), loc.getChunk().getZ());
+			int chunkX = BlockBasedChunkMeta.toChunkCoord(loc.getBlockX());
+			int chunkZ = BlockBasedChunkMeta.toChunkCoord(loc.getBlockZ());
+			if (preloader != null && !preloader.isReady()) {
+				chunk = getPreloadingChunkMeta(loc.getWorld(), chunkX, chunkZ);
+			} else {
+				chunk = getOrCreateChunkMeta(loc.getWorld(), chunkX, chunkZ);
+			}
 		} else {
 			chunk = super.getChunkMeta(loc.getWorld(), loc.getChunk().getX(), loc.getChunk().getZ());
 		}
@@ -191,10 +307,28 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 	 * @return Data removed, null if nothing was removed
 	 */
 	public D remove(Location location) {
-		validateY(location.getWorld(), location.getBlockY());
-		T chunk = super.getChunkMeta(location);
+		return remove(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+	}
+
+	/**
+	 * Attempts to remove data at the given block coordinates from the cache, if any exists
+	 *
+	 * @param world World the block is in
+	 * @param x     X-coord of the block
+	 * @param y     Y-coord of the block
+	 * @param z     Z-coord of the block
+	 * @return Data removed, null if nothing was removed
+	 */
+	public D remove(World world, int x, int y, int z) {
+		validateY(world, y);
+		T chunk;
+		if (alwaysLoaded) {
+			chunk = getPreloadingChunkMeta(world, x >> 4, z >> 4);
+		} else {
+			chunk = super.getChunkMeta(world, x >> 4, z >> 4);
+		}
 		if (chunk != null) {
-			return chunk.remove(location);
+			return chunk.remove(PackedPosition.block(x, y, z));
 		}
 		if (alwaysLoaded) {
 			return null;
@@ -202,7 +336,7 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 		if (!allowAccessUnloaded) {
 			throw new IllegalStateException("Can not delete data for unloaded chunk");
 		}
-		return singleBlockTracker.removeBlock(location, worldIdManager.getInternalWorldId(location.getWorld()));
+		return singleBlockTracker.removeBlock(x, y, z, worldIdManager.getInternalWorldId(world));
 
 	}
 
@@ -227,6 +361,9 @@ public class BlockBasedChunkMetaView<T extends BlockBasedChunkMeta<D, S>, D exte
 
 	@Override
 	public void disable() {
+		if (preloader != null && !preloader.isReady()) {
+			preloader.cancel();
+		}
 		for (D data : singleBlockTracker.getAll()) {
 			storageEngine.persist(data, worldIdManager.getInternalWorldId(data.getLocation().getWorld()), pluginID);
 		}
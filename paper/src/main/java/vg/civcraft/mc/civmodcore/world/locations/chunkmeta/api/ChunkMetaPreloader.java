@@ -0,0 +1,272 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.api;
+
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import org.bukkit.World;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkMeta;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.GlobalChunkMetaManager;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.StorageEngine;
+import vg.civcraft.mc.civmodcore.world.locations.global.WorldIDManager;
+
+/**
+ * Loads all chunk data of a plugin which keeps its data permanently loaded in the background, instead of blocking
+ * plugin enable until every chunk has been read from the database. Chunks are populated in parallel on a small
+ * dedicated pool, while the main thread may load any chunk it needs right away through {@link #loadNow(World, int, int)}.
+ * The chunk list is streamed from the storage engine and only a bounded number of chunks is queued at once, so neither
+ * the list nor the queue ever holds every chunk.
+ *
+ * Failed loads are retried a few times, each retry being scheduled after a growing delay rather than holding a loading
+ * thread while waiting, so other chunks keep loading meanwhile. If they still fail, the preload completes exceptionally
+ * and enters {@link BlockBasedChunkMetaView.PreloadState#FAILED}, so chunks keep being loaded on first access through
+ * {@link #loadNow(World, int, int)} instead.
+ */
+class ChunkMetaPreloader {
+
+	private static final int MAX_ATTEMPTS = 3;
+	private static final long RETRY_DELAY_MS = 1000L;
+	/**
+	 * How many chunks per loading thread may be queued or loading at once, while the rest of the list is still unread
+	 */
+	private static final int QUEUED_PER_THREAD = 64;
+
+	private final short pluginID;
+	private final String pluginName;
+	private final GlobalChunkMetaManager globalManager;
+	private final WorldIDManager worldIdManager;
+	private final Supplier<ChunkMeta<?>> chunkProducer;
+	private final Logger logger;
+	private final ScheduledThreadPoolExecutor executor;
+	private final CompletableFuture<Void> completion;
+	private final AtomicInteger totalChunks;
+	private final AtomicInteger loadedChunks;
+	private final Semaphore queuedChunks;
+	private volatile BlockBasedChunkMetaView.PreloadState state;
+
+	ChunkMetaPreloader(short pluginID, String pluginName, GlobalChunkMetaManager globalManager,
+			WorldIDManager worldIdManager, Supplier<ChunkMeta<?>> chunkProducer, int threadCount, Logger logger) {
+		this.pluginID = pluginID;
+		this.pluginName = pluginName;
+		this.globalManager = globalManager;
+		this.worldIdManager = worldIdManager;
+		this.chunkProducer = chunkProducer;
+		this.logger = logger;
+		this.completion = new CompletableFuture<>();
+		this.totalChunks = new AtomicInteger(-1);
+		this.loadedChunks = new AtomicInteger();
+		this.queuedChunks = new Semaphore(Math.max(1, threadCount) * QUEUED_PER_THREAD);
+		this.state = BlockBasedChunkMetaView.PreloadState.LOADING;
+		AtomicInteger threadCounter = new AtomicInteger();
+		// one more thread for reading the chunk list, which waits for queued chunks to be loaded
+		this.executor = new ScheduledThreadPoolExecutor(Math.max(1, threadCount) + 1, runnable -> {
+			Thread thread = new Thread(runnable, "cmc-preload-" + pluginName + "-" + threadCounter.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		// retries waiting for their delay are dropped once the preload is over
+		this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * Starts loading all chunks the given storage engine holds data for. Returns immediately
+	 *
+	 * @param storageEngine Storage engine to read the chunk list from
+	 */
+	void start(StorageEngine storageEngine) {
+		long start = System.currentTimeMillis();
+		completion.whenComplete((v, e) -> {
+			executor.shutdown();
+			if (e == null) {
+				state = BlockBasedChunkMetaView.PreloadState.READY;
+				logger.info(String.format("Preloaded %d chunks for %s in %d ms", loadedChunks.get(), pluginName,
+						System.currentTimeMillis() - start));
+			} else {
+				state = BlockBasedChunkMetaView.PreloadState.FAILED;
+				if (!(e instanceof CancellationException)) {
+					logger.severe("Preloading chunks for " + pluginName + " failed, chunks are loaded on access instead");
+				}
+			}
+		});
+		if (!submit(() -> listChunks(storageEngine, 1, 0))) {
+			completion.cancel(false);
+		}
+	}
+
+	/**
+	 * Reads the chunk list and queues each chunk for loading, waiting whenever too many chunks are queued already
+	 *
+	 * @param storageEngine Storage engine to read the chunk list from
+	 * @param attempt       Attempt of reading the list, starting at 1
+	 * @param skip          Chunks already queued by earlier attempts, which failed partway through the list
+	 */
+	private void listChunks(StorageEngine storageEngine, int attempt, int skip) {
+		int queued = skip;
+		try (Stream<XZWCoord> chunks = storageEngine.streamAllDataChunks(pluginID)) {
+			Iterator<XZWCoord> iterator = chunks.skip(skip).iterator();
+			while (iterator.hasNext()) {
+				XZWCoord coord = iterator.next();
+				if (!awaitQueueSpace() || !submit(() -> preload(coord, 1))) {
+					// cancelled or failed while we were still queueing chunks
+					return;
+				}
+				queued++;
+			}
+		} catch (Throwable e) {
+			logger.log(Level.SEVERE, "Failed to retrieve chunks to preload for " + pluginName, e);
+			int resumeAt = queued;
+			retryOrFail(attempt, e, () -> listChunks(storageEngine, attempt + 1, resumeAt));
+			return;
+		}
+		totalChunks.set(queued);
+		// all queued chunks may have been loaded before the total was known
+		if (loadedChunks.get() == queued) {
+			completion.complete(null);
+		}
+	}
+
+	/**
+	 * @return False if the preload ended while waiting
+	 */
+	private boolean awaitQueueSpace() {
+		try {
+			while (!queuedChunks.tryAcquire(RETRY_DELAY_MS, TimeUnit.MILLISECONDS)) {
+				// retries dropped when failing or cancelling never return their permit
+				if (completion.isDone()) {
+					return false;
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void preload(XZWCoord coord, int attempt) {
+		if (completion.isDone()) {
+			queuedChunks.release();
+			return;
+		}
+		try {
+			World world = worldIdManager.getWorldByInternalID(coord.getWorldID());
+			if (world != null) {
+				globalManager.preload(pluginID, world, coord.getX(), coord.getZ(), chunkProducer);
+			}
+		} catch (Throwable e) {
+			logger.log(Level.SEVERE, "Failed to preload chunk " + coord + " for " + pluginName, e);
+			// a scheduled retry keeps the chunk's place in the queue
+			if (!retryOrFail(attempt, e, () -> preload(coord, attempt + 1))) {
+				queuedChunks.release();
+			}
+			return;
+		}
+		queuedChunks.release();
+		if (loadedChunks.incrementAndGet() == totalChunks.get()) {
+			completion.complete(null);
+		}
+	}
+
+	/**
+	 * Schedules the next attempt of a failed load, doubling the delay with each attempt, or fails the preload as a
+	 * whole once out of attempts. Failed chunks are loaded on first access instead
+	 *
+	 * @param attempt Attempt which just failed, starting at 1
+	 * @param failure Failure of the attempt
+	 * @param retry   Next attempt
+	 * @return True if the next attempt was scheduled
+	 */
+	private boolean retryOrFail(int attempt, Throwable failure, Runnable retry) {
+		if (attempt >= MAX_ATTEMPTS) {
+			completion.completeExceptionally(failure);
+			return false;
+		}
+		try {
+			executor.schedule(retry, RETRY_DELAY_MS << (attempt - 1), TimeUnit.MILLISECONDS);
+			return true;
+		} catch (RejectedExecutionException e) {
+			// cancelled or failed meanwhile
+			return false;
+		}
+	}
+
+	/**
+	 * @return False if the task was rejected, because the preload is over
+	 */
+	private boolean submit(Runnable task) {
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Loads the given chunk right away on the calling thread, unless it was already preloaded. Intended for accesses
+	 * which can not wait for the background preload to reach the chunk
+	 *
+	 * @param world  World the chunk is in
+	 * @param chunkX X-coord of the chunk
+	 * @param chunkZ Z-coord of the chunk
+	 * @return ChunkMeta for the given chunk, never null for tracked worlds
+	 */
+	ChunkMeta<?> loadNow(World world, int chunkX, int chunkZ) {
+		return globalManager.preload(pluginID, world, chunkX, chunkZ, chunkProducer);
+	}
+
+	/**
+	 * @return Whether all chunks have been preloaded successfully
+	 */
+	boolean isReady() {
+		return state == BlockBasedChunkMetaView.PreloadState.READY;
+	}
+
+	/**
+	 * @return Whether the preload is still running, done or has given up
+	 */
+	BlockBasedChunkMetaView.PreloadState getState() {
+		return state;
+	}
+
+	/**
+	 * @return Fraction of chunks preloaded so far within [0,1]
+	 */
+	double getProgress() {
+		if (isReady()) {
+			return 1.0;
+		}
+		int total = totalChunks.get();
+		if (total <= 0) {
+			return 0.0;
+		}
+		return Math.min(1.0, (double) loadedChunks.get() / total);
+	}
+
+	CompletableFuture<Void> getCompletion() {
+		return completion;
+	}
+
+	/**
+	 * Stops preloading, waiting shortly for chunks currently being loaded
+	 */
+	void cancel() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		completion.cancel(false);
+	}
+
+}
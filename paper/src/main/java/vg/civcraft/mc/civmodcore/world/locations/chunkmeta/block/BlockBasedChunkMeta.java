@@ -1,10 +1,24 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
 
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import org.bukkit.Location;
 import org.bukkit.block.Block;
+import vg.civcraft.mc.civmodcore.dao.TransactionScope;
+import vg.civcraft.mc.civmodcore.world.locations.PackedPosition;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkMeta;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap.OffHeapBlockArenas;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap.OffHeapBlockCodec;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap.OffHeapBlockStorage;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap.OffHeapStorageEngine;
 
 /**
  * 
@@ -13,7 +27,14 @@ import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkMeta;
  * concentration of data.
  * 
  * 
- * Not thread-safe
+ * Not thread-safe, but consistent read only views of the data can be handed to
+ * other threads through {@link #snapshot()}
+ * 
+ * If the storage engine keeps its data loaded permanently and implements
+ * {@link OffHeapStorageEngine}, data which has been persisted is kept as
+ * off-heap records instead, shared by all chunks of the plugin in the world.
+ * Reading such data hands out decoded copies, which are only moved into this
+ * cache once they are modified, until the next save
  * 
  * DO NOT USE THIS WHEN THE ASSOCIATED CHUNK IS NOT LOADED
  * 
@@ -34,6 +55,35 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 	// generic arrays
 	protected BlockDataObject<D>[][][][] data;
 
+	/**
+	 * Whether a snapshot may still be referencing the current cache arrays. If so,
+	 * arrays are copied before being written to, unless they were created after
+	 * the last snapshot was taken, which is what ownedArrays keeps track of
+	 */
+	private boolean shared;
+	private Set<Object> ownedArrays;
+
+	/**
+	 * Storage holding the persisted data of all chunks of this plugin in this
+	 * world if the storage engine keeps data off-heap, otherwise null. Data with
+	 * unsaved changes is kept in the cache arrays instead, so a block has either
+	 * an off-heap record or an entry in the cache arrays, never both
+	 */
+	private OffHeapBlockStorage<D> offHeap;
+	/**
+	 * Blocks of this chunk with an off-heap record, as packed by
+	 * {@link #localKey(int, int, int)}
+	 */
+	private IntOpenHashSet offHeapKeys;
+	private boolean offHeapChecked;
+	/**
+	 * Saves run on another thread, so data is moved off-heap by the next access
+	 * once the save has been committed, never while a save may still be rolled
+	 * back
+	 */
+	private volatile boolean demotionPending;
+	private final AtomicInteger unconfirmedSaves = new AtomicInteger();
+
 	@SuppressWarnings("unchecked")
 	public BlockBasedChunkMeta(boolean isNew, S storage) {
 		super(isNew, storage);
@@ -65,9 +115,10 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 	 */
 	@SuppressWarnings("unchecked")
 	protected D get(int x, int y, int z) {
+		demoteIfPending();
 		BlockDataObject<D>[] l4ZSection = getL4ZSubArrayAbsolute(x, y, false);
-		if (l4ZSection == null) {
-			return null;
+		if (l4ZSection == null || l4ZSection[z] == null) {
+			return readOffHeap(x, y, z);
 		}
 		return (D) l4ZSection[z];
 	}
@@ -85,6 +136,18 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 		return get(modulo(location.getBlockX()), location.getBlockY(), modulo(location.getBlockZ()));
 	}
 
+	/**
+	 * Retrieves data from the cache
+	 * 
+	 * @param packedPosition Position of the data, packed as described in
+	 *                       {@link PackedPosition}
+	 * @return Data at the given position, possibly null if no data exists there
+	 */
+	public D get(long packedPosition) {
+		return get(modulo(PackedPosition.blockX(packedPosition)), PackedPosition.blockY(packedPosition),
+				modulo(PackedPosition.blockZ(packedPosition)));
+	}
+
 	/**
 	 * Retrieves a level 2 cache based on the index of this second level cache in
 	 * the top level cache. Top level indices are based on y-level
@@ -159,8 +222,309 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 		return getL4ZSubArray(l3XSection, x, create);
 	}
 
+	/**
+	 * Same as {@link #getL4ZSubArrayAbsolute(int, int, boolean)}, but copies all
+	 * arrays on the path which are shared with a snapshot, so the returned array
+	 * may be written to
+	 */
+	@SuppressWarnings("unchecked")
+	private BlockDataObject<D>[] getWritableL4ZSubArray(int x, int y, boolean create) {
+		if (!shared) {
+			return getL4ZSubArrayAbsolute(x, y, create);
+		}
+		if (!create && getL4ZSubArrayAbsolute(x, y, false) == null) {
+			return null;
+		}
+		int yOffsetL1 = (y + 64) / L1_SECTION_COUNT;
+		int yOffsetL2 = (y + 64) % L1_SECTION_COUNT;
+		data = own(data);
+		BlockDataObject<D>[][][] l2Section = data[yOffsetL1];
+		if (l2Section == null) {
+			l2Section = created(new BlockDataObject[L1_SECTION_COUNT][][]);
+		} else {
+			l2Section = own(l2Section);
+		}
+		data[yOffsetL1] = l2Section;
+		BlockDataObject<D>[][] l3XSection = l2Section[yOffsetL2];
+		if (l3XSection == null) {
+			l3XSection = created(new BlockDataObject[L3_X_SECTION_COUNT][]);
+		} else {
+			l3XSection = own(l3XSection);
+		}
+		l2Section[yOffsetL2] = l3XSection;
+		BlockDataObject<D>[] l4ZSection = l3XSection[x];
+		if (l4ZSection == null) {
+			l4ZSection = created(new BlockDataObject[L4_Z_SECTION_LENGTH]);
+		} else {
+			l4ZSection = own(l4ZSection);
+		}
+		l3XSection[x] = l4ZSection;
+		return l4ZSection;
+	}
+
+	private <A> A[] own(A[] array) {
+		if (ownedArrays.contains(array)) {
+			return array;
+		}
+		return created(array.clone());
+	}
+
+	private <A> A[] created(A[] array) {
+		ownedArrays.add(array);
+		return array;
+	}
+
+	/**
+	 * @return Off-heap storage of this cache or null if its data is kept on heap
+	 */
+	@SuppressWarnings("unchecked")
+	private OffHeapBlockStorage<D> getOffHeap() {
+		if (!offHeapChecked && chunkCoord != null) {
+			offHeapChecked = true;
+			if (storage.stayLoaded() && storage instanceof OffHeapStorageEngine<?> engine) {
+				offHeap = OffHeapBlockArenas.get(chunkCoord.getWorld(), pluginID,
+						(OffHeapBlockCodec<D>) engine.getOffHeapCodec());
+				offHeapKeys = new IntOpenHashSet();
+			}
+		}
+		return offHeap;
+	}
+
+	/**
+	 * Packs block coordinates relative to this chunk into a single int
+	 */
+	private static int localKey(int x, int y, int z) {
+		return x | (z << 4) | ((y + 64) << 8);
+	}
+
+	/**
+	 * Decodes the off-heap record at the given block without moving it into the
+	 * cache arrays. The copy belongs to this cache, so modifying it moves it into
+	 * the cache arrays, see {@link #dataModified(BlockDataObject)}
+	 * 
+	 * @return Decoded copy or null if there is no record at the given block
+	 */
+	private D readOffHeap(int x, int y, int z) {
+		if (getOffHeap() == null || !offHeapKeys.contains(localKey(x, y, z))) {
+			return null;
+		}
+		D loaded = offHeap.get(chunkCoord.getX() * 16 + x, y, chunkCoord.getZ() * 16 + z);
+		if (loaded != null) {
+			loaded.setOwningCache(this);
+		}
+		return loaded;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeOffHeap(int x, int y, int z, BlockDataObject<D> element) {
+		offHeapKeys.add(localKey(x, y, z));
+		offHeap.put(chunkCoord.getX() * 16 + x, y, chunkCoord.getZ() * 16 + z, (D) element);
+	}
+
+	private boolean removeOffHeap(int x, int y, int z) {
+		if (getOffHeap() == null || !offHeapKeys.remove(localKey(x, y, z))) {
+			return false;
+		}
+		offHeap.remove(chunkCoord.getX() * 16 + x, y, chunkCoord.getZ() * 16 + z);
+		return true;
+	}
+
+	/**
+	 * Decodes all off-heap records of this chunk, without moving them into the
+	 * cache arrays
+	 * 
+	 * @return Decoded copies belonging to this cache
+	 */
+	private List<D> readAllOffHeap() {
+		if (getOffHeap() == null || offHeapKeys.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<D> loaded = new ArrayList<>(offHeapKeys.size());
+		IntIterator keys = offHeapKeys.iterator();
+		while (keys.hasNext()) {
+			int key = keys.nextInt();
+			D element = readOffHeap(key & 15, (key >>> 8) - 64, (key >>> 4) & 15);
+			if (element != null) {
+				loaded.add(element);
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Called by data of this cache whenever it is modified. Data read from
+	 * off-heap storage is only moved into the cache arrays now, replacing its
+	 * record until the next save, so that the change is saved
+	 * 
+	 * @param changed Data which was modified
+	 * @throws IllegalStateException If the data was read from off-heap storage
+	 *                               and other data has been put at its block
+	 *                               since, so the change could not be saved
+	 */
+	void dataModified(BlockDataObject<D> changed) {
+		if (getOffHeap() != null) {
+			demoteIfPending();
+			Location loc = changed.getLocation();
+			int x = modulo(loc.getBlockX());
+			int y = loc.getBlockY();
+			int z = modulo(loc.getBlockZ());
+			BlockDataObject<D>[] l4ZSection = getL4ZSubArrayAbsolute(x, y, false);
+			BlockDataObject<D> current = l4ZSection == null ? null : l4ZSection[z];
+			if (current == null && removeOffHeap(x, y, z)) {
+				getWritableL4ZSubArray(x, y, true)[z] = changed;
+			} else if (current != null && current != changed) {
+				throw new IllegalStateException("Data at " + loc + " has been replaced since it was retrieved, "
+						+ "modify the data currently held instead");
+			}
+		}
+		setCacheState(CacheState.MODIFIED);
+	}
+
+	/**
+	 * Moves all data without unsaved changes from the cache arrays to off-heap
+	 * storage, if this cache keeps data there. The remaining data is placed in new
+	 * arrays, which are not shared with any snapshot. Moved data stays owned by
+	 * this cache, so modifying it later on moves it back
+	 */
+	@SuppressWarnings("unchecked")
+	private void demoteAll() {
+		if (getOffHeap() == null) {
+			return;
+		}
+		List<BlockDataObject<D>> kept = new ArrayList<>();
+		for (BlockDataObject<D>[][][] l2 : data) {
+			if (l2 == null) {
+				continue;
+			}
+			for (BlockDataObject<D>[][] l3 : l2) {
+				if (l3 == null) {
+					continue;
+				}
+				for (BlockDataObject<D>[] l4 : l3) {
+					if (l4 == null) {
+						continue;
+					}
+					for (BlockDataObject<D> element : l4) {
+						if (element == null) {
+							continue;
+						}
+						if (element.getCacheState() != CacheState.NORMAL) {
+							kept.add(element);
+							continue;
+						}
+						Location loc = element.getLocation();
+						writeOffHeap(modulo(loc.getBlockX()), loc.getBlockY(), modulo(loc.getBlockZ()), element);
+					}
+				}
+			}
+		}
+		data = new BlockDataObject[L1_SECTION_COUNT][][][];
+		shared = false;
+		ownedArrays = null;
+		for (BlockDataObject<D> element : kept) {
+			Location loc = element.getLocation();
+			getL4ZSubArrayAbsolute(modulo(loc.getBlockX()), loc.getBlockY(), true)[modulo(loc.getBlockZ())] = element;
+		}
+	}
+
+	/**
+	 * Moves data back off-heap after a save, unless another save is still waiting
+	 * for its commit. Synchronized on the chunk, which saves hold while writing
+	 */
+	private void demoteIfPending() {
+		if (!demotionPending) {
+			return;
+		}
+		synchronized (chunkCoord) {
+			if (demotionPending && unconfirmedSaves.get() == 0) {
+				demotionPending = false;
+				demoteAll();
+			}
+		}
+	}
+
+	/**
+	 * Sets the cache state. Once everything has been saved, data kept off-heap is
+	 * moved back there with the next access
+	 * 
+	 * @param state New cache state
+	 */
+	@Override
+	public void setCacheState(CacheState state) {
+		super.setCacheState(state);
+		if (state != CacheState.NORMAL || getCacheState() != CacheState.NORMAL || getOffHeap() == null) {
+			return;
+		}
+		if (!TransactionScope.isOpen()) {
+			demotionPending = true;
+			return;
+		}
+		demotionPending = false;
+		unconfirmedSaves.incrementAndGet();
+		TransactionScope.afterCommit(() -> {
+			demotionPending = true;
+			unconfirmedSaves.decrementAndGet();
+		});
+		TransactionScope.onRollback(unconfirmedSaves::decrementAndGet);
+	}
+
+	/**
+	 * Creates an immutable view of the data currently held by this cache. The
+	 * snapshot shares all structure with this cache and only the parts of the
+	 * cache modified afterwards are copied, so taking one is cheap.
+	 * 
+	 * The snapshot may be read from any thread, but must be taken on the thread
+	 * modifying this cache. It only captures which data object is where, the data
+	 * objects themselves are not copied. Data kept off-heap is decoded into a copy
+	 * of the cache structure instead, where it stays
+	 * 
+	 * @return Snapshot of the current state of this cache
+	 */
+	@SuppressWarnings("unchecked")
+	public BlockBasedChunkMetaSnapshot<D> snapshot() {
+		demoteIfPending();
+		List<D> offHeapData = readAllOffHeap();
+		if (offHeapData.isEmpty()) {
+			shared = true;
+			ownedArrays = Collections.newSetFromMap(new IdentityHashMap<>());
+			return new BlockBasedChunkMetaSnapshot<>(chunkCoord, data);
+		}
+		BlockDataObject<D>[][][][] copy = new BlockDataObject[L1_SECTION_COUNT][][][];
+		iterateOnHeap(element -> place(copy, element));
+		for (D element : offHeapData) {
+			place(copy, element);
+		}
+		return new BlockBasedChunkMetaSnapshot<>(chunkCoord, copy);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <D extends BlockDataObject<D>> void place(BlockDataObject<D>[][][][] root, BlockDataObject<D> element) {
+		Location loc = element.getLocation();
+		int y = loc.getBlockY();
+		BlockDataObject<D>[][][] l2Section = root[(y + 64) / L1_SECTION_COUNT];
+		if (l2Section == null) {
+			l2Section = new BlockDataObject[L1_SECTION_COUNT][][];
+			root[(y + 64) / L1_SECTION_COUNT] = l2Section;
+		}
+		BlockDataObject<D>[][] l3XSection = l2Section[(y + 64) % L1_SECTION_COUNT];
+		if (l3XSection == null) {
+			l3XSection = new BlockDataObject[L3_X_SECTION_COUNT][];
+			l2Section[(y + 64) % L1_SECTION_COUNT] = l3XSection;
+		}
+		int x = modulo(loc.getBlockX());
+		BlockDataObject<D>[] l4ZSection = l3XSection[x];
+		if (l4ZSection == null) {
+			l4ZSection = new BlockDataObject[L4_Z_SECTION_LENGTH];
+			l3XSection[x] = l4ZSection;
+		}
+		l4ZSection[modulo(loc.getBlockZ())] = element;
+	}
+
 	@Override
 	public boolean isEmpty() {
+		if (offHeapKeys != null && !offHeapKeys.isEmpty()) {
+			return false;
+		}
 		for (BlockDataObject<D>[][][] l2 : data) {
 			if (l2 == null) {
 				continue;
@@ -231,7 +595,24 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 		if (isNew) {
 			setCacheState(CacheState.MODIFIED);
 		}
-		BlockDataObject<D>[] l4ZSection = getL4ZSubArrayAbsolute(x, y, true);
+		demoteIfPending();
+		if (getOffHeap() != null) {
+			BlockDataObject<D>[] existing = getL4ZSubArrayAbsolute(x, y, false);
+			if (existing == null || existing[z] == null) {
+				if (deletePreexisting) {
+					remove(x, y, z);
+				} else {
+					removeOffHeap(x, y, z);
+				}
+				if (!isNew && blockData.getCacheState() == CacheState.NORMAL) {
+					// persisted data, like that loaded from the database, goes straight off-heap
+					blockData.setOwningCache(this);
+					writeOffHeap(x, y, z, blockData);
+					return;
+				}
+			}
+		}
+		BlockDataObject<D>[] l4ZSection = getWritableL4ZSubArray(x, y, true);
 		if (deletePreexisting && l4ZSection[z] != null) {
 			remove(x, y, z);
 		}
@@ -279,6 +660,7 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 		if (l4ZSection[modulo(loc.getBlockZ())] != blockData) {
 			throw new IllegalArgumentException("Can not remove block data from cache, it is already gone");
 		}
+		l4ZSection = getWritableL4ZSubArray(modulo(loc.getBlockX()), loc.getBlockY(), false);
 		l4ZSection[modulo(loc.getBlockZ())] = null;
 		setCacheState(CacheState.MODIFIED);
 	}
@@ -293,13 +675,21 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 	 * @return Removed data
 	 */
 	protected D remove(int x, int y, int z) {
+		demoteIfPending();
 		BlockDataObject<D>[] l4ZSection = getL4ZSubArrayAbsolute(x, y, false);
-		if (l4ZSection == null) {
-			return null;
+		if (l4ZSection == null || l4ZSection[z] == null) {
+			// data kept off-heap is removed without moving it into the cache arrays first
+			D removed = readOffHeap(x, y, z);
+			if (removed != null) {
+				removeOffHeap(x, y, z);
+				setCacheState(CacheState.MODIFIED);
+			}
+			return removed;
 		}
 		@SuppressWarnings("unchecked")
 		D oldData = (D) l4ZSection[z];
 		if (oldData != null) {
+			l4ZSection = getWritableL4ZSubArray(x, y, false);
 			l4ZSection[z] = null;
 			setCacheState(CacheState.MODIFIED);
 		}
@@ -318,8 +708,42 @@ public abstract class BlockBasedChunkMeta<D extends BlockDataObject<D>, S extend
 		return remove(modulo(location.getBlockX()), location.getBlockY(), modulo(location.getBlockZ()));
 	}
 
-	@SuppressWarnings("rawtypes")
+	/**
+	 * Removes the entry at the given position if one exists and returns it
+	 * 
+	 * @param packedPosition Position to remove data from, packed as described in
+	 *                       {@link PackedPosition}
+	 * @return Removed data
+	 */
+	public final D remove(long packedPosition) {
+		return remove(modulo(PackedPosition.blockX(packedPosition)), PackedPosition.blockY(packedPosition),
+				modulo(PackedPosition.blockZ(packedPosition)));
+	}
+
+	/**
+	 * Applies the given function to all data held by this cache. Data kept
+	 * off-heap is decoded for this, but only moved into the cache arrays if the
+	 * function modifies it
+	 * 
+	 * @param functionToApply Function to apply to each data object
+	 */
 	public void iterateAll(Consumer<D> functionToApply) {
+		demoteIfPending();
+		List<D> offHeapData = readAllOffHeap();
+		iterateOnHeap(functionToApply);
+		offHeapData.forEach(functionToApply);
+	}
+
+	/**
+	 * Applies the given function to all data held by this cache, except for data
+	 * kept off-heap. As data is only kept off-heap once it has been persisted,
+	 * this covers all data with unsaved changes. Same as
+	 * {@link #iterateAll(Consumer)} if the storage engine keeps data on heap
+	 * 
+	 * @param functionToApply Function to apply to each data object
+	 */
+	@SuppressWarnings("rawtypes")
+	protected void iterateOnHeap(Consumer<D> functionToApply) {
 		for (int i = 0; i < data.length; i++) {
 			BlockDataObject[][][] l2Cache = data[i];
 			if (l2Cache == null) {
@@ -0,0 +1,109 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
+
+import java.util.function.Consumer;
+import org.bukkit.Location;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkCoord;
+
+/**
+ * Immutable view of the data a {@link BlockBasedChunkMeta} held at the time
+ * {@link BlockBasedChunkMeta#snapshot()} was called. Changes made to the chunk
+ * meta afterwards are not visible here, which makes it safe to read from any
+ * thread without further synchronization.
+ *
+ * Only the structure is captured, the data objects themselves are shared with
+ * the live cache and should be treated as read only
+ *
+ * @param <D> Data type held within the chunk
+ */
+public final class BlockBasedChunkMetaSnapshot<D extends BlockDataObject<D>> {
+
+	private final ChunkCoord chunkCoord;
+	private final BlockDataObject<D>[][][][] data;
+
+	BlockBasedChunkMetaSnapshot(ChunkCoord chunkCoord, BlockDataObject<D>[][][][] data) {
+		this.chunkCoord = chunkCoord;
+		this.data = data;
+	}
+
+	/**
+	 * @return Chunk this snapshot was taken of
+	 */
+	public ChunkCoord getChunkCoord() {
+		return chunkCoord;
+	}
+
+	/**
+	 * Retrieves data from the snapshot
+	 *
+	 * @param x Relative x offset in the chunk within [0,16), also the total
+	 *          x-coordinate modulo 16
+	 * @param y Y-Level of the block
+	 * @param z Relative z offset in the chunk within [0,16), also the total
+	 *          z-coordinate modulo 16
+	 * @return Data retrieved for the given coordinates, possibly null
+	 */
+	@SuppressWarnings("unchecked")
+	public D get(int x, int y, int z) {
+		BlockDataObject<D>[][][] l2Section = data[(y + 64) / BlockBasedChunkMeta.L1_SECTION_COUNT];
+		if (l2Section == null) {
+			return null;
+		}
+		BlockDataObject<D>[][] l3XSection = l2Section[(y + 64) % BlockBasedChunkMeta.L1_SECTION_COUNT];
+		if (l3XSection == null) {
+			return null;
+		}
+		BlockDataObject<D>[] l4ZSection = l3XSection[x];
+		if (l4ZSection == null) {
+			return null;
+		}
+		return (D) l4ZSection[z];
+	}
+
+	/**
+	 * Retrieves data from the snapshot
+	 *
+	 * @param location Location of the data, may not be null
+	 * @return Data at the given location, possibly null if no data exists there
+	 */
+	public D get(Location location) {
+		if (location == null) {
+			throw new IllegalArgumentException("Location may not be null");
+		}
+		return get(BlockBasedChunkMeta.modulo(location.getBlockX()), location.getBlockY(),
+				BlockBasedChunkMeta.modulo(location.getBlockZ()));
+	}
+
+	/**
+	 * @return True if no data was held when the snapshot was taken
+	 */
+	public boolean isEmpty() {
+		boolean[] empty = {true};
+		iterateAll(d -> empty[0] = false);
+		return empty[0];
+	}
+
+	@SuppressWarnings("unchecked")
+	public void iterateAll(Consumer<D> functionToApply) {
+		for (BlockDataObject<D>[][][] l2Cache : data) {
+			if (l2Cache == null) {
+				continue;
+			}
+			for (BlockDataObject<D>[][] l3Cache : l2Cache) {
+				if (l3Cache == null) {
+					continue;
+				}
+				for (BlockDataObject<D>[] l4Cache : l3Cache) {
+					if (l4Cache == null) {
+						continue;
+					}
+					for (BlockDataObject<D> element : l4Cache) {
+						if (element != null) {
+							functionToApply.accept((D) element);
+						}
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -29,7 +29,7 @@ public abstract class BlockDataObject<D extends BlockDataObject<D>> {
 		CacheState oldState = this.state;
 		this.state = this.state.progress(state);
 		if (this.state != CacheState.NORMAL && oldState != this.state && owningCache != null) {
-			owningCache.setCacheState(CacheState.MODIFIED);
+			owningCache.dataModified(this);
 		}
 	}
 	
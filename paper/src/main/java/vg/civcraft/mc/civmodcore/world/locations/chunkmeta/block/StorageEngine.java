@@ -1,6 +1,7 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block;
 
 import java.util.Collection;
+import java.util.stream.Stream;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
 
 public interface StorageEngine {
@@ -10,6 +11,27 @@ public interface StorageEngine {
 	 * @return All chunks this engine holds data for
 	 */
 	Collection<XZWCoord> getAllDataChunks();
+
+	/**
+	 * Gets all chunks this engine has data of the given plugin for. Engines storing data of multiple plugins in one
+	 * place should override this, by default all chunks with any data are returned
+	 * @param pluginID Internal id of the plugin
+	 * @return All chunks this engine holds data of the plugin for
+	 */
+	default Collection<XZWCoord> getAllDataChunks(short pluginID) {
+		return getAllDataChunks();
+	}
+
+	/**
+	 * Streams all chunks this engine has data of the given plugin for, so callers can work through them without
+	 * holding all of them in memory. Chunks have to come in the same order every time, so a caller can resume an
+	 * interrupted stream by skipping the chunks it already got. The stream has to be closed
+	 * @param pluginID Internal id of the plugin
+	 * @return All chunks this engine holds data of the plugin for
+	 */
+	default Stream<XZWCoord> streamAllDataChunks(short pluginID) {
+		return getAllDataChunks(pluginID).stream();
+	}
 	
 	/**
 	 * @return Should all data of this engine always be kept in memory
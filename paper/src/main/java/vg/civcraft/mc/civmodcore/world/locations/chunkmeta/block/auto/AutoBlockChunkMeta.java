@@ -1,6 +1,12 @@
 package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.auto;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import org.bukkit.Location;
+import vg.civcraft.mc.civmodcore.dao.TransactionScope;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
 
@@ -19,8 +25,9 @@ public class AutoBlockChunkMeta<D extends SerializableDataObject<D>>
 
 	@Override
 	public void insert() {
-		iterateAll(d -> {
-			switch (d.getCacheState()) {
+		iterateOnHeap(d -> {
+			CacheState previous = d.getCacheState();
+			switch (previous) {
 			case DELETED:
 				storage.deleteData(this.pluginID, d);
 				break;
@@ -36,6 +43,7 @@ public class AutoBlockChunkMeta<D extends SerializableDataObject<D>>
 				return;
 			}
 			d.setCacheState(CacheState.NORMAL);
+			TransactionScope.onRollback(() -> d.setCacheState(previous));
 		});
 	}
 
@@ -52,4 +60,51 @@ public class AutoBlockChunkMeta<D extends SerializableDataObject<D>>
 		});
 	}
 
+	@Override
+	public boolean supportsSnapshot() {
+		return true;
+	}
+
+	@Override
+	public void writeSnapshot(DataOutput out) throws IOException {
+		try {
+			iterateAll(d -> {
+				if (d.getCacheState() == CacheState.DELETED) {
+					return;
+				}
+				Location loc = d.getLocation();
+				byte[] raw = d.serialize().getBytes(StandardCharsets.UTF_8);
+				try {
+					out.writeByte(modulo(loc.getBlockX()));
+					out.writeShort(loc.getBlockY());
+					out.writeByte(modulo(loc.getBlockZ()));
+					out.writeInt(raw.length);
+					out.write(raw);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer in) {
+		int preMultipliedX = chunkCoord.getX() * 16;
+		int preMultipliedZ = chunkCoord.getZ() * 16;
+		while (in.hasRemaining()) {
+			int xOffset = in.get() & 0xFF;
+			int y = in.getShort();
+			int zOffset = in.get() & 0xFF;
+			byte[] raw = new byte[in.getInt()];
+			in.get(raw);
+			Location loc = new Location(chunkCoord.getWorld(), preMultipliedX + xOffset, y, preMultipliedZ + zOffset);
+			D data = storage.deserialize(loc, new String(raw, StandardCharsets.UTF_8));
+			if (data != null) {
+				put(xOffset, y, zOffset, data, false);
+			}
+		}
+	}
+
 }
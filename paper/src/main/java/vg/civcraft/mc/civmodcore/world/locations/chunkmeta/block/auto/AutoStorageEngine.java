@@ -10,10 +10,12 @@ import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 import org.bukkit.Location;
 import org.bukkit.World;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
 import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
+import vg.civcraft.mc.civmodcore.dao.ReadPreference;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.ChunkCoord;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
@@ -21,9 +23,18 @@ import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedStora
 
 public class AutoStorageEngine<D extends SerializableDataObject<D>> implements BlockBasedStorageEngine<D> {
 
+	private static final String DELETE_DATA = "delete from cmc_chunk_data where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ? and x_offset = ? and y = ? and z_offset = ?;";
+	private static final String INSERT_DATA = "insert into cmc_chunk_data (chunk_x, chunk_z, world_id, plugin_id, x_offset, y, z_offset, data) values(?,?,?,?,?,?,?,?)";
+	private static final String UPDATE_DATA = "update cmc_chunk_data set data = ? where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ? and x_offset = ? and y = ? and z_offset = ?;";
+	private static final String GET_CHUNK_DATA = "select x_offset, y, z_offset, data from cmc_chunk_data where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ?;";
+	private static final String GET_ALL_CHUNKS = "select chunk_x, chunk_z, world_id from cmc_chunk_data group by world_id, chunk_x, chunk_z order by world_id, chunk_x, chunk_z;";
+	private static final String GET_PLUGIN_CHUNKS = "select chunk_x, chunk_z, world_id from cmc_chunk_data where plugin_id = ? group by world_id, chunk_x, chunk_z order by world_id, chunk_x, chunk_z;";
+	private static final String GET_BLOCK_DATA = "select data from cmc_chunk_data where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ? and x_offset = ? and y = ? and z_offset = ?;";
+
 	private ManagedDatasource db;
 	private Logger logger;
 	private BiFunction<Location, String, D> dataDeserializer;
+	private ReadPreference readPreference = ReadPreference.PRIMARY;
 
 	public AutoStorageEngine(ManagedDatasource db, Logger logger,
 			BiFunction<Location, String, D> dataDeserializer) {
@@ -32,10 +43,20 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 		this.dataDeserializer = dataDeserializer;
 	}
 
+	/**
+	 * Allows chunk loads to be served by read replicas of the database. Only safe if the replicas lag behind by less
+	 * than the time a chunk stays cached after being unloaded, otherwise a chunk reloaded right after its data was
+	 * saved may read outdated data. Defaults to always reading from the primary
+	 *
+	 * @param readPreference Where to read chunk data from
+	 */
+	public void setReadPreference(ReadPreference readPreference) {
+		this.readPreference = readPreference;
+	}
+
 	protected void deleteData(short pluginID, D data) {
 		try (Connection insertConn = db.getConnection();
-				PreparedStatement deleteChunk = insertConn.prepareStatement(
-						"delete from cmc_chunk_data where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ? and x_offset = ? and y = ? and z_offset = ?;")) {
+				PreparedStatement deleteChunk = insertConn.prepareStatement(DELETE_DATA)) {
 			ChunkCoord chunkCoord = data.getOwningCache().getChunkCoord();
 			deleteChunk.setInt(1, chunkCoord.getX());
 			deleteChunk.setInt(2, chunkCoord.getZ());
@@ -52,8 +73,7 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 
 	protected void insertData(short pluginID, D data) {
 		try (Connection insertConn = db.getConnection();
-				PreparedStatement insertChunk = insertConn.prepareStatement(
-						"insert into cmc_chunk_data (chunk_x, chunk_z, world_id, plugin_id, x_offset, y, z_offset, data) values(?,?,?,?,?,?,?,?)")) {
+				PreparedStatement insertChunk = insertConn.prepareStatement(INSERT_DATA)) {
 			ChunkCoord chunkCoord = data.getOwningCache().getChunkCoord();
 			insertChunk.setInt(1, chunkCoord.getX());
 			insertChunk.setInt(2, chunkCoord.getZ());
@@ -69,12 +89,17 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 		}
 	}
 
+	D deserialize(Location location, String rawData) {
+		return dataDeserializer.apply(location, rawData);
+	}
+
 	public void loadDataForChunk(short pluginID, ChunkCoord coord, Consumer<D> applyFunction) {
 		int preMultipliedX = coord.getX() * 16;
 		int preMultipliedZ = coord.getZ() * 16;
-		try (Connection insertConn = db.getConnection();
-				PreparedStatement getData = insertConn.prepareStatement(
-						"select x_offset, y, z_offset, data from cmc_chunk_data where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ?;")) {
+		// only apply once everything was read, so a failure midway does not leave the chunk partially populated
+		List<D> loaded = new ArrayList<>();
+		try (Connection insertConn = db.getReadConnection(readPreference);
+				PreparedStatement getData = insertConn.prepareStatement(GET_CHUNK_DATA)) {
 			getData.setInt(1, coord.getX());
 			getData.setInt(2, coord.getZ());
 			getData.setShort(3, coord.getWorldID());
@@ -90,21 +115,21 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 					String rawData = rs.getString(4);
 					D data = dataDeserializer.apply(loc,rawData);
 					if (data != null) {
-						applyFunction.accept(data);
+						loaded.add(data);
 					}
 				}
 			}
 		} catch (SQLException e) {
 			logger.log(Level.SEVERE, "Failed to load chunk data", e);
 			// we want to escalate this, this is really bad
-			throw new IllegalStateException("Failed to load chunk data");
+			throw new IllegalStateException("Failed to load chunk data", e);
 		}
+		loaded.forEach(applyFunction);
 	}
 
 	protected void updateData(short pluginID, D data) {
 		try (Connection insertConn = db.getConnection();
-				PreparedStatement updateChunk = insertConn.prepareStatement(
-						"update cmc_chunk_data set data = ? where chunk_x = ? and z = ? and world_id = ? and plugin_id = ? and x_offset = ? and y = ? and z_offset = ?;")) {
+				PreparedStatement updateChunk = insertConn.prepareStatement(UPDATE_DATA)) {
 			ChunkCoord chunkCoord = data.getOwningCache().getChunkCoord();
 			updateChunk.setString(1, data.serialize().toString());
 			updateChunk.setInt(2, chunkCoord.getX());
@@ -123,22 +148,41 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 	@Override
 	public List<XZWCoord> getAllDataChunks() {
 		List<XZWCoord> result = new ArrayList<>();
-		try (Connection insertConn = db.getConnection();
-				PreparedStatement getChunks = insertConn.prepareStatement(
-						"select x, z, world_id from cmc_chunk_data group by chunk_x, chunk_z, world_id;");
-				ResultSet rs = getChunks.executeQuery()) {
-			while (rs.next()) {
-				int x = rs.getInt(1);
-				int z = rs.getInt(2);
-				short worldID = rs.getShort(3);
-				result.add(new XZWCoord(x, z, worldID));
-			}
-		} catch (SQLException e) {
+		// streamed, so the driver does not buffer every row on top of the result list
+		try (Stream<XZWCoord> chunks = db.stream(readPreference, GET_ALL_CHUNKS, ps -> {},
+				rs -> new XZWCoord(rs.getInt(1), rs.getInt(2), rs.getShort(3)))) {
+			chunks.forEach(result::add);
+		} catch (SQLException | IllegalStateException e) {
+			logger.log(Level.SEVERE, "Failed to retrieve chunk data", e);
+			// an empty list would look like there is no data at all
+			throw new IllegalStateException("Failed to retrieve chunk data", e);
+		}
+		return result;
+	}
+
+	@Override
+	public List<XZWCoord> getAllDataChunks(short pluginID) {
+		List<XZWCoord> result = new ArrayList<>();
+		try (Stream<XZWCoord> chunks = streamAllDataChunks(pluginID)) {
+			chunks.forEach(result::add);
+		} catch (IllegalStateException e) {
 			logger.log(Level.SEVERE, "Failed to retrieve chunk data", e);
+			throw e;
 		}
 		return result;
 	}
 
+	@Override
+	public Stream<XZWCoord> streamAllDataChunks(short pluginID) {
+		try {
+			return db.stream(readPreference, GET_PLUGIN_CHUNKS, ps -> ps.setShort(1, pluginID),
+					rs -> new XZWCoord(rs.getInt(1), rs.getInt(2), rs.getShort(3)));
+		} catch (SQLException e) {
+			// an empty stream would look like there is no data at all
+			throw new IllegalStateException("Failed to retrieve chunk data", e);
+		}
+	}
+
 	@Override
 	public boolean stayLoaded() {
 		return false;
@@ -148,15 +192,15 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 	public D getForLocation(int x, int y, int z, short worldID, short pluginID) {
 		int chunkX = BlockBasedChunkMeta.toChunkCoord(x);
 		int chunkZ = BlockBasedChunkMeta.toChunkCoord(z);
-		try (Connection insertConn = db.getConnection();
-				PreparedStatement selectRein = insertConn.prepareStatement(
-						"select data from cmc_chunk_data where chunk_x = ? and chunk_z = ? and world_id = ? and plugin_id = ? and x_offset = ? and y = ? and z_offset = ?;");) {
+		try (Connection insertConn = db.getReadConnection(readPreference);
+				PreparedStatement selectRein = insertConn.prepareStatement(GET_BLOCK_DATA)) {
 			selectRein.setInt(1, chunkX);
 			selectRein.setInt(2, chunkZ);
 			selectRein.setShort(3, worldID);
-			selectRein.setByte(4, (byte) BlockBasedChunkMeta.modulo(x));
-			selectRein.setShort(5, (short) y);
-			selectRein.setByte(6, (byte) BlockBasedChunkMeta.modulo(z));
+			selectRein.setShort(4, pluginID);
+			selectRein.setByte(5, (byte) BlockBasedChunkMeta.modulo(x));
+			selectRein.setShort(6, (short) y);
+			selectRein.setByte(7, (byte) BlockBasedChunkMeta.modulo(z));
 			try (ResultSet rs = selectRein.executeQuery()) {
 				if (!rs.next()) {
 					return null;
@@ -172,6 +216,14 @@ public class AutoStorageEngine<D extends SerializableDataObject<D>> implements B
 		}
 	}
 
+	/**
+	 * @return All statements used by this engine, for checking their query plans. Listing the chunks of all plugins
+	 *         reads the whole table on purpose, so it is left out rather than always being reported as a full scan
+	 */
+	public static List<String> getQueries() {
+		return List.of(DELETE_DATA, INSERT_DATA, UPDATE_DATA, GET_CHUNK_DATA, GET_PLUGIN_CHUNKS, GET_BLOCK_DATA);
+	}
+
 	@Override
 	public void persist(D data, short worldID, short pluginID) {
 		switch (data.getCacheState()) {
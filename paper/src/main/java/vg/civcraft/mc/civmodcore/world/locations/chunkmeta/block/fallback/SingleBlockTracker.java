@@ -7,58 +7,61 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.bukkit.Location;
+import vg.civcraft.mc.civmodcore.world.locations.PositionMap;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.XZWCoord;
-import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockDataObject;
 
 public class SingleBlockTracker<D extends BlockDataObject<D>> {
 
-	private Map<XZWCoord, Map<Location, D>> blocks;
+	private Map<XZWCoord, PositionMap<D>> blocks;
 
 	public SingleBlockTracker() {
 		blocks = new HashMap<>();
 	}
 
 	public void putBlock(D data, short worldID) {
-		Map<Location, D> existing = blocks.computeIfAbsent(toCoord(data.getLocation(), worldID), s -> new HashMap<>());
-		existing.put(data.getLocation(), data);
+		Location location = data.getLocation();
+		PositionMap<D> existing = blocks.computeIfAbsent(
+				XZWCoord.fromBlock(location.getBlockX(), location.getBlockZ(), worldID), s -> new PositionMap<>());
+		existing.put(location, data);
 	}
 
 	public D getBlock(Location location, short worldID) {
-		Map<Location, D> existing = blocks.get(toCoord(location, worldID));
+		return getBlock(location.getBlockX(), location.getBlockY(), location.getBlockZ(), worldID);
+	}
+
+	public D getBlock(int x, int y, int z, short worldID) {
+		PositionMap<D> existing = blocks.get(XZWCoord.fromBlock(x, z, worldID));
 		if (existing == null) {
 			return null;
 		}
-		return existing.get(location);
+		return existing.get(x, y, z);
 	}
 
 	public D removeBlock(Location location, short worldID) {
-		Map<Location, D> existing = blocks.get(toCoord(location, worldID));
+		return removeBlock(location.getBlockX(), location.getBlockY(), location.getBlockZ(), worldID);
+	}
+
+	public D removeBlock(int x, int y, int z, short worldID) {
+		PositionMap<D> existing = blocks.get(XZWCoord.fromBlock(x, z, worldID));
 		if (existing == null) {
 			return null;
 		}
-		return existing.remove(location);
+		return existing.remove(x, y, z);
 	}
 
 	public Collection<D> getAllForChunkAndRemove(XZWCoord chunk) {
-		Map<Location, D> removed = blocks.remove(chunk);
+		PositionMap<D> removed = blocks.remove(chunk);
 		if (removed == null) {
 			return Collections.emptyList();
 		}
 		return removed.values();
 	}
 
-	private static XZWCoord toCoord(Location location, short worldID) {
-		return new XZWCoord(BlockBasedChunkMeta.toChunkCoord(location.getBlockX()),
-				BlockBasedChunkMeta.toChunkCoord(location.getBlockZ()), worldID);
-	}
-
 	public Collection<D> getAll() {
 		List<D> result = new ArrayList<>();
-		for (Map<Location, D> chunkMap : blocks.values()) {
-			for (D data : chunkMap.values()) {
-				result.add(data);
-			}
+		for (PositionMap<D> chunkMap : blocks.values()) {
+			result.addAll(chunkMap.values());
 		}
 		return result;
 	}
@@ -0,0 +1,48 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.World;
+
+/**
+ * Holds one {@link OffHeapBlockStorage} per world and plugin, shared by all chunk metas of that plugin in that world.
+ * Records are keyed by their absolute block coordinates, so a single set of large pages and a single slot map serve
+ * every chunk, instead of each chunk allocating its own.
+ */
+public final class OffHeapBlockArenas {
+
+	private static final Map<ArenaKey, OffHeapBlockStorage<?>> ARENAS = new ConcurrentHashMap<>();
+
+	private OffHeapBlockArenas() {
+	}
+
+	/**
+	 * Retrieves the storage of a plugin in a world, creating it if it does not exist yet
+	 *
+	 * @param world    World the storage holds data for
+	 * @param pluginID Internal id of the plugin the data belongs to
+	 * @param codec    Codec of the plugin's data, only used if the storage is created
+	 * @return Storage shared by all chunks of the plugin in the world
+	 */
+	@SuppressWarnings("unchecked")
+	public static <D> OffHeapBlockStorage<D> get(World world, short pluginID, OffHeapBlockCodec<D> codec) {
+		return (OffHeapBlockStorage<D>) ARENAS.computeIfAbsent(new ArenaKey(world.getUID(), pluginID),
+				key -> new OffHeapBlockStorage<>(world, codec));
+	}
+
+	/**
+	 * Drops all storages and their records. Should only be used once all chunk data has been written when disabling
+	 * CivModCore
+	 */
+	public static void clear() {
+		for (OffHeapBlockStorage<?> storage : ARENAS.values()) {
+			storage.clear();
+		}
+		ARENAS.clear();
+	}
+
+	private record ArenaKey(UUID world, short pluginID) {
+	}
+
+}
@@ -0,0 +1,46 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap;
+
+import java.nio.ByteBuffer;
+import org.bukkit.World;
+
+/**
+ * Converts block data with a fixed binary layout to and from its off-heap representation. Implementations should be
+ * stateless, as a single codec instance is shared by every record of a {@link OffHeapBlockStorage}.
+ *
+ * All reads and writes must use the absolute (index based) accessors of the given buffer, staying within
+ * {@code [offset, offset + recordSize())}. The buffer's position and limit must not be modified.
+ *
+ * @param <D> Type of the decoded block data
+ */
+public interface OffHeapBlockCodec<D> {
+
+	/**
+	 * @return Amount of bytes a single encoded record takes up. Must be constant for the lifetime of the codec
+	 */
+	int recordSize();
+
+	/**
+	 * Writes the given data into the buffer
+	 *
+	 * @param data   Data to encode, never null
+	 * @param buffer Buffer to write into
+	 * @param offset Absolute index of the first byte of the record
+	 */
+	void encode(D data, ByteBuffer buffer, int offset);
+
+	/**
+	 * Reads data back out of the buffer. The returned object is a transient copy, changes made to it are not
+	 * reflected in the storage unless it is put back in. Block data objects must be created as not new, so that they
+	 * are not persisted again
+	 *
+	 * @param world  World the block is in
+	 * @param x      X-coordinate of the block
+	 * @param y      Y-coordinate of the block
+	 * @param z      Z-coordinate of the block
+	 * @param buffer Buffer to read from
+	 * @param offset Absolute index of the first byte of the record
+	 * @return Decoded data, may not be null
+	 */
+	D decode(World world, int x, int y, int z, ByteBuffer buffer, int offset);
+
+}
@@ -0,0 +1,241 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.bukkit.World;
+import vg.civcraft.mc.civmodcore.world.locations.PackedPosition;
+
+/**
+ * Stores fixed layout block data outside of the java heap. Used by {@link vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta}
+ * for plugins whose storage engine implements {@link OffHeapStorageEngine} and keeps all of its block data loaded
+ * permanently (see {@link vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.StorageEngine#stayLoaded()}),
+ * where keeping millions of long living {@link vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockDataObject}
+ * instances around makes every old generation collection scan all of them.
+ *
+ * Records are written into direct buffers which are allocated in pages of {@link #PAGE_RECORD_COUNT} records by
+ * default. The only on-heap structures are a primitive map from block coordinates, packed as described in
+ * {@link PackedPosition}, to record slots and a free list of slots, neither of which contain object references the
+ * garbage collector has to follow.
+ *
+ * Data is only decoded on access, so objects returned by {@link #get(int, int, int)} are short lived copies.
+ *
+ * A storage is usually shared by all chunks of one plugin in one world, see {@link OffHeapBlockArenas}, which are
+ * loaded and saved from several threads. Every operation therefore locks the storage, visitors must not block
+ *
+ * @param <D> Type of the data stored
+ */
+public class OffHeapBlockStorage<D> {
+
+	public static final int PAGE_RECORD_COUNT = 4096;
+
+	private static final int NO_SLOT = -1;
+
+	private final World world;
+	private final OffHeapBlockCodec<D> codec;
+	private final int recordSize;
+	private final int pageRecordCount;
+	private final int pageShift;
+	private final List<ByteBuffer> pages;
+	private final Long2IntOpenHashMap slots;
+	private final IntArrayList freeSlots;
+	private int nextSlot;
+
+	public OffHeapBlockStorage(World world, OffHeapBlockCodec<D> codec) {
+		this(world, codec, PAGE_RECORD_COUNT);
+	}
+
+	/**
+	 * @param world           World this storage holds data for
+	 * @param codec           Codec to encode and decode records with
+	 * @param pageRecordCount Amount of records per page, must be a power of two. Storages only holding a few records,
+	 *                        like those of a single chunk, should use small pages
+	 */
+	public OffHeapBlockStorage(World world, OffHeapBlockCodec<D> codec, int pageRecordCount) {
+		if (world == null) {
+			throw new IllegalArgumentException("World may not be null");
+		}
+		if (codec == null) {
+			throw new IllegalArgumentException("Codec may not be null");
+		}
+		if (codec.recordSize() <= 0) {
+			throw new IllegalArgumentException("Record size must be positive, was " + codec.recordSize());
+		}
+		if (pageRecordCount <= 0 || Integer.bitCount(pageRecordCount) != 1) {
+			throw new IllegalArgumentException("Page record count must be a power of two, was " + pageRecordCount);
+		}
+		this.world = world;
+		this.codec = codec;
+		this.recordSize = codec.recordSize();
+		this.pageRecordCount = pageRecordCount;
+		this.pageShift = Integer.numberOfTrailingZeros(pageRecordCount);
+		this.pages = new ArrayList<>();
+		this.slots = new Long2IntOpenHashMap();
+		this.slots.defaultReturnValue(NO_SLOT);
+		this.freeSlots = new IntArrayList();
+	}
+
+	/**
+	 * @return World this storage holds data for
+	 */
+	public World getWorld() {
+		return world;
+	}
+
+	/**
+	 * Inserts data at the given block, overwriting any existing record
+	 *
+	 * @param x    X-coordinate of the block
+	 * @param y    Y-coordinate of the block
+	 * @param z    Z-coordinate of the block
+	 * @param data Data to insert, not null
+	 */
+	public synchronized void put(int x, int y, int z, D data) {
+		if (data == null) {
+			throw new IllegalArgumentException("Data may not be null");
+		}
+		long key = PackedPosition.block(x, y, z);
+		int slot = slots.get(key);
+		if (slot == NO_SLOT) {
+			slot = allocateSlot();
+			slots.put(key, slot);
+		}
+		codec.encode(data, pageOf(slot), offsetOf(slot));
+	}
+
+	/**
+	 * Decodes the data at the given block
+	 *
+	 * @param x X-coordinate of the block
+	 * @param y Y-coordinate of the block
+	 * @param z Z-coordinate of the block
+	 * @return Decoded copy of the data or null if none exists at the given block
+	 */
+	public synchronized D get(int x, int y, int z) {
+		int slot = slots.get(PackedPosition.block(x, y, z));
+		if (slot == NO_SLOT) {
+			return null;
+		}
+		return codec.decode(world, x, y, z, pageOf(slot), offsetOf(slot));
+	}
+
+	/**
+	 * @param x X-coordinate of the block
+	 * @param y Y-coordinate of the block
+	 * @param z Z-coordinate of the block
+	 * @return True if data exists at the given block
+	 */
+	public synchronized boolean contains(int x, int y, int z) {
+		return slots.containsKey(PackedPosition.block(x, y, z));
+	}
+
+	/**
+	 * Removes the data at the given block if any exists. The freed record is reused by later insertions
+	 *
+	 * @param x X-coordinate of the block
+	 * @param y Y-coordinate of the block
+	 * @param z Z-coordinate of the block
+	 * @return True if data was removed
+	 */
+	public synchronized boolean remove(int x, int y, int z) {
+		int slot = slots.remove(PackedPosition.block(x, y, z));
+		if (slot == NO_SLOT) {
+			return false;
+		}
+		freeSlots.add(slot);
+		return true;
+	}
+
+	/**
+	 * @return Amount of records currently held
+	 */
+	public synchronized int size() {
+		return slots.size();
+	}
+
+	/**
+	 * @return Amount of off-heap memory currently reserved by this instance in bytes
+	 */
+	public synchronized long getReservedBytes() {
+		return (long) pages.size() * pageRecordCount * recordSize;
+	}
+
+	/**
+	 * Visits every record without decoding it. The buffer handed to the visitor must not be retained
+	 *
+	 * @param visitor Visitor to apply to each record
+	 */
+	public synchronized void forEachRaw(RecordVisitor visitor) {
+		ObjectIterator<Long2IntMap.Entry> iter = slots.long2IntEntrySet().fastIterator();
+		while (iter.hasNext()) {
+			Long2IntMap.Entry entry = iter.next();
+			long key = entry.getLongKey();
+			int slot = entry.getIntValue();
+			visitor.visit(PackedPosition.blockX(key), PackedPosition.blockY(key), PackedPosition.blockZ(key), pageOf(slot), offsetOf(slot));
+		}
+	}
+
+	/**
+	 * Decodes every record and passes it to the given consumer
+	 *
+	 * @param consumer Consumer to apply to each decoded record
+	 */
+	public synchronized void forEach(Consumer<D> consumer) {
+		forEachRaw((x, y, z, buffer, offset) -> consumer.accept(codec.decode(world, x, y, z, buffer, offset)));
+	}
+
+	/**
+	 * Drops all records and releases the off-heap pages. The memory behind direct buffers is freed once they are
+	 * garbage collected
+	 */
+	public synchronized void clear() {
+		slots.clear();
+		slots.trim();
+		freeSlots.clear();
+		freeSlots.trim();
+		pages.clear();
+		nextSlot = 0;
+	}
+
+	private int allocateSlot() {
+		if (!freeSlots.isEmpty()) {
+			return freeSlots.popInt();
+		}
+		int slot = nextSlot++;
+		if ((slot >>> pageShift) >= pages.size()) {
+			pages.add(ByteBuffer.allocateDirect(pageRecordCount * recordSize));
+		}
+		return slot;
+	}
+
+	private ByteBuffer pageOf(int slot) {
+		return pages.get(slot >>> pageShift);
+	}
+
+	private int offsetOf(int slot) {
+		return (slot & (pageRecordCount - 1)) * recordSize;
+	}
+
+	/**
+	 * Allocation free visitor over raw records
+	 */
+	@FunctionalInterface
+	public interface RecordVisitor {
+
+		/**
+		 * @param x      X-coordinate of the block
+		 * @param y      Y-coordinate of the block
+		 * @param z      Z-coordinate of the block
+		 * @param buffer Page the record is in
+		 * @param offset Absolute index of the first byte of the record
+		 */
+		void visit(int x, int y, int z, ByteBuffer buffer, int offset);
+
+	}
+
+}
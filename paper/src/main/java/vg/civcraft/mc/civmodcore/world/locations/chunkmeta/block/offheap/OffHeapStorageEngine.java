@@ -0,0 +1,25 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap;
+
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedStorageEngine;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockDataObject;
+
+/**
+ * Storage engine whose data has a fixed binary layout and may be kept outside of the java heap. If the engine also
+ * keeps its data loaded permanently, block based chunk metas hold all data which has been persisted as off-heap
+ * records and only keep data on the heap which has been accessed since the chunk was last saved.
+ *
+ * Data read from off-heap records is handed out as decoded copies, which are moved back into the chunk meta once they
+ * are modified, so changes are saved like for any other data. Only one copy of a block may be modified until the next
+ * save, modifying another one, like one retrieved before the first was modified, throws an
+ * {@link IllegalStateException}. Plugins should retrieve data again when they need it instead of holding on to it.
+ *
+ * @param <D> Type of the data stored
+ */
+public interface OffHeapStorageEngine<D extends BlockDataObject<D>> extends BlockBasedStorageEngine<D> {
+
+	/**
+	 * @return Codec to convert data of this engine to and from off-heap records, must always return the same codec
+	 */
+	OffHeapBlockCodec<D> getOffHeapCodec();
+
+}
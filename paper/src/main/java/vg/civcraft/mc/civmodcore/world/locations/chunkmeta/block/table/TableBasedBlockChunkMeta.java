@@ -3,6 +3,7 @@ package vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.table;
 import java.util.ArrayList;
 import java.util.List;
 import org.bukkit.Location;
+import vg.civcraft.mc.civmodcore.dao.TransactionScope;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.CacheState;
 import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
 
@@ -52,7 +53,10 @@ public abstract class TableBasedBlockChunkMeta<D extends TableBasedDataObject>
 
 	@Override
 	public void insert() {
-		for (D data : modifiedEntries) {
+		List<D> written = new ArrayList<>(modifiedEntries);
+		List<CacheState> previousStates = new ArrayList<>(written.size());
+		for (D data : written) {
+			previousStates.add(data.getCacheState());
 			switch (data.getCacheState()) {
 			case NORMAL:
 				continue;
@@ -68,6 +72,12 @@ public abstract class TableBasedBlockChunkMeta<D extends TableBasedDataObject>
 			data.setCacheState(CacheState.NORMAL);
 		}
 		modifiedEntries.clear();
+		TransactionScope.onRollback(() -> {
+			for (int i = 0; i < written.size(); i++) {
+				written.get(i).setCacheState(previousStates.get(i));
+			}
+			modifiedEntries.addAll(written);
+		});
 	}
 
 	@SuppressWarnings("unchecked")
@@ -2,55 +2,61 @@ package vg.civcraft.mc.civmodcore.world.locations.global;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import org.bukkit.World;
 import org.bukkit.plugin.java.JavaPlugin;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
 import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
+import vg.civcraft.mc.civmodcore.dao.PreparedQuery;
+import vg.civcraft.mc.civmodcore.dao.PreparedUpdate;
+import vg.civcraft.mc.civmodcore.dao.SqlConsumer;
 
 public class CMCWorldDAO {
 
+	// id = last_insert_id(id) makes last_insert_id() return the existing id if the row already exists
+	private static final PreparedUpdate UPSERT_PLUGIN = PreparedUpdate.of(
+			"insert into cmc_plugins (name) values(?) on duplicate key update id = last_insert_id(id);");
+	private static final PreparedUpdate UPSERT_WORLD = PreparedUpdate.of(
+			"insert into cmc_worlds (uuid, name) values(?,?) on duplicate key update id = last_insert_id(id);");
+	private static final PreparedQuery<Short> GET_LAST_INSERT_ID = PreparedQuery.of(
+			"select last_insert_id();", rs -> rs.getShort(1));
+	private static final PreparedQuery<KnownID> GET_ALL_IDS = PreparedQuery.of(
+			"select 0, id, name from cmc_plugins union all select 1, id, uuid from cmc_worlds;",
+			rs -> new KnownID(rs.getInt(1) == 1, rs.getShort(2), rs.getString(3)));
+	private static final PreparedQuery<Long> GET_SNAPSHOT_STAMP = PreparedQuery.of(
+			"select stamp from cmc_meta_snapshot where id = 1;", rs -> rs.getLong(1));
+	private static final PreparedUpdate CLEAR_SNAPSHOT_STAMP = PreparedUpdate.of(
+			"update cmc_meta_snapshot set stamp = 0 where id = 1 and stamp = ?;");
+	private static final PreparedUpdate SET_SNAPSHOT_STAMP = PreparedUpdate.of(
+			"insert into cmc_meta_snapshot (id, stamp) values (1, ?) on duplicate key update stamp = values(stamp);");
+
 	private ManagedDatasource db;
 	private Logger logger;
+	private final Map<String, Short> pluginIDs;
+	private final Map<UUID, Short> worldIDs;
 
 	public CMCWorldDAO(ManagedDatasource db, CivModCorePlugin plugin) {
 		this.db = db;
 		this.logger = plugin.getLogger();
+		this.pluginIDs = new ConcurrentHashMap<>();
+		this.worldIDs = new ConcurrentHashMap<>();
 	}
 
 	public short getOrCreatePluginID(String identifier) {
-		try (Connection insertConn = db.getConnection();
-				PreparedStatement insertPlugin = insertConn
-						.prepareStatement("select id from cmc_plugins where name = ?;")) {
-			insertPlugin.setString(1, identifier);
-			try (ResultSet rs = insertPlugin.executeQuery()) {
-				if (rs.next()) {
-					return rs.getShort(1);
-				}
-			}
-		} catch (SQLException e) {
-			logger.severe("Failed to check for existence of plugin in db: " + e.toString());
-			return -1;
+		Short cached = pluginIDs.get(identifier);
+		if (cached != null) {
+			return cached;
 		}
-		try (Connection insertConn = db.getConnection();
-				PreparedStatement insertPlugin = insertConn.prepareStatement(
-						"insert into cmc_plugins (name) values(?);", Statement.RETURN_GENERATED_KEYS);) {
-			insertPlugin.setString(1, identifier);
-			insertPlugin.execute();
-			try (ResultSet rs = insertPlugin.getGeneratedKeys()) {
-				if (!rs.next()) {
-					logger.info("Failed to insert plugin");
-					return -1;
-				}
-				return rs.getShort(1);
-			}
-		} catch (SQLException e) {
-			logger.severe("Failed to insert plugin into db: " + e.toString());
-			return -1;
+		short id = upsertID(UPSERT_PLUGIN, ps -> ps.setString(1, identifier), "plugin " + identifier);
+		if (id != -1) {
+			pluginIDs.put(identifier, id);
 		}
+		return id;
 	}
 
 	public short getOrCreatePluginID(JavaPlugin plugin) {
@@ -58,35 +64,94 @@ public class CMCWorldDAO {
 	}
 
 	short getOrCreateWorldID(World world) {
-		try (Connection insertConn = db.getConnection();
-				PreparedStatement insertWorld = insertConn
-						.prepareStatement("select id from cmc_worlds where uuid = ?;")) {
-			insertWorld.setString(1, world.getUID().toString());
-			try (ResultSet rs = insertWorld.executeQuery()) {
-				if (rs.next()) {
-					return rs.getShort(1);
-				}
+		UUID uuid = world.getUID();
+		Short cached = worldIDs.get(uuid);
+		if (cached != null) {
+			return cached;
+		}
+		short id = upsertID(UPSERT_WORLD, ps -> {
+			ps.setString(1, uuid.toString());
+			ps.setString(2, world.getName());
+		}, "world " + world.getName());
+		if (id != -1) {
+			worldIDs.put(uuid, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Inserts a row unless it already exists and retrieves its id in either case, using a single connection so no
+	 * concurrent allocation can interfere
+	 *
+	 * @return Id of the row or -1 if it could not be allocated
+	 */
+	private short upsertID(PreparedUpdate upsert, SqlConsumer<PreparedStatement> binder, String description) {
+		try (Connection conn = db.getConnection()) {
+			upsert.execute(conn, binder);
+			Short id = GET_LAST_INSERT_ID.first(conn, ps -> {});
+			if (id == null || id == 0) {
+				logger.severe("Failed to allocate id for " + description);
+				return -1;
 			}
+			return id;
 		} catch (SQLException e) {
-			logger.severe("Failed to check for existence of world in db: " + e.toString());
+			logger.severe("Failed to allocate id for " + description + ": " + e.toString());
 			return -1;
 		}
-		try (Connection insertConn = db.getConnection();
-				PreparedStatement insertWorld = insertConn.prepareStatement(
-						"insert into cmc_worlds (uuid, name) values(?,?);", Statement.RETURN_GENERATED_KEYS);) {
-			insertWorld.setString(1, world.getUID().toString());
-			insertWorld.setString(2, world.getName());
-			insertWorld.execute();
-			try (ResultSet rs = insertWorld.getGeneratedKeys()) {
-				if (!rs.next()) {
-					logger.info("Failed to insert world");
-					return -1;
+	}
+
+	/**
+	 * Loads all known plugin and world ids in one go, so resolving them later on does not need the database
+	 *
+	 * @return True if the ids were loaded
+	 */
+	private boolean loadIDs() {
+		try {
+			for (KnownID known : GET_ALL_IDS.list(db)) {
+				if (known.world()) {
+					worldIDs.put(UUID.fromString(known.key()), known.id());
+				} else {
+					pluginIDs.put(known.key(), known.id());
 				}
-				return rs.getShort(1);
 			}
+			return true;
 		} catch (SQLException e) {
-			logger.severe("Failed to insert world into db: " + e.toString());
-			return -1;
+			logger.severe("Failed to load plugin and world ids: " + e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Reads and clears the stamp of the last chunk meta snapshot written, so the snapshot can only be used by the first
+	 * startup after it was written
+	 *
+	 * @return Stamp of the last snapshot or 0 if none is valid
+	 */
+	public long consumeSnapshotStamp() {
+		try (Connection conn = db.getConnection()) {
+			Long stamp = GET_SNAPSHOT_STAMP.first(conn, ps -> {});
+			if (stamp == null || stamp == 0) {
+				return 0;
+			}
+			// if another server consumed it in between, the snapshot is no longer ours to use
+			return CLEAR_SNAPSHOT_STAMP.execute(conn, ps -> ps.setLong(1, stamp)) == 1 ? stamp : 0;
+		} catch (SQLException e) {
+			logger.severe("Failed to read chunk meta snapshot stamp: " + e.toString());
+			return 0;
+		}
+	}
+
+	/**
+	 * @param stamp Stamp of the chunk meta snapshot just written
+	 * @return True if the stamp was stored
+	 */
+	public boolean setSnapshotStamp(long stamp) {
+		try {
+			SET_SNAPSHOT_STAMP.execute(db, ps -> ps.setLong(1, stamp));
+			return true;
+		} catch (SQLException e) {
+			logger.severe("Failed to store chunk meta snapshot stamp: " + e.toString());
+			return false;
 		}
 	}
 
@@ -107,11 +172,28 @@ public class CMCWorldDAO {
 						"add column y smallint not null," +
 						"add column z_offset tinyint unsigned not null," +
 						"add primary key(world_id, chunk_x, chunk_z, plugin_id, x_offset, y, z_offset)");
+		db.registerMigration(3, false,
+				"create table if not exists cmc_meta_snapshot (id tinyint unsigned not null primary key, stamp bigint not null);");
+		// lets a plugin preload only the chunks it has data in, without scanning the data of every plugin
+		db.registerMigration(4, false,
+				"create index cmc_chunk_plugin on cmc_chunk_data (plugin_id, world_id, chunk_x, chunk_z);");
+	}
+
+	/**
+	 * @return All statements used by this DAO, for checking their query plans. Loading all ids reads both tables in
+	 *         full on purpose, so it is left out rather than always being reported as a full table scan
+	 */
+	public List<String> getQueries() {
+		return List.of(UPSERT_PLUGIN.getSql(), UPSERT_WORLD.getSql(), GET_LAST_INSERT_ID.getSql(),
+				GET_SNAPSHOT_STAMP.getSql(), CLEAR_SNAPSHOT_STAMP.getSql(), SET_SNAPSHOT_STAMP.getSql());
 	}
 
 	public boolean updateDatabase() {
 		registerMigrations();
-		return db.updateDatabase();
+		return db.updateDatabase() && loadIDs();
+	}
+
+	private record KnownID(boolean world, short id, String key) {
 	}
 
 }
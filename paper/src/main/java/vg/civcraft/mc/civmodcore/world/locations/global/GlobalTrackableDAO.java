@@ -1,10 +1,15 @@
 package vg.civcraft.mc.civmodcore.world.locations.global;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Logger;
 import org.bukkit.Location;
 import vg.civcraft.mc.civmodcore.CivModCorePlugin;
 import vg.civcraft.mc.civmodcore.dao.ManagedDatasource;
+import vg.civcraft.mc.civmodcore.dao.SqlFunction;
 
 public abstract class GlobalTrackableDAO<T extends LocationTrackable> {
 	
@@ -35,4 +40,20 @@ public abstract class GlobalTrackableDAO<T extends LocationTrackable> {
 	
 	public abstract void loadAll(Consumer<T> insertFunction);
 
+	/**
+	 * Helper for implementing {@link #loadAll(Consumer)} on large tables. Rows are streamed from the database instead
+	 * of being buffered all at once and decoded in parallel, while insertFunction is still called on the calling
+	 * thread in the order of the result
+	 *
+	 * @param sql Query selecting all tracked objects
+	 * @param reader Reads the raw values of the current row
+	 * @param decoder Turns the raw values into a tracked object, may return null to skip the row
+	 * @param insertFunction Receives every decoded object
+	 * @throws SQLException If the query failed
+	 */
+	protected <R> void loadAllStreamed(String sql, SqlFunction<ResultSet, R> reader, Function<R, T> decoder,
+			Consumer<T> insertFunction) throws SQLException {
+		db.streamDecoded(sql, ps -> {}, reader, decoder, ForkJoinPool.commonPool(), insertFunction);
+	}
+
 }
@@ -1,24 +1,35 @@
 package vg.civcraft.mc.civmodcore.world.locations.global;
 
-import it.unimi.dsi.fastutil.objects.Object2ShortAVLTreeMap;
 import it.unimi.dsi.fastutil.objects.Object2ShortMap;
-import it.unimi.dsi.fastutil.shorts.Short2ObjectAVLTreeMap;
-import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ShortOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ShortMap;
+import it.unimi.dsi.fastutil.objects.Reference2ShortOpenHashMap;
+import java.util.Arrays;
 import java.util.UUID;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 
+/**
+ * Maps worlds to the short ids used to refer to them in the database. Lookups happen on every chunk meta access from
+ * any thread, so they are lock free: the maps are never modified, but replaced with modified copies whenever a world
+ * is registered, which only happens a handful of times per server run.
+ */
 public class WorldIDManager {
 
 	private final CMCWorldDAO dao;
-	private final Object2ShortMap<UUID> uuidToInternalID;
-	private final Short2ObjectMap<UUID> internalIDToUuid;
-	
+	// looked up by identity, which skips hashing and comparing UUIDs on the hot path
+	private volatile Reference2ShortMap<World> worldToInternalID;
+	private volatile Object2ShortMap<UUID> uuidToInternalID;
+	// indexed by the unsigned internal id
+	private volatile UUID[] internalIDToUuid;
+
 	public WorldIDManager(CMCWorldDAO dao) {
 		this.dao = dao;
-		this.uuidToInternalID = new Object2ShortAVLTreeMap<>();
+		this.worldToInternalID = new Reference2ShortOpenHashMap<>();
+		this.worldToInternalID.defaultReturnValue((short) -1);
+		this.uuidToInternalID = new Object2ShortOpenHashMap<>();
 		this.uuidToInternalID.defaultReturnValue((short) -1);
-		this.internalIDToUuid = new Short2ObjectAVLTreeMap<>();
+		this.internalIDToUuid = new UUID[0];
 		if (!setup()) {
 			throw new IllegalStateException("Failed to initialize CMC world tracking");
 		}
@@ -41,36 +52,61 @@ public class WorldIDManager {
 
 	/**
 	 * Registers a world for internal use.
-	 * 
+	 *
 	 * @param world World to prepare data structures for.
 	 * @return Returns whether the registration was successful or not.
 	 */
-	public boolean registerWorld(final World world) {
-		if (this.uuidToInternalID.containsKey(world.getUID())) {
+	public synchronized boolean registerWorld(final World world) {
+		if (this.worldToInternalID.containsKey(world)) {
 			return true;
 		}
-		final short id = this.dao.getOrCreateWorldID(world);
+		short id = this.uuidToInternalID.getShort(world.getUID());
 		if (id == -1) {
-			// very bad
-			return false;
+			id = this.dao.getOrCreateWorldID(world);
+			if (id == -1) {
+				// very bad
+				return false;
+			}
+			final var uuids = new Object2ShortOpenHashMap<>(this.uuidToInternalID);
+			uuids.put(world.getUID(), id);
+			this.uuidToInternalID = uuids;
+			final int index = Short.toUnsignedInt(id);
+			UUID[] byID = this.internalIDToUuid;
+			if (index >= byID.length) {
+				byID = Arrays.copyOf(byID, index + 1);
+			}
+			else {
+				byID = byID.clone();
+			}
+			byID[index] = world.getUID();
+			this.internalIDToUuid = byID;
 		}
-		this.uuidToInternalID.put(world.getUID(), id);
-		this.internalIDToUuid.put(id, world.getUID());
+		final var worlds = new Reference2ShortOpenHashMap<World>(this.worldToInternalID.size() + 1);
+		worlds.defaultReturnValue((short) -1);
+		// a reloaded world is a new object, so drop the old one rather than keeping it alive
+		for (final Reference2ShortMap.Entry<World> entry : this.worldToInternalID.reference2ShortEntrySet()) {
+			if (entry.getShortValue() != id) {
+				worlds.put(entry.getKey(), entry.getShortValue());
+			}
+		}
+		worlds.put(world, id);
+		this.worldToInternalID = worlds;
 		return true;
 	}
 
 	/**
 	 * Gets the world object mapped to an internal id.
-	 * 
+	 *
 	 * @param id ID to get world for.
 	 * @return World if a matching one for the given id exists and the world is loaded currently.
 	 */
 	public World getWorldByInternalID(final short id) {
-		final UUID uuid = this.internalIDToUuid.get(id);
-		if (uuid == null) {
+		final UUID[] byID = this.internalIDToUuid;
+		final int index = Short.toUnsignedInt(id);
+		if (index >= byID.length || byID[index] == null) {
 			return null;
 		}
-		return Bukkit.getWorld(uuid);
+		return Bukkit.getWorld(byID[index]);
 	}
 
 	/**
@@ -85,12 +121,16 @@ public class WorldIDManager {
 
 	/**
 	 * Retrieves the internal id used for a world.
-	 * 
+	 *
 	 * @param world World to get ID for.
 	 * @return Id of the world or -1 if no such world is known.
 	 */
 	public short getInternalWorldId(World world) {
-		return world == null ? - 1: getInternalWorldId(world.getUID());
+		if (world == null) {
+			return -1;
+		}
+		final short id = this.worldToInternalID.getShort(world);
+		return id != -1 ? id : getInternalWorldId(world.getUID());
 	}
 
 }
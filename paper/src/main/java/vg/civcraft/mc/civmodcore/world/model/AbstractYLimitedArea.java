@@ -18,7 +18,15 @@ public abstract class AbstractYLimitedArea implements IArea {
 
 	@Override
 	public boolean isInArea(Location loc) {
-		return loc.getY() <= upperYBound && loc.getY() >= lowerYBound;
+		return isInYBounds(loc.getY());
+	}
+
+	/**
+	 * @param y Y-level to check
+	 * @return True if the given y-level is within the bounds of this area, not taking any other dimension into account
+	 */
+	protected boolean isInYBounds(double y) {
+		return y <= upperYBound && y >= lowerYBound;
 	}
 
 	/**
@@ -0,0 +1,335 @@
+package vg.civcraft.mc.civmodcore.world.model;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+/**
+ * Answers which of many areas contain a point. Areas are sorted into a grid of square cells per world, so a lookup
+ * only tests the exact shape of the areas overlapping the cell of the point, instead of every area.
+ *
+ * Areas with an infinite amount of chunks, or too many to be worth spreading over cells, are tested on every lookup
+ * in their world. Lookups may happen from any thread and do not allocate, adding and removing areas copies the grid
+ * of the world, so adding many areas at once should be done through {@link #addAll(Collection)}.
+ */
+public class AreaIndex {
+
+	/**
+	 * Cells are 2^CELL_SHIFT blocks wide, 8 chunks.
+	 */
+	private static final int CELL_SHIFT = 7;
+
+	private static final int MAX_CELLS_PER_AREA = 4096;
+
+	private static final IArea[] NO_AREAS = new IArea[0];
+
+	private final Map<UUID, WorldAreas> worlds = new ConcurrentHashMap<>();
+
+	// which cells each area was sorted into, only accessed while synchronized
+	private final Map<IArea, long[]> cellsByArea = new HashMap<>();
+
+	/**
+	 * Adds an area to the index. Adding an area which is already in the index has no effect
+	 *
+	 * @param area
+	 *            Area to add
+	 */
+	public synchronized void add(IArea area) {
+		addAll(List.of(area));
+	}
+
+	/**
+	 * Adds several areas to the index at once, copying the grid of each affected world only once
+	 *
+	 * @param areas
+	 *            Areas to add
+	 */
+	public synchronized void addAll(Collection<? extends IArea> areas) {
+		Map<UUID, WorldAreas.Builder> builders = new HashMap<>();
+		for (IArea area : areas) {
+			if (area == null) {
+				throw new IllegalArgumentException("Area may not be null");
+			}
+			if (cellsByArea.containsKey(area)) {
+				continue;
+			}
+			long[] cells = cellsOf(area);
+			cellsByArea.put(area, cells);
+			builders.computeIfAbsent(area.getWorld().getUID(), this::builder).add(area, cells);
+		}
+		builders.forEach((world, builder) -> worlds.put(world, builder.build()));
+	}
+
+	/**
+	 * Removes an area from the index
+	 *
+	 * @param area
+	 *            Area to remove
+	 * @return True if the area was in the index, false if not
+	 */
+	public synchronized boolean remove(IArea area) {
+		long[] cells = cellsByArea.remove(area);
+		if (cells == null) {
+			return false;
+		}
+		UUID world = area.getWorld().getUID();
+		WorldAreas.Builder builder = builder(world);
+		builder.remove(area, cells);
+		WorldAreas updated = builder.build();
+		if (updated.isEmpty()) {
+			worlds.remove(world);
+		} else {
+			worlds.put(world, updated);
+		}
+		return true;
+	}
+
+	/**
+	 * @return How many areas are in the index
+	 */
+	public synchronized int size() {
+		return cellsByArea.size();
+	}
+
+	/**
+	 * Passes every area containing the given location to the given consumer
+	 *
+	 * @param location
+	 *            Location to look up
+	 * @param consumer
+	 *            Receives the areas containing the location
+	 */
+	public void forEach(Location location, Consumer<? super IArea> consumer) {
+		WorldAreas areas = worlds.get(location.getWorld().getUID());
+		if (areas == null) {
+			return;
+		}
+		for (IArea area : areas.candidates(location.getBlockX(), location.getBlockZ())) {
+			if (area.isInArea(location)) {
+				consumer.accept(area);
+			}
+		}
+		for (IArea area : areas.everywhere) {
+			if (area.isInArea(location)) {
+				consumer.accept(area);
+			}
+		}
+	}
+
+	/**
+	 * Passes every area containing the given block coordinates to the given consumer
+	 *
+	 * @param world
+	 *            World the coordinates are in
+	 * @param x
+	 *            X coordinate to look up
+	 * @param y
+	 *            Y coordinate to look up
+	 * @param z
+	 *            Z coordinate to look up
+	 * @param consumer
+	 *            Receives the areas containing the coordinates
+	 */
+	public void forEach(World world, int x, int y, int z, Consumer<? super IArea> consumer) {
+		WorldAreas areas = worlds.get(world.getUID());
+		if (areas == null) {
+			return;
+		}
+		for (IArea area : areas.candidates(x, z)) {
+			if (area.isInArea(x, y, z)) {
+				consumer.accept(area);
+			}
+		}
+		for (IArea area : areas.everywhere) {
+			if (area.isInArea(x, y, z)) {
+				consumer.accept(area);
+			}
+		}
+	}
+
+	/**
+	 * @param location
+	 *            Location to look up
+	 * @return Any area containing the given location or null if there is none
+	 */
+	public IArea findAny(Location location) {
+		WorldAreas areas = worlds.get(location.getWorld().getUID());
+		if (areas == null) {
+			return null;
+		}
+		for (IArea area : areas.candidates(location.getBlockX(), location.getBlockZ())) {
+			if (area.isInArea(location)) {
+				return area;
+			}
+		}
+		for (IArea area : areas.everywhere) {
+			if (area.isInArea(location)) {
+				return area;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param world
+	 *            World the coordinates are in
+	 * @param x
+	 *            X coordinate to look up
+	 * @param y
+	 *            Y coordinate to look up
+	 * @param z
+	 *            Z coordinate to look up
+	 * @return Any area containing the given block coordinates or null if there is none
+	 */
+	public IArea findAny(World world, int x, int y, int z) {
+		WorldAreas areas = worlds.get(world.getUID());
+		if (areas == null) {
+			return null;
+		}
+		for (IArea area : areas.candidates(x, z)) {
+			if (area.isInArea(x, y, z)) {
+				return area;
+			}
+		}
+		for (IArea area : areas.everywhere) {
+			if (area.isInArea(x, y, z)) {
+				return area;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param location
+	 *            Location to look up
+	 * @return All areas containing the given location
+	 */
+	public List<IArea> getAreas(Location location) {
+		List<IArea> result = new ArrayList<>();
+		forEach(location, result::add);
+		return result;
+	}
+
+	private WorldAreas.Builder builder(UUID world) {
+		return new WorldAreas.Builder(worlds.getOrDefault(world, WorldAreas.EMPTY));
+	}
+
+	/**
+	 * @return The keys of the cells the given area overlaps, or null if it is to be tested everywhere in its world
+	 */
+	private static long[] cellsOf(IArea area) {
+		PrimitiveIterator.OfLong chunks = area.getChunkKeys();
+		if (chunks == null) {
+			return null;
+		}
+		LongOpenHashSet cells = new LongOpenHashSet();
+		while (chunks.hasNext()) {
+			long chunk = chunks.nextLong();
+			cells.add(Chunk.getChunkKey(ChunkKeyIterator.getX(chunk) >> (CELL_SHIFT - 4),
+					ChunkKeyIterator.getZ(chunk) >> (CELL_SHIFT - 4)));
+			if (cells.size() > MAX_CELLS_PER_AREA) {
+				return null;
+			}
+		}
+		return cells.toLongArray();
+	}
+
+	/**
+	 * Immutable snapshot of the areas of one world, replaced as a whole whenever its areas change.
+	 */
+	private static final class WorldAreas {
+
+		private static final WorldAreas EMPTY = new WorldAreas(new Long2ObjectOpenHashMap<>(), NO_AREAS);
+
+		private final Long2ObjectOpenHashMap<IArea[]> cells;
+		private final IArea[] everywhere;
+
+		private WorldAreas(Long2ObjectOpenHashMap<IArea[]> cells, IArea[] everywhere) {
+			this.cells = cells;
+			this.everywhere = everywhere;
+		}
+
+		IArea[] candidates(int blockX, int blockZ) {
+			IArea[] areas = cells.get(Chunk.getChunkKey(blockX >> CELL_SHIFT, blockZ >> CELL_SHIFT));
+			return areas == null ? NO_AREAS : areas;
+		}
+
+		boolean isEmpty() {
+			return cells.isEmpty() && everywhere.length == 0;
+		}
+
+		private static final class Builder {
+
+			private final Long2ObjectOpenHashMap<IArea[]> cells;
+			private IArea[] everywhere;
+
+			Builder(WorldAreas base) {
+				this.cells = new Long2ObjectOpenHashMap<>(base.cells);
+				this.everywhere = base.everywhere;
+			}
+
+			void add(IArea area, long[] areaCells) {
+				if (areaCells == null) {
+					everywhere = append(everywhere, area);
+					return;
+				}
+				for (long cell : areaCells) {
+					cells.put(cell, append(cells.getOrDefault(cell, NO_AREAS), area));
+				}
+			}
+
+			void remove(IArea area, long[] areaCells) {
+				if (areaCells == null) {
+					everywhere = without(everywhere, area);
+					return;
+				}
+				for (long cell : areaCells) {
+					IArea[] remaining = without(cells.getOrDefault(cell, NO_AREAS), area);
+					if (remaining.length == 0) {
+						cells.remove(cell);
+					} else {
+						cells.put(cell, remaining);
+					}
+				}
+			}
+
+			WorldAreas build() {
+				cells.trim();
+				return new WorldAreas(cells, everywhere);
+			}
+
+			private static IArea[] append(IArea[] areas, IArea area) {
+				IArea[] result = Arrays.copyOf(areas, areas.length + 1);
+				result[areas.length] = area;
+				return result;
+			}
+
+			private static IArea[] without(IArea[] areas, IArea area) {
+				for (int i = 0; i < areas.length; i++) {
+					if (areas[i].equals(area)) {
+						IArea[] result = new IArea[areas.length - 1];
+						System.arraycopy(areas, 0, result, 0, i);
+						System.arraycopy(areas, i + 1, result, i, result.length - i);
+						return result;
+					}
+				}
+				return areas;
+			}
+
+		}
+
+	}
+
+}
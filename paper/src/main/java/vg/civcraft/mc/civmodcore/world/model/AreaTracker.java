@@ -0,0 +1,325 @@
+package vg.civcraft.mc.civmodcore.world.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+
+/**
+ * Keeps track of which of its areas each online player is in, calling a {@link PlayerEnterAreaEvent} or
+ * {@link PlayerLeaveAreaEvent} whenever that changes, so plugins do not have to check all of their areas on every move.
+ *
+ * The areas containing a player are only looked up again once the player moves into another block, which for most
+ * moves leaves a comparison of the block coordinates. The lookup itself goes through an {@link AreaIndex}, so it only
+ * tests the areas overlapping the player's surroundings. Blocks, not chunks, are the boundary re-checked at, as areas
+ * neither have to be aligned to chunks nor span all heights.
+ *
+ * Areas of all plugins are tracked together, listeners tell their own areas apart by the area of the event. Adding and
+ * removing areas, as well as anything else changing which areas players are in, has to happen on the main thread.
+ */
+public class AreaTracker implements Listener {
+
+	private static final IArea[] NO_AREAS = new IArea[0];
+
+	private final AreaIndex index = new AreaIndex();
+
+	private final Map<UUID, PlayerAreas> players = new HashMap<>();
+
+	// reused for every look up, only accessed from the main thread
+	private final List<IArea> found = new ArrayList<>();
+	private final Consumer<IArea> collector = found::add;
+
+	/**
+	 * Starts tracking the players which are already online, like after a reload
+	 */
+	public void init() {
+		for (Player player : Bukkit.getOnlinePlayers()) {
+			track(player);
+		}
+	}
+
+	/**
+	 * Adds an area to track, calling enter events for the players already inside it. Adding an area which is already
+	 * tracked has no effect
+	 *
+	 * @param area
+	 *            Area to add
+	 */
+	public void addArea(IArea area) {
+		addAreas(List.of(area));
+	}
+
+	/**
+	 * Adds several areas to track at once, calling enter events for the players already inside them
+	 *
+	 * @param areas
+	 *            Areas to add
+	 */
+	public void addAreas(Collection<? extends IArea> areas) {
+		checkMainThread();
+		index.addAll(areas);
+		refresh();
+	}
+
+	/**
+	 * Stops tracking an area, calling leave events for the players inside it
+	 *
+	 * @param area
+	 *            Area to remove
+	 * @return True if the area was tracked, false if not
+	 */
+	public boolean removeArea(IArea area) {
+		checkMainThread();
+		if (!index.remove(area)) {
+			return false;
+		}
+		refresh();
+		return true;
+	}
+
+	/**
+	 * @return The index of the tracked areas, which may be used to look up areas at any location but must not be
+	 *         modified directly
+	 */
+	public AreaIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @param player
+	 *            Player to get the areas of
+	 * @return The tracked areas the player is in, as of the last block the player moved into
+	 */
+	public List<IArea> getAreas(Player player) {
+		PlayerAreas state = players.get(player.getUniqueId());
+		if (state == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(Arrays.asList(state.areas));
+	}
+
+	/**
+	 * @param player
+	 *            Player to check
+	 * @param area
+	 *            Area to check
+	 * @return True if the player is in the given tracked area, false if not
+	 */
+	public boolean isInArea(Player player, IArea area) {
+		PlayerAreas state = players.get(player.getUniqueId());
+		return state != null && indexOf(state.areas, area) >= 0;
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onJoin(PlayerJoinEvent event) {
+		track(event.getPlayer());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onQuit(PlayerQuitEvent event) {
+		Player player = event.getPlayer();
+		PlayerAreas state = players.remove(player.getUniqueId());
+		if (state == null) {
+			return;
+		}
+		// stops an update the player was kicked during
+		state.generation++;
+		for (IArea area : state.areas) {
+			Bukkit.getPluginManager().callEvent(new PlayerLeaveAreaEvent(player, this, area));
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onMove(PlayerMoveEvent event) {
+		moved(event.getPlayer(), event.getTo());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onTeleport(PlayerTeleportEvent event) {
+		moved(event.getPlayer(), event.getTo());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onRespawn(PlayerRespawnEvent event) {
+		moved(event.getPlayer(), event.getRespawnLocation());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onWorldChange(PlayerChangedWorldEvent event) {
+		moved(event.getPlayer(), event.getPlayer().getLocation());
+	}
+
+	/**
+	 * Players riding a vehicle fire no move events of their own, so they are moved along with it
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onVehicleMove(VehicleMoveEvent event) {
+		movedPassengers(event.getVehicle(), event.getTo());
+	}
+
+	private void movedPassengers(Entity vehicle, Location to) {
+		for (Entity passenger : vehicle.getPassengers()) {
+			if (passenger instanceof Player player) {
+				moved(player, to);
+			}
+			// a player may also ride something which itself rides the vehicle
+			movedPassengers(passenger, to);
+		}
+	}
+
+	private void track(Player player) {
+		PlayerAreas state = new PlayerAreas();
+		players.put(player.getUniqueId(), state);
+		Location location = player.getLocation();
+		update(player, state, location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+	}
+
+	private void moved(Player player, Location to) {
+		PlayerAreas state = players.get(player.getUniqueId());
+		if (state == null || to == null) {
+			return;
+		}
+		int x = to.getBlockX();
+		int y = to.getBlockY();
+		int z = to.getBlockZ();
+		World world = to.getWorld();
+		if (x == state.x && z == state.z && y == state.y && world == state.world) {
+			return;
+		}
+		update(player, state, world, x, y, z);
+	}
+
+	/**
+	 * Looks up every tracked player's areas again, after the tracked areas changed
+	 */
+	private void refresh() {
+		for (Player player : Bukkit.getOnlinePlayers()) {
+			PlayerAreas state = players.get(player.getUniqueId());
+			if (state != null && state.world != null) {
+				update(player, state, state.world, state.x, state.y, state.z);
+			}
+		}
+	}
+
+	private void update(Player player, PlayerAreas state, World world, int x, int y, int z) {
+		state.world = world;
+		state.x = x;
+		state.y = y;
+		state.z = z;
+		found.clear();
+		if (world != null) {
+			index.forEach(world, x, y, z, collector);
+		}
+		IArea[] previous = state.areas;
+		if (found.size() == previous.length && containsAll(previous, found)) {
+			found.clear();
+			return;
+		}
+		IArea[] current = found.toArray(NO_AREAS);
+		found.clear();
+		// A listener may move the player again, which starts a new update from the areas announced so far. So the
+		// areas are changed one event at a time, and this update stops as soon as a newer one has taken over
+		int generation = ++state.generation;
+		for (IArea area : previous) {
+			if (indexOf(current, area) < 0) {
+				state.areas = without(state.areas, area);
+				Bukkit.getPluginManager().callEvent(new PlayerLeaveAreaEvent(player, this, area));
+				if (state.generation != generation) {
+					return;
+				}
+			}
+		}
+		for (IArea area : current) {
+			if (indexOf(previous, area) < 0) {
+				state.areas = with(state.areas, area);
+				Bukkit.getPluginManager().callEvent(new PlayerEnterAreaEvent(player, this, area));
+				if (state.generation != generation) {
+					return;
+				}
+			}
+		}
+		state.areas = current;
+	}
+
+	private static IArea[] without(IArea[] areas, IArea area) {
+		int index = indexOf(areas, area);
+		if (index < 0) {
+			return areas;
+		}
+		IArea[] result = new IArea[areas.length - 1];
+		System.arraycopy(areas, 0, result, 0, index);
+		System.arraycopy(areas, index + 1, result, index, result.length - index);
+		return result;
+	}
+
+	private static IArea[] with(IArea[] areas, IArea area) {
+		IArea[] result = Arrays.copyOf(areas, areas.length + 1);
+		result[areas.length] = area;
+		return result;
+	}
+
+	private static boolean containsAll(IArea[] areas, List<IArea> others) {
+		for (IArea other : others) {
+			if (indexOf(areas, other) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(IArea[] areas, IArea area) {
+		for (int i = 0; i < areas.length; i++) {
+			if (areas[i].equals(area)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static void checkMainThread() {
+		if (!Bukkit.isPrimaryThread()) {
+			throw new IllegalStateException("Tracked areas may only be changed from the main thread");
+		}
+	}
+
+	/**
+	 * The block a player was last seen in and the areas containing it
+	 */
+	private static final class PlayerAreas {
+
+		private World world;
+		private int x;
+		private int y;
+		private int z;
+		/**
+		 * The areas the player has been told about entering and not leaving yet, never modified in place
+		 */
+		private IArea[] areas = NO_AREAS;
+		/**
+		 * Counts the updates of the areas, so an update calling events can tell whether a listener started another
+		 */
+		private int generation;
+
+	}
+
+}
@@ -0,0 +1,129 @@
+package vg.civcraft.mc.civmodcore.world.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+/**
+ * Lazily walks the chunks within a rectangle of chunk coordinates, row by row, and emits the keys of those accepted by
+ * a filter, packed like {@link Chunk#getChunkKey(int, int)}. Nothing is allocated per chunk.
+ */
+final class ChunkKeyIterator implements PrimitiveIterator.OfLong {
+
+	@FunctionalInterface
+	interface ChunkFilter {
+
+		boolean test(int chunkX, int chunkZ);
+
+	}
+
+	private final int minX;
+	private final int maxX;
+	private final int maxZ;
+	private final ChunkFilter filter;
+	private int x;
+	private int z;
+	private boolean hasNext;
+
+	/**
+	 * @param minX Lowest chunk x coordinate (inclusive).
+	 * @param minZ Lowest chunk z coordinate (inclusive).
+	 * @param maxX Highest chunk x coordinate (inclusive).
+	 * @param maxZ Highest chunk z coordinate (inclusive).
+	 * @param filter Decides which chunks of the rectangle to emit.
+	 */
+	ChunkKeyIterator(int minX, int minZ, int maxX, int maxZ, ChunkFilter filter) {
+		this.minX = minX;
+		this.maxX = maxX;
+		this.maxZ = maxZ;
+		this.filter = filter;
+		// start one step before the first chunk, so advancing lands on it
+		this.x = minX - 1;
+		this.z = minZ;
+		this.hasNext = minX <= maxX && minZ <= maxZ && advance();
+	}
+
+	/**
+	 * @param chunkKey A chunk key as emitted by this iterator.
+	 * @return Returns the chunk x coordinate of the key.
+	 */
+	static int getX(long chunkKey) {
+		return (int) chunkKey;
+	}
+
+	/**
+	 * @param chunkKey A chunk key as emitted by this iterator.
+	 * @return Returns the chunk z coordinate of the key.
+	 */
+	static int getZ(long chunkKey) {
+		return (int) (chunkKey >>> 32);
+	}
+
+	/**
+	 * Loads the chunks of the given keys.
+	 *
+	 * @param world World the chunks are in.
+	 * @param keys Keys of the chunks.
+	 * @return Returns the chunks.
+	 */
+	static Collection<Chunk> toChunks(World world, PrimitiveIterator.OfLong keys) {
+		Collection<Chunk> chunks = new ArrayList<>();
+		while (keys.hasNext()) {
+			long key = keys.nextLong();
+			chunks.add(world.getChunkAt(getX(key), getZ(key)));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Wraps the given keys into pseudo chunks.
+	 *
+	 * @param world World the chunks are in.
+	 * @param keys Keys of the chunks.
+	 * @return Returns the pseudo chunks.
+	 */
+	static Collection<PseudoChunk> toPseudoChunks(World world, PrimitiveIterator.OfLong keys) {
+		Collection<PseudoChunk> chunks = new ArrayList<>();
+		while (keys.hasNext()) {
+			long key = keys.nextLong();
+			chunks.add(new PseudoChunk(world, getX(key), getZ(key)));
+		}
+		return chunks;
+	}
+
+	private boolean advance() {
+		while (true) {
+			if (x == maxX) {
+				if (z == maxZ) {
+					return false;
+				}
+				x = minX;
+				z++;
+			} else {
+				x++;
+			}
+			if (filter.test(x, z)) {
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	@Override
+	public long nextLong() {
+		if (!hasNext) {
+			throw new NoSuchElementException();
+		}
+		long key = Chunk.getChunkKey(x, z);
+		hasNext = advance();
+		return key;
+	}
+
+}
@@ -1,7 +1,7 @@
 package vg.civcraft.mc.civmodcore.world.model;
 
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.PrimitiveIterator;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
@@ -23,20 +23,25 @@ public class EllipseArea extends AbstractYLimitedArea {
 
 	@Override
 	public Collection<Chunk> getChunks() {
-		Collection<Chunk> chunks = new HashSet<>();
-		for (double x = center.getX() - xSize; x <= center.getX() + xSize; x += 16) {
-			for (double z = center.getZ() - zSize; z <= center.getZ() + zSize; z += 16) {
-				Chunk c = new Location(center.getWorld(), x, center.getY(), z).getChunk();
-				// if one of the corners is in the area the chunk is inside
-				if (isInArea(new Location(c.getWorld(), c.getX() * 16, 0, (c.getZ() * 16) + 15))
-						|| isInArea(new Location(c.getWorld(), c.getX() * 16, 0, c.getZ() * 16))
-						|| isInArea(new Location(c.getWorld(), (c.getX() * 16) + 15, 0, c.getZ() * 16))
-						|| isInArea(new Location(c.getWorld(), (c.getX() * 16) + 15, 0, (c.getZ() * 16) + 15))) {
-					chunks.add(c);
-				}
-			}
-		}
-		return chunks;
+		return ChunkKeyIterator.toChunks(getWorld(), getChunkKeys());
+	}
+
+	@Override
+	public PrimitiveIterator.OfLong getChunkKeys() {
+		double centerX = center.getX();
+		double centerZ = center.getZ();
+		return new ChunkKeyIterator(
+				Location.locToBlock(centerX - xSize) >> 4,
+				Location.locToBlock(centerZ - zSize) >> 4,
+				Location.locToBlock(centerX + xSize) >> 4,
+				Location.locToBlock(centerZ + zSize) >> 4,
+				(chunkX, chunkZ) -> {
+					// the chunk is (partially) inside if the point of it closest to the center is, which may lie
+					// anywhere within its last block
+					double xDist = centerX - Math.max(chunkX * 16, Math.min(Math.nextDown(chunkX * 16 + 16.0), centerX));
+					double zDist = centerZ - Math.max(chunkZ * 16, Math.min(Math.nextDown(chunkZ * 16 + 16.0), centerZ));
+					return ((xDist * xDist) / (xSize * xSize)) + ((zDist * zDist) / (zSize * zSize)) <= 1;
+				});
 	}
 
 	@Override
@@ -56,6 +61,37 @@ public class EllipseArea extends AbstractYLimitedArea {
 		return super.isInArea(loc) && ((xDist * xDist) / (xSize * xSize)) + ((zDist * zDist) / (zSize * zSize)) <= 1;
 	}
 
+	@Override
+	public boolean isInArea(int x, int y, int z) {
+		double xDist = center.getX() - x;
+		double zDist = center.getZ() - z;
+		return isInYBounds(y) && ((xDist * xDist) / (xSize * xSize)) + ((zDist * zDist) / (zSize * zSize)) <= 1;
+	}
+
+	@Override
+	public int isInArea(int[] x, int[] y, int[] z, boolean[] results) {
+		if (x.length != y.length || x.length != z.length || results.length < x.length) {
+			throw new IllegalArgumentException("Coordinate arrays must be of the same length and fit the results");
+		}
+		// hoisted so the loop only reads from the arrays
+		double centerX = center.getX();
+		double centerZ = center.getZ();
+		double xSizeSquared = xSize * xSize;
+		double zSizeSquared = zSize * zSize;
+		double minY = getLowerYBound();
+		double maxY = getUpperYBound();
+		int contained = 0;
+		for (int i = 0; i < x.length; i++) {
+			double xDist = centerX - x[i];
+			double zDist = centerZ - z[i];
+			boolean inside = minY <= y[i] && maxY >= y[i]
+					&& ((xDist * xDist) / xSizeSquared) + ((zDist * zDist) / zSizeSquared) <= 1;
+			results[i] = inside;
+			contained += inside ? 1 : 0;
+		}
+		return contained;
+	}
+
 	/**
 	 * @return Half of the diameter of this ellipse in x dimension
 	 */
@@ -72,20 +108,7 @@ public class EllipseArea extends AbstractYLimitedArea {
 
 	@Override
 	public Collection<PseudoChunk> getPseudoChunks() {
-		Collection<PseudoChunk> chunks = new HashSet<>();
-		for (int x = (int) (center.getX() - xSize); x <= center.getX() + xSize; x += 16) {
-			for (int z = (int) (center.getZ() - zSize); z <= center.getZ() + zSize; z += 16) {
-				PseudoChunk c = new PseudoChunk(center.getWorld(), x / 16, z / 16);
-				// if one of the corners is in the area the chunk is inside
-				if (isInArea(new Location(c.getWorld(), c.getX() * 16, 0, (c.getZ() * 16) + 15))
-						|| isInArea(new Location(c.getWorld(), c.getX() * 16, 0, c.getZ() * 16))
-						|| isInArea(new Location(c.getWorld(), (c.getX() * 16) + 15, 0, c.getZ() * 16))
-						|| isInArea(new Location(c.getWorld(), (c.getX() * 16) + 15, 0, (c.getZ() * 16) + 15))) {
-					chunks.add(c);
-				}
-			}
-		}
-		return chunks;
+		return ChunkKeyIterator.toPseudoChunks(getWorld(), getChunkKeys());
 	}
 
 }
@@ -1,6 +1,7 @@
 package vg.civcraft.mc.civmodcore.world.model;
 
 import java.util.Collection;
+import java.util.PrimitiveIterator;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
@@ -16,6 +17,50 @@ public interface IArea {
 	 */
 	boolean isInArea(Location loc);
 
+	/**
+	 * Checks whether the given block coordinates, taken to be in the world of this area, are inside the defined area.
+	 * Behaves like {@link #isInArea(Location)} for a location at exactly these coordinates, but does not need one to
+	 * be created
+	 *
+	 * @param x
+	 *            X coordinate to check
+	 * @param y
+	 *            Y coordinate to check
+	 * @param z
+	 *            Z coordinate to check
+	 * @return True if the given coordinates are inside the area, false if not
+	 */
+	default boolean isInArea(int x, int y, int z) {
+		return isInArea(new Location(getWorld(), x, y, z));
+	}
+
+	/**
+	 * Checks for every index of the given coordinate arrays whether the coordinates there are inside the defined area,
+	 * like {@link #isInArea(int, int, int)}, and writes the result to the same index of the result array
+	 *
+	 * @param x
+	 *            X coordinates to check
+	 * @param y
+	 *            Y coordinates to check
+	 * @param z
+	 *            Z coordinates to check
+	 * @param results
+	 *            Array to write the results to, at least as long as the coordinate arrays
+	 * @return How many of the coordinates are inside the area
+	 */
+	default int isInArea(int[] x, int[] y, int[] z, boolean[] results) {
+		if (x.length != y.length || x.length != z.length || results.length < x.length) {
+			throw new IllegalArgumentException("Coordinate arrays must be of the same length and fit the results");
+		}
+		int contained = 0;
+		for (int i = 0; i < x.length; i++) {
+			if (results[i] = isInArea(x[i], y[i], z[i])) {
+				contained++;
+			}
+		}
+		return contained;
+	}
+
 	/**
 	 * Collects all chunks which are (partially) inside the defined area. If the area contains an infinite amount of
 	 * chunks, this will return null
@@ -33,6 +78,21 @@ public interface IArea {
 	 */
 	Collection<PseudoChunk> getPseudoChunks();
 
+	/**
+	 * Lazily walks all chunks which are (partially) inside the defined area, without creating chunk or location
+	 * objects for them. The chunks are represented by their keys, packed like {@link Chunk#getChunkKey(int, int)}:
+	 * the x coordinate in the lower and the z coordinate in the upper 32 bits
+	 *
+	 * @return Keys of all chunks in the area or null in case of an infinite size
+	 */
+	default PrimitiveIterator.OfLong getChunkKeys() {
+		Collection<PseudoChunk> chunks = getPseudoChunks();
+		if (chunks == null) {
+			return null;
+		}
+		return chunks.stream().mapToLong(chunk -> Chunk.getChunkKey(chunk.getX(), chunk.getZ())).iterator();
+	}
+
 	/**
 	 * @return Center of this area
 	 */
@@ -0,0 +1,46 @@
+package vg.civcraft.mc.civmodcore.world.model;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.player.PlayerEvent;
+
+/**
+ * Called by an {@link AreaTracker} when a player left one of its areas, after the player's position moved out of it, or the player quit
+ */
+public class PlayerLeaveAreaEvent extends PlayerEvent {
+
+	private static final HandlerList handlers = new HandlerList();
+
+	public static HandlerList getHandlerList() {
+		return handlers;
+	}
+
+	private final AreaTracker tracker;
+	private final IArea area;
+
+	public PlayerLeaveAreaEvent(Player player, AreaTracker tracker, IArea area) {
+		super(player);
+		this.tracker = tracker;
+		this.area = area;
+	}
+
+	/**
+	 * @return The tracker the area is tracked by
+	 */
+	public AreaTracker getTracker() {
+		return tracker;
+	}
+
+	/**
+	 * @return The area the player left
+	 */
+	public IArea getArea() {
+		return area;
+	}
+
+	@Override
+	public HandlerList getHandlers() {
+		return handlers;
+	}
+
+}
@@ -1,7 +1,7 @@
 package vg.civcraft.mc.civmodcore.world.model;
 
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.PrimitiveIterator;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
@@ -23,15 +23,17 @@ public class RectangleArea extends AbstractYLimitedArea {
 
 	@Override
 	public Collection<Chunk> getChunks() {
-		Collection<Chunk> chunks = new HashSet<>();
-		for (double x = center.getX() - xSize; x <= center.getX() + xSize; x += 16) {
-			for (double z = center.getZ() - zSize; z <= center.getZ() + zSize; z += 16) {
-				chunks.add(new Location(center.getWorld(), x, center.getY(), z).getChunk());
-			}
-			// last one might have been skipped
-			chunks.add(new Location(center.getWorld(), x, center.getY(), center.getZ() + zSize).getChunk());
-		}
-		return chunks;
+		return ChunkKeyIterator.toChunks(getWorld(), getChunkKeys());
+	}
+
+	@Override
+	public PrimitiveIterator.OfLong getChunkKeys() {
+		return new ChunkKeyIterator(
+				Location.locToBlock(center.getX() - xSize) >> 4,
+				Location.locToBlock(center.getZ() - zSize) >> 4,
+				Location.locToBlock(center.getX() + xSize) >> 4,
+				Location.locToBlock(center.getZ() + zSize) >> 4,
+				(x, z) -> true);
 	}
 
 	@Override
@@ -43,6 +45,34 @@ public class RectangleArea extends AbstractYLimitedArea {
 				&& super.isInArea(loc);
 	}
 
+	@Override
+	public boolean isInArea(int x, int y, int z) {
+		return (center.getX() - xSize) <= x && (center.getX() + xSize) >= x && (center.getZ() - zSize) <= z
+				&& (center.getZ() + zSize) >= z && isInYBounds(y);
+	}
+
+	@Override
+	public int isInArea(int[] x, int[] y, int[] z, boolean[] results) {
+		if (x.length != y.length || x.length != z.length || results.length < x.length) {
+			throw new IllegalArgumentException("Coordinate arrays must be of the same length and fit the results");
+		}
+		// hoisted so the loop only reads from the arrays
+		double minX = center.getX() - xSize;
+		double maxX = center.getX() + xSize;
+		double minZ = center.getZ() - zSize;
+		double maxZ = center.getZ() + zSize;
+		double minY = getLowerYBound();
+		double maxY = getUpperYBound();
+		int contained = 0;
+		for (int i = 0; i < x.length; i++) {
+			boolean inside = minX <= x[i] && maxX >= x[i] && minZ <= z[i] && maxZ >= z[i] && minY <= y[i]
+					&& maxY >= y[i];
+			results[i] = inside;
+			contained += inside ? 1 : 0;
+		}
+		return contained;
+	}
+
 	@Override
 	public Location getCenter() {
 		return center;
@@ -69,15 +99,7 @@ public class RectangleArea extends AbstractYLimitedArea {
 
 	@Override
 	public Collection<PseudoChunk> getPseudoChunks() {
-		Collection<PseudoChunk> chunks = new HashSet<>();
-		for (int x = (int) (center.getX() - xSize); x <= center.getX() + xSize; x += 16) {
-			for (int z = (int) (center.getZ() - zSize); z <= center.getZ() + zSize; z += 16) {
-				chunks.add(new PseudoChunk(center.getWorld(), x / 16, z / 16));
-			}
-			// last one might have been skipped
-			chunks.add(new PseudoChunk(center.getWorld(), x / 16, ((int) (center.getZ() + zSize)) / 16));
-		}
-		return chunks;
+		return ChunkKeyIterator.toPseudoChunks(getWorld(), getChunkKeys());
 	}
 
 }
@@ -0,0 +1,181 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class DatabaseTests {
+
+	/**
+	 * Tests whether the circuit breaker opens after consecutive timeouts and closes again after a successful probe.
+	 */
+	@Test
+	public void testCircuitBreakerCycle() {
+		// Setup
+		final var breaker = new CircuitBreaker(2, 0L);
+		final var closed = new AtomicInteger();
+		breaker.setCloseListener(closed::incrementAndGet);
+		final var timeout = new SQLTransientConnectionException("timeout");
+		// Process
+		breaker.recordFailure(timeout);
+		Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.recordFailure(timeout);
+		Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		// open duration of zero, so the next request probes
+		Assertions.assertTrue(breaker.allowRequest());
+		Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.recordSuccess();
+		// Check
+		Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		Assertions.assertEquals(1, closed.get());
+	}
+
+	/**
+	 * Tests whether statement errors are ignored by the circuit breaker, and an open breaker refuses requests.
+	 */
+	@Test
+	public void testCircuitBreakerFailures() {
+		// Setup
+		final var breaker = new CircuitBreaker(1, 60_000L);
+		// Process
+		breaker.recordFailure(new SQLSyntaxErrorException("bad sql"));
+		Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.recordFailure(new SQLTransientConnectionException("timeout"));
+		// Check
+		Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assertions.assertFalse(breaker.allowRequest());
+	}
+
+	/**
+	 * Tests whether a half open breaker lets only a single probe through until that probe resolved.
+	 */
+	@Test
+	public void testCircuitBreakerSingleProbe() {
+		// Setup
+		final var breaker = new CircuitBreaker(1, 0L);
+		final var timeout = new SQLTransientConnectionException("timeout");
+		breaker.recordFailure(timeout);
+		// Process
+		Assertions.assertTrue(breaker.allowRequest());
+		Assertions.assertFalse(breaker.allowRequest());
+		Assertions.assertTrue(breaker.isRejecting());
+		// a statement error says nothing about the database, so another request may probe
+		breaker.recordFailure(new SQLSyntaxErrorException("bad sql"));
+		Assertions.assertTrue(breaker.allowRequest());
+		breaker.recordFailure(timeout);
+		Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assertions.assertTrue(breaker.allowRequest());
+		breaker.recordSuccess();
+		// Check
+		Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		Assertions.assertFalse(breaker.isRejecting());
+		Assertions.assertTrue(breaker.allowRequest());
+		Assertions.assertTrue(breaker.allowRequest());
+	}
+
+	/**
+	 * Tests whether retry delays stay within their exponentially growing bounds.
+	 */
+	@Test
+	public void testRetryDelayBounds() {
+		// Setup
+		final var policy = new RetryPolicy(5, 100L, 1000L);
+		// Check
+		for (int i = 0; i < 100; i++) {
+			Assertions.assertTrue(policy.delay(1) <= 100L);
+			Assertions.assertTrue(policy.delay(2) <= 200L);
+			Assertions.assertTrue(policy.delay(10) <= 1000L);
+			Assertions.assertTrue(policy.delay(10) >= 0L);
+		}
+		Assertions.assertEquals(0L, RetryPolicy.NONE.delay(1));
+	}
+
+	/**
+	 * Tests whether low priority work which has been waiting for long is started before newer high priority work.
+	 */
+	@Test
+	public void testExecutorPriorityAging() throws Exception {
+		// Setup
+		final var executor = new DatabaseExecutor(1, 16, Thread::new, 20L);
+		final var blocker = new CountDownLatch(1);
+		final var order = new ConcurrentLinkedQueue<QueryPriority>();
+		// Process
+		executor.submit(QueryPriority.HIGH, () -> blocker.await(5, TimeUnit.SECONDS));
+		final var low = executor.submit(QueryPriority.LOW, () -> order.add(QueryPriority.LOW));
+		// LOW counts as submitted 40ms later, so HIGH submitted after that has to wait for it
+		Thread.sleep(100L);
+		final var high = executor.submit(QueryPriority.HIGH, () -> order.add(QueryPriority.HIGH));
+		final var fresh = executor.submit(QueryPriority.LOW, () -> order.add(QueryPriority.LOW));
+		blocker.countDown();
+		CompletableFuture.allOf(low, high, fresh).get(5, TimeUnit.SECONDS);
+		executor.shutdown(1000L);
+		// Check
+		Assertions.assertEquals(List.of(QueryPriority.LOW, QueryPriority.HIGH, QueryPriority.LOW),
+				List.copyOf(order));
+	}
+
+	/**
+	 * Tests whether connections handed out by a datasource delegate to the pooled connection, and record their hold
+	 * time and return their quota permit only once.
+	 */
+	@Test
+	public void testDatasourceConnectionRelease() throws Exception {
+		// Setup
+		final var closed = new AtomicInteger();
+		final var statement = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+					throw new UnsupportedOperationException(method.getName());
+				});
+		final var raw = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, (proxy, method, args) -> switch (method.getName()) {
+					case "prepareStatement" -> statement;
+					case "close" -> closed.incrementAndGet();
+					default -> throw new UnsupportedOperationException(method.getName());
+				});
+		final var logger = Logger.getLogger("DatabaseTests");
+		final var metrics = new DatasourceMetrics("test", logger);
+		final var pool = new PoolMetrics("pool", logger);
+		final var quota = new Semaphore(0);
+		// Process
+		final var connection = new DatasourceConnection(raw, metrics, pool, quota);
+		final PreparedStatement prepared = connection.prepareStatement("UPDATE foo SET bar = 1;");
+		metrics.recordStatement("UPDATE foo SET bar = 1;", 1000L, connection.getPool());
+		connection.close();
+		connection.close();
+		// Check
+		final DatasourceMetrics.Snapshot snapshot = metrics.snapshot(false);
+		Assertions.assertSame(statement, prepared);
+		Assertions.assertTrue(connection.isClosed());
+		Assertions.assertEquals(1, closed.get());
+		Assertions.assertEquals(1, quota.availablePermits());
+		Assertions.assertEquals(1, snapshot.statements());
+		Assertions.assertEquals(1, snapshot.holds());
+	}
+
+	/**
+	 * Tests whether parameter placeholders are inlined for explaining, but question marks in quoted text are not.
+	 */
+	@Test
+	public void testQueryPlanParameterInlining() {
+		// Setup
+		final String sql = "SELECT `a?` FROM t WHERE x = ? AND y = '?' AND z = 'it\\'s ?' AND w IN (?, ?)";
+		// Process
+		final String inlined = QueryPlanAdvisor.inlineParameters(sql);
+		// Check
+		Assertions.assertEquals("SELECT `a?` FROM t WHERE x = '0' AND y = '?' AND z = 'it\\'s ?' AND w IN ('0', '0')",
+				inlined);
+	}
+
+}
@@ -0,0 +1,95 @@
+package vg.civcraft.mc.civmodcore.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+/**
+ * Compares running a {@link PreparedQuery} again and again, as DAOs do, without any statement caching, with the client
+ * side cache every pool uses and with the opt-in server side statements. Only runs when the environment variable
+ * CMC_BENCHMARK is set to true and CMC_BENCHMARK_JDBC_URL points to a scratch MySQL or MariaDB database, whose driver
+ * has to be on the test classpath. Credentials are read from CMC_BENCHMARK_USER and CMC_BENCHMARK_PASSWORD.
+ */
+@EnabledIfEnvironmentVariable(named = "CMC_BENCHMARK", matches = "true")
+@EnabledIfEnvironmentVariable(named = "CMC_BENCHMARK_JDBC_URL", matches = ".+")
+public class PreparedStatementBenchmark {
+
+	private static final int ROWS = 1_000;
+	private static final int QUERIES = 20_000;
+	private static final int ROUNDS = 5;
+
+	private static final PreparedQuery<Integer> GET_VALUE = PreparedQuery.of(
+			"SELECT value FROM cmc_benchmark_statements WHERE id = ?;", (row) -> row.getInt(1));
+
+	@Test
+	public void benchmarkStatementCaching() throws SQLException {
+		final var uncached = new Properties();
+		uncached.setProperty("cachePrepStmts", "false");
+		uncached.setProperty("useServerPrepStmts", "false");
+		try (final Connection connection = connect(uncached);
+			 final Statement statement = connection.createStatement()) {
+			statement.executeUpdate("DROP TABLE IF EXISTS cmc_benchmark_statements;");
+			statement.executeUpdate("CREATE TABLE cmc_benchmark_statements (id INT PRIMARY KEY, value INT NOT NULL);");
+			final var insert = PreparedUpdate.of("INSERT INTO cmc_benchmark_statements (id, value) VALUES (?, ?);");
+			for (int i = 0; i < ROWS; i++) {
+				final int id = i;
+				insert.execute(connection, (update) -> {
+					update.setInt(1, id);
+					update.setInt(2, id * 2);
+				});
+			}
+		}
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				System.out.printf("Round %d: uncached %.1f us, client cache %.1f us, server statements %.1f us%n",
+						round, run(uncached), run(ConnectionPool.statementCacheProperties(false)),
+						run(ConnectionPool.statementCacheProperties(true)));
+			}
+		}
+		finally {
+			try (final Connection connection = connect(uncached);
+				 final Statement statement = connection.createStatement()) {
+				statement.executeUpdate("DROP TABLE IF EXISTS cmc_benchmark_statements;");
+			}
+		}
+	}
+
+	/**
+	 * @return Returns the average time a query took in microseconds.
+	 */
+	private static double run(final Properties properties) throws SQLException {
+		long sum = 0;
+		try (final Connection connection = connect(properties)) {
+			final long start = System.nanoTime();
+			for (int i = 0; i < QUERIES; i++) {
+				final int id = i % ROWS;
+				sum += GET_VALUE.first(connection, (statement) -> statement.setInt(1, id));
+			}
+			final long elapsed = System.nanoTime() - start;
+			if (sum < 0) {
+				throw new IllegalStateException();
+			}
+			return (double) TimeUnit.NANOSECONDS.toMicros(elapsed) / QUERIES;
+		}
+	}
+
+	private static Connection connect(final Properties cacheProperties) throws SQLException {
+		final var properties = new Properties();
+		properties.putAll(cacheProperties);
+		final String user = System.getenv("CMC_BENCHMARK_USER");
+		if (user != null) {
+			properties.setProperty("user", user);
+		}
+		final String password = System.getenv("CMC_BENCHMARK_PASSWORD");
+		if (password != null) {
+			properties.setProperty("password", password);
+		}
+		return DriverManager.getConnection(System.getenv("CMC_BENCHMARK_JDBC_URL"), properties);
+	}
+
+}
@@ -0,0 +1,79 @@
+package vg.civcraft.mc.civmodcore.world;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import vg.civcraft.mc.civmodcore.world.locations.PackedPosition;
+
+public class WorldTests {
+
+	/**
+	 * A scattered selection of the blocks within a cube spanning several chunk sections, forming components of many
+	 * shapes.
+	 */
+	private static final FloodFill.BlockFilter SCATTERED = (x, y, z) -> Math.abs(x) < 24 && Math.abs(y) < 24
+			&& Math.abs(z) < 24 && ((x * 73856093) ^ (y * 19349663) ^ (z * 83492791)) % 7 < 4;
+
+	/**
+	 * Tests whether a parallel flood fill finds the same blocks as a sequential breadth first search.
+	 */
+	@Test
+	public void testFloodFillMatchesBreadthFirstSearch() {
+		// Setup
+		final var pool = new ForkJoinPool(4);
+		for (int seedX = -20; seedX <= 20; seedX += 10) {
+			final long seed = PackedPosition.block(seedX, 0, 0);
+			// Process
+			final FloodFill.Result result = FloodFill.fill(pool, new long[] { seed }, SCATTERED, Integer.MAX_VALUE);
+			// Check
+			final Set<Long> expected = breadthFirstSearch(seed);
+			Assertions.assertFalse(result.isTruncated());
+			Assertions.assertEquals(expected.size(), result.size());
+			for (final long position : expected) {
+				Assertions.assertTrue(result.getPositions().contains(position));
+			}
+		}
+		pool.shutdown();
+	}
+
+	/**
+	 * Tests whether a flood fill stops at its maximum volume and reports so.
+	 */
+	@Test
+	public void testFloodFillStopsAtMaxVolume() {
+		// Setup
+		final FloodFill.BlockFilter everything = (x, y, z) -> true;
+		// Process
+		final FloodFill.Result result = FloodFill.fill(ForkJoinPool.commonPool(),
+				new long[] { PackedPosition.block(0, 0, 0) }, everything, 10_000);
+		// Check
+		Assertions.assertTrue(result.isTruncated());
+		Assertions.assertEquals(10_000, result.size());
+	}
+
+	private static Set<Long> breadthFirstSearch(final long seed) {
+		final Set<Long> found = new HashSet<>();
+		final var queue = new ArrayDeque<Long>();
+		queue.add(seed);
+		while (!queue.isEmpty()) {
+			final long position = queue.poll();
+			final int x = PackedPosition.blockX(position);
+			final int y = PackedPosition.blockY(position);
+			final int z = PackedPosition.blockZ(position);
+			if (!SCATTERED.test(x, y, z) || !found.add(position)) {
+				continue;
+			}
+			queue.add(PackedPosition.block(x + 1, y, z));
+			queue.add(PackedPosition.block(x - 1, y, z));
+			queue.add(PackedPosition.block(x, y + 1, z));
+			queue.add(PackedPosition.block(x, y - 1, z));
+			queue.add(PackedPosition.block(x, y, z + 1));
+			queue.add(PackedPosition.block(x, y, z - 1));
+		}
+		return found;
+	}
+
+}
@@ -0,0 +1,123 @@
+package vg.civcraft.mc.civmodcore.world.locations;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LocationTests {
+
+	/**
+	 * Tests whether quad tree point queries match a brute force search, before and after removing boxes.
+	 */
+	@Test
+	public void testQuadTreeMatchesBruteForce() {
+		// Setup
+		final var random = new Random(42);
+		final var tree = new SparseQuadTree<QTBoxImpl>(2);
+		final List<QTBoxImpl> boxes = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			final int x = random.nextInt(2000) - 1000;
+			final int z = random.nextInt(2000) - 1000;
+			final var box = new QTBoxImpl(x, x + random.nextInt(50), z, z + random.nextInt(50));
+			boxes.add(box);
+			tree.add(box);
+		}
+		// Process
+		for (int i = 0; i < 250; i++) {
+			tree.remove(boxes.remove(boxes.size() - 1));
+		}
+		// Check
+		Assertions.assertEquals(boxes.size(), tree.size());
+		for (int i = 0; i < 2000; i++) {
+			final int x = random.nextInt(2100) - 1050;
+			final int z = random.nextInt(2100) - 1050;
+			final Set<QTBoxImpl> expected = new HashSet<>();
+			for (final QTBoxImpl box : boxes) {
+				if (box.qtXMin() <= x && box.qtXMax() >= x && box.qtZMin() <= z && box.qtZMax() >= z) {
+					expected.add(box);
+				}
+			}
+			Assertions.assertEquals(expected, tree.find(x, z));
+			Assertions.assertEquals(expected.isEmpty(), tree.findAny(x, z) == null);
+		}
+	}
+
+	/**
+	 * Tests whether packed R-tree point, range and nearest queries match a brute force search.
+	 */
+	@Test
+	public void testPackedRTreeMatchesBruteForce() {
+		// Setup
+		final var random = new Random(42);
+		final List<QTBoxImpl> boxes = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			final int x = random.nextInt(2000) - 1000;
+			final int z = random.nextInt(2000) - 1000;
+			boxes.add(new QTBoxImpl(x, x + random.nextInt(50), z, z + random.nextInt(50)));
+		}
+		// Process
+		final PackedRTree<QTBoxImpl> tree = PackedRTree.bulkLoad(boxes);
+		// Check
+		Assertions.assertEquals(boxes.size(), tree.size());
+		for (int i = 0; i < 500; i++) {
+			final int x = random.nextInt(2100) - 1050;
+			final int z = random.nextInt(2100) - 1050;
+			final int maxX = x + random.nextInt(100);
+			final int maxZ = z + random.nextInt(100);
+			final Set<QTBoxImpl> expectedPoint = new HashSet<>();
+			final Set<QTBoxImpl> expectedRange = new HashSet<>();
+			QTBoxImpl closest = null;
+			for (final QTBoxImpl box : boxes) {
+				if (box.qtXMin() <= x && box.qtXMax() >= x && box.qtZMin() <= z && box.qtZMax() >= z) {
+					expectedPoint.add(box);
+				}
+				if (box.qtXMin() <= maxX && box.qtXMax() >= x && box.qtZMin() <= maxZ && box.qtZMax() >= z) {
+					expectedRange.add(box);
+				}
+				if (closest == null || distanceSquared(box, x, z) < distanceSquared(closest, x, z)) {
+					closest = box;
+				}
+			}
+			final Set<QTBoxImpl> range = new HashSet<>();
+			tree.forEachIntersecting(x, z, maxX, maxZ, range::add);
+			Assertions.assertEquals(expectedPoint, tree.find(x, z));
+			Assertions.assertEquals(expectedRange, range);
+			Assertions.assertEquals(distanceSquared(closest, x, z), distanceSquared(tree.nearest(x, z, 1).get(0), x, z));
+		}
+	}
+
+	/**
+	 * Tests whether packed block and chunk positions unpack to the coordinates they were packed from.
+	 */
+	@Test
+	public void testPackedPositionRoundTrip() {
+		// Setup
+		final var random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			final int x = random.nextInt(60_000_000) - 30_000_000;
+			final int y = random.nextInt(384) - 64;
+			final int z = random.nextInt(60_000_000) - 30_000_000;
+			// Process
+			final long block = PackedPosition.block(x, y, z);
+			final long chunk = PackedPosition.chunkOf(block);
+			// Check
+			Assertions.assertEquals(x, PackedPosition.blockX(block));
+			Assertions.assertEquals(y, PackedPosition.blockY(block));
+			Assertions.assertEquals(z, PackedPosition.blockZ(block));
+			Assertions.assertEquals(x >> 4, PackedPosition.chunkX(chunk));
+			Assertions.assertEquals(z >> 4, PackedPosition.chunkZ(chunk));
+			Assertions.assertEquals(PackedPosition.block(x + 1, y - 1, z + 1), PackedPosition.offset(block, 1, -1, 1));
+		}
+	}
+
+	private static long distanceSquared(final QTBox box, final int x, final int z) {
+		final long dx = Math.max(0, Math.max(box.qtXMin() - x, x - box.qtXMax()));
+		final long dz = Math.max(0, Math.max(box.qtZMin() - z, z - box.qtZMax()));
+		return dx * dx + dz * dz;
+	}
+
+}
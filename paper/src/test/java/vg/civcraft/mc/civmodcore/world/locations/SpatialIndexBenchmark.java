@@ -0,0 +1,61 @@
+package vg.civcraft.mc.civmodcore.world.locations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+/**
+ * Compares loading and querying a {@link SparseQuadTree} against a {@link PackedRTree}. Only runs when the environment
+ * variable CMC_BENCHMARK is set to true, as it takes a while and its results are only meaningful on a quiet machine.
+ */
+@EnabledIfEnvironmentVariable(named = "CMC_BENCHMARK", matches = "true")
+public class SpatialIndexBenchmark {
+
+	private static final int BOXES = 50_000;
+	private static final int QUERIES = 1_000_000;
+	private static final int ROUNDS = 5;
+
+	@Test
+	public void benchmarkSpatialIndexes() {
+		final var random = new Random(42);
+		final List<QTBoxImpl> boxes = new ArrayList<>(BOXES);
+		for (int i = 0; i < BOXES; i++) {
+			final int x = random.nextInt(200_000) - 100_000;
+			final int z = random.nextInt(200_000) - 100_000;
+			boxes.add(new QTBoxImpl(x - 50, x + 50, z - 50, z + 50));
+		}
+		final int[] points = new int[QUERIES * 2];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = random.nextInt(200_000) - 100_000;
+		}
+		final var hits = new AtomicInteger();
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			final var quadTree = new SparseQuadTree<QTBoxImpl>();
+			boxes.forEach(quadTree::add);
+			final long quadTreeLoad = System.nanoTime() - start;
+			start = System.nanoTime();
+			final PackedRTree<QTBoxImpl> rTree = PackedRTree.bulkLoad(boxes);
+			final long rTreeLoad = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < points.length; i += 2) {
+				quadTree.forEach(points[i], points[i + 1], (box) -> hits.incrementAndGet());
+			}
+			final long quadTreeQuery = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < points.length; i += 2) {
+				rTree.forEach(points[i], points[i + 1], (box) -> hits.incrementAndGet());
+			}
+			final long rTreeQuery = System.nanoTime() - start;
+			System.out.printf("Round %d: load quad tree %d ms, R-tree %d ms | query quad tree %.1f ns, R-tree %.1f ns%n",
+					round, TimeUnit.NANOSECONDS.toMillis(quadTreeLoad), TimeUnit.NANOSECONDS.toMillis(rTreeLoad),
+					(double) quadTreeQuery / QUERIES, (double) rTreeQuery / QUERIES);
+		}
+		System.out.println("Hits: " + hits.get());
+	}
+
+}
@@ -0,0 +1,263 @@
+package vg.civcraft.mc.civmodcore.world.locations.chunkmeta;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMeta;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockBasedChunkMetaSnapshot;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.BlockDataObject;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.StorageEngine;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap.OffHeapBlockArenas;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap.OffHeapBlockCodec;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap.OffHeapBlockStorage;
+import vg.civcraft.mc.civmodcore.world.locations.chunkmeta.block.offheap.OffHeapStorageEngine;
+
+public class ChunkMetaTests {
+
+	private static final UUID WORLD_ID = UUID.randomUUID();
+	private static final World WORLD = (World) Proxy.newProxyInstance(World.class.getClassLoader(),
+			new Class<?>[] { World.class }, (proxy, method, args) -> switch (method.getName()) {
+				case "getUID" -> WORLD_ID;
+				case "equals" -> proxy == args[0];
+				case "hashCode" -> WORLD_ID.hashCode();
+				default -> throw new UnsupportedOperationException(method.getName());
+			});
+
+	private static final OffHeapBlockCodec<TestData> CODEC = new OffHeapBlockCodec<>() {
+		@Override
+		public int recordSize() {
+			return Integer.BYTES;
+		}
+
+		@Override
+		public void encode(final TestData data, final ByteBuffer buffer, final int offset) {
+			buffer.putInt(offset, data.value);
+		}
+
+		@Override
+		public TestData decode(final World world, final int x, final int y, final int z,
+							   final ByteBuffer buffer, final int offset) {
+			return new TestData(new Location(world, x, y, z), false, buffer.getInt(offset));
+		}
+	};
+
+	private static final OffHeapStorageEngine<TestData> OFF_HEAP_ENGINE = new OffHeapStorageEngine<>() {
+		@Override
+		public OffHeapBlockCodec<TestData> getOffHeapCodec() {
+			return CODEC;
+		}
+
+		@Override
+		public TestData getForLocation(final int x, final int y, final int z, final short worldID, final short pluginID) {
+			return null;
+		}
+
+		@Override
+		public void persist(final TestData data, final short worldID, final short pluginID) {
+		}
+
+		@Override
+		public Collection<XZWCoord> getAllDataChunks() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public boolean stayLoaded() {
+			return true;
+		}
+	};
+
+	/**
+	 * Tests whether data put into off-heap storage is read back unchanged across several pages, including after
+	 * overwriting and removing records, and whether freed records are reused.
+	 */
+	@Test
+	public void testOffHeapStorageRoundTrip() {
+		// Setup
+		final var storage = new OffHeapBlockStorage<>(WORLD, CODEC, 4);
+		final Map<Location, Integer> expected = new HashMap<>();
+		// Process
+		for (int i = 0; i < 10; i++) {
+			final var location = new Location(WORLD, i * 3 - 15, i * 40 - 64, -i);
+			storage.put(location.getBlockX(), location.getBlockY(), location.getBlockZ(),
+					new TestData(location, false, i * 1000));
+			expected.put(location, i * 1000);
+		}
+		storage.put(-15, -64, 0, new TestData(new Location(WORLD, -15, -64, 0), false, -7));
+		expected.put(new Location(WORLD, -15, -64, 0), -7);
+		final long reserved = storage.getReservedBytes();
+		Assertions.assertTrue(storage.remove(-12, -24, -1));
+		Assertions.assertFalse(storage.remove(-12, -24, -1));
+		expected.remove(new Location(WORLD, -12, -24, -1));
+		storage.put(100, 300, 100, new TestData(new Location(WORLD, 100, 300, 100), false, 42));
+		expected.put(new Location(WORLD, 100, 300, 100), 42);
+		// Check
+		Assertions.assertEquals(3 * 4 * Integer.BYTES, reserved);
+		Assertions.assertEquals(reserved, storage.getReservedBytes());
+		Assertions.assertEquals(expected.size(), storage.size());
+		Assertions.assertNull(storage.get(-12, -24, -1));
+		for (final var entry : expected.entrySet()) {
+			final Location location = entry.getKey();
+			final TestData data = storage.get(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+			Assertions.assertNotNull(data);
+			Assertions.assertEquals(entry.getValue(), data.value);
+			Assertions.assertEquals(location, data.getLocation());
+			Assertions.assertEquals(CacheState.NORMAL, data.getCacheState());
+		}
+		final Map<Location, Integer> visited = new HashMap<>();
+		storage.forEachRaw((x, y, z, buffer, offset) -> visited.put(new Location(WORLD, x, y, z), buffer.getInt(offset)));
+		Assertions.assertEquals(expected, visited);
+		storage.clear();
+		Assertions.assertEquals(0, storage.size());
+		Assertions.assertEquals(0, storage.getReservedBytes());
+	}
+
+	/**
+	 * Tests whether snapshots stay unchanged when the chunk meta is modified afterwards, including when writing to
+	 * parts of it which were already copied for an earlier snapshot, once a second snapshot was taken.
+	 */
+	@Test
+	public void testSnapshotCopyOnWrite() {
+		// Setup
+		final var meta = new TestChunkMeta();
+		final var first = data(1, 10, 1, 1);
+		final var second = data(1, 10, 2, 2);
+		final var third = data(5, 100, 3, 3);
+		meta.put(1, 10, 1, first, true);
+		meta.put(1, 10, 2, second, true);
+		meta.put(5, 100, 3, third, true);
+		// Process
+		final BlockBasedChunkMetaSnapshot<TestData> before = meta.snapshot();
+		final var fourth = data(1, 10, 3, 4);
+		final var replacement = data(5, 100, 3, 5);
+		meta.put(1, 10, 3, fourth, true);
+		meta.remove(second);
+		meta.put(5, 100, 3, replacement, true);
+		final BlockBasedChunkMetaSnapshot<TestData> between = meta.snapshot();
+		final var sixth = data(1, 10, 4, 6);
+		meta.put(1, 10, 4, sixth, true);
+		meta.remove(first);
+		// Check
+		Assertions.assertSame(first, before.get(1, 10, 1));
+		Assertions.assertSame(second, before.get(1, 10, 2));
+		Assertions.assertNull(before.get(1, 10, 3));
+		Assertions.assertNull(before.get(1, 10, 4));
+		Assertions.assertSame(third, before.get(5, 100, 3));
+
+		Assertions.assertSame(first, between.get(1, 10, 1));
+		Assertions.assertNull(between.get(1, 10, 2));
+		Assertions.assertSame(fourth, between.get(1, 10, 3));
+		Assertions.assertNull(between.get(1, 10, 4));
+		Assertions.assertSame(replacement, between.get(5, 100, 3));
+
+		Assertions.assertNull(meta.get(new Location(WORLD, 1, 10, 1)));
+		Assertions.assertNull(meta.get(new Location(WORLD, 1, 10, 2)));
+		Assertions.assertSame(fourth, meta.get(new Location(WORLD, 1, 10, 3)));
+		Assertions.assertSame(sixth, meta.get(new Location(WORLD, 1, 10, 4)));
+		Assertions.assertSame(replacement, meta.get(new Location(WORLD, 5, 100, 3)));
+	}
+
+	/**
+	 * Tests whether persisted data is read from off-heap records without being moved on heap, only moves on heap once
+	 * modified, moves back off-heap after a save and is moved on heap again when an instance handed out before the save
+	 * is modified, while modifying an outdated copy fails.
+	 */
+	@Test
+	public void testOffHeapPromoteDemoteCycle() {
+		// Setup
+		final var meta = new TestChunkMeta(OFF_HEAP_ENGINE);
+		// only accessible through the type declaring them, as the meta is in another package
+		final ChunkMeta<?> asChunkMeta = meta;
+		asChunkMeta.setChunkCoord(new ChunkCoord(0, 0, (short) 1, WORLD));
+		asChunkMeta.setPluginID((short) 1);
+		final var location = new Location(WORLD, 1, 10, 1);
+		try {
+			meta.put(1, 10, 1, new TestData(location, false, 1), false);
+			meta.put(2, 20, 2, new TestData(new Location(WORLD, 2, 20, 2), false, 2), false);
+			// Process
+			final TestData read = meta.get(location);
+			final TestData outdated = meta.get(location);
+			final BlockBasedChunkMetaSnapshot<TestData> snapshot = meta.snapshot();
+			final CacheState afterReads = meta.getCacheState();
+			read.setCacheState(CacheState.MODIFIED);
+			final TestData afterModification = meta.get(location);
+			final var outdatedFailure = Assertions.assertThrows(IllegalStateException.class,
+					() -> outdated.setCacheState(CacheState.MODIFIED));
+			// simulates a save outside of any transaction
+			read.setCacheState(CacheState.NORMAL);
+			meta.setCacheState(CacheState.NORMAL);
+			final TestData afterSave = meta.get(location);
+			read.setCacheState(CacheState.MODIFIED);
+			final TestData afterSecondModification = meta.get(location);
+			// Check
+			Assertions.assertNotNull(read);
+			Assertions.assertEquals(1, read.value);
+			Assertions.assertNotSame(read, outdated);
+			Assertions.assertEquals(CacheState.NORMAL, afterReads);
+			Assertions.assertEquals(1, snapshot.get(1, 10, 1).value);
+			Assertions.assertEquals(2, snapshot.get(2, 20, 2).value);
+			Assertions.assertSame(read, afterModification);
+			Assertions.assertNotNull(outdatedFailure);
+			Assertions.assertNotSame(read, afterSave);
+			Assertions.assertEquals(1, afterSave.value);
+			Assertions.assertSame(read, afterSecondModification);
+			Assertions.assertEquals(CacheState.MODIFIED, meta.getCacheState());
+			Assertions.assertFalse(meta.isEmpty());
+		}
+		finally {
+			OffHeapBlockArenas.clear();
+		}
+	}
+
+	private static TestData data(final int x, final int y, final int z, final int value) {
+		return new TestData(new Location(WORLD, x, y, z), true, value);
+	}
+
+	private static final class TestChunkMeta extends BlockBasedChunkMeta<TestData, StorageEngine> {
+
+		private TestChunkMeta() {
+			super(true, null);
+		}
+
+		private TestChunkMeta(final StorageEngine storage) {
+			super(false, storage);
+		}
+
+		@Override
+		public void delete() {
+		}
+
+		@Override
+		public void insert() {
+		}
+
+		@Override
+		public void update() {
+		}
+
+		@Override
+		public void populate() {
+		}
+
+	}
+
+	private static final class TestData extends BlockDataObject<TestData> {
+
+		private final int value;
+
+		private TestData(final Location location, final boolean isNew, final int value) {
+			super(location, isNew);
+			this.value = value;
+		}
+
+	}
+
+}
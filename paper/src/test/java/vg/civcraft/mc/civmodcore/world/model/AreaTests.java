@@ -0,0 +1,69 @@
+package vg.civcraft.mc.civmodcore.world.model;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class AreaTests {
+
+	private static final UUID WORLD_ID = UUID.randomUUID();
+	private static final World WORLD = (World) Proxy.newProxyInstance(World.class.getClassLoader(),
+			new Class<?>[] { World.class }, (proxy, method, args) -> switch (method.getName()) {
+				case "getUID" -> WORLD_ID;
+				case "equals" -> proxy == args[0];
+				case "hashCode" -> WORLD_ID.hashCode();
+				default -> throw new UnsupportedOperationException(method.getName());
+			});
+
+	/**
+	 * Tests whether area index lookups match testing every area, before and after removing areas.
+	 */
+	@Test
+	public void testAreaIndexMatchesBruteForce() {
+		// Setup
+		final var random = new Random(42);
+		final var index = new AreaIndex();
+		final List<IArea> areas = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			final var center = new Location(WORLD, random.nextInt(4000) - 2000, 64, random.nextInt(4000) - 2000);
+			final double xSize = 1 + random.nextInt(i % 20 == 0 ? 2000 : 200);
+			final double zSize = 1 + random.nextInt(200);
+			areas.add(random.nextBoolean()
+					? new EllipseArea(0, 128, center, xSize, zSize)
+					: new RectangleArea(0, 128, center, xSize, zSize));
+		}
+		areas.add(new GlobalYLimitedArea(100, 120, WORLD));
+		index.addAll(areas);
+		// Process
+		for (int i = 0; i < 50; i++) {
+			Assertions.assertTrue(index.remove(areas.remove(random.nextInt(areas.size()))));
+		}
+		// Check
+		Assertions.assertEquals(areas.size(), index.size());
+		for (int i = 0; i < 5000; i++) {
+			final int x = random.nextInt(4400) - 2200;
+			final int y = random.nextInt(140);
+			final int z = random.nextInt(4400) - 2200;
+			final Set<IArea> expected = new HashSet<>();
+			for (final IArea area : areas) {
+				if (area.isInArea(x, y, z)) {
+					expected.add(area);
+				}
+			}
+			final Set<IArea> found = new HashSet<>();
+			index.forEach(WORLD, x, y, z, found::add);
+			Assertions.assertEquals(expected, found);
+			Assertions.assertEquals(expected.isEmpty(), index.findAny(WORLD, x, y, z) == null);
+			Assertions.assertEquals(expected, new HashSet<>(index.getAreas(new Location(WORLD, x, y, z))));
+		}
+	}
+
+}